@@ -11,6 +11,7 @@ import org.miage.tpae.entities.OperationCompte;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -19,8 +20,10 @@ import java.util.List;
 
 /**
  * Application Spring Boot
+ * Les tâches périodiques (@Scheduled) sont activées
  */
 @SpringBootApplication
+@EnableScheduling
 public class TpaeApplication implements CommandLineRunner {
 
     /**
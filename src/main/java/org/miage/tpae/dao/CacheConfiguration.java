@@ -0,0 +1,49 @@
+package org.miage.tpae.dao;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.cache.jcache.internal.JCacheRegionFactory;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+
+/**
+ * Configuration des métriques du cache de second niveau d'Hibernate
+ * Le cache lui-même est activé dans application.properties (spring.jpa.properties.hibernate.cache.*)
+ * et la taille de chaque région est réglée dans application.conf (configuration de Caffeine JCache).
+ *
+ * Régions : client, compte, client-comptes (fixées par @Cache(region = ...) : un nom avec des points
+ * n'est pas trouvé dans application.conf), default-query-results-region (cache des requêtes)
+ * et default-update-timestamps-region (dates de modification des tables pour le cache des requêtes)
+ *
+ * Métriques exposées pour chaque région (tag "cache") :
+ * cache.gets (tag "result" : hit ou miss), cache.puts, cache.evictions et cache.removals
+ */
+@Configuration
+public class CacheConfiguration {
+
+    /**
+     * Enregistre les statistiques de chaque région du cache de second niveau
+     * (rien n'est enregistré si le cache n'est pas activé)
+     * @param entityManagerFactory la fabrique d'EntityManager d'Hibernate
+     * @return l'enregistreur des métriques
+     */
+    @Bean
+    public MeterBinder metriquesCacheSecondNiveau(EntityManagerFactory entityManagerFactory) {
+        return meterRegistry -> {
+            RegionFactory regionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                    .getCache().getRegionFactory();
+            if (!(regionFactory instanceof JCacheRegionFactory jCacheRegionFactory))
+                return;
+            CacheManager cacheManager = jCacheRegionFactory.getCacheManager();
+            for (String region : cacheManager.getCacheNames()) {
+                JCacheMetrics.monitor(meterRegistry, cacheManager.getCache(region), Tags.empty());
+            }
+        };
+    }
+}
@@ -1,21 +1,90 @@
 package org.miage.tpae.dao;
 
+import jakarta.persistence.QueryHint;
+import jakarta.persistence.criteria.Predicate;
+import org.hibernate.jpa.HibernateHints;
 import org.miage.tpae.entities.Client;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * DAO pour les entités représentant les clients de la Banque
  */
-public interface ClientRepository extends CrudRepository<Client, Long> {
+public interface ClientRepository extends CrudRepository<Client, Long>, JpaSpecificationExecutor<Client> {
 
     /**
      * Recherche des clients par prénom et nom
+     * Le résultat est dans le cache des requêtes : il est invalidé dès que la table des clients est modifiée
      * @param prenom le prénom
      * @param nom le nom
      * @return la liste des clients qui correspondent
      */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     List<Client> findByPrenomAndNom(String prenom, String nom);
 
+    /**
+     * Recherche un client avec ses comptes en une seule requête (jointure sur les comptes)
+     * @param id id du client
+     * @return le client et ses comptes s'il existe
+     */
+    @EntityGraph(attributePaths = "comptes")
+    Optional<Client> findAvecComptesById(long id);
+
+    /**
+     * Prénom et nom d'un client recherché
+     * @param prenom le prénom
+     * @param nom le nom
+     */
+    record PrenomNom(String prenom, String nom) {
+    }
+
+    /**
+     * Recherche des clients par couples (prénom, nom), en une seule requête
+     * (... where (nom = ? and prenom = ?) or (nom = ? and prenom = ?) ... : chaque couple est une recherche
+     * dans l'index idx_client_nom_prenom, on ne lit que les clients cherchés et pas tous ceux qui ont le même nom)
+     * @param cles les couples (prénom, nom)
+     * @return les clients qui correspondent à l'un des couples
+     */
+    default List<Client> findByPrenomNomIn(Collection<PrenomNom> cles) {
+        if (cles.isEmpty())
+            return List.of();
+        return findAll((Specification<Client>) (client, requete, cb) -> cb.or(cles.stream()
+                .map(cle -> cb.and(cb.equal(client.get("nom"), cle.nom()), cb.equal(client.get("prenom"), cle.prenom())))
+                .toArray(Predicate[]::new)));
+    }
+
+    /**
+     * Plus petit id de client
+     * @return le plus petit id, 0 s'il n'y a pas de client
+     */
+    @Query("select coalesce(min(c.id), 0) from Client c")
+    long idMin();
+
+    /**
+     * Plus grand id de client
+     * @return le plus grand id, 0 s'il n'y a pas de client
+     */
+    @Query("select coalesce(max(c.id), 0) from Client c")
+    long idMax();
+
+    /**
+     * Lot suivant de clients d'une plage pour les relevés : { id, nom, prénom } par id croissant
+     * (pagination sur curseur, sans charger les entités ni leurs comptes)
+     * @param apres id du dernier client déjà traité
+     * @param idClientMax plus grand id de client de la plage (inclus)
+     * @param limite nombre maximum de clients
+     * @return les clients suivants
+     */
+    @Query("select c.id, c.nom, c.prenom from Client c where c.id > :apres and c.id <= :idClientMax order by c.id")
+    List<Object[]> findLotPourReleves(@Param("apres") long apres, @Param("idClientMax") long idClientMax, Limit limite);
 }
@@ -1,11 +1,163 @@
 package org.miage.tpae.dao;
 
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.miage.tpae.entities.Compte;
-import org.springframework.data.repository.CrudRepository;
+import org.miage.tpae.export.CompteExport;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * DAO pour les entités de type Compte
+ * Note : on étend JpaRepository pour disposer de getReferenceById (référence sans lecture en base)
  */
-public interface CompteRepository extends CrudRepository<Compte, Long> {
+public interface CompteRepository extends JpaRepository<Compte, Long>, LectureParCurseur {
+
+    /**
+     * Recherche un compte en posant un verrou en écriture sur sa ligne (SELECT ... FOR UPDATE)
+     * Le verrou est conservé jusqu'à la fin de la transaction courante
+     * @param id id du compte
+     * @return le compte verrouillé s'il existe
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from Compte c where c.id = :id")
+    Optional<Compte> findByIdPourModification(@Param("id") long id);
+
+    /**
+     * Recherche un ensemble de comptes en verrouillant leurs lignes dans l'ordre croissant des ids
+     * L'ordre fixe évite les interblocages entre deux transactions qui verrouillent des comptes communs
+     * @param ids ids des comptes
+     * @return les comptes trouvés, triés par id
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from Compte c where c.id in :ids order by c.id")
+    List<Compte> findAllByIdPourModification(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Met à jour la date de dernière interrogation d'un compte si elle est plus récente
+     * La requête ne touche ni au solde ni à la version du compte : elle n'entre pas en conflit
+     * avec les débits et crédits en verrouillage optimiste.
+     * Le contexte de persistance est vidé (flush) avant et effacé après la requête
+     * C'est une requête SQL synchronisée sur un espace qui ne correspond à aucune entité : contrairement à une
+     * mise à jour JPQL, elle ne vide pas toute la région des comptes du cache de second niveau.
+     * L'appelant retire ensuite du cache les seuls comptes modifiés (cf. JournalConsultations).
+     * @param id id du compte
+     * @param date date de l'interrogation
+     * @return le nombre de comptes modifiés
+     */
+    default int majDateInterrogation(long id, Calendar date) {
+        return majDateInterrogation(id, new Timestamp(date.getTimeInMillis()));
+    }
+
+    /**
+     * Met à jour la date de dernière interrogation d'un compte si elle est plus récente (requête SQL)
+     * @param id id du compte
+     * @param date date de l'interrogation
+     * @return le nombre de comptes modifiés
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "compte_date_interrogation"))
+    @Query(value = "update compte set date_interrogation = :date where id = :id "
+            + "and (date_interrogation is null or date_interrogation < :date)", nativeQuery = true)
+    int majDateInterrogation(@Param("id") long id, @Param("date") Timestamp date);
+
+    /**
+     * Parcourt l'état de tous les comptes avec un curseur : { id, solde, actif, version } pour chaque compte
+     * Les lignes ne sont pas des entités gérées par JPA : la mémoire utilisée ne dépend pas du nombre de comptes.
+     * Le flux doit être consommé (puis fermé) dans une transaction.
+     * @return le flux des états des comptes
+     */
+    default Stream<Object[]> streamEtats() {
+        return lireParCurseur("select c.id, c.solde, c.actif, c.version from Compte c", Object[].class);
+    }
+
+    /**
+     * Récupère les comptes d'un client sans charger les entités (une seule requête, par id croissant)
+     * @param idClient id du client
+     * @return les comptes du client
+     */
+    @Query("""
+            select new org.miage.tpae.export.CompteExport(c.id, c.solde, c.actif, c.version, c.dateInterrogation)
+            from Compte c where c.client.id = :idClient order by c.id""")
+    List<CompteExport> findExportsByClientId(@Param("idClient") long idClient);
+
+    /**
+     * Récupère les détails d'un compte sans charger l'entité
+     * La ligne est lue en base, jamais dans le cache de second niveau : dans une transaction REPEATABLE READ,
+     * le solde est celui de l'instantané de la transaction.
+     * @param id id du compte
+     * @return le compte s'il existe
+     */
+    @Query("""
+            select new org.miage.tpae.export.CompteExport(c.id, c.solde, c.actif, c.version, c.dateInterrogation)
+            from Compte c where c.id = :id""")
+    Optional<CompteExport> findExportById(@Param("id") long id);
+
+    /**
+     * Plus petit id de compte
+     * @return le plus petit id, 0 s'il n'y a pas de compte
+     */
+    @Query("select coalesce(min(c.id), 0) from Compte c")
+    long idMin();
+
+    /**
+     * Plus grand id de compte
+     * @return le plus grand id, 0 s'il n'y a pas de compte
+     */
+    @Query("select coalesce(max(c.id), 0) from Compte c")
+    long idMax();
+
+    /**
+     * Soldes d'une plage de comptes pour le rapprochement : { id, solde } pour chaque compte, par id croissant
+     * Avec un repère, seuls les comptes ayant une opération écrite en base après sont retenus
+     * (index compte_id, dateEnregistrement des opérations)
+     * @param idCompteMin plus petit id de compte (inclus)
+     * @param idCompteMax plus grand id de compte (inclus)
+     * @param depuis repère : date d'écriture des opérations (null pour tous les comptes)
+     * @return les soldes des comptes
+     */
+    @Query("""
+            select c.id, c.solde from Compte c
+            where c.id between :idCompteMin and :idCompteMax
+            and (:depuis is null or exists (select o.id from OperationCompte o where o.compte = c and o.dateEnregistrement > :depuis))
+            order by c.id""")
+    List<Object[]> findSoldesPourRapprochement(@Param("idCompteMin") long idCompteMin,
+                                               @Param("idCompteMax") long idCompteMax, @Param("depuis") Instant depuis);
+
+    /**
+     * Lot suivant de comptes actifs d'une plage, par id croissant (pagination sur curseur)
+     * @param apres id du dernier compte déjà traité
+     * @param idCompteMax plus grand id de compte de la plage (inclus)
+     * @param limite nombre maximum de comptes
+     * @return les comptes suivants
+     */
+    @Query("select c from Compte c where c.id > :apres and c.id <= :idCompteMax and c.actif = true order by c.id")
+    List<Compte> findLotActifs(@Param("apres") long apres, @Param("idCompteMax") long idCompteMax, Limit limite);
 
+    /**
+     * Comptes d'une plage de clients pour les relevés : { id client, id, solde } par client puis par compte
+     * (une seule requête pour tout un lot de clients)
+     * @param idClientMin plus petit id de client (inclus)
+     * @param idClientMax plus grand id de client (inclus)
+     * @return les comptes des clients
+     */
+    @Query("""
+            select c.client.id, c.id, c.solde from Compte c
+            where c.client.id between :idClientMin and :idClientMax
+            order by c.client.id, c.id""")
+    List<Object[]> findPourReleves(@Param("idClientMin") long idClientMin, @Param("idClientMax") long idClientMax);
 }
@@ -0,0 +1,26 @@
+package org.miage.tpae.dao;
+
+import jakarta.persistence.LockModeType;
+import org.miage.tpae.entities.EvenementOperation;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+
+/**
+ * DAO pour la boîte d'envoi des opérations
+ */
+public interface EvenementOperationRepository extends JpaRepository<EvenementOperation, Long> {
+
+    /**
+     * Premiers événements à relayer, par date d'écriture puis par id, en verrouillant leurs lignes (SELECT ... FOR UPDATE)
+     * Un autre relais (autre instance) attend la fin de la transaction puis lit les événements suivants.
+     * @param limite nombre maximum d'événements
+     * @return les événements
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select e from EvenementOperation e order by e.dateEnregistrement, e.id")
+    List<EvenementOperation> findLotARelayer(Limit limite);
+}
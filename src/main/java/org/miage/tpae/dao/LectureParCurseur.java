@@ -0,0 +1,26 @@
+package org.miage.tpae.dao;
+
+import java.util.stream.Stream;
+
+/**
+ * Fragment des repositories pour les lectures de gros volumes avec un curseur
+ * Les lignes sont lues par paquets (fetch size banque.flux.taille-lot) et ne sont pas gérées par JPA :
+ * la mémoire utilisée ne dépend pas du nombre de lignes.
+ *
+ * La taille des paquets est réglée pour chaque requête, pas sur l'URL de la base partagée par toutes les requêtes.
+ * Avec MySQL, on utilise Integer.MIN_VALUE (-2147483648) : le pilote lit alors le résultat ligne à ligne
+ * sans curseur côté serveur ; aucune autre requête ne doit être faite sur la connexion tant que le flux est ouvert.
+ */
+public interface LectureParCurseur {
+
+    /**
+     * Exécute une requête JPQL en lecture seule et parcourt son résultat avec un curseur
+     * Le flux doit être consommé (puis fermé) dans une transaction.
+     * @param requete la requête JPQL
+     * @param type type des lignes
+     * @param parametres noms et valeurs des paramètres de la requête, alternés
+     * @return le flux des lignes
+     * @param <T> type des lignes
+     */
+    <T> Stream<T> lireParCurseur(String requete, Class<T> type, Object... parametres);
+}
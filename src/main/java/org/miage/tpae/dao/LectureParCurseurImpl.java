@@ -0,0 +1,44 @@
+package org.miage.tpae.dao;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.stream.Stream;
+
+/**
+ * Implémentation du fragment LectureParCurseur (trouvée par Spring Data grâce au suffixe Impl)
+ */
+class LectureParCurseurImpl implements LectureParCurseur {
+
+    /**
+     * EntityManager de la transaction en cours
+     */
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Nombre de lignes lues par paquet (Integer.MIN_VALUE avec MySQL : lecture ligne à ligne)
+     */
+    private final int tailleLot;
+
+    /**
+     * Constructeur pour l'injection
+     * @param tailleLot nombre de lignes lues par paquet
+     */
+    LectureParCurseurImpl(@Value("${banque.flux.taille-lot:1000}") int tailleLot) {
+        this.tailleLot = tailleLot;
+    }
+
+    @Override
+    public <T> Stream<T> lireParCurseur(String requete, Class<T> type, Object... parametres) {
+        TypedQuery<T> query = entityManager.createQuery(requete, type)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, tailleLot)
+                .setHint(HibernateHints.HINT_READ_ONLY, true);
+        for (int i = 0; i < parametres.length; i += 2)
+            query.setParameter((String) parametres[i], parametres[i + 1]);
+        return query.getResultStream();
+    }
+}
@@ -1,13 +1,184 @@
 package org.miage.tpae.dao;
 
 import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.TotalOperations;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * DAO pour les entités représentant les opérations
  */
-public interface OperationCompteRepository extends CrudRepository<OperationCompte, Long> {
+public interface OperationCompteRepository extends CrudRepository<OperationCompte, Long>, LectureParCurseur {
     Collection<OperationCompte> findAllByCompteId(long idCompte);
+
+    /**
+     * Récupère une page d'opérations d'un compte par pagination sur curseur (keyset)
+     * On repart de la dernière opération vue au lieu de compter les lignes à sauter (OFFSET) :
+     * le coût d'une page ne dépend pas de sa position dans l'historique (index compte_id, id)
+     * @param idCompte id du compte
+     * @param apres id de la dernière opération déjà lue (0 pour la première page)
+     * @param limite nombre maximum d'opérations
+     * @return les opérations suivantes par id croissant
+     */
+    @Query("""
+            select new org.miage.tpae.export.OperationExport(o.id, o.operationType, o.valeur, o.dateOperation, o.compte.id)
+            from OperationCompte o where o.compte.id = :idCompte and o.id > :apres order by o.id""")
+    List<OperationExport> findPageByCompteId(@Param("idCompte") long idCompte, @Param("apres") long apres, Limit limite);
+
+    /**
+     * Filtre des ids d'opérations : ne garde que celles du compte visibles dans la transaction courante
+     * @param idCompte id du compte
+     * @param ids ids des opérations (non vide)
+     * @return les ids présents en base
+     */
+    @Query("select o.id from OperationCompte o where o.compte.id = :idCompte and o.id in :ids")
+    List<Long> findIdsParmi(@Param("idCompte") long idCompte, @Param("ids") Collection<Long> ids);
+
+    /**
+     * Parcourt toutes les opérations d'un compte avec un curseur, par id croissant
+     * Les lignes sont lues par paquets (cf. LectureParCurseur) et ne sont pas gérées par JPA :
+     * la mémoire utilisée ne dépend pas de la longueur de l'historique.
+     * Le flux doit être consommé (puis fermé) dans une transaction.
+     * @param idCompte id du compte
+     * @return le flux des opérations
+     */
+    default Stream<OperationExport> streamByCompteId(long idCompte) {
+        return lireParCurseur("""
+                select new org.miage.tpae.export.OperationExport(o.id, o.operationType, o.valeur, o.dateOperation, o.compte.id)
+                from OperationCompte o where o.compte.id = :idCompte order by o.id""", OperationExport.class,
+                "idCompte", idCompte);
+    }
+
+    /**
+     * Nombre et somme des opérations d'un compte sur une période, par type
+     * Le calcul est fait en base (index compte_id, dateOperation) : aucune opération n'est lue
+     * @param idCompte id du compte
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @return un total par type d'opération présent sur la période
+     */
+    @Query("""
+            select new org.miage.tpae.export.TotalOperations(o.operationType, count(o), sum(o.valeur))
+            from OperationCompte o
+            where o.compte.id = :idCompte and o.dateOperation >= :debut and o.dateOperation < :fin
+            group by o.operationType order by o.operationType""")
+    List<TotalOperations> totauxParType(@Param("idCompte") long idCompte, @Param("debut") Calendar debut,
+                                        @Param("fin") Calendar fin);
+
+    /**
+     * Somme des mouvements d'un compte depuis une date (crédits moins débits)
+     * @param idCompte id du compte
+     * @param depuis date de début (incluse)
+     * @param credits types d'opérations qui augmentent le solde
+     * @param debits types d'opérations qui diminuent le solde
+     * @return la variation du solde depuis la date
+     */
+    @Query("""
+            select coalesce(sum(case when o.operationType in :credits then o.valeur
+                                     when o.operationType in :debits then -o.valeur
+                                     else 0.0 end), 0.0)
+            from OperationCompte o where o.compte.id = :idCompte and o.dateOperation >= :depuis""")
+    double sommeMouvementsDepuis(@Param("idCompte") long idCompte, @Param("depuis") Calendar depuis,
+                                 @Param("credits") Collection<OperationCompte.OperationType> credits,
+                                 @Param("debits") Collection<OperationCompte.OperationType> debits);
+
+    /**
+     * Parcourt avec un curseur les opérations d'une plage de comptes sur une période, par compte puis par id
+     * Comme streamByCompteId, les lignes sont lues par paquets et ne sont pas gérées par JPA.
+     * Le flux doit être consommé (puis fermé) dans une transaction.
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @param idCompteMin plus petit id de compte (inclus)
+     * @param idCompteMax plus grand id de compte (inclus)
+     * @return le flux des opérations
+     */
+    default Stream<OperationExport> streamPourExport(Calendar debut, Calendar fin, long idCompteMin, long idCompteMax) {
+        return lireParCurseur("""
+                select new org.miage.tpae.export.OperationExport(o.id, o.operationType, o.valeur, o.dateOperation, o.compte.id)
+                from OperationCompte o
+                where o.compte.id between :idCompteMin and :idCompteMax
+                and o.dateOperation >= :debut and o.dateOperation < :fin
+                order by o.compte.id, o.id""", OperationExport.class,
+                "debut", debut, "fin", fin, "idCompteMin", idCompteMin, "idCompteMax", idCompteMax);
+    }
+
+    /**
+     * Parcourt avec un curseur toutes les opérations d'une plage de comptes, par compte puis par id
+     * Avec un repère, seuls les comptes ayant une opération écrite en base après sont retenus,
+     * avec tout leur historique (cf. CompteRepository.findSoldesPourRapprochement).
+     * Comme streamByCompteId, les lignes sont lues par paquets et ne sont pas gérées par JPA.
+     * Le flux doit être consommé (puis fermé) dans une transaction.
+     * @param idCompteMin plus petit id de compte (inclus)
+     * @param idCompteMax plus grand id de compte (inclus)
+     * @param depuis repère : date d'écriture des opérations (null pour tous les comptes)
+     * @return le flux des opérations
+     */
+    default Stream<OperationExport> streamPourRapprochement(long idCompteMin, long idCompteMax, Instant depuis) {
+        return lireParCurseur("""
+                select new org.miage.tpae.export.OperationExport(o.id, o.operationType, o.valeur, o.dateOperation, o.compte.id)
+                from OperationCompte o
+                where o.compte.id between :idCompteMin and :idCompteMax
+                and (:depuis is null or exists (select r.id from OperationCompte r where r.compte = o.compte and r.dateEnregistrement > :depuis))
+                order by o.compte.id, o.id""", OperationExport.class,
+                "idCompteMin", idCompteMin, "idCompteMax", idCompteMax, "depuis", depuis);
+    }
+
+    /**
+     * Parcourt avec un curseur les opérations d'une plage de clients sur une période, par client, par compte puis par id
+     * Comme streamByCompteId, les lignes sont lues par paquets et ne sont pas gérées par JPA.
+     * Le flux doit être consommé (puis fermé) dans une transaction.
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @param idClientMin plus petit id de client (inclus)
+     * @param idClientMax plus grand id de client (inclus)
+     * @return le flux des opérations
+     */
+    default Stream<OperationExport> streamPourReleves(Calendar debut, Calendar fin, long idClientMin, long idClientMax) {
+        return lireParCurseur("""
+                select new org.miage.tpae.export.OperationExport(o.id, o.operationType, o.valeur, o.dateOperation, o.compte.id)
+                from OperationCompte o
+                where o.compte.client.id between :idClientMin and :idClientMax
+                and o.dateOperation >= :debut and o.dateOperation < :fin
+                order by o.compte.client.id, o.compte.id, o.id""", OperationExport.class,
+                "debut", debut, "fin", fin, "idClientMin", idClientMin, "idClientMax", idClientMax);
+    }
+
+    /**
+     * Mouvements des comptes d'une plage de clients depuis le début et depuis la fin d'une période
+     * (crédits moins débits) : { id compte, mouvements depuis le début, mouvements depuis la fin }
+     * Comme sommeMouvementsDepuis, mais pour tous les comptes d'un lot en une seule requête.
+     * Les comptes sans opération depuis le début de la période sont absents.
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @param idClientMin plus petit id de client (inclus)
+     * @param idClientMax plus grand id de client (inclus)
+     * @param credits types d'opérations qui augmentent le solde
+     * @param debits types d'opérations qui diminuent le solde
+     * @return les mouvements par compte
+     */
+    @Query("""
+            select o.compte.id,
+                   sum(case when o.operationType in :credits then o.valeur
+                            when o.operationType in :debits then -o.valeur
+                            else 0.0 end),
+                   sum(case when o.dateOperation < :fin then 0.0
+                            when o.operationType in :credits then o.valeur
+                            when o.operationType in :debits then -o.valeur
+                            else 0.0 end)
+            from OperationCompte o
+            where o.compte.client.id between :idClientMin and :idClientMax and o.dateOperation >= :debut
+            group by o.compte.id""")
+    List<Object[]> mouvementsPourReleves(@Param("debut") Calendar debut, @Param("fin") Calendar fin,
+                                         @Param("idClientMin") long idClientMin, @Param("idClientMax") long idClientMax,
+                                         @Param("credits") Collection<OperationCompte.OperationType> credits,
+                                         @Param("debits") Collection<OperationCompte.OperationType> debits);
 }
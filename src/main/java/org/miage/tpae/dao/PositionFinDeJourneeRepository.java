@@ -0,0 +1,20 @@
+package org.miage.tpae.dao;
+
+import org.miage.tpae.entities.PositionFinDeJournee;
+import org.springframework.data.repository.CrudRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * DAO pour l'avancement des traitements de fin de journée
+ */
+public interface PositionFinDeJourneeRepository extends CrudRepository<PositionFinDeJournee, String> {
+
+    /**
+     * Avancement des plages d'un jour
+     * @param jour le jour
+     * @return les plages du jour, par numéro
+     */
+    List<PositionFinDeJournee> findByJourOrderByPlage(LocalDate jour);
+}
@@ -0,0 +1,10 @@
+package org.miage.tpae.dao;
+
+import org.miage.tpae.entities.PositionImport;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * DAO pour l'avancement des imports de clients et de comptes
+ */
+public interface PositionImportRepository extends CrudRepository<PositionImport, String> {
+}
@@ -0,0 +1,10 @@
+package org.miage.tpae.dao;
+
+import org.miage.tpae.entities.PositionJournal;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * DAO pour l'avancement de l'écriture en base des journaux du moteur de comptes
+ */
+public interface PositionJournalRepository extends CrudRepository<PositionJournal, Integer> {
+}
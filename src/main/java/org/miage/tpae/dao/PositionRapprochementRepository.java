@@ -0,0 +1,10 @@
+package org.miage.tpae.dao;
+
+import org.miage.tpae.entities.PositionRapprochement;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * DAO pour le repère du dernier rapprochement des comptes
+ */
+public interface PositionRapprochementRepository extends CrudRepository<PositionRapprochement, Integer> {
+}
@@ -0,0 +1,19 @@
+package org.miage.tpae.dao;
+
+import org.miage.tpae.entities.PositionReleve;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.List;
+
+/**
+ * DAO pour l'avancement des générations de relevés mensuels
+ */
+public interface PositionReleveRepository extends CrudRepository<PositionReleve, String> {
+
+    /**
+     * Avancement des plages d'un mois
+     * @param mois le mois (par exemple 2026-03)
+     * @return les plages du mois, par numéro
+     */
+    List<PositionReleve> findByMoisOrderByPlage(String mois);
+}
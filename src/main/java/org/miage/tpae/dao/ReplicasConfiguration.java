@@ -0,0 +1,97 @@
+package org.miage.tpae.dao;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.transaction.autoconfigure.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Configuration des répliques en lecture (uniquement si banque.replicas.urls est renseigné)
+ * La base primaire est celle de spring.datasource.* ; les répliques utilisent le même pilote
+ * et les mêmes identifiants. Sans répliques, c'est la DataSource (et le gestionnaire de transactions)
+ * de Spring Boot qui est utilisée.
+ */
+@Configuration
+@ConditionalOnProperty(name = "banque.replicas.urls")
+public class ReplicasConfiguration {
+
+    /**
+     * DataSource de routage entre la base primaire et les répliques
+     * @param url URL de la base primaire
+     * @param username utilisateur des bases
+     * @param password mot de passe des bases
+     * @param pilote classe du pilote JDBC (déduite de l'URL si elle est vide)
+     * @param urls URLs des répliques
+     * @param retardMax retard maximum toléré pour une réplique
+     * @param meterRegistry registre des métriques
+     * @return la DataSource de routage
+     */
+    @Bean
+    public RoutageDataSource routageDataSource(@Value("${spring.datasource.url}") String url,
+                                               @Value("${spring.datasource.username:}") String username,
+                                               @Value("${spring.datasource.password:}") String password,
+                                               @Value("${spring.datasource.driver-class-name:}") String pilote,
+                                               @Value("${banque.replicas.urls}") List<String> urls,
+                                               @Value("${banque.replicas.retard-max:PT5S}") Duration retardMax,
+                                               MeterRegistry meterRegistry) {
+        DataSource primaire = dataSource(url, username, password, pilote);
+        List<DataSource> replicas = urls.stream().map(String::strip).filter(u -> !u.isEmpty())
+                .map(u -> dataSource(u, username, password, pilote)).toList();
+        return new RoutageDataSource(primaire, replicas, retardMax, meterRegistry);
+    }
+
+    /**
+     * DataSource de l'application : la connexion n'est obtenue (et la base choisie) qu'à la première requête SQL,
+     * une fois la transaction en place
+     * @param routageDataSource la DataSource de routage
+     * @return la DataSource de l'application
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(RoutageDataSource routageDataSource) {
+        return new LazyConnectionDataSourceProxy(routageDataSource);
+    }
+
+    /**
+     * Gestionnaire des transactions JPA : choisit la base des lectures dès le début de la transaction
+     * et retire du cache de second niveau les transactions servies par une réplique (cf. RoutageTransactionManager)
+     * @param entityManagerFactory fabrique des EntityManager
+     * @param routageDataSource la DataSource de routage
+     * @param customizers personnalisations de Spring Boot (spring.transaction.*)
+     * @return le gestionnaire de transactions
+     */
+    @Bean
+    public RoutageTransactionManager transactionManager(EntityManagerFactory entityManagerFactory,
+                                                       RoutageDataSource routageDataSource,
+                                                       ObjectProvider<TransactionManagerCustomizers> customizers) {
+        RoutageTransactionManager transactionManager = new RoutageTransactionManager(entityManagerFactory, routageDataSource);
+        customizers.ifAvailable(c -> c.customize(transactionManager));
+        return transactionManager;
+    }
+
+    /**
+     * Crée le pool de connexions d'une base
+     * @param url URL de la base
+     * @param username utilisateur
+     * @param password mot de passe
+     * @param pilote classe du pilote JDBC (déduite de l'URL si elle est vide)
+     * @return le pool de connexions
+     */
+    private static DataSource dataSource(String url, String username, String password, String pilote) {
+        DataSourceBuilder<?> builder = DataSourceBuilder.create().url(url).username(username).password(password);
+        if (!pilote.isEmpty())
+            builder.driverClassName(pilote);
+        return builder.build();
+    }
+}
@@ -0,0 +1,24 @@
+package org.miage.tpae.dao;
+
+import org.miage.tpae.entities.ReponseIdempotente;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+
+/**
+ * DAO pour les réponses enregistrées par clé d'idempotence
+ */
+public interface ReponseIdempotenteRepository extends CrudRepository<ReponseIdempotente, String> {
+
+    /**
+     * Supprime les réponses créées avant une date
+     * @param date date limite
+     * @return le nombre de réponses supprimées
+     */
+    @Modifying
+    @Query("delete from ReponseIdempotente r where r.dateCreation < :date")
+    int supprimerAvant(@Param("date") Instant date);
+}
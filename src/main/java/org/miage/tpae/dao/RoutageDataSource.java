@@ -0,0 +1,226 @@
+package org.miage.tpae.dao;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * DataSource qui envoie les transactions en lecture seule (@Transactional(readOnly = true)) vers les répliques
+ * et tout le reste vers la base primaire (cf. ReplicasConfiguration)
+ * Le choix est fait à l'obtention de la connexion : il faut l'envelopper dans un LazyConnectionDataSourceProxy
+ * pour que la connexion ne soit obtenue qu'une fois la transaction (et son indicateur de lecture seule) en place.
+ *
+ * Retard des répliques : un battement (cf. BattementReplica) est écrit régulièrement dans la base primaire
+ * et relu sur chaque réplique. La date du battement lu est la position de la réplique : elle a reçu
+ * toutes les écritures validées avant. Une réplique n'est utilisée que si sa position a moins de
+ * banque.replicas.retard-max (qui doit donc être plus grand que l'intervalle des battements).
+ *
+ * Lire ses écritures : après une transaction d'écriture validée pendant une requête HTTP, les lectures
+ * du même appelant (utilisateur authentifié, sinon adresse) ne vont que sur les répliques dont la position
+ * est postérieure à cette écriture, sinon sur la base primaire. Les écritures des threads de fond
+ * (journaux, moteur) n'épinglent personne. Les dates sont celles de l'horloge de l'application :
+ * avec plusieurs instances, leurs horloges doivent être synchronisées.
+ *
+ * Cache de second niveau : une réplique peut être en retard sur le cache, partagé avec les écritures.
+ * Avec JPA, la base d'une transaction en lecture seule est donc choisie dès son début (cf. RoutageTransactionManager)
+ * et une transaction servie par une réplique n'utilise pas le cache. Une lecture seule sans base choisie
+ * (autre gestionnaire de transactions) la choisit à sa première requête.
+ *
+ * Métriques exposées : banque.replicas.retard (en ms, tag "replica")
+ */
+public class RoutageDataSource extends AbstractRoutingDataSource {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(RoutageDataSource.class);
+
+    /**
+     * Clé de la base primaire
+     */
+    static final String PRIMAIRE = "primaire";
+
+    /**
+     * Préfixe des clés des répliques (suivi du numéro de la réplique)
+     */
+    static final String REPLICA = "replica-";
+
+    /**
+     * Accès JDBC direct à la base primaire (battements)
+     */
+    private final JdbcTemplate jdbcPrimaire;
+
+    /**
+     * Accès JDBC direct aux répliques (lecture des battements)
+     */
+    private final List<JdbcTemplate> jdbcReplicas;
+
+    /**
+     * Retard maximum toléré pour une réplique (en ms)
+     */
+    private final long retardMax;
+
+    /**
+     * Position de chaque réplique : date du dernier battement reçu (0 si elle est indisponible)
+     */
+    private final AtomicLongArray positions;
+
+    /**
+     * Pour répartir les lectures entre les répliques à jour
+     */
+    private final AtomicInteger suivante = new AtomicInteger();
+
+    /**
+     * Date de la dernière écriture validée de chaque appelant
+     */
+    private final Map<String, Long> ecritures = new ConcurrentHashMap<>();
+
+    /**
+     * Constructeur
+     * @param primaire base primaire
+     * @param replicas répliques
+     * @param retardMax retard maximum toléré pour une réplique
+     * @param meterRegistry registre des métriques
+     */
+    public RoutageDataSource(DataSource primaire, List<DataSource> replicas, Duration retardMax, MeterRegistry meterRegistry) {
+        Map<Object, Object> cibles = new HashMap<>();
+        cibles.put(PRIMAIRE, primaire);
+        for (int i = 0; i < replicas.size(); i++)
+            cibles.put(REPLICA + i, replicas.get(i));
+        setTargetDataSources(cibles);
+        setDefaultTargetDataSource(primaire);
+        afterPropertiesSet();
+        this.jdbcPrimaire = new JdbcTemplate(primaire);
+        this.jdbcReplicas = replicas.stream().map(JdbcTemplate::new).toList();
+        this.retardMax = retardMax.toMillis();
+        this.positions = new AtomicLongArray(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            int numero = i;
+            Gauge.builder("banque.replicas.retard", () -> {
+                        long position = positions.get(numero);
+                        return position == 0 ? Double.NaN : System.currentTimeMillis() - position;
+                    })
+                    .tag("replica", String.valueOf(i))
+                    .description("Retard de la réplique (ms)")
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Écrit un battement dans la base primaire puis relit la position de chaque réplique
+     */
+    @Scheduled(fixedDelayString = "${banque.replicas.intervalle:PT1S}")
+    public void surveiller() {
+        long maintenant = System.currentTimeMillis();
+        try {
+            if (jdbcPrimaire.update("update battement_replica set date_battement = ? where id = 1", maintenant) == 0)
+                jdbcPrimaire.update("insert into battement_replica (id, date_battement) values (1, ?)", maintenant);
+        } catch (DataAccessException e) {
+            logger.warn("Impossible d'écrire le battement des répliques", e);
+        }
+        for (int i = 0; i < jdbcReplicas.size(); i++) {
+            try {
+                Long position = jdbcReplicas.get(i).queryForObject(
+                        "select date_battement from battement_replica where id = 1", Long.class);
+                positions.set(i, position == null ? 0 : position);
+            } catch (DataAccessException e) {
+                if (positions.getAndSet(i, 0) != 0)
+                    logger.warn("Réplique {} indisponible", i, e);
+            }
+        }
+        // une écriture plus ancienne que le retard toléré ne change plus le choix des répliques
+        ecritures.values().removeIf(date -> date <= maintenant - retardMax);
+    }
+
+    /**
+     * Choisit la base de la connexion demandée
+     * @return la clé de la base primaire ou d'une réplique à jour
+     */
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String appelant = appelant();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            noterEcriture(appelant);
+            return PRIMAIRE;
+        }
+        Object choisie = TransactionSynchronizationManager.getResource(this);
+        return choisie != null ? choisie : choisirLecture(appelant);
+    }
+
+    /**
+     * Choisit la base d'une transaction en lecture seule
+     * @return la clé de la base primaire ou d'une réplique à jour
+     */
+    String choisirLecture() {
+        return choisirLecture(appelant());
+    }
+
+    /**
+     * Choisit la base d'une transaction en lecture seule
+     * @param appelant l'appelant (null en dehors d'une requête)
+     * @return la clé de la base primaire ou d'une réplique à jour
+     */
+    private String choisirLecture(String appelant) {
+        // position minimale : retard toléré, et dernière écriture de l'appelant
+        long minimum = System.currentTimeMillis() - retardMax;
+        Long ecriture = appelant == null ? null : ecritures.get(appelant);
+        if (ecriture != null)
+            minimum = Math.max(minimum, ecriture);
+        int nombre = positions.length();
+        int premiere = nombre == 0 ? 0 : Math.floorMod(suivante.getAndIncrement(), nombre);
+        for (int i = 0; i < nombre; i++) {
+            int numero = (premiere + i) % nombre;
+            if (positions.get(numero) >= minimum)
+                return REPLICA + numero;
+        }
+        return PRIMAIRE;
+    }
+
+    /**
+     * Note la date de validation de la transaction d'écriture en cours pour l'appelant
+     * @param appelant l'appelant (null : pas d'épinglage)
+     */
+    private void noterEcriture(String appelant) {
+        if (appelant == null || !TransactionSynchronizationManager.isSynchronizationActive())
+            return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                ecritures.put(appelant, System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Identifie l'appelant de la requête HTTP en cours
+     * @return le nom de l'utilisateur authentifié, sinon son adresse ; null en dehors d'une requête
+     */
+    private static String appelant() {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributs))
+            return null;
+        HttpServletRequest requete = attributs.getRequest();
+        Principal utilisateur = requete.getUserPrincipal();
+        return utilisateur != null ? utilisateur.getName() : requete.getRemoteAddr();
+    }
+}
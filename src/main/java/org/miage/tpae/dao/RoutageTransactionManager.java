@@ -0,0 +1,119 @@
+package org.miage.tpae.dao;
+
+import jakarta.persistence.CacheRetrieveMode;
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Gestionnaire de transactions JPA utilisé avec les répliques (cf. ReplicasConfiguration)
+ * La base d'une transaction en lecture seule est choisie dès son début (cf. RoutageDataSource) :
+ * si c'est une réplique, l'EntityManager de la transaction ne lit ni n'alimente le cache de second niveau.
+ * Sinon une ligne lue sur une réplique en retard (solde, version) serait mise en cache, par exemple juste après
+ * que JournalConsultations l'a retirée, et servie ensuite à toutes les transactions, écritures comprises.
+ *
+ * Les EntityManager ne sont pas partagés entre transactions (spring.jpa.open-in-view=false) :
+ * le mode du cache est tout de même rétabli à la fin de la transaction.
+ */
+public class RoutageTransactionManager extends JpaTransactionManager {
+
+    /**
+     * Propriétés JPA du mode du cache de second niveau
+     */
+    private static final String RETRIEVE_MODE = "jakarta.persistence.cache.retrieveMode";
+    private static final String STORE_MODE = "jakarta.persistence.cache.storeMode";
+
+    /**
+     * DataSource de routage, clé de la base choisie dans les ressources de la transaction
+     */
+    private final RoutageDataSource routage;
+
+    /**
+     * Constructeur
+     * @param entityManagerFactory fabrique des EntityManager
+     * @param routage DataSource de routage
+     */
+    public RoutageTransactionManager(EntityManagerFactory entityManagerFactory, RoutageDataSource routage) {
+        super(entityManagerFactory);
+        this.routage = routage;
+    }
+
+    /**
+     * Commence la transaction et, en lecture seule, choisit sa base
+     * @param transaction la transaction
+     * @param definition ses caractéristiques
+     */
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        super.doBegin(transaction, definition);
+        if (!definition.isReadOnly())
+            return;
+        String cle = routage.choisirLecture();
+        TransactionSynchronizationManager.bindResource(routage, cle);
+        if (cle.startsWith(RoutageDataSource.REPLICA)) {
+            EntityManager entityManager = entityManager();
+            entityManager.setProperty(RETRIEVE_MODE, CacheRetrieveMode.BYPASS);
+            entityManager.setProperty(STORE_MODE, CacheStoreMode.BYPASS);
+        }
+    }
+
+    /**
+     * Suspend la transaction : la base choisie est mise de côté avec elle
+     * @param transaction la transaction
+     * @return les ressources suspendues
+     */
+    @Override
+    protected Object doSuspend(Object transaction) {
+        Object ressources = super.doSuspend(transaction);
+        return new Suspendue(ressources, TransactionSynchronizationManager.unbindResourceIfPossible(routage));
+    }
+
+    /**
+     * Reprend une transaction suspendue et sa base
+     * @param transaction la transaction
+     * @param suspendedResources les ressources suspendues
+     */
+    @Override
+    protected void doResume(Object transaction, Object suspendedResources) {
+        Suspendue suspendue = (Suspendue) suspendedResources;
+        super.doResume(transaction, suspendue.ressources());
+        if (suspendue.cle() != null)
+            TransactionSynchronizationManager.bindResource(routage, suspendue.cle());
+    }
+
+    /**
+     * Libère la base choisie et rétablit le mode du cache avant de terminer la transaction
+     * @param transaction la transaction
+     */
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        Object cle = TransactionSynchronizationManager.unbindResourceIfPossible(routage);
+        if (cle != null && cle.toString().startsWith(RoutageDataSource.REPLICA)) {
+            EntityManager entityManager = entityManager();
+            entityManager.setProperty(RETRIEVE_MODE, CacheRetrieveMode.USE);
+            entityManager.setProperty(STORE_MODE, CacheStoreMode.USE);
+        }
+        super.doCleanupAfterCompletion(transaction);
+    }
+
+    /**
+     * EntityManager de la transaction en cours
+     * @return l'EntityManager
+     */
+    private EntityManager entityManager() {
+        EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager.getResource(obtainEntityManagerFactory());
+        return holder.getEntityManager();
+    }
+
+    /**
+     * Ressources d'une transaction suspendue
+     * @param ressources celles de JpaTransactionManager
+     * @param cle base choisie (null si aucune)
+     */
+    private record Suspendue(Object ressources, Object cle) {
+    }
+}
@@ -0,0 +1,29 @@
+package org.miage.tpae.entities;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entité représentant le battement écrit régulièrement dans la base primaire pour mesurer le retard des répliques
+ * (cf. RoutageDataSource) : une réplique qui lit la date d'un battement a reçu toutes les écritures validées avant.
+ * La table n'a qu'une ligne (id 1), écrite et lue directement en JDBC.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BattementReplica {
+    /**
+     * Id de la ligne (toujours 1)
+     */
+    @Id
+    private Integer id;
+
+    /**
+     * Date du battement (en ms depuis l'époque, horloge de l'application)
+     */
+    private long dateBattement;
+}
@@ -6,21 +6,32 @@ import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.List;
 
 /**
  * Entités représentant les Clients de la Banque
+ * Les clients et leurs listes de comptes sont dans le cache de second niveau (cf. CacheConfiguration)
  */
 @Entity
+@Table(indexes = {
+        // recherche par nom et prénom (création, import)
+        @Index(name = "idx_client_nom_prenom", columnList = "nom, prenom")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "client")
 @Data
 @NoArgsConstructor
 public class Client {
     /**
      * Id de l'entité
+     * Les ids sont réservés par blocs de 50 dans la séquence (cf. OperationCompte)
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "client_seq")
+    @SequenceGenerator(name = "client_seq", sequenceName = "client_seq", allocationSize = 50)
     @Schema(description = "Id du client", example = "1")
     private Long id;
 
@@ -42,6 +53,7 @@ public class Client {
      * Liste des comptes du client
      */
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "client")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "client-comptes")
     @JsonManagedReference // on inclura les comptes en JSON
     @Schema(description = "Liste des comptes d'un client", example = "")
     private List<Compte> comptes;
@@ -53,11 +65,11 @@ public class Client {
     @Override
     public String toString() {
         // attention aux cycles
+        // Ici on choisit de ne pas afficher les comptes (liste chargée à la demande)
         return "Client{" +
                 "id=" + id +
                 ", nom='" + nom + '\'' +
                 ", prenom='" + prenom + '\'' +
-                ", comptes=" + comptes +
                 '}';
     }
 }
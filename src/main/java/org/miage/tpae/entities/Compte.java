@@ -6,22 +6,29 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.Calendar;
 import java.util.List;
 
 /**
  * Entités représentant les Comptes de la Banque
+ * Les comptes sont dans le cache de second niveau (cf. CacheConfiguration)
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "compte")
 @Data
 @NoArgsConstructor
 public class Compte {
     /**
      * Id de l'entité
+     * Les ids sont réservés par blocs de 50 dans la séquence (cf. OperationCompte)
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "compte_seq")
+    @SequenceGenerator(name = "compte_seq", sequenceName = "compte_seq", allocationSize = 50)
     @Schema(description = "Id d'un compte", example = "1")
     private Long id;
 
@@ -37,10 +44,21 @@ public class Compte {
     @Schema(description = "Le compte est-il actif ou fermé ?", example = "true")
     private boolean actif = true;
 
+    /**
+     * Version de l'entité pour le verrouillage optimiste
+     * Elle est incrémentée par JPA à chaque mise à jour du compte
+     */
+    @Version
+    @Schema(description = "Version du compte (verrouillage optimiste)", example = "0")
+    private long version;
+
     /**
      * Date de dernière interrogation du compte
+     * Elle n'est écrite qu'à la création du compte et par CompteRepository.majDateInterrogation :
+     * la mise à jour d'un compte (éventuellement lu dans le cache) ne peut donc pas remettre une date plus ancienne.
      */
     @Temporal(TemporalType.TIMESTAMP)
+    @Column(updatable = false)
     @Schema(description = "Date de dernière interrogation du compte", example = "2026-03-13T08:38:20.296Z")
     private Calendar dateInterrogation;
 
@@ -70,6 +88,7 @@ public class Compte {
                 "id=" + id +
                 ", solde=" + solde +
                 ", actif=" + actif +
+                ", version=" + version +
                 ", dateInterrogation=" + dateInterrogation +
                 '}';
     }
@@ -0,0 +1,76 @@
+package org.miage.tpae.entities;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.Instant;
+
+/**
+ * Entité représentant une opération en attente de diffusion (boîte d'envoi, cf. BoiteEnvoi et RelaisEvenements)
+ * Elle est écrite dans la même transaction que l'opération, puis supprimée une fois relayée.
+ */
+@Entity
+@Table(indexes = {
+        // ordre de diffusion (cf. EvenementOperationRepository.findLotARelayer)
+        @Index(name = "idx_evenement_operation_enregistrement", columnList = "dateEnregistrement, id")
+})
+@Data
+@NoArgsConstructor
+public class EvenementOperation {
+    /**
+     * Id de l'entité
+     * Les ids sont réservés par blocs de 500 dans la séquence (cf. OperationCompte) : ils ne suivent pas l'ordre
+     * de validation des transactions entre instances, ils ne départagent que les événements de même date d'écriture.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "evenement_operation_seq")
+    @SequenceGenerator(name = "evenement_operation_seq", sequenceName = "evenement_operation_seq", allocationSize = 500)
+    private Long id;
+
+    /**
+     * Id de l'opération
+     */
+    private long idOperation;
+
+    /**
+     * Id du compte
+     */
+    private long idCompte;
+
+    /**
+     * Type de l'opération
+     */
+    @Enumerated(EnumType.STRING)
+    private OperationCompte.OperationType operationType;
+
+    /**
+     * Valeur de l'opération
+     */
+    private double valeur;
+
+    /**
+     * Date de l'opération
+     */
+    private Instant dateOperation;
+
+    /**
+     * Date d'écriture en base (à l'insertion) : ordre de diffusion (cf. RelaisEvenements)
+     * Nulle pour les événements écrits avant son ajout (diffusés en premier)
+     */
+    @CreationTimestamp
+    private Instant dateEnregistrement;
+
+    /**
+     * Constructeur
+     * @param operation l'opération enregistrée (son id est connu)
+     */
+    public EvenementOperation(OperationCompte operation) {
+        this.idOperation = operation.getId();
+        this.idCompte = operation.getCompte().getId();
+        this.operationType = operation.getOperationType();
+        this.valeur = operation.getValeur();
+        this.dateOperation = operation.getDateOperation().toInstant();
+    }
+}
@@ -1,11 +1,14 @@
 package org.miage.tpae.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
 
+import java.time.Instant;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
@@ -13,6 +16,14 @@ import java.util.GregorianCalendar;
  * Entité représentant les opérations sur un compte
  */
 @Entity
+@Table(indexes = {
+        // historique d'un compte par id croissant (pagination sur curseur)
+        @Index(name = "idx_operation_compte_compte_id", columnList = "compte_id, id"),
+        // opérations d'un compte sur une période (relevés)
+        @Index(name = "idx_operation_compte_compte_id_date", columnList = "compte_id, dateOperation"),
+        // comptes modifiés depuis le dernier rapprochement (cf. RapprochementComptes)
+        @Index(name = "idx_operation_compte_compte_id_enregistrement", columnList = "compte_id, dateEnregistrement")
+})
 @Data
 @NoArgsConstructor
 public class OperationCompte {
@@ -25,9 +36,14 @@ public class OperationCompte {
 
     /**
      * Id de l'entité
+     * Les ids sont réservés par blocs de 500 dans la séquence (optimiseur "pooled") :
+     * Hibernate n'interroge la séquence qu'une fois par bloc et peut regrouper les INSERT en lots JDBC.
+     * Attention : changer allocationSize sur une base existante nécessite de repositionner la séquence
+     * (cf. src/main/resources/db/migration-sequences.sql)
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "operation_compte_seq")
+    @SequenceGenerator(name = "operation_compte_seq", sequenceName = "operation_compte_seq", allocationSize = 500)
     @Schema(description = "Id de l'opération", example = "1")
     private Long id;
 
@@ -54,6 +70,17 @@ public class OperationCompte {
     @Schema(description = "Date de l'opération", example = "2026-03-13T08:40:40.539Z")
     private Calendar dateOperation;
 
+    /**
+     * Date d'écriture en base (à l'insertion, juste avant la validation de la transaction)
+     * Contrairement aux ids (réservés par blocs) et à la date de l'opération (qui peut précéder de beaucoup
+     * son écriture, cf. MoteurComptes), elle suit l'ordre de validation à la durée d'une transaction près :
+     * c'est le repère du rapprochement incrémental (cf. RapprochementComptes). Nulle pour les opérations
+     * écrites avant son ajout.
+     */
+    @CreationTimestamp
+    @JsonIgnore
+    private Instant dateEnregistrement;
+
     /**
      * Compte sur lequel l'opération a eu lieu
      */
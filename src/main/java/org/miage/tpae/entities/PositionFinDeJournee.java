@@ -0,0 +1,53 @@
+package org.miage.tpae.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * Entité représentant l'avancement du traitement de fin de journée d'une plage de comptes (cf. FinDeJournee) :
+ * les comptes de la plage d'id inférieur ou égal à dernierTraite ont été traités pour ce jour.
+ * Elle est mise à jour dans la même transaction que les comptes et les opérations de chaque lot.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PositionFinDeJournee {
+    /**
+     * Id : jour et numéro de la plage (par exemple 2026-03-13/0)
+     */
+    @Id
+    @Column(length = 20)
+    private String id;
+
+    /**
+     * Jour traité
+     */
+    private LocalDate jour;
+
+    /**
+     * Numéro de la plage
+     */
+    private int plage;
+
+    /**
+     * Plus petit id de compte de la plage
+     */
+    private long premier;
+
+    /**
+     * Plus grand id de compte de la plage
+     */
+    private long dernier;
+
+    /**
+     * Plus grand id de compte de la plage déjà traité (premier - 1 au départ)
+     */
+    private long dernierTraite;
+}
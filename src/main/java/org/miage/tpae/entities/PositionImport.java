@@ -0,0 +1,31 @@
+package org.miage.tpae.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entité représentant l'avancement d'un import de clients et de comptes (cf. ImportClients) :
+ * les lignes du fichier d'indice inférieur à lignes sont en base.
+ * Elle est mise à jour dans la même transaction que les clients et comptes qu'elle confirme.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PositionImport {
+    /**
+     * Nom de l'import (choisi par l'appelant, un par fichier)
+     */
+    @Id
+    @Column(length = 100)
+    private String nom;
+
+    /**
+     * Nombre de lignes du fichier traitées (importées ou rejetées)
+     */
+    private long lignes;
+}
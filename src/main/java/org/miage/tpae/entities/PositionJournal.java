@@ -0,0 +1,29 @@
+package org.miage.tpae.entities;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entité représentant l'avancement de l'écriture en base du journal d'un shard du moteur de comptes
+ * (cf. MoteurComptes) : les entrées du journal d'indice inférieur à confirmees sont en base.
+ * Elle est mise à jour dans la même transaction que les opérations qu'elle confirme.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PositionJournal {
+    /**
+     * Numéro du shard
+     */
+    @Id
+    private Integer shard;
+
+    /**
+     * Nombre d'entrées du journal écrites en base
+     */
+    private long confirmees;
+}
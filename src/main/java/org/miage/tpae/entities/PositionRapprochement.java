@@ -0,0 +1,32 @@
+package org.miage.tpae.entities;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Entité représentant le repère du dernier rapprochement des comptes (cf. RapprochementComptes) :
+ * les comptes sans opération écrite en base après repere n'ont pas changé depuis.
+ * Une seule ligne (id 1), écrite à la fin d'un rapprochement réussi.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PositionRapprochement {
+    /**
+     * Id de la ligne (toujours 1)
+     */
+    @Id
+    private Integer id;
+
+    /**
+     * Début du dernier rapprochement moins la marge (cf. banque.rapprochement.marge) :
+     * toutes les opérations écrites en base avant étaient visibles par ce rapprochement
+     */
+    private Instant repere;
+}
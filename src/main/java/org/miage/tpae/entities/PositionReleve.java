@@ -0,0 +1,52 @@
+package org.miage.tpae.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entité représentant l'avancement de la génération des relevés mensuels d'une plage de clients (cf. RelevesMensuels) :
+ * les relevés des clients de la plage d'id inférieur ou égal à dernierTraite ont été écrits pour ce mois.
+ * Elle est mise à jour après l'écriture des fichiers de chaque lot.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PositionReleve {
+    /**
+     * Id : mois et numéro de la plage (par exemple 2026-03/0)
+     */
+    @Id
+    @Column(length = 20)
+    private String id;
+
+    /**
+     * Mois des relevés (par exemple 2026-03)
+     */
+    @Column(length = 7)
+    private String mois;
+
+    /**
+     * Numéro de la plage
+     */
+    private int plage;
+
+    /**
+     * Plus petit id de client de la plage
+     */
+    private long premier;
+
+    /**
+     * Plus grand id de client de la plage
+     */
+    private long dernier;
+
+    /**
+     * Plus grand id de client de la plage dont le relevé est écrit (premier - 1 au départ)
+     */
+    private long dernierTraite;
+}
@@ -0,0 +1,67 @@
+package org.miage.tpae.entities;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Entité représentant la réponse enregistrée pour une clé d'idempotence (en-tête Idempotency-Key)
+ * La ligne est créée avant de réaliser l'opération (solde null : opération en cours)
+ * puis complétée avec la position obtenue.
+ */
+@Entity
+@Table(indexes = {
+        // purge des réponses expirées
+        @Index(name = "idx_reponse_idempotente_date_creation", columnList = "dateCreation")
+})
+@Data
+@NoArgsConstructor
+public class ReponseIdempotente {
+    /**
+     * Longueur maximale d'une clé d'idempotence
+     */
+    public static final int LONGUEUR_CLE = 100;
+
+    /**
+     * Clé d'idempotence envoyée par le client
+     */
+    @Id
+    @Column(length = LONGUEUR_CLE)
+    private String cle;
+
+    /**
+     * Description de la requête (pour refuser une clé réutilisée pour une autre requête)
+     */
+    @Column(nullable = false)
+    private String requete;
+
+    /**
+     * Solde de la position obtenue (null tant que l'opération est en cours)
+     */
+    private Double solde;
+
+    /**
+     * Date de la position obtenue
+     */
+    private Instant dateInterrogation;
+
+    /**
+     * Date de création de la clé
+     */
+    @Column(nullable = false)
+    private Instant dateCreation;
+
+    /**
+     * Constructeur pour une opération qui commence
+     * @param cle la clé d'idempotence
+     * @param requete description de la requête
+     * @param dateCreation date de création de la clé
+     */
+    public ReponseIdempotente(String cle, String requete, Instant dateCreation) {
+        this.cle = cle;
+        this.requete = requete;
+        this.dateCreation = dateCreation;
+    }
+}
@@ -0,0 +1,36 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Permet de récupérer les détails d'un client et de ses comptes
+ * Construit dans la transaction de lecture : la sérialisation JSON ne charge plus rien depuis la base
+ */
+@Data
+@AllArgsConstructor
+public class ClientExport {
+    /**
+     * Id du client
+     */
+    @Schema(description = "Id du client", example = "1")
+    private long id;
+    /**
+     * Nom du client
+     */
+    @Schema(description = "Nom d'un client", example = "Dupont")
+    private String nom;
+    /**
+     * Prénom du client
+     */
+    @Schema(description = "Prénom d'un client", example = "Jean")
+    private String prenom;
+    /**
+     * Comptes du client
+     */
+    @Schema(description = "Liste des comptes d'un client")
+    private List<CompteExport> comptes;
+}
@@ -0,0 +1,40 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Calendar;
+
+/**
+ * Permet de récupérer les détails d'un compte sans charger l'entité (ni son client, ni ses opérations)
+ */
+@Data
+@AllArgsConstructor
+public class CompteExport {
+    /**
+     * Id du compte
+     */
+    @Schema(description = "Id d'un compte", example = "1")
+    private long id;
+    /**
+     * Solde du compte
+     */
+    @Schema(description = "Solde d'un compte", example = "1000")
+    private double solde;
+    /**
+     * Le compte est-il actif ou fermé ?
+     */
+    @Schema(description = "Le compte est-il actif ou fermé ?", example = "true")
+    private boolean actif;
+    /**
+     * Version du compte
+     */
+    @Schema(description = "Version du compte (verrouillage optimiste)", example = "0")
+    private long version;
+    /**
+     * Date de dernière interrogation du compte
+     */
+    @Schema(description = "Date de dernière interrogation du compte", example = "2026-03-13T08:38:20.296Z")
+    private Calendar dateInterrogation;
+}
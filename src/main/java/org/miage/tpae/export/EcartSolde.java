@@ -0,0 +1,33 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Écart entre le solde d'un compte et le solde recalculé à partir de ses opérations
+ */
+@Data
+@AllArgsConstructor
+public class EcartSolde {
+    /**
+     * Id du compte
+     */
+    @Schema(description = "Id du compte", example = "1")
+    private long idCompte;
+    /**
+     * Solde enregistré dans le compte
+     */
+    @Schema(description = "Solde du compte", example = "1000")
+    private double solde;
+    /**
+     * Solde recalculé à partir des opérations
+     */
+    @Schema(description = "Solde recalculé à partir des opérations", example = "900")
+    private double soldeRecalcule;
+    /**
+     * Nombre d'opérations du compte
+     */
+    @Schema(description = "Nombre d'opérations du compte", example = "12")
+    private long operations;
+}
@@ -0,0 +1,33 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * État d'un export des opérations lancé par l'API
+ */
+@Data
+@AllArgsConstructor
+public class EtatExport {
+    /**
+     * Identifiant de l'export (nom de son répertoire)
+     */
+    @Schema(description = "Identifiant de l'export", example = "3f1c2a9e-8f0b-4c59-9d8e-2b7e4c1d0a55")
+    private String id;
+    /**
+     * État : EN_COURS (en attente ou en cours), TERMINE ou ECHEC
+     */
+    @Schema(description = "État de l'export (EN_COURS, TERMINE ou ECHEC)", example = "EN_COURS")
+    private String etat;
+    /**
+     * Cause de l'échec (null sauf en cas d'échec)
+     */
+    @Schema(description = "Cause de l'échec", example = "Impossible d'écrire l'export dans exports/3f1c2a9e")
+    private String erreur;
+    /**
+     * Manifeste de l'export (null tant qu'il n'est pas terminé)
+     */
+    @Schema(description = "Manifeste de l'export terminé")
+    private ManifesteExport manifeste;
+}
@@ -0,0 +1,49 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Manifeste d'un export des opérations : période, fichiers produits, nombres de lignes et empreintes
+ * Il est aussi écrit dans le répertoire de l'export (manifeste.json)
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ManifesteExport {
+    /**
+     * Identifiant de l'export (nom de son répertoire)
+     */
+    @Schema(description = "Identifiant de l'export", example = "3f1c2a9e-8f0b-4c59-9d8e-2b7e4c1d0a55")
+    private String id;
+    /**
+     * Début de la période (inclus)
+     */
+    @Schema(description = "Début de la période (inclus)", example = "2026-03-01T00:00:00.000Z")
+    private Calendar debut;
+    /**
+     * Fin de la période (exclue)
+     */
+    @Schema(description = "Fin de la période (exclue)", example = "2026-04-01T00:00:00.000Z")
+    private Calendar fin;
+    /**
+     * Format des fichiers
+     */
+    @Schema(description = "Format des fichiers", example = "CSV")
+    private String format;
+    /**
+     * Nombre total d'opérations exportées
+     */
+    @Schema(description = "Nombre total d'opérations exportées", example = "4000000")
+    private long lignes;
+    /**
+     * Fichiers de l'export, par plage de comptes puis par ordre d'écriture
+     */
+    @Schema(description = "Fichiers de l'export")
+    private List<SegmentExport> segments;
+}
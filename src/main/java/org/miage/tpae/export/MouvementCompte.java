@@ -0,0 +1,23 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Permet de diffuser une opération enregistrée sur un compte et la position du compte qui en résulte
+ */
+@Data
+@AllArgsConstructor
+public class MouvementCompte {
+    /**
+     * L'opération enregistrée
+     */
+    @Schema(description = "Opération enregistrée")
+    private OperationExport operation;
+    /**
+     * Position du compte après l'opération
+     */
+    @Schema(description = "Position du compte après l'opération")
+    private Position position;
+}
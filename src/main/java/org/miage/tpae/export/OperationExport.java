@@ -0,0 +1,41 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.miage.tpae.entities.OperationCompte;
+
+import java.util.Calendar;
+
+/**
+ * Permet de récupérer les détails d'une opération sans charger l'entité (ni son compte)
+ */
+@Data
+@AllArgsConstructor
+public class OperationExport {
+    /**
+     * Id de l'opération
+     */
+    @Schema(description = "Id de l'opération", example = "1")
+    private long id;
+    /**
+     * Type de l'opération
+     */
+    @Schema(description = "Type de l'opération", example = "CREDIT")
+    private OperationCompte.OperationType operationType;
+    /**
+     * Valeur de l'opération
+     */
+    @Schema(description = "Valeur de l'opération", example = "1000")
+    private double valeur;
+    /**
+     * Date de l'opération
+     */
+    @Schema(description = "Date de l'opération", example = "2026-03-13T08:40:40.539Z")
+    private Calendar dateOperation;
+    /**
+     * Id du compte sur lequel l'opération a eu lieu
+     */
+    @Schema(description = "Id du compte", example = "1")
+    private long idCompte;
+}
@@ -0,0 +1,26 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Une page de l'historique des opérations d'un compte
+ * Pour obtenir la page suivante, il faut repasser la valeur de "suivant" dans le paramètre "apres"
+ */
+@Data
+@AllArgsConstructor
+public class PageOperations {
+    /**
+     * Opérations de la page, par id croissant
+     */
+    @Schema(description = "Opérations de la page, par id croissant")
+    private List<OperationExport> operations;
+    /**
+     * Curseur de la page suivante (id de la dernière opération) ou null s'il n'y en a plus
+     */
+    @Schema(description = "Curseur de la page suivante (null s'il n'y en a plus)", example = "42")
+    private Long suivant;
+}
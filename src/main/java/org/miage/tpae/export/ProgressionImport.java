@@ -0,0 +1,45 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Avancement d'un import de clients et de comptes, envoyé après chaque lot écrit en base
+ */
+@Data
+@AllArgsConstructor
+public class ProgressionImport {
+    /**
+     * Nom de l'import
+     */
+    @Schema(description = "Nom de l'import", example = "partenaire-2026-03")
+    private String nom;
+    /**
+     * Nombre de lignes du fichier traitées depuis le début de l'import (reprises comprises)
+     */
+    @Schema(description = "Nombre de lignes traitées depuis le début de l'import", example = "10000")
+    private long lignes;
+    /**
+     * Nombre de clients créés par cet appel
+     */
+    @Schema(description = "Nombre de clients créés", example = "9500")
+    private long clients;
+    /**
+     * Nombre de comptes ouverts par cet appel
+     */
+    @Schema(description = "Nombre de comptes ouverts", example = "9990")
+    private long comptes;
+    /**
+     * Numéros (à partir de 1, sans l'en-tête) des lignes rejetées du dernier lot
+     */
+    @Schema(description = "Numéros des lignes rejetées du dernier lot", example = "[42]")
+    private List<Long> rejets;
+    /**
+     * L'import est-il terminé ?
+     */
+    @Schema(description = "L'import est-il terminé ?", example = "false")
+    private boolean termine;
+}
@@ -0,0 +1,50 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * Résultat d'un traitement de fin de journée (intérêts et frais)
+ */
+@Data
+@AllArgsConstructor
+public class RapportFinDeJournee {
+    /**
+     * Jour traité
+     */
+    @Schema(description = "Jour traité", example = "2026-03-13")
+    private LocalDate jour;
+    /**
+     * Le traitement reprend-il un traitement interrompu ?
+     */
+    @Schema(description = "Reprise d'un traitement interrompu", example = "false")
+    private boolean reprise;
+    /**
+     * Nombre de comptes traités par ce lancement
+     */
+    @Schema(description = "Nombre de comptes traités", example = "1000000")
+    private long comptes;
+    /**
+     * Nombre d'opérations créées
+     */
+    @Schema(description = "Nombre d'opérations créées", example = "950000")
+    private long operations;
+    /**
+     * Total crédité (intérêts)
+     */
+    @Schema(description = "Total crédité", example = "12500.5")
+    private double credits;
+    /**
+     * Total débité (frais)
+     */
+    @Schema(description = "Total débité", example = "2000")
+    private double debits;
+    /**
+     * Durée du traitement en ms
+     */
+    @Schema(description = "Durée du traitement (ms)", example = "300000")
+    private long duree;
+}
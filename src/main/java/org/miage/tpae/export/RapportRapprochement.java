@@ -0,0 +1,56 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Résultat d'un rapprochement des soldes des comptes avec leurs opérations
+ */
+@Data
+@AllArgsConstructor
+public class RapportRapprochement {
+    /**
+     * Rapprochement incrémental (seulement les comptes modifiés depuis le repère) ou complet
+     */
+    @Schema(description = "Rapprochement incrémental ou complet", example = "true")
+    private boolean incremental;
+    /**
+     * Repère de départ : les comptes ayant une opération écrite en base après ont été vérifiés (null si complet)
+     */
+    @Schema(description = "Repère de départ (date d'écriture des opérations)", example = "2026-03-13T02:55:00Z")
+    private Instant depuis;
+    /**
+     * Nouveau repère : début du rapprochement moins la marge (banque.rapprochement.marge)
+     */
+    @Schema(description = "Nouveau repère (date d'écriture des opérations)", example = "2026-03-14T02:55:00Z")
+    private Instant jusqua;
+    /**
+     * Nombre de comptes vérifiés
+     */
+    @Schema(description = "Nombre de comptes vérifiés", example = "1000000")
+    private long comptes;
+    /**
+     * Nombre d'opérations rejouées
+     */
+    @Schema(description = "Nombre d'opérations rejouées", example = "40000000")
+    private long operations;
+    /**
+     * Nombre de comptes en écart
+     */
+    @Schema(description = "Nombre de comptes en écart", example = "0")
+    private long nombreEcarts;
+    /**
+     * Comptes en écart (les premiers, par id croissant, dans la limite de banque.rapprochement.ecarts-max)
+     */
+    @Schema(description = "Comptes en écart")
+    private List<EcartSolde> ecarts;
+    /**
+     * Durée du rapprochement en ms
+     */
+    @Schema(description = "Durée du rapprochement (ms)", example = "95000")
+    private long duree;
+}
@@ -0,0 +1,48 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Résultat d'une génération des relevés mensuels
+ */
+@Data
+@AllArgsConstructor
+public class RapportReleves {
+    /**
+     * Mois des relevés
+     */
+    @Schema(description = "Mois des relevés", example = "2026-03")
+    private String mois;
+    /**
+     * La génération reprend-elle une génération interrompue ?
+     */
+    @Schema(description = "Reprise d'une génération interrompue", example = "false")
+    private boolean reprise;
+    /**
+     * Nombre de relevés (clients) écrits par ce lancement
+     */
+    @Schema(description = "Nombre de relevés écrits", example = "500000")
+    private long clients;
+    /**
+     * Nombre de comptes figurant dans les relevés écrits
+     */
+    @Schema(description = "Nombre de comptes", example = "1000000")
+    private long comptes;
+    /**
+     * Nombre d'opérations figurant dans les relevés écrits
+     */
+    @Schema(description = "Nombre d'opérations", example = "20000000")
+    private long operations;
+    /**
+     * Répertoire des relevés du mois
+     */
+    @Schema(description = "Répertoire des relevés du mois", example = "releves/2026-03")
+    private String repertoire;
+    /**
+     * Durée de la génération en ms
+     */
+    @Schema(description = "Durée de la génération (ms)", example = "600000")
+    private long duree;
+}
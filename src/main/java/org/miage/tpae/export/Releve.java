@@ -0,0 +1,46 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Relevé d'un compte sur une période : soldes de début et de fin, totaux par type d'opération
+ */
+@Data
+@AllArgsConstructor
+public class Releve {
+    /**
+     * Id du compte
+     */
+    @Schema(description = "Id du compte", example = "1")
+    private long idCompte;
+    /**
+     * Début de la période (inclus)
+     */
+    @Schema(description = "Début de la période (inclus)", example = "2026-03-01T00:00:00.000Z")
+    private Calendar debut;
+    /**
+     * Fin de la période (exclue)
+     */
+    @Schema(description = "Fin de la période (exclue)", example = "2026-04-01T00:00:00.000Z")
+    private Calendar fin;
+    /**
+     * Solde au début de la période
+     */
+    @Schema(description = "Solde au début de la période", example = "1000")
+    private double soldeInitial;
+    /**
+     * Solde à la fin de la période
+     */
+    @Schema(description = "Solde à la fin de la période", example = "1200")
+    private double soldeFinal;
+    /**
+     * Nombre et somme des opérations de la période, par type
+     */
+    @Schema(description = "Nombre et somme des opérations de la période, par type")
+    private List<TotalOperations> totaux;
+}
@@ -0,0 +1,43 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Résultat d'un virement d'un lot de virements
+ */
+@Data
+@AllArgsConstructor
+public class ResultatVirement {
+    /**
+     * Numéro du virement dans le lot (à partir de 0)
+     */
+    @Schema(description = "Numéro du virement dans le lot", example = "0")
+    private long numero;
+    /**
+     * Id du compte débité
+     */
+    @Schema(description = "Id du compte débiteur", example = "1")
+    private long idCompteDebiteur;
+    /**
+     * Id du compte crédité
+     */
+    @Schema(description = "Id du compte du destinataire", example = "2")
+    private long idCompteDestinataire;
+    /**
+     * Valeur (somme) du virement
+     */
+    @Schema(description = "Valeur du virement", example = "123")
+    private double valeur;
+    /**
+     * Le virement a-t-il été effectué ?
+     */
+    @Schema(description = "Le virement a-t-il été effectué ?", example = "true")
+    private boolean effectue;
+    /**
+     * Erreur ayant empêché le virement (null si le virement a été effectué)
+     */
+    @Schema(description = "Erreur ayant empêché le virement")
+    private ErrorExport erreur;
+}
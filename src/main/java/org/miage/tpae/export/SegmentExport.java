@@ -0,0 +1,45 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Un fichier (compressé) d'un export des opérations
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SegmentExport {
+    /**
+     * Nom du fichier dans le répertoire de l'export
+     */
+    @Schema(description = "Nom du fichier", example = "operations-0-0.csv.gz")
+    private String fichier;
+    /**
+     * Plus petit id de compte des opérations du fichier
+     */
+    @Schema(description = "Plus petit id de compte des opérations du fichier", example = "1")
+    private long idCompteMin;
+    /**
+     * Plus grand id de compte des opérations du fichier
+     */
+    @Schema(description = "Plus grand id de compte des opérations du fichier", example = "4180")
+    private long idCompteMax;
+    /**
+     * Nombre d'opérations du fichier
+     */
+    @Schema(description = "Nombre d'opérations", example = "1000000")
+    private long lignes;
+    /**
+     * Taille du fichier compressé en octets
+     */
+    @Schema(description = "Taille du fichier compressé en octets", example = "20971520")
+    private long octets;
+    /**
+     * Empreinte SHA-256 du fichier compressé (hexadécimal)
+     */
+    @Schema(description = "Empreinte SHA-256 du fichier compressé", example = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08")
+    private String sha256;
+}
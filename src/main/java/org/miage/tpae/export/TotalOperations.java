@@ -0,0 +1,29 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.miage.tpae.entities.OperationCompte;
+
+/**
+ * Nombre et somme des opérations d'un type sur une période (calculés en base)
+ */
+@Data
+@AllArgsConstructor
+public class TotalOperations {
+    /**
+     * Type des opérations
+     */
+    @Schema(description = "Type des opérations", example = "CREDIT")
+    private OperationCompte.OperationType operationType;
+    /**
+     * Nombre d'opérations
+     */
+    @Schema(description = "Nombre d'opérations", example = "3")
+    private long nombre;
+    /**
+     * Somme des valeurs des opérations
+     */
+    @Schema(description = "Somme des valeurs des opérations", example = "1500")
+    private double total;
+}
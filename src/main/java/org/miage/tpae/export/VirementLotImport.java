@@ -0,0 +1,31 @@
+package org.miage.tpae.export;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Permet de préciser les détails d'un virement d'un lot de virements
+ * Contrairement à VirementImport, le compte de départ est précisé dans le corps
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class VirementLotImport {
+    /**
+     * Id du compte à débiter
+     */
+    @Schema(description = "Id du compte débiteur", example = "1")
+    private long idCompteDebiteur;
+    /**
+     * Id du compte destinataire
+     */
+    @Schema(description = "Id du compte du destinataire", example = "2")
+    private long idCompteDestinataire;
+    /**
+     * Valeur (somme) du virement
+     */
+    @Schema(description = "Valeur du virement", example = "123")
+    private double valeur;
+}
@@ -0,0 +1,363 @@
+package org.miage.tpae.exposition;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.export.MouvementCompte;
+import org.miage.tpae.export.Position;
+import org.miage.tpae.metier.OperationsEnregistrees;
+import org.miage.tpae.metier.PositionInitiale;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Diffusion en direct (Server-Sent Events) des mouvements des comptes, cf. GET /api/comptes/{id}/flux
+ * Les opérations ajoutées à la boîte d'envoi sont reçues après la validation de leur transaction
+ * (événement OperationsEnregistrees) puis distribuées aux abonnés du compte.
+ *
+ * Chaque abonné a sa propre file bornée (banque.flux.capacite événements) : le thread qui valide la transaction
+ * ne fait que déposer les mouvements dans les files, jamais d'écriture réseau. Un petit groupe de threads
+ * (banque.flux.threads) vide les files vers les clients ; une file n'est confiée qu'à un thread à la fois,
+ * l'ordre des événements d'un abonné est donc conservé.
+ * Un client trop lent (file pleine) est déconnecté : son EventSource se reconnecte et repart de la position courante.
+ * Un flux est fermé au bout de banque.flux.duree, le client se reconnecte de la même façon.
+ *
+ * L'abonné est inscrit avant la lecture de sa position : les mouvements reçus pendant la lecture sont mis de côté,
+ * puis déposés après la position, sauf ceux dont elle tient déjà compte (cf. ServiceCompte.lirePositionInitiale).
+ * Un mouvement validé avant la lecture mais reçu juste après qu'elle a relevé les opérations reçues
+ * est envoyé en double : le client le reconnaît à son id.
+ *
+ * Événements envoyés : "position" (Position, à l'abonnement) puis "operation" (MouvementCompte).
+ *
+ * Métriques exposées : banque.flux.abonnes, banque.flux.evenements, banque.flux.lents
+ */
+@Component
+public class FluxComptes {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(FluxComptes.class);
+
+    /**
+     * Abonnés par id de compte
+     */
+    private final ConcurrentHashMap<Long, Set<Abonne>> abonnes = new ConcurrentHashMap<>();
+
+    /**
+     * Threads d'envoi vers les clients
+     */
+    private final Executor envoi;
+
+    /**
+     * Nombre maximum d'événements en attente par abonné
+     */
+    private final int capacite;
+
+    /**
+     * Durée maximale d'un flux (ms)
+     */
+    private final long duree;
+
+    /**
+     * Nombre d'abonnés
+     */
+    private final AtomicInteger nombreAbonnes = new AtomicInteger();
+
+    /**
+     * Compteurs des événements mis en file et des abonnés déconnectés car trop lents
+     */
+    private final Counter evenements;
+    private final Counter lents;
+
+    /**
+     * Constructeur pour l'injection
+     * @param meterRegistry registre des métriques
+     * @param threads nombre de threads d'envoi
+     * @param capacite nombre maximum d'événements en attente par abonné
+     * @param duree durée maximale d'un flux
+     */
+    @Autowired
+    public FluxComptes(MeterRegistry meterRegistry,
+                       @Value("${banque.flux.threads:4}") int threads,
+                       @Value("${banque.flux.capacite:256}") int capacite,
+                       @Value("${banque.flux.duree:PT30M}") Duration duree) {
+        this(executeur(threads), meterRegistry, capacite, duree);
+    }
+
+    /**
+     * Constructeur avec les threads d'envoi fournis (pour les tests)
+     * @param envoi threads d'envoi
+     * @param meterRegistry registre des métriques
+     * @param capacite nombre maximum d'événements en attente par abonné
+     * @param duree durée maximale d'un flux
+     */
+    FluxComptes(Executor envoi, MeterRegistry meterRegistry, int capacite, Duration duree) {
+        this.envoi = envoi;
+        this.capacite = Math.max(1, capacite);
+        this.duree = duree.toMillis();
+        Gauge.builder("banque.flux.abonnes", nombreAbonnes, AtomicInteger::get)
+                .description("Abonnés aux flux des comptes").register(meterRegistry);
+        this.evenements = Counter.builder("banque.flux.evenements")
+                .description("Événements mis en file pour les abonnés").register(meterRegistry);
+        this.lents = Counter.builder("banque.flux.lents")
+                .description("Abonnés déconnectés car trop lents").register(meterRegistry);
+    }
+
+    /**
+     * Crée les threads d'envoi
+     * @param threads nombre de threads
+     * @return l'exécuteur
+     */
+    private static ExecutorService executeur(int threads) {
+        AtomicInteger numeroThread = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "flux-comptes-" + numeroThread.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Abonne un client au flux d'un compte
+     * L'abonné est enregistré avant la lecture de la position : aucune opération validée ensuite n'est perdue.
+     * Les mouvements reçus d'ici là attendent la position, ceux qu'elle reflète déjà ne sont pas envoyés.
+     * @param idCompte id du compte
+     * @param lecture lecture de la position courante du compte (premier événement du flux),
+     *                à partir des ids des opérations reçues depuis l'inscription
+     * @return l'émetteur SSE à renvoyer au client
+     */
+    public SseEmitter abonner(long idCompte, Function<Supplier<Collection<Long>>, PositionInitiale> lecture) {
+        Abonne abonne = new Abonne(idCompte, new SseEmitter(duree));
+        abonne.emetteur.onCompletion(() -> retirer(abonne));
+        abonne.emetteur.onTimeout(() -> retirer(abonne));
+        abonne.emetteur.onError(e -> retirer(abonne));
+        abonnes.computeIfAbsent(idCompte, id -> ConcurrentHashMap.newKeySet()).add(abonne);
+        nombreAbonnes.incrementAndGet();
+        try {
+            PositionInitiale initiale = lecture.apply(() -> recues(abonne));
+            synchronized (abonne) {
+                deposer(abonne, initiale.position());
+                for (MouvementCompte mouvement : abonne.enAttente) {
+                    if (!initiale.operationsIncluses().contains(mouvement.getOperation().getId()))
+                        deposer(abonne, mouvement);
+                }
+                abonne.enAttente.clear();
+                abonne.pret = true;
+            }
+        } catch (RuntimeException e) {
+            retirer(abonne);
+            throw e;
+        }
+        return abonne.emetteur;
+    }
+
+    /**
+     * Distribue les mouvements d'une transaction validée aux abonnés des comptes concernés
+     * Appelé par Spring après la validation, dans le thread de la transaction : ne fait que remplir les files.
+     * @param evenement les opérations enregistrées
+     */
+    @TransactionalEventListener
+    public void operationsEnregistrees(OperationsEnregistrees evenement) {
+        if (abonnes.isEmpty())
+            return;
+        for (MouvementCompte mouvement : evenement.mouvements()) {
+            Set<Abonne> abonnesCompte = abonnes.get(mouvement.getOperation().getIdCompte());
+            if (abonnesCompte != null)
+                abonnesCompte.forEach(abonne -> recevoir(abonne, mouvement));
+        }
+    }
+
+    /**
+     * Transmet un mouvement à un abonné : mis de côté tant que sa position n'est pas en file, déposé ensuite
+     * Un abonné qui accumule plus de banque.flux.capacite mouvements en attente est traité comme un client lent.
+     * @param abonne l'abonné
+     * @param mouvement le mouvement
+     */
+    private void recevoir(Abonne abonne, MouvementCompte mouvement) {
+        synchronized (abonne) {
+            if (!abonne.pret) {
+                if (abonne.enAttente.size() < capacite) {
+                    abonne.enAttente.add(mouvement);
+                } else {
+                    lents.increment();
+                    logger.info("Abonné trop lent au flux du compte {}, déconnexion", abonne.idCompte);
+                    fermer(abonne);
+                }
+                return;
+            }
+        }
+        deposer(abonne, mouvement);
+    }
+
+    /**
+     * Ids des opérations mises de côté pour un abonné en attente de sa position
+     * @param abonne l'abonné
+     * @return les ids
+     */
+    private List<Long> recues(Abonne abonne) {
+        synchronized (abonne) {
+            return abonne.enAttente.stream().map(mouvement -> mouvement.getOperation().getId()).toList();
+        }
+    }
+
+    /**
+     * Dépose un événement dans la file d'un abonné et programme son envoi
+     * Si la file est pleine, l'abonné est déconnecté.
+     * @param abonne l'abonné
+     * @param donnees l'événement (Position ou MouvementCompte)
+     */
+    private void deposer(Abonne abonne, Object donnees) {
+        if (abonne.ferme.get())
+            return;
+        if (!abonne.file.offer(donnees)) {
+            lents.increment();
+            logger.info("Abonné trop lent au flux du compte {}, déconnexion", abonne.idCompte);
+            fermer(abonne);
+            return;
+        }
+        evenements.increment();
+        if (abonne.planifie.compareAndSet(false, true))
+            envoi.execute(() -> vider(abonne));
+    }
+
+    /**
+     * Envoie au client les événements en attente d'un abonné (un seul thread à la fois par abonné)
+     * @param abonne l'abonné
+     */
+    private void vider(Abonne abonne) {
+        do {
+            Object donnees;
+            while ((donnees = abonne.file.poll()) != null) {
+                if (abonne.ferme.get()) {
+                    abonne.file.clear();
+                    abonne.emetteur.complete();
+                    return;
+                }
+                try {
+                    abonne.emetteur.send(SseEmitter.event()
+                            .name(donnees instanceof Position ? "position" : "operation")
+                            .data(donnees));
+                } catch (IOException | IllegalStateException e) {
+                    // client parti : l'émetteur est déjà terminé
+                    abonne.ferme.set(true);
+                    abonne.file.clear();
+                    retirer(abonne);
+                    return;
+                }
+            }
+            abonne.planifie.set(false);
+        } while (!abonne.file.isEmpty() && abonne.planifie.compareAndSet(false, true));
+        if (abonne.ferme.get())
+            abonne.emetteur.complete();
+    }
+
+    /**
+     * Ferme le flux d'un abonné : l'émetteur est terminé par un thread d'envoi,
+     * le thread appelant n'attend jamais un envoi en cours
+     * @param abonne l'abonné
+     */
+    private void fermer(Abonne abonne) {
+        if (!abonne.ferme.compareAndSet(false, true))
+            return;
+        retirer(abonne);
+        abonne.file.clear();
+        if (abonne.planifie.compareAndSet(false, true))
+            envoi.execute(() -> abonne.emetteur.complete());
+    }
+
+    /**
+     * Retire un abonné (une seule fois)
+     * @param abonne l'abonné
+     */
+    private void retirer(Abonne abonne) {
+        if (!abonne.retire.compareAndSet(false, true))
+            return;
+        abonnes.computeIfPresent(abonne.idCompte, (id, abonnesCompte) -> {
+            abonnesCompte.remove(abonne);
+            return abonnesCompte.isEmpty() ? null : abonnesCompte;
+        });
+        nombreAbonnes.decrementAndGet();
+    }
+
+    /**
+     * Nombre d'abonnés au flux d'un compte
+     * @param idCompte id du compte
+     * @return le nombre d'abonnés
+     */
+    int abonnes(long idCompte) {
+        Set<Abonne> abonnesCompte = abonnes.get(idCompte);
+        return abonnesCompte == null ? 0 : abonnesCompte.size();
+    }
+
+    /**
+     * Ferme tous les flux à l'arrêt de l'application
+     */
+    @PreDestroy
+    public void arreter() {
+        abonnes.values().forEach(abonnesCompte -> abonnesCompte.forEach(this::fermer));
+        if (envoi instanceof ExecutorService executorService)
+            executorService.shutdown();
+    }
+
+    /**
+     * Abonné au flux d'un compte
+     */
+    private final class Abonne {
+        /**
+         * Id du compte suivi
+         */
+        final long idCompte;
+        /**
+         * Émetteur SSE vers le client
+         */
+        final SseEmitter emetteur;
+        /**
+         * Événements en attente d'envoi
+         */
+        final BlockingQueue<Object> file = new ArrayBlockingQueue<>(capacite);
+        /**
+         * Un thread d'envoi s'occupe-t-il déjà de la file ?
+         */
+        final AtomicBoolean planifie = new AtomicBoolean();
+        /**
+         * Le flux est-il fermé ?
+         */
+        final AtomicBoolean ferme = new AtomicBoolean();
+        /**
+         * L'abonné est-il retiré ?
+         */
+        final AtomicBoolean retire = new AtomicBoolean();
+        /**
+         * La position est-elle en file ? (protégé par le verrou de l'abonné)
+         */
+        boolean pret;
+        /**
+         * Mouvements reçus avant que la position soit en file (protégé par le verrou de l'abonné)
+         */
+        final List<MouvementCompte> enAttente = new ArrayList<>();
+
+        Abonne(long idCompte, SseEmitter emetteur) {
+            this.idCompte = idCompte;
+            this.emetteur = emetteur;
+        }
+    }
+}
@@ -26,6 +26,17 @@ public class GestionnaireExceptions {
         return new ResponseEntity<>(new ErrorExport(exception.getMessage(), exception.getClass().getName()), HttpStatus.NOT_FOUND);
     }
 
+    /**
+     * Erreur 404 en cas d'Export Inconnu
+     * @param request requête HTTP
+     * @param exception exception
+     * @return l'erreur 404
+     */
+    @ExceptionHandler(ExportInconnuException.class)
+    public ResponseEntity<ErrorExport> gereExportInconnuException(HttpServletRequest request, ExportInconnuException exception) {
+        return new ResponseEntity<>(new ErrorExport(exception.getMessage(), exception.getClass().getName()), HttpStatus.NOT_FOUND);
+    }
+
     /**
      * Erreur 404 en cas de Client Inconnu
      * @param request requête HTTP
@@ -95,6 +106,61 @@ public class GestionnaireExceptions {
         return new ResponseEntity<>(new ErrorExport(exception.getMessage(), exception.getClass().getName()), HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * Erreur 400 en cas de période invalide
+     * @param request requête HTTP
+     * @param exception exception
+     * @return l'erreur 400
+     */
+    @ExceptionHandler(PeriodeInvalideException.class)
+    public ResponseEntity<ErrorExport> gerePeriodeInvalideException(HttpServletRequest request, PeriodeInvalideException exception) {
+        return new ResponseEntity<>(new ErrorExport(exception.getMessage(), exception.getClass().getName()), HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Erreur 400 en cas de clé d'idempotence invalide
+     * @param request requête HTTP
+     * @param exception exception
+     * @return l'erreur 400
+     */
+    @ExceptionHandler(CleIdempotenceInvalideException.class)
+    public ResponseEntity<ErrorExport> gereCleIdempotenceInvalideException(HttpServletRequest request, CleIdempotenceInvalideException exception) {
+        return new ResponseEntity<>(new ErrorExport(exception.getMessage(), exception.getClass().getName()), HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Erreur 409 en cas de clé d'idempotence en conflit
+     * @param request requête HTTP
+     * @param exception exception
+     * @return l'erreur 409
+     */
+    @ExceptionHandler(CleIdempotenceException.class)
+    public ResponseEntity<ErrorExport> gereCleIdempotenceException(HttpServletRequest request, CleIdempotenceException exception) {
+        return new ResponseEntity<>(new ErrorExport(exception.getMessage(), exception.getClass().getName()), HttpStatus.CONFLICT);
+    }
+
+    /**
+     * Erreur 409 si un rapprochement est déjà en cours
+     * @param request requête HTTP
+     * @param exception exception
+     * @return l'erreur 409
+     */
+    @ExceptionHandler(RapprochementEnCoursException.class)
+    public ResponseEntity<ErrorExport> gereRapprochementEnCoursException(HttpServletRequest request, RapprochementEnCoursException exception) {
+        return new ResponseEntity<>(new ErrorExport(exception.getMessage(), exception.getClass().getName()), HttpStatus.CONFLICT);
+    }
+
+    /**
+     * Erreur 409 si un traitement de masse est impossible pour le moment
+     * @param request requête HTTP
+     * @param exception exception
+     * @return l'erreur 409
+     */
+    @ExceptionHandler(TraitementImpossibleException.class)
+    public ResponseEntity<ErrorExport> gereTraitementImpossibleException(HttpServletRequest request, TraitementImpossibleException exception) {
+        return new ResponseEntity<>(new ErrorExport(exception.getMessage(), exception.getClass().getName()), HttpStatus.CONFLICT);
+    }
+
     /**
      * Erreur 500 en cas d'autre erreur
      * @param request requête HTTP
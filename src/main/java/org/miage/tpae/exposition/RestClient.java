@@ -11,6 +11,8 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.miage.tpae.entities.Client;
 import org.miage.tpae.entities.Compte;
+import org.miage.tpae.export.ClientExport;
+import org.miage.tpae.export.CompteExport;
 import org.miage.tpae.metier.ServiceClient;
 import org.miage.tpae.metier.ServiceCompte;
 import org.springframework.web.bind.annotation.*;
@@ -19,6 +21,8 @@ import java.util.List;
 
 /**
  * Contrôleur REST pour la ressource clients
+ * Les lectures renvoient des exports construits dans la transaction (pas d'entité chargée à la demande
+ * pendant la sérialisation JSON, cf. spring.jpa.open-in-view=false)
  */
 @RestController
 @RequestMapping("/api/clients")
@@ -55,7 +59,7 @@ public class RestClient {
      * Permet de récupérer les détails d'un client
      * GET sur http://localhost:8080/api/clients/1
      * @param idClient id du client
-     * @return le client qui sera traduit en JSON
+     * @return le client et ses comptes qui seront traduits en JSON
      */
     @Operation(summary = "Récupère un client",
             description = "Récupère un client particulier",
@@ -65,11 +69,11 @@ public class RestClient {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Client trouvé",
                     content = { @Content(mediaType = "application/json",
-                            schema = @Schema(implementation = Client.class)) }),
+                            schema = @Schema(implementation = ClientExport.class)) }),
             @ApiResponse(responseCode = "404", description = "Client non trouvé")})
     @GetMapping("{id}")
-    public Client getClient(@PathVariable("id") long idClient) {
-        return serviceClient.recupererClient(idClient);
+    public ClientExport getClient(@PathVariable("id") long idClient) {
+        return serviceClient.consulterClient(idClient);
     }
 
     /**
@@ -78,7 +82,7 @@ public class RestClient {
      * @param client les détails du client envoyés par le front
      *               uniquement prénom et nom sont utiles
      *               Exemple : { "nom" : "Durand", "prenom" : "Marcel" }
-     * @return le nouveau client en JSON
+     * @return le nouveau client (ou le client existant et ses comptes) en JSON
      */
     @Operation(summary = "Création d'un client",
             description = "Permet de créer un nouveau client",
@@ -91,11 +95,13 @@ public class RestClient {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Client créé",
                     content = { @Content(mediaType = "application/json",
-                            schema = @Schema(implementation = Client.class))}),
+                            schema = @Schema(implementation = ClientExport.class))}),
             @ApiResponse(responseCode = "404", description = "Client non trouvé")})
     @PostMapping
-    public Client creerClient(@RequestBody Client client) {
-        return serviceClient.creerClient(client.getPrenom(), client.getNom());
+    public ClientExport creerClient(@RequestBody Client client) {
+        Client cree = serviceClient.creerClient(client.getPrenom(), client.getNom());
+        // le client existait peut-être déjà : on relit ses comptes dans une transaction
+        return serviceClient.consulterClient(cree.getId());
     }
 
     /**
@@ -142,9 +148,9 @@ public class RestClient {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Liste des comptes du client trouvé",
                     content = { @Content(mediaType = "application/json",
-                            schema = @Schema(implementation = Compte[].class)) }),
+                            schema = @Schema(implementation = CompteExport[].class)) }),
             @ApiResponse(responseCode = "404", description = "Client non trouvé")})
-    public List<Compte> listerComptes(@PathVariable("id") long idClient) {
-        return serviceClient.recupererClient(idClient).getComptes();
+    public List<CompteExport> listerComptes(@PathVariable("id") long idClient) {
+        return serviceClient.listerComptes(idClient);
     }
 }
@@ -9,17 +9,23 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
-import org.miage.tpae.entities.Client;
-import org.miage.tpae.entities.Compte;
+import jakarta.servlet.http.HttpServletResponse;
 import org.miage.tpae.entities.OperationCompte;
-import org.miage.tpae.export.OperationImport;
-import org.miage.tpae.export.Position;
-import org.miage.tpae.export.VirementImport;
+import org.miage.tpae.export.*;
+import org.miage.tpae.metier.CacheIdempotence;
 import org.miage.tpae.metier.ServiceCompte;
 import org.miage.tpae.utilities.OperationNonConforme;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import tools.jackson.databind.json.JsonMapper;
 
-import java.util.Collection;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
 
 /**
  * Contrôleur REST pour la ressource comptes
@@ -33,19 +39,46 @@ import java.util.Collection;
                 version = "0.1"))
 public class RestCompte {
 
+    /**
+     * Nombre maximum d'opérations par page
+     */
+    private static final int LIMITE_MAX = 1000;
+
     /**
      * Bean métier qui sera injecté par le constructeur
      * Note : on n'utilise pas @Autowired ici
      */
     public final ServiceCompte serviceCompte;
 
+    /**
+     * Bean de conversion JSON de Spring (pour écrire le NDJSON)
+     */
+    private final JsonMapper jsonMapper;
+
+    /**
+     * Bean des réponses par clé d'idempotence
+     */
+    private final CacheIdempotence cacheIdempotence;
+
+    /**
+     * Bean de diffusion en direct des mouvements des comptes
+     */
+    private final FluxComptes fluxComptes;
+
     /**
      * Constructeur pour l'injection du bean métier
      * Note : remplace le @Autowired
-     * @param serviceCompte
+     * @param serviceCompte le bean métier compte injecté
+     * @param jsonMapper le bean de conversion JSON injecté
+     * @param cacheIdempotence le bean des réponses par clé d'idempotence injecté
+     * @param fluxComptes le bean de diffusion en direct injecté
      */
-    public RestCompte(ServiceCompte serviceCompte) {
+    public RestCompte(ServiceCompte serviceCompte, JsonMapper jsonMapper, CacheIdempotence cacheIdempotence,
+                      FluxComptes fluxComptes) {
         this.serviceCompte = serviceCompte;
+        this.jsonMapper = jsonMapper;
+        this.cacheIdempotence = cacheIdempotence;
+        this.fluxComptes = fluxComptes;
     }
 
     /**
@@ -69,11 +102,35 @@ public class RestCompte {
         return this.serviceCompte.consulter(idCompte);
     }
 
+    /**
+     * Permet de suivre un compte en direct (Server-Sent Events) au lieu d'interroger sa position
+     * Le flux commence par la position courante (événement "position", sans enregistrer de consultation)
+     * puis reçoit chaque opération enregistrée sur le compte avec la position qui en résulte (événement "operation").
+     * GET sur http://localhost:8080/api/comptes/1/flux avec Accept: text/event-stream
+     * @param idCompte id du compte
+     * @return l'émetteur du flux
+     */
+    @GetMapping(value = "/flux", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Suit un compte en direct",
+            description = "Permet de recevoir en direct les opérations d'un compte et sa position (Server-Sent Events)",
+            tags = { "comptes" },
+            parameters = {
+                    @Parameter(name = "id", description = "Identifiant du compte", required = true, example = "1")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Flux du compte trouvé",
+                    content = { @Content(mediaType = "text/event-stream",
+                            schema = @Schema(implementation = MouvementCompte.class)) }),
+            @ApiResponse(responseCode = "404", description = "Compte non trouvé")})
+    public SseEmitter suivreCompte(@PathVariable("id") long idCompte) {
+        return this.fluxComptes.abonner(idCompte,
+                recues -> this.serviceCompte.lirePositionInitiale(idCompte, recues));
+    }
+
     /**
      * Permet de récupérer la liste des opérations
      * GET sur http://localhost:8080/api/comptes/1/operations
      * @param idCompte id du compte
-     * @return la liste d'opérations en JSON
+     * @return la liste d'opérations en JSON (exports lus dans la transaction, sans les entités ni leur compte)
      */
     @GetMapping("/operations")
     @Operation(summary = "Récupère la liste des opérations d'un compte",
@@ -84,10 +141,106 @@ public class RestCompte {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Liste d'opérations du compte trouvé",
                     content = { @Content(mediaType = "application/json",
-                            schema = @Schema(implementation = OperationCompte[].class)) }),
+                            schema = @Schema(implementation = OperationExport[].class)) }),
+            @ApiResponse(responseCode = "404", description = "Compte non trouvé")})
+    public Collection<OperationExport> recupererOperations(@PathVariable("id") long idCompte) {
+        List<OperationExport> operations = new ArrayList<>();
+        this.serviceCompte.parcourirOperations(idCompte, operations::add);
+        return operations;
+    }
+
+    /**
+     * Permet de récupérer l'historique des opérations page par page
+     * GET sur http://localhost:8080/api/comptes/1/operations?limite=100
+     * puis sur http://localhost:8080/api/comptes/1/operations?limite=100&apres=<suivant de la page précédente>
+     * @param idCompte id du compte
+     * @param limite nombre maximum d'opérations de la page (au plus 1000)
+     * @param apres id de la dernière opération déjà lue (0 pour la première page)
+     * @return la page d'opérations en JSON
+     */
+    @GetMapping(value = "/operations", params = "limite")
+    @Operation(summary = "Récupère une page des opérations d'un compte",
+            description = "Permet de parcourir les opérations d'un compte page par page (pagination sur curseur)",
+            tags = { "comptes" },
+            parameters = {
+                    @Parameter(name = "id", description = "Identifiant du compte", required = true, example = "1"),
+                    @Parameter(name = "limite", description = "Nombre maximum d'opérations", required = true, example = "100"),
+                    @Parameter(name = "apres", description = "Curseur : id de la dernière opération lue", example = "0")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Page d'opérations du compte trouvé",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = PageOperations.class)) }),
             @ApiResponse(responseCode = "404", description = "Compte non trouvé")})
-    public Collection<OperationCompte> recupererOperations(@PathVariable("id") long idCompte) {
-        return this.serviceCompte.recupererOperations(idCompte);
+    public PageOperations recupererPageOperations(@PathVariable("id") long idCompte,
+                                                  @RequestParam("limite") int limite,
+                                                  @RequestParam(value = "apres", defaultValue = "0") long apres) {
+        return this.serviceCompte.recupererOperations(idCompte, apres, Math.max(1, Math.min(limite, LIMITE_MAX)));
+    }
+
+    /**
+     * Permet de récupérer tout l'historique des opérations en flux NDJSON (une opération JSON par ligne)
+     * Les opérations sont lues en base et envoyées au fur et à mesure : la mémoire utilisée
+     * ne dépend pas de la longueur de l'historique.
+     * GET sur http://localhost:8080/api/comptes/1/operations avec Accept: application/x-ndjson
+     * @param idCompte id du compte
+     * @param response réponse HTTP dans laquelle on écrit les opérations
+     * @throws IOException en cas de problème d'E/S
+     */
+    @GetMapping(value = "/operations", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Récupère le flux des opérations d'un compte",
+            description = "Permet de récupérer toutes les opérations d'un compte en flux NDJSON",
+            tags = { "comptes" },
+            parameters = {
+                    @Parameter(name = "id", description = "Identifiant du compte", required = true, example = "1")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Opérations du compte trouvé (une ligne JSON par opération)",
+                    content = { @Content(mediaType = "application/x-ndjson",
+                            schema = @Schema(implementation = OperationExport.class)) }),
+            @ApiResponse(responseCode = "404", description = "Compte non trouvé")})
+    public void fluxOperations(@PathVariable("id") long idCompte, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        Writer sortie = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        this.serviceCompte.parcourirOperations(idCompte, operation -> {
+            try {
+                sortie.write(jsonMapper.writeValueAsString(operation));
+                sortie.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        sortie.flush();
+    }
+
+    /**
+     * Permet de récupérer le relevé d'un compte sur une période (soldes et totaux par type d'opération)
+     * GET sur http://localhost:8080/api/comptes/1/releve?debut=2026-03-01&fin=2026-03-31
+     * @param idCompte id du compte
+     * @param debut premier jour de la période
+     * @param fin dernier jour de la période (inclus)
+     * @return le relevé en JSON
+     */
+    @GetMapping("/releve")
+    @Operation(summary = "Récupère le relevé d'un compte",
+            description = "Permet de récupérer les soldes de début et de fin et les totaux par type d'opération sur une période",
+            tags = { "comptes" },
+            parameters = {
+                    @Parameter(name = "id", description = "Identifiant du compte", required = true, example = "1"),
+                    @Parameter(name = "debut", description = "Premier jour de la période", required = true, example = "2026-03-01"),
+                    @Parameter(name = "fin", description = "Dernier jour de la période (inclus)", required = true, example = "2026-03-31")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Relevé du compte trouvé",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = Releve.class)) }),
+            @ApiResponse(responseCode = "400", description = "Période invalide"),
+            @ApiResponse(responseCode = "404", description = "Compte non trouvé")})
+    public Releve releve(@PathVariable("id") long idCompte,
+                         @RequestParam("debut") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate debut,
+                         @RequestParam("fin") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fin) {
+        // la période va du début du premier jour au début du lendemain du dernier jour
+        ZoneId zone = ZoneId.systemDefault();
+        return this.serviceCompte.releve(idCompte,
+                GregorianCalendar.from(debut.atStartOfDay(zone)),
+                GregorianCalendar.from(fin.plusDays(1).atStartOfDay(zone)));
     }
 
     /**
@@ -98,6 +251,8 @@ public class RestCompte {
      *                        contient le type d'opération et la somme (valeur)
      *                        Exemple : { "valeur" : 100, "operationType" : "CREDIT" }
      *                        Exemple 2 : { "valeur" : 100, "operationType" : "DEBIT" }
+     * @param cleIdempotence clé d'idempotence (en-tête Idempotency-Key, facultatif) : une requête rejouée
+     *                       avec la même clé renvoie la position obtenue la première fois sans refaire l'opération
      * @return la nouvelle position du compte
      * @throws OperationNonConforme si l'opération n'est ni DEBIT ni CREDIT
      */
@@ -107,6 +262,7 @@ public class RestCompte {
             tags = { "comptes" },
             parameters = {
                     @Parameter(name = "id", description = "Identifiant du compte", required = true, example = "1"),
+                    @Parameter(name = "Idempotency-Key", description = "Clé d'idempotence", example = "5f0c7b1e-1c1a-4c57-9a43-0c6b1f6f2a11"),
             },
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "Détails de l'opération à réaliser",
@@ -117,15 +273,20 @@ public class RestCompte {
             @ApiResponse(responseCode = "200", description = "Position du compte après l'opération",
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = Position.class)) }),
-            @ApiResponse(responseCode = "404", description = "Compte non trouvé")})
-    public Position operationCompte(@PathVariable("id") long idCompte, @RequestBody OperationImport operationImport) throws OperationNonConforme {
-        if (operationImport.getOperationType() == OperationCompte.OperationType.CREDIT)
-            this.serviceCompte.crediter(idCompte, operationImport.getValeur());
-        else if (operationImport.getOperationType() == OperationCompte.OperationType.DEBIT)
-            this.serviceCompte.debiter(idCompte, operationImport.getValeur());
-        else
-            throw new OperationNonConforme("L'operation de type "+operationImport.getOperationType()+" n'est pas conforme");
-        return this.serviceCompte.consulter(idCompte);
+            @ApiResponse(responseCode = "404", description = "Compte non trouvé"),
+            @ApiResponse(responseCode = "409", description = "Clé d'idempotence en cours d'utilisation ou déjà utilisée pour une autre requête")})
+    public Position operationCompte(@PathVariable("id") long idCompte, @RequestBody OperationImport operationImport,
+                                    @RequestHeader(value = "Idempotency-Key", required = false) String cleIdempotence) throws OperationNonConforme {
+        String requete = "operation " + idCompte + " " + operationImport.getOperationType() + " " + operationImport.getValeur();
+        return this.cacheIdempotence.executer(cleIdempotence, requete, () -> {
+            // la position est calculée dans la transaction de l'opération (pas de nouvelle consultation)
+            if (operationImport.getOperationType() == OperationCompte.OperationType.CREDIT)
+                return this.serviceCompte.crediter(idCompte, operationImport.getValeur());
+            else if (operationImport.getOperationType() == OperationCompte.OperationType.DEBIT)
+                return this.serviceCompte.debiter(idCompte, operationImport.getValeur());
+            else
+                throw new OperationNonConforme("L'operation de type "+operationImport.getOperationType()+" n'est pas conforme");
+        });
     }
 
     /**
@@ -135,6 +296,8 @@ public class RestCompte {
      * @param virementImport détails du virement
      *                       contient la valeur (somme) et l'id du compte destinataire
      *                       Exemple : { "valeur" : 100, "idCompteDestinataire" : 2 }
+     * @param cleIdempotence clé d'idempotence (en-tête Idempotency-Key, facultatif) : une requête rejouée
+     *                       avec la même clé renvoie la position obtenue la première fois sans refaire le virement
      * @return la nouvelle position du compte débité
      */
     @Operation(summary = "Faire des virements entre comptes",
@@ -142,6 +305,7 @@ public class RestCompte {
             tags = { "comptes" },
             parameters = {
                     @Parameter(name = "id", description = "Identifiant du compte débiteur", required = true, example = "1"),
+                    @Parameter(name = "Idempotency-Key", description = "Clé d'idempotence", example = "5f0c7b1e-1c1a-4c57-9a43-0c6b1f6f2a11"),
             },
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "Détails de l'opération de virement à réaliser",
@@ -152,11 +316,14 @@ public class RestCompte {
             @ApiResponse(responseCode = "200", description = "Position du compte débité après l'opération",
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = Position.class)) }),
-            @ApiResponse(responseCode = "404", description = "Compte non trouvé")})
+            @ApiResponse(responseCode = "404", description = "Compte non trouvé"),
+            @ApiResponse(responseCode = "409", description = "Clé d'idempotence en cours d'utilisation ou déjà utilisée pour une autre requête")})
     @PostMapping("operations/virements")
-    public Position virementCompte(@PathVariable("id") long idCompte, @RequestBody VirementImport virementImport) {
-        this.serviceCompte.virer(idCompte, virementImport.getIdCompteDestinataire(), virementImport.getValeur());
-        return this.serviceCompte.consulter(idCompte);
+    public Position virementCompte(@PathVariable("id") long idCompte, @RequestBody VirementImport virementImport,
+                                   @RequestHeader(value = "Idempotency-Key", required = false) String cleIdempotence) {
+        String requete = "virement " + idCompte + " " + virementImport.getIdCompteDestinataire() + " " + virementImport.getValeur();
+        return this.cacheIdempotence.executer(cleIdempotence, requete,
+                () -> this.serviceCompte.virer(idCompte, virementImport.getIdCompteDestinataire(), virementImport.getValeur()));
     }
 
     /**
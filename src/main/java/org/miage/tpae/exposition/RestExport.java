@@ -0,0 +1,106 @@
+package org.miage.tpae.exposition;
+
+import io.swagger.v3.oas.annotations.OpenAPIDefinition;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.info.Contact;
+import io.swagger.v3.oas.annotations.info.Info;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.miage.tpae.export.EtatExport;
+import org.miage.tpae.metier.ExportOperations;
+import org.miage.tpae.metier.FormatExport;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.GregorianCalendar;
+
+/**
+ * Contrôleur REST pour les exports en masse
+ */
+@RestController
+@RequestMapping("/api/exports")
+@OpenAPIDefinition(
+        info = @Info( title = "Service Export",
+                description = "Service d'export en masse des opérations",
+                contact = @Contact(name = "Patrice Torguet", email = "patrice.torguet@irit.fr"),
+                version = "0.1"))
+public class RestExport {
+
+    /**
+     * Bean métier qui sera injecté par le constructeur
+     */
+    private final ExportOperations exportOperations;
+
+    /**
+     * Constructeur pour l'injection
+     * @param exportOperations le bean d'export injecté
+     */
+    public RestExport(ExportOperations exportOperations) {
+        this.exportOperations = exportOperations;
+    }
+
+    /**
+     * Permet de lancer l'export de toutes les opérations d'une période dans des fichiers compressés sur le serveur
+     * L'export s'exécute en arrière-plan : son état est suivi avec GET sur l'URL renvoyée dans l'en-tête Location.
+     * POST sur http://localhost:8080/api/exports/operations?debut=2026-03-01&fin=2026-03-31&format=CSV
+     * @param debut premier jour de la période
+     * @param fin dernier jour de la période (inclus)
+     * @param format format des fichiers (CSV ou NDJSON)
+     * @return l'état de l'export lancé (202 Accepted)
+     */
+    @PostMapping("operations")
+    @Operation(summary = "Export des opérations",
+            description = "Permet de lancer l'export des opérations d'une période dans des fichiers gzip",
+            tags = { "exports" },
+            parameters = {
+                    @Parameter(name = "debut", description = "Premier jour de la période", required = true, example = "2026-03-01"),
+                    @Parameter(name = "fin", description = "Dernier jour de la période (inclus)", required = true, example = "2026-03-31"),
+                    @Parameter(name = "format", description = "Format des fichiers (CSV ou NDJSON)", example = "CSV")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Export lancé",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = EtatExport.class)) }),
+            @ApiResponse(responseCode = "400", description = "Période invalide")})
+    public ResponseEntity<EtatExport> exporterOperations(@RequestParam("debut") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate debut,
+                                                         @RequestParam("fin") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fin,
+                                                         @RequestParam(value = "format", defaultValue = "CSV") FormatExport format) {
+        // la période va du début du premier jour au début du lendemain du dernier jour
+        ZoneId zone = ZoneId.systemDefault();
+        EtatExport etat = this.exportOperations.lancer(
+                GregorianCalendar.from(debut.atStartOfDay(zone)),
+                GregorianCalendar.from(fin.plusDays(1).atStartOfDay(zone)),
+                format);
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentRequestUri().path("/{id}").buildAndExpand(etat.getId()).toUri())
+                .body(etat);
+    }
+
+    /**
+     * Permet de suivre un export des opérations
+     * GET sur http://localhost:8080/api/exports/operations/3f1c2a9e-8f0b-4c59-9d8e-2b7e4c1d0a55
+     * @param id identifiant de l'export
+     * @return l'état de l'export (avec son manifeste : fichiers, nombres de lignes et empreintes, s'il est terminé)
+     */
+    @GetMapping("operations/{id}")
+    @Operation(summary = "État d'un export des opérations",
+            description = "Permet de savoir si un export est en cours, terminé (avec son manifeste) ou en échec",
+            tags = { "exports" },
+            parameters = {
+                    @Parameter(name = "id", description = "Identifiant de l'export", required = true,
+                            example = "3f1c2a9e-8f0b-4c59-9d8e-2b7e4c1d0a55")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "État de l'export",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = EtatExport.class)) }),
+            @ApiResponse(responseCode = "404", description = "Export inconnu")})
+    public EtatExport etatExport(@PathVariable("id") String id) {
+        return this.exportOperations.etat(id);
+    }
+}
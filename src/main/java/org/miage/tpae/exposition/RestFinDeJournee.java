@@ -0,0 +1,65 @@
+package org.miage.tpae.exposition;
+
+import io.swagger.v3.oas.annotations.OpenAPIDefinition;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.info.Contact;
+import io.swagger.v3.oas.annotations.info.Info;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.miage.tpae.export.RapportFinDeJournee;
+import org.miage.tpae.metier.FinDeJournee;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+
+/**
+ * Contrôleur REST pour le traitement de fin de journée
+ */
+@RestController
+@RequestMapping("/api/fin-de-journee")
+@OpenAPIDefinition(
+        info = @Info( title = "Service Fin de journée",
+                description = "Service de calcul des intérêts et des frais en fin de journée",
+                contact = @Contact(name = "Patrice Torguet", email = "patrice.torguet@irit.fr"),
+                version = "0.1"))
+public class RestFinDeJournee {
+
+    /**
+     * Bean métier qui sera injecté par le constructeur
+     */
+    private final FinDeJournee finDeJournee;
+
+    /**
+     * Constructeur pour l'injection
+     * @param finDeJournee le bean de traitement injecté
+     */
+    public RestFinDeJournee(FinDeJournee finDeJournee) {
+        this.finDeJournee = finDeJournee;
+    }
+
+    /**
+     * Permet de lancer (ou de reprendre) le traitement de fin de journée
+     * POST sur http://localhost:8080/api/fin-de-journee?jour=2026-03-13
+     * @param jour jour traité (aujourd'hui par défaut)
+     * @return le rapport du traitement
+     */
+    @PostMapping
+    @Operation(summary = "Traitement de fin de journée",
+            description = "Permet de verser les intérêts et de prélever les frais sur tous les comptes actifs",
+            tags = { "fin-de-journee" },
+            parameters = {
+                    @Parameter(name = "jour", description = "Jour traité (aujourd'hui par défaut)", example = "2026-03-13")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Traitement réalisé",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = RapportFinDeJournee.class)) }),
+            @ApiResponse(responseCode = "409", description = "Traitement déjà en cours ou moteur de comptes actif")})
+    public RapportFinDeJournee traiter(@RequestParam(value = "jour", required = false)
+                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate jour) {
+        return this.finDeJournee.traiter(jour == null ? LocalDate.now() : jour);
+    }
+}
@@ -0,0 +1,94 @@
+package org.miage.tpae.exposition;
+
+import io.swagger.v3.oas.annotations.OpenAPIDefinition;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.info.Contact;
+import io.swagger.v3.oas.annotations.info.Info;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.miage.tpae.export.ProgressionImport;
+import org.miage.tpae.metier.ImportClients;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Contrôleur REST pour les imports en masse
+ */
+@RestController
+@RequestMapping("/api/imports")
+@OpenAPIDefinition(
+        info = @Info( title = "Service Import",
+                description = "Service d'import en masse des clients et des comptes",
+                contact = @Contact(name = "Patrice Torguet", email = "patrice.torguet@irit.fr"),
+                version = "0.1"))
+public class RestImport {
+
+    /**
+     * Bean métier qui sera injecté par le constructeur
+     */
+    private final ImportClients importClients;
+
+    /**
+     * Bean de conversion JSON de Spring (pour écrire le NDJSON)
+     */
+    private final JsonMapper jsonMapper;
+
+    /**
+     * Constructeur pour l'injection
+     * @param importClients le bean d'import injecté
+     * @param jsonMapper le bean de conversion JSON injecté
+     */
+    public RestImport(ImportClients importClients, JsonMapper jsonMapper) {
+        this.importClients = importClients;
+        this.jsonMapper = jsonMapper;
+    }
+
+    /**
+     * Permet d'importer des clients et leurs comptes depuis un fichier CSV (une ligne prenom,nom,solde par compte)
+     * Le fichier est lu et importé au fur et à mesure, l'avancement est renvoyé en NDJSON après chaque lot.
+     * Un import interrompu est repris en renvoyant le même fichier avec le même nom.
+     * POST sur http://localhost:8080/api/imports/clients/partenaire-2026-03 avec Content-Type: text/csv
+     * @param nom nom de l'import
+     * @param request requête HTTP dont on lit le corps
+     * @param response réponse HTTP dans laquelle on écrit l'avancement
+     * @throws IOException en cas de problème d'E/S
+     */
+    @PostMapping(value = "clients/{nom}", consumes = "text/csv", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Import de clients et de comptes",
+            description = "Permet d'ouvrir en masse des comptes (et de créer leurs clients) depuis un fichier CSV",
+            tags = { "imports" },
+            parameters = {
+                    @Parameter(name = "nom", description = "Nom de l'import (le même pour une reprise)", required = true,
+                            example = "partenaire-2026-03")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Avancement après chaque lot (une ligne JSON par lot)",
+                    content = { @Content(mediaType = "application/x-ndjson",
+                            schema = @Schema(implementation = ProgressionImport.class)) })})
+    public void importerClients(@PathVariable("nom") String nom, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        Writer sortie = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        try (BufferedReader lecteur = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+            this.importClients.importer(nom, lecteur, progression -> {
+                try {
+                    sortie.write(jsonMapper.writeValueAsString(progression));
+                    sortie.write('\n');
+                    // l'appelant suit l'avancement lot par lot
+                    sortie.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        sortie.flush();
+    }
+}
@@ -0,0 +1,62 @@
+package org.miage.tpae.exposition;
+
+import io.swagger.v3.oas.annotations.OpenAPIDefinition;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.info.Contact;
+import io.swagger.v3.oas.annotations.info.Info;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.miage.tpae.export.RapportRapprochement;
+import org.miage.tpae.metier.RapprochementComptes;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Contrôleur REST pour le rapprochement des comptes
+ */
+@RestController
+@RequestMapping("/api/rapprochements")
+@OpenAPIDefinition(
+        info = @Info( title = "Service Rapprochement",
+                description = "Service de rapprochement des soldes des comptes avec leurs opérations",
+                contact = @Contact(name = "Patrice Torguet", email = "patrice.torguet@irit.fr"),
+                version = "0.1"))
+public class RestRapprochement {
+
+    /**
+     * Bean métier qui sera injecté par le constructeur
+     */
+    private final RapprochementComptes rapprochementComptes;
+
+    /**
+     * Constructeur pour l'injection
+     * @param rapprochementComptes le bean de rapprochement injecté
+     */
+    public RestRapprochement(RapprochementComptes rapprochementComptes) {
+        this.rapprochementComptes = rapprochementComptes;
+    }
+
+    /**
+     * Permet de rapprocher les soldes des comptes avec leurs opérations
+     * POST sur http://localhost:8080/api/rapprochements?incremental=true
+     * @param incremental ne vérifier que les comptes modifiés depuis le dernier rapprochement ?
+     * @return le rapport du rapprochement (comptes en écart)
+     */
+    @PostMapping
+    @Operation(summary = "Rapprochement des comptes",
+            description = "Permet de comparer le solde de chaque compte au solde recalculé à partir de ses opérations",
+            tags = { "rapprochements" },
+            parameters = {
+                    @Parameter(name = "incremental", description = "Seulement les comptes modifiés depuis le dernier rapprochement",
+                            example = "true")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Rapprochement réalisé",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = RapportRapprochement.class)) }),
+            @ApiResponse(responseCode = "409", description = "Rapprochement déjà en cours")})
+    public RapportRapprochement rapprocher(@RequestParam(value = "incremental", defaultValue = "false") boolean incremental) {
+        return this.rapprochementComptes.rapprocher(incremental);
+    }
+}
@@ -0,0 +1,66 @@
+package org.miage.tpae.exposition;
+
+import io.swagger.v3.oas.annotations.OpenAPIDefinition;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.info.Contact;
+import io.swagger.v3.oas.annotations.info.Info;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.miage.tpae.export.RapportReleves;
+import org.miage.tpae.metier.RelevesMensuels;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.YearMonth;
+
+/**
+ * Contrôleur REST pour la génération des relevés mensuels
+ */
+@RestController
+@RequestMapping("/api/releves")
+@OpenAPIDefinition(
+        info = @Info( title = "Service Relevés",
+                description = "Service de génération des relevés mensuels des clients",
+                contact = @Contact(name = "Patrice Torguet", email = "patrice.torguet@irit.fr"),
+                version = "0.1"))
+public class RestReleves {
+
+    /**
+     * Bean métier qui sera injecté par le constructeur
+     */
+    private final RelevesMensuels relevesMensuels;
+
+    /**
+     * Constructeur pour l'injection
+     * @param relevesMensuels le bean de génération injecté
+     */
+    public RestReleves(RelevesMensuels relevesMensuels) {
+        this.relevesMensuels = relevesMensuels;
+    }
+
+    /**
+     * Permet de lancer (ou de reprendre) la génération des relevés d'un mois
+     * POST sur http://localhost:8080/api/releves?mois=2026-03
+     * @param mois mois des relevés (le mois précédent par défaut)
+     * @return le rapport de la génération
+     */
+    @PostMapping
+    @Operation(summary = "Génération des relevés mensuels",
+            description = "Permet d'écrire le relevé du mois de chaque client (un fichier par client)",
+            tags = { "releves" },
+            parameters = {
+                    @Parameter(name = "mois", description = "Mois des relevés (le mois précédent par défaut)", example = "2026-03")})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Relevés écrits",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = RapportReleves.class)) }),
+            @ApiResponse(responseCode = "400", description = "Mois non terminé"),
+            @ApiResponse(responseCode = "409", description = "Génération déjà en cours")})
+    public RapportReleves generer(@RequestParam(value = "mois", required = false)
+                                  @DateTimeFormat(pattern = "yyyy-MM") YearMonth mois) {
+        return this.relevesMensuels.generer(mois == null ? YearMonth.now().minusMonths(1) : mois);
+    }
+}
@@ -0,0 +1,127 @@
+package org.miage.tpae.exposition;
+
+import io.swagger.v3.oas.annotations.OpenAPIDefinition;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.info.Contact;
+import io.swagger.v3.oas.annotations.info.Info;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.miage.tpae.export.ResultatVirement;
+import org.miage.tpae.export.VirementLotImport;
+import org.miage.tpae.metier.ServiceCompte;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import tools.jackson.databind.MappingIterator;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contrôleur REST pour les lots de virements
+ */
+@RestController
+@RequestMapping("/api/virements")
+@OpenAPIDefinition(
+        info = @Info( title = "Service Virement",
+                description = "Service de virements par lots",
+                contact = @Contact(name = "Patrice Torguet", email = "patrice.torguet@irit.fr"),
+                version = "0.1"))
+public class RestVirement {
+
+    /**
+     * Bean métier qui sera injecté par le constructeur
+     */
+    private final ServiceCompte serviceCompte;
+
+    /**
+     * Bean de conversion JSON de Spring (pour lire et écrire le NDJSON)
+     */
+    private final JsonMapper jsonMapper;
+
+    /**
+     * Nombre de virements réalisés par transaction
+     */
+    private final int taillePaquet;
+
+    /**
+     * Constructeur pour l'injection
+     * @param serviceCompte le bean métier compte injecté
+     * @param jsonMapper le bean de conversion JSON injecté
+     * @param taillePaquet nombre de virements réalisés par transaction
+     */
+    public RestVirement(ServiceCompte serviceCompte, JsonMapper jsonMapper,
+                        @Value("${banque.virements.lot.taille-paquet:500}") int taillePaquet) {
+        this.serviceCompte = serviceCompte;
+        this.jsonMapper = jsonMapper;
+        this.taillePaquet = Math.max(1, taillePaquet);
+    }
+
+    /**
+     * Permet de réaliser un lot de virements envoyé sous forme de tableau JSON
+     * POST sur http://localhost:8080/api/virements/lot
+     * @param virements les virements
+     *                  Exemple : [ { "idCompteDebiteur" : 1, "idCompteDestinataire" : 2, "valeur" : 100 } ]
+     * @return le résultat de chaque virement, dans l'ordre du lot
+     */
+    @PostMapping(value = "lot", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Lot de virements",
+            description = "Permet de réaliser un lot de virements en une seule requête",
+            tags = { "virements" },
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Virements à réaliser",
+                    content = @Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = VirementLotImport.class))),
+                    required = true))
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Résultat de chaque virement",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ResultatVirement[].class)) })})
+    public List<ResultatVirement> virerLot(@RequestBody List<VirementLotImport> virements) {
+        List<ResultatVirement> resultats = new ArrayList<>(virements.size());
+        this.serviceCompte.virerLot(virements.iterator(), taillePaquet, resultats::add);
+        return resultats;
+    }
+
+    /**
+     * Permet de réaliser un lot de virements envoyé au format NDJSON (un virement JSON par ligne)
+     * Les virements sont lus et réalisés au fur et à mesure, et les résultats sont renvoyés au même format :
+     * la mémoire utilisée ne dépend pas de la taille du lot.
+     * POST sur http://localhost:8080/api/virements/lot avec Content-Type: application/x-ndjson
+     * @param request requête HTTP dont on lit le corps
+     * @param response réponse HTTP dans laquelle on écrit les résultats
+     * @throws IOException en cas de problème d'E/S
+     */
+    @PostMapping(value = "lot", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Lot de virements (NDJSON)",
+            description = "Permet de réaliser un lot de virements envoyé en flux NDJSON",
+            tags = { "virements" })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Résultat de chaque virement (une ligne JSON par virement)",
+                    content = { @Content(mediaType = "application/x-ndjson",
+                            schema = @Schema(implementation = ResultatVirement.class)) })})
+    public void virerLotFlux(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        Writer sortie = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        try (MappingIterator<VirementLotImport> virements = jsonMapper.readerFor(VirementLotImport.class)
+                .readValues(request.getInputStream())) {
+            this.serviceCompte.virerLot(virements, taillePaquet, resultat -> {
+                try {
+                    sortie.write(jsonMapper.writeValueAsString(resultat));
+                    sortie.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        sortie.flush();
+    }
+}
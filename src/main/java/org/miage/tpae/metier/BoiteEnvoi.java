@@ -0,0 +1,58 @@
+package org.miage.tpae.metier;
+
+import org.miage.tpae.dao.EvenementOperationRepository;
+import org.miage.tpae.entities.EvenementOperation;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.export.MouvementCompte;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.Position;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+/**
+ * Boîte d'envoi des opérations (outbox) : chaque opération qui modifie un compte y est ajoutée dans la transaction
+ * qui l'enregistre, puis diffusée par RelaisEvenements. Les systèmes en aval suivent ce flux au lieu
+ * d'interroger les tables des opérations.
+ * Les consultations ne modifient pas les comptes : elles ne sont pas diffusées.
+ * Les opérations ajoutées sont aussi publiées dans le processus (événement OperationsEnregistrees),
+ * pour les flux en direct de FluxComptes qui les reçoivent après la validation de la transaction.
+ */
+@Component
+public class BoiteEnvoi {
+
+    /**
+     * Bean repository pour la boîte d'envoi
+     */
+    private final EvenementOperationRepository evenementOperationRepository;
+
+    /**
+     * Bean de publication des événements
+     */
+    private final ApplicationEventPublisher publisher;
+
+    /**
+     * Constructeur pour l'injection
+     * @param evenementOperationRepository bean repo boîte d'envoi injecté
+     * @param publisher bean de publication des événements injecté
+     */
+    public BoiteEnvoi(EvenementOperationRepository evenementOperationRepository, ApplicationEventPublisher publisher) {
+        this.evenementOperationRepository = evenementOperationRepository;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Ajoute des opérations enregistrées (leurs ids sont connus) à la boîte d'envoi, dans la transaction courante
+     * @param operations les opérations, dans l'ordre où elles doivent être diffusées
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void ajouter(Collection<OperationCompte> operations) {
+        this.evenementOperationRepository.saveAll(operations.stream().map(EvenementOperation::new).toList());
+        this.publisher.publishEvent(new OperationsEnregistrees(operations.stream().map(o -> new MouvementCompte(
+                new OperationExport(o.getId(), o.getOperationType(), o.getValeur(), o.getDateOperation(), o.getCompte().getId()),
+                new Position(o.getCompte().getSolde(), o.getDateOperation()))).toList()));
+    }
+}
@@ -0,0 +1,233 @@
+package org.miage.tpae.metier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.ReponseIdempotenteRepository;
+import org.miage.tpae.entities.ReponseIdempotente;
+import org.miage.tpae.export.Position;
+import org.miage.tpae.utilities.CleIdempotenceException;
+import org.miage.tpae.utilities.CleIdempotenceInvalideException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.GregorianCalendar;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Réponses des opérations par clé d'idempotence (en-tête Idempotency-Key)
+ * Une requête rejouée avec la même clé reçoit la position obtenue la première fois, sans refaire l'opération.
+ *
+ * Les réponses sont gardées dans un cache borné en mémoire (expiration après banque.idempotence.duree)
+ * et en base, pour survivre à un redémarrage et être partagées entre instances.
+ * La clé est réservée en base (dans sa propre transaction) avant de réaliser l'opération :
+ * une requête rejouée pendant que la première est en cours est refusée au lieu d'être réalisée deux fois.
+ * Si l'opération échoue, la réservation est supprimée et la requête peut être rejouée.
+ * Si l'opération a eu lieu mais que sa réponse n'a pas pu être écrite en base, la réponse est tout de même
+ * renvoyée et gardée en mémoire : une requête rejouée la reçoit, et l'écriture en base est retentée à ce moment.
+ * Après un arrêt brutal pendant une opération, la clé reste réservée jusqu'à sa purge :
+ * on ne sait pas si l'opération a été validée, on ne la refait donc pas.
+ *
+ * Métriques exposées : cache.* avec le tag cache=idempotence
+ */
+@Component
+public class CacheIdempotence {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(CacheIdempotence.class);
+
+    /**
+     * Une réponse enregistrée
+     * @param requete description de la requête
+     * @param position position obtenue
+     * @param enBase la réponse est-elle écrite en base ?
+     */
+    private record Reponse(String requete, Position position, boolean enBase) {
+    }
+
+    /**
+     * Bean repository pour les réponses
+     */
+    private final ReponseIdempotenteRepository reponseIdempotenteRepository;
+
+    /**
+     * Permet d'écrire les réservations et les réponses dans leur propre transaction
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Durée de conservation des réponses
+     */
+    private final Duration duree;
+
+    /**
+     * Cache des réponses en mémoire
+     */
+    private final Cache<String, Reponse> reponses;
+
+    /**
+     * Constructeur pour l'injection
+     * @param reponseIdempotenteRepository bean repo réponses injecté
+     * @param transactionManager gestionnaire de transactions
+     * @param meterRegistry registre des métriques
+     * @param capacite nombre maximum de réponses en mémoire
+     * @param duree durée de conservation des réponses
+     */
+    public CacheIdempotence(ReponseIdempotenteRepository reponseIdempotenteRepository,
+                            PlatformTransactionManager transactionManager,
+                            MeterRegistry meterRegistry,
+                            @Value("${banque.idempotence.capacite:100000}") long capacite,
+                            @Value("${banque.idempotence.duree:PT24H}") Duration duree) {
+        this.reponseIdempotenteRepository = reponseIdempotenteRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.duree = duree;
+        this.reponses = Caffeine.newBuilder()
+                .maximumSize(capacite)
+                .expireAfterWrite(duree)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, reponses, "idempotence");
+    }
+
+    /**
+     * Réalise une opération une seule fois par clé d'idempotence
+     * @param cle la clé d'idempotence (null : pas d'idempotence)
+     * @param requete description de la requête (compte, type d'opération, montant...)
+     * @param operation l'opération
+     * @return la position obtenue par l'opération, ou celle obtenue la première fois pour cette clé
+     * @throws CleIdempotenceInvalideException si la clé est trop longue
+     * @throws CleIdempotenceException si la clé est en cours d'utilisation ou a servi pour une autre requête
+     */
+    public Position executer(String cle, String requete, Supplier<Position> operation)
+            throws CleIdempotenceInvalideException, CleIdempotenceException {
+        if (cle == null || cle.isBlank())
+            return operation.get();
+        if (cle.length() > ReponseIdempotente.LONGUEUR_CLE)
+            throw new CleIdempotenceInvalideException("La clé d'idempotence dépasse "
+                    + ReponseIdempotente.LONGUEUR_CLE + " caractères.");
+        Reponse reponse = reponses.getIfPresent(cle);
+        if (reponse == null)
+            reponse = reserver(cle, requete);
+        if (reponse != null) {
+            verifierRequete(cle, requete, reponse);
+            if (!reponse.enBase())
+                enregistrer(cle, reponse);
+            return reponse.position();
+        }
+        // la clé est réservée : on réalise l'opération
+        final Position position;
+        try {
+            position = operation.get();
+        } catch (RuntimeException e) {
+            liberer(cle);
+            throw e;
+        }
+        // l'opération a eu lieu : sa réponse est renvoyée même si elle ne peut pas être écrite en base
+        enregistrer(cle, new Reponse(requete, position, false));
+        return position;
+    }
+
+    /**
+     * Supprime régulièrement les réponses expirées de la base
+     */
+    @Scheduled(fixedDelayString = "${banque.idempotence.purge:PT10M}")
+    public void purger() {
+        Instant limite = Instant.now().minus(duree);
+        Integer supprimees = transactionTemplate.execute(status -> reponseIdempotenteRepository.supprimerAvant(limite));
+        if (supprimees != null && supprimees > 0)
+            logger.info("{} réponses d'idempotence expirées supprimées", supprimees);
+    }
+
+    /**
+     * Réserve une clé en base, ou retrouve la réponse déjà enregistrée pour cette clé
+     * @param cle la clé
+     * @param requete description de la requête
+     * @return la réponse enregistrée, null si la clé vient d'être réservée
+     * @throws CleIdempotenceException si une requête avec cette clé est en cours
+     */
+    private Reponse reserver(String cle, String requete) throws CleIdempotenceException {
+        Optional<ReponseIdempotente> existante;
+        try {
+            existante = transactionTemplate.execute(status -> {
+                Optional<ReponseIdempotente> r = reponseIdempotenteRepository.findById(cle);
+                if (r.isEmpty())
+                    reponseIdempotenteRepository.save(new ReponseIdempotente(cle, requete, Instant.now()));
+                return r;
+            });
+        } catch (DataIntegrityViolationException e) {
+            // une autre requête a réservé la clé en même temps
+            throw new CleIdempotenceException("Une requête avec la clé d'idempotence " + cle + " est en cours.");
+        }
+        if (existante == null || existante.isEmpty())
+            return null;
+        ReponseIdempotente r = existante.get();
+        if (r.getSolde() == null) {
+            verifierRequete(cle, requete, new Reponse(r.getRequete(), null, true));
+            throw new CleIdempotenceException("Une requête avec la clé d'idempotence " + cle + " est en cours.");
+        }
+        Reponse reponse = new Reponse(r.getRequete(), new Position(r.getSolde(),
+                GregorianCalendar.from(r.getDateInterrogation().atZone(ZoneId.systemDefault()))), true);
+        reponses.put(cle, reponse);
+        return reponse;
+    }
+
+    /**
+     * Écrit en base la réponse d'une clé réservée et la garde en mémoire
+     * Si l'écriture échoue, la réponse est gardée en mémoire comme non écrite : elle sera réécrite au prochain rejeu.
+     * @param cle la clé
+     * @param reponse la réponse obtenue par l'opération
+     */
+    private void enregistrer(String cle, Reponse reponse) {
+        Position position = reponse.position();
+        try {
+            transactionTemplate.executeWithoutResult(status -> reponseIdempotenteRepository.findById(cle).ifPresent(r -> {
+                r.setSolde(position.getSolde());
+                r.setDateInterrogation(position.getDateInterrogation().toInstant());
+            }));
+        } catch (RuntimeException e) {
+            logger.warn("Impossible d'écrire la réponse de la clé d'idempotence {} (gardée en mémoire)", cle, e);
+            reponses.put(cle, reponse);
+            return;
+        }
+        reponses.put(cle, new Reponse(reponse.requete(), position, true));
+    }
+
+    /**
+     * Supprime la réservation d'une clé dont l'opération a échoué
+     * @param cle la clé
+     */
+    private void liberer(String cle) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> reponseIdempotenteRepository.deleteById(cle));
+        } catch (RuntimeException e) {
+            logger.warn("Impossible de libérer la clé d'idempotence {}", cle, e);
+        }
+    }
+
+    /**
+     * Vérifie qu'une clé est réutilisée pour la même requête
+     * @param cle la clé
+     * @param requete description de la requête
+     * @param reponse la réponse enregistrée
+     * @throws CleIdempotenceException si la clé a servi pour une autre requête
+     */
+    private void verifierRequete(String cle, String requete, Reponse reponse) throws CleIdempotenceException {
+        if (!reponse.requete().equals(requete))
+            throw new CleIdempotenceException("La clé d'idempotence " + cle + " a déjà servi pour une autre requête.");
+    }
+}
@@ -0,0 +1,11 @@
+package org.miage.tpae.metier;
+
+import org.miage.tpae.entities.Compte;
+
+/**
+ * Événement publié par ServiceCompte quand un compte est créé ou modifié (solde, clôture)
+ * Le compte est celui de la transaction : après la validation il porte sa nouvelle version.
+ * @param compte le compte modifié
+ */
+public record CompteModifie(Compte compte) {
+}
@@ -0,0 +1,22 @@
+package org.miage.tpae.metier;
+
+import org.miage.tpae.export.OperationExport;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination des opérations diffusées par RelaisEvenements (fichier, file de messages...)
+ * Les événements d'un lot ne sont supprimés de la boîte d'envoi qu'après le retour de publier :
+ * une destination doit les avoir rendus durables. Un lot peut être publié deux fois (panne entre la publication
+ * et la suppression) : les consommateurs dédoublonnent sur l'id de l'opération.
+ */
+public interface DestinationEvenements {
+
+    /**
+     * Publie un lot d'opérations
+     * @param operations les opérations, dans l'ordre de la boîte d'envoi
+     * @throws IOException si la publication a échoué (le lot sera repris)
+     */
+    void publier(List<OperationExport> operations) throws IOException;
+}
@@ -0,0 +1,22 @@
+package org.miage.tpae.metier;
+
+/**
+ * Niveaux de durabilité de l'enregistrement des consultations (cf. JournalConsultations)
+ */
+public enum DurabiliteConsultation {
+    /**
+     * La consultation attend que le lot qui la contient soit validé en base
+     * (les consultations concurrentes sont validées ensemble)
+     */
+    SYNCHRONE,
+    /**
+     * La consultation est mise dans la file et on attend qu'il y ait de la place si elle est pleine :
+     * rien n'est perdu, sauf en cas d'arrêt brutal de l'application ou de lot refusé par la base
+     * (un lot en erreur transitoire est réessayé, cf. JournalConsultations)
+     */
+    FIABLE,
+    /**
+     * La consultation est mise dans la file si elle n'est pas pleine, sinon elle est perdue (et comptée)
+     */
+    AU_MIEUX
+}
@@ -0,0 +1,165 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Exécute un traitement dans sa propre transaction et le rejoue en cas de conflit d'accès
+ * (verrou non obtenu, interblocage, version périmée).
+ * Les reprises sont espacées par une attente exponentielle bornée (avec une part aléatoire)
+ * et le nombre de tentatives est limité.
+ *
+ * Métriques exposées (tag "operation") :
+ * banque.verrou.conflits, banque.verrou.reprises, banque.verrou.abandons et banque.verrou.duree
+ */
+@Component
+public class ExecuteurTransactionnel {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(ExecuteurTransactionnel.class);
+
+    /**
+     * Permet d'ouvrir une nouvelle transaction pour chaque tentative
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Permet d'ouvrir une transaction en lecture seule (cf. lire)
+     */
+    private final TransactionTemplate transactionLecture;
+
+    /**
+     * Registre des métriques
+     */
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Nombre maximum de tentatives (la première comprise)
+     */
+    private final int tentativesMax;
+
+    /**
+     * Attente avant la première reprise (en ms)
+     */
+    private final long attenteInitiale;
+
+    /**
+     * Attente maximale entre deux tentatives (en ms)
+     */
+    private final long attenteMax;
+
+    /**
+     * Constructeur pour l'injection
+     * @param transactionManager gestionnaire de transactions
+     * @param meterRegistry registre des métriques
+     * @param tentativesMax nombre maximum de tentatives
+     * @param attenteInitiale attente avant la première reprise (en ms)
+     * @param attenteMax attente maximale entre deux tentatives (en ms)
+     */
+    public ExecuteurTransactionnel(PlatformTransactionManager transactionManager,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${banque.verrouillage.tentatives-max:5}") int tentativesMax,
+                                   @Value("${banque.verrouillage.attente-initiale:10}") long attenteInitiale,
+                                   @Value("${banque.verrouillage.attente-max:200}") long attenteMax) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionLecture = new TransactionTemplate(transactionManager);
+        this.transactionLecture.setReadOnly(true);
+        this.meterRegistry = meterRegistry;
+        this.tentativesMax = Math.max(1, tentativesMax);
+        this.attenteInitiale = attenteInitiale;
+        this.attenteMax = attenteMax;
+    }
+
+    /**
+     * Exécute un traitement dans une transaction en le rejouant en cas de conflit
+     * Si une transaction est déjà en cours, le traitement y participe et n'est pas rejoué :
+     * c'est alors à l'appelant de gérer la reprise de toute sa transaction.
+     * @param operation nom de l'opération (pour les métriques et les logs)
+     * @param traitement le traitement à réaliser
+     * @return le résultat du traitement
+     * @param <T> type du résultat
+     * @throws ConcurrencyFailureException si le conflit persiste après la dernière tentative
+     */
+    public <T> T executer(String operation, Supplier<T> traitement) throws ConcurrencyFailureException {
+        // on ne peut pas rejouer une partie d'une transaction englobante
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return traitement.get();
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            int tentative = 1;
+            while (true) {
+                try {
+                    return transactionTemplate.execute(status -> traitement.get());
+                } catch (ConcurrencyFailureException e) {
+                    meterRegistry.counter("banque.verrou.conflits", "operation", operation).increment();
+                    if (tentative >= tentativesMax) {
+                        meterRegistry.counter("banque.verrou.abandons", "operation", operation).increment();
+                        logger.warn("Abandon de l'opération {} après {} tentatives", operation, tentative);
+                        throw e;
+                    }
+                    meterRegistry.counter("banque.verrou.reprises", "operation", operation).increment();
+                    logger.debug("Conflit sur l'opération {} (tentative {}) : {}", operation, tentative, e.getMessage());
+                    attendre(tentative);
+                    tentative++;
+                }
+            }
+        } finally {
+            sample.stop(meterRegistry.timer("banque.verrou.duree", "operation", operation));
+        }
+    }
+
+    /**
+     * Exécute un traitement sans résultat dans une transaction en le rejouant en cas de conflit
+     * @param operation nom de l'opération (pour les métriques et les logs)
+     * @param traitement le traitement à réaliser
+     * @throws ConcurrencyFailureException si le conflit persiste après la dernière tentative
+     */
+    public void executer(String operation, Runnable traitement) throws ConcurrencyFailureException {
+        executer(operation, () -> {
+            traitement.run();
+            return null;
+        });
+    }
+
+    /**
+     * Exécute une lecture dans sa propre transaction en lecture seule (servie par une réplique si possible)
+     * La connexion est rendue dès la fin de la lecture, même si l'appelant continue (attente d'une écriture...).
+     * Si une transaction est déjà en cours, la lecture y participe.
+     * @param lecture la lecture à réaliser
+     * @return le résultat de la lecture
+     * @param <T> type du résultat
+     */
+    public <T> T lire(Supplier<T> lecture) {
+        return transactionLecture.execute(status -> lecture.get());
+    }
+
+    /**
+     * Attente exponentielle bornée avec une part aléatoire (pour désynchroniser les reprises concurrentes)
+     * @param tentative numéro de la tentative qui vient d'échouer
+     */
+    private void attendre(int tentative) {
+        long plafond = Math.min(attenteMax, attenteInitiale << Math.min(tentative - 1, 20));
+        if (plafond <= 0)
+            return;
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(plafond / 2, plafond + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interruption pendant l'attente avant reprise", e);
+        }
+    }
+}
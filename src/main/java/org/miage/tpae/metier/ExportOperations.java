@@ -0,0 +1,435 @@
+package org.miage.tpae.metier;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.export.EtatExport;
+import org.miage.tpae.export.ManifesteExport;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.SegmentExport;
+import org.miage.tpae.utilities.ExportInconnuException;
+import org.miage.tpae.utilities.PeriodeInvalideException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export en masse des opérations d'une période dans des fichiers compressés (gzip), pour les extractions réglementaires
+ *
+ * Les comptes sont répartis en banque.export.paralleles plages d'ids consécutifs, exportées en parallèle :
+ * chaque plage lit ses opérations avec un curseur (cf. OperationCompteRepository.streamPourExport) et les écrit
+ * au fur et à mesure. Un fichier est fermé dès qu'il contient banque.export.taille-segment octets (avant compression)
+ * et le suivant est ouvert : la mémoire utilisée ne dépend ni de la période ni du nombre d'opérations.
+ *
+ * Chaque export a son répertoire (sous banque.export.repertoire). Le manifeste (manifeste.json) y est écrit en dernier,
+ * avec le nombre de lignes et l'empreinte SHA-256 de chaque fichier : un répertoire sans manifeste est un export
+ * qui a échoué ou qui n'est pas terminé.
+ *
+ * Un export lancé par l'API (cf. lancer) s'exécute en arrière-plan, un seul à la fois (les suivants attendent) :
+ * l'appelant suit son état (cf. etat) au lieu de garder une requête HTTP ouverte pendant tout l'export.
+ */
+@Service
+public class ExportOperations {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(ExportOperations.class);
+
+    /**
+     * Taille des tampons d'écriture
+     */
+    private static final int TAILLE_TAMPON = 1 << 16;
+
+    /**
+     * Bean repository pour les opérations
+     */
+    private final OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Bean repository pour les comptes
+     */
+    private final CompteRepository compteRepository;
+
+    /**
+     * Permet de lire chaque plage dans sa propre transaction (en lecture seule)
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Bean de conversion JSON (format NDJSON et manifeste)
+     */
+    private final JsonMapper jsonMapper;
+
+    /**
+     * Répertoire des exports
+     */
+    private final Path repertoire;
+
+    /**
+     * Nombre de plages de comptes exportées en parallèle
+     */
+    private final int paralleles;
+
+    /**
+     * Taille maximale d'un fichier avant compression (en octets)
+     */
+    private final long tailleSegment;
+
+    /**
+     * Exécute les exports lancés par l'API, un à la fois
+     */
+    private final ExecutorService lanceur = Executors.newSingleThreadExecutor(r -> new Thread(r, "export-operations"));
+
+    /**
+     * Exports lancés par l'API, en attente, en cours ou en échec (un export terminé est retrouvé par son manifeste)
+     */
+    private final Map<String, CompletableFuture<ManifesteExport>> exportsLances = new ConcurrentHashMap<>();
+
+    /**
+     * Constructeur pour l'injection
+     * @param operationCompteRepository bean repo opérations injecté
+     * @param compteRepository bean repo comptes injecté
+     * @param transactionManager gestionnaire de transactions
+     * @param jsonMapper bean de conversion JSON injecté
+     * @param repertoire répertoire des exports
+     * @param paralleles nombre de plages de comptes exportées en parallèle
+     * @param tailleSegment taille maximale d'un fichier avant compression (en octets)
+     */
+    public ExportOperations(OperationCompteRepository operationCompteRepository,
+                            CompteRepository compteRepository,
+                            PlatformTransactionManager transactionManager,
+                            JsonMapper jsonMapper,
+                            @Value("${banque.export.repertoire:exports}") String repertoire,
+                            @Value("${banque.export.paralleles:4}") int paralleles,
+                            @Value("${banque.export.taille-segment:268435456}") long tailleSegment) {
+        this.operationCompteRepository = operationCompteRepository;
+        this.compteRepository = compteRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.jsonMapper = jsonMapper;
+        this.repertoire = Path.of(repertoire);
+        this.paralleles = Math.max(1, paralleles);
+        this.tailleSegment = Math.max(1, tailleSegment);
+    }
+
+    /**
+     * Lance en arrière-plan l'export de toutes les opérations d'une période
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @param format format des fichiers
+     * @return l'état de l'export (son id permet de suivre son avancement)
+     * @throws PeriodeInvalideException si la fin est avant le début
+     */
+    public EtatExport lancer(Calendar debut, Calendar fin, FormatExport format) throws PeriodeInvalideException {
+        verifierPeriode(debut, fin);
+        String id = UUID.randomUUID().toString();
+        CompletableFuture<ManifesteExport> export = CompletableFuture.supplyAsync(
+                () -> exporter(id, debut, fin, format), lanceur);
+        exportsLances.put(id, export);
+        export.whenComplete((manifeste, erreur) -> {
+            if (erreur == null)
+                exportsLances.remove(id);
+            else
+                logger.error("Échec de l'export {}", id, erreur);
+        });
+        return new EtatExport(id, "EN_COURS", null, null);
+    }
+
+    /**
+     * Donne l'état d'un export
+     * @param id identifiant de l'export
+     * @return l'état de l'export (avec son manifeste s'il est terminé)
+     * @throws ExportInconnuException si aucun export n'a cet identifiant
+     * @throws UncheckedIOException en cas de problème de lecture du manifeste
+     */
+    public EtatExport etat(String id) throws ExportInconnuException {
+        CompletableFuture<ManifesteExport> export = exportsLances.get(id);
+        if (export != null && !export.isDone())
+            return new EtatExport(id, "EN_COURS", null, null);
+        if (export != null && export.isCompletedExceptionally()) {
+            try {
+                export.join();
+            } catch (CompletionException e) {
+                return new EtatExport(id, "ECHEC", e.getCause().getMessage(), null);
+            }
+        }
+        // l'id désigne un répertoire : seul un UUID est accepté
+        Path manifeste;
+        try {
+            manifeste = repertoire.resolve(UUID.fromString(id).toString()).resolve("manifeste.json");
+        } catch (IllegalArgumentException e) {
+            throw new ExportInconnuException("Export inconnu : " + id);
+        }
+        if (!Files.exists(manifeste))
+            throw new ExportInconnuException("Export inconnu : " + id);
+        try {
+            return new EtatExport(id, "TERMINE", null,
+                    jsonMapper.readValue(Files.readString(manifeste), ManifesteExport.class));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lire le manifeste de l'export " + id, e);
+        }
+    }
+
+    /**
+     * Exporte toutes les opérations d'une période
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @param format format des fichiers
+     * @return le manifeste de l'export
+     * @throws PeriodeInvalideException si la fin est avant le début
+     * @throws UncheckedIOException en cas de problème d'écriture des fichiers
+     */
+    public ManifesteExport exporter(Calendar debut, Calendar fin, FormatExport format) throws PeriodeInvalideException {
+        verifierPeriode(debut, fin);
+        return exporter(UUID.randomUUID().toString(), debut, fin, format);
+    }
+
+    /**
+     * Arrêt des exports lancés par l'API (arrêt de l'application)
+     */
+    @PreDestroy
+    public void arreter() {
+        lanceur.shutdownNow();
+    }
+
+    /**
+     * Vérifie la période d'un export
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @throws PeriodeInvalideException si la fin est avant le début
+     */
+    private static void verifierPeriode(Calendar debut, Calendar fin) throws PeriodeInvalideException {
+        if (fin.before(debut))
+            throw new PeriodeInvalideException("La fin de la période est avant son début");
+    }
+
+    /**
+     * Exporte toutes les opérations d'une période (les plages de comptes en parallèle)
+     * @param id identifiant de l'export (nom de son répertoire)
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @param format format des fichiers
+     * @return le manifeste de l'export
+     * @throws UncheckedIOException en cas de problème d'écriture des fichiers
+     */
+    private ManifesteExport exporter(String id, Calendar debut, Calendar fin, FormatExport format) {
+        Path dossier = repertoire.resolve(id);
+        try {
+            Files.createDirectories(dossier);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de créer le répertoire d'export " + dossier, e);
+        }
+        long debutExport = System.currentTimeMillis();
+        List<long[]> plages = TraitementParPlages.decouper(compteRepository.idMin(), compteRepository.idMax(), paralleles);
+        List<SegmentExport> segments = new ArrayList<>();
+        for (List<SegmentExport> segmentsPlage : TraitementParPlages.traiter("export-operations",
+                IntStream.range(0, plages.size()).boxed().toList(),
+                numero -> exporterPlage(dossier, numero, plages.get(numero), debut, fin, format)))
+            segments.addAll(segmentsPlage);
+        long lignes = segments.stream().mapToLong(SegmentExport::getLignes).sum();
+        ManifesteExport manifeste = new ManifesteExport(id, debut, fin, format.name(), lignes, segments);
+        try {
+            Files.writeString(dossier.resolve("manifeste.json"), jsonMapper.writeValueAsString(manifeste));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'écrire le manifeste de l'export " + id, e);
+        }
+        logger.info("Export {} : {} opérations dans {} fichiers en {} ms", id, lignes, segments.size(),
+                System.currentTimeMillis() - debutExport);
+        return manifeste;
+    }
+
+    /**
+     * Exporte les opérations d'une plage de comptes (dans un thread de l'export)
+     * @param dossier répertoire de l'export
+     * @param numero numéro de la plage
+     * @param plage la plage { premier id, dernier id }
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @param format format des fichiers
+     * @return les fichiers écrits
+     */
+    private List<SegmentExport> exporterPlage(Path dossier, int numero, long[] plage, Calendar debut, Calendar fin,
+                                              FormatExport format) {
+        EcrivainPlage ecrivain = new EcrivainPlage(dossier, numero, format);
+        try (ecrivain) {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<OperationExport> operations = operationCompteRepository.streamPourExport(debut, fin, plage[0], plage[1])) {
+                    operations.forEach(operation -> {
+                        try {
+                            ecrivain.ecrire(operation);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'écrire l'export dans " + dossier, e);
+        }
+        return ecrivain.segments;
+    }
+
+    /**
+     * Écrit les opérations d'une plage dans des fichiers compressés successifs
+     */
+    private final class EcrivainPlage implements Closeable {
+
+        /**
+         * Répertoire de l'export
+         */
+        private final Path dossier;
+
+        /**
+         * Numéro de la plage
+         */
+        private final int numero;
+
+        /**
+         * Format des fichiers
+         */
+        private final FormatExport format;
+
+        /**
+         * Fichiers fermés
+         */
+        private final List<SegmentExport> segments = new ArrayList<>();
+
+        /**
+         * Fichier en cours (null si aucun n'est ouvert)
+         */
+        private String fichier;
+
+        /**
+         * Flux d'écriture du fichier en cours (avant compression)
+         */
+        private OutputStream sortie;
+
+        /**
+         * Calcul de l'empreinte du fichier en cours (après compression)
+         */
+        private MessageDigest empreinte;
+
+        /**
+         * Nombre de lignes et d'octets (avant compression) du fichier en cours
+         */
+        private long lignes;
+        private long octets;
+
+        /**
+         * Plus petit et plus grand id de compte des opérations du fichier en cours
+         */
+        private long idCompteMin;
+        private long idCompteMax;
+
+        /**
+         * Constructeur
+         * @param dossier répertoire de l'export
+         * @param numero numéro de la plage
+         * @param format format des fichiers
+         */
+        EcrivainPlage(Path dossier, int numero, FormatExport format) {
+            this.dossier = dossier;
+            this.numero = numero;
+            this.format = format;
+        }
+
+        /**
+         * Écrit une opération (un nouveau fichier est ouvert si besoin)
+         * @param operation l'opération
+         * @throws IOException en cas de problème d'écriture
+         */
+        void ecrire(OperationExport operation) throws IOException {
+            if (sortie == null)
+                ouvrir();
+            byte[] ligne = formater(operation);
+            sortie.write(ligne);
+            idCompteMin = lignes == 0 ? operation.getIdCompte() : Math.min(idCompteMin, operation.getIdCompte());
+            idCompteMax = Math.max(idCompteMax, operation.getIdCompte());
+            lignes++;
+            octets += ligne.length;
+            if (octets >= tailleSegment)
+                fermerSegment();
+        }
+
+        /**
+         * Ferme le fichier en cours
+         * @throws IOException en cas de problème d'écriture
+         */
+        @Override
+        public void close() throws IOException {
+            if (sortie != null)
+                fermerSegment();
+        }
+
+        /**
+         * Ouvre le fichier suivant de la plage
+         * @throws IOException en cas de problème d'écriture
+         */
+        private void ouvrir() throws IOException {
+            String extension = format == FormatExport.CSV ? ".csv.gz" : ".ndjson.gz";
+            fichier = "operations-" + numero + "-" + segments.size() + extension;
+            try {
+                empreinte = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            OutputStream fichierCompresse = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(dossier.resolve(fichier)), TAILLE_TAMPON), empreinte);
+            sortie = new BufferedOutputStream(new GZIPOutputStream(fichierCompresse, TAILLE_TAMPON), TAILLE_TAMPON);
+            lignes = 0;
+            octets = 0;
+            idCompteMax = 0;
+            if (format == FormatExport.CSV) {
+                byte[] entete = "id,idCompte,operationType,valeur,dateOperation\n".getBytes(StandardCharsets.UTF_8);
+                sortie.write(entete);
+                octets += entete.length;
+            }
+        }
+
+        /**
+         * Ferme le fichier en cours et l'ajoute à la liste des fichiers
+         * @throws IOException en cas de problème d'écriture
+         */
+        private void fermerSegment() throws IOException {
+            sortie.close();
+            sortie = null;
+            segments.add(new SegmentExport(fichier, idCompteMin, idCompteMax, lignes, Files.size(dossier.resolve(fichier)),
+                    HexFormat.of().formatHex(empreinte.digest())));
+        }
+
+        /**
+         * Met une opération au format des fichiers
+         * @param operation l'opération
+         * @return la ligne (avec son retour à la ligne) en UTF-8
+         */
+        private byte[] formater(OperationExport operation) {
+            String ligne = format == FormatExport.CSV
+                    ? operation.getId() + "," + operation.getIdCompte() + "," + operation.getOperationType() + ","
+                        + operation.getValeur() + "," + operation.getDateOperation().toInstant()
+                    : jsonMapper.writeValueAsString(operation);
+            return (ligne + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.miage.tpae.metier;
+
+import org.miage.tpae.export.OperationExport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Destination locale des opérations diffusées : ajout en NDJSON à la fin d'un fichier, forcé sur disque à chaque lot
+ * (banque.outbox.destination=fichier, la valeur par défaut). Pour une autre destination, changer la propriété
+ * et déclarer un bean DestinationEvenements.
+ */
+@Component
+@ConditionalOnProperty(name = "banque.outbox.destination", havingValue = "fichier", matchIfMissing = true)
+public class FichierEvenements implements DestinationEvenements {
+
+    /**
+     * Fichier des opérations diffusées
+     */
+    private final Path fichier;
+
+    /**
+     * Bean de conversion JSON
+     */
+    private final JsonMapper jsonMapper;
+
+    /**
+     * Constructeur pour l'injection
+     * @param fichier fichier des opérations diffusées
+     * @param jsonMapper bean de conversion JSON injecté
+     */
+    public FichierEvenements(@Value("${banque.outbox.fichier:evenements/operations.ndjson}") String fichier,
+                             JsonMapper jsonMapper) {
+        this.fichier = Path.of(fichier);
+        this.jsonMapper = jsonMapper;
+    }
+
+    /**
+     * Ajoute un lot d'opérations à la fin du fichier (une ligne JSON par opération)
+     * @param operations les opérations
+     * @throws IOException en cas de problème d'écriture
+     */
+    @Override
+    public synchronized void publier(List<OperationExport> operations) throws IOException {
+        StringBuilder lignes = new StringBuilder();
+        for (OperationExport operation : operations)
+            lignes.append(jsonMapper.writeValueAsString(operation)).append('\n');
+        if (fichier.getParent() != null)
+            Files.createDirectories(fichier.getParent());
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer tampon = ByteBuffer.wrap(lignes.toString().getBytes(StandardCharsets.UTF_8));
+            while (tampon.hasRemaining())
+                canal.write(tampon);
+            canal.force(false);
+        }
+    }
+}
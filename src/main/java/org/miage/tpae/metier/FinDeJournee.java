@@ -0,0 +1,290 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionFinDeJourneeRepository;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.entities.PositionFinDeJournee;
+import org.miage.tpae.export.RapportFinDeJournee;
+import org.miage.tpae.utilities.TraitementImpossibleException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Traitement de fin de journée : applique à chaque compte actif les règles de fin de journée
+ * (cf. RegleFinDeJournee : intérêts, frais...) et enregistre les crédits et débits correspondants
+ *
+ * Les comptes sont répartis en banque.fin-de-journee.paralleles plages d'ids consécutifs, traitées en parallèle.
+ * Chaque plage est lue par lots de banque.fin-de-journee.taille-lot comptes (pagination sur curseur) ; un lot est
+ * écrit dans une seule transaction : opérations insérées et soldes mis à jour par lots JDBC, avec l'avancement
+ * de la plage (cf. PositionFinDeJournee). Un lot en conflit avec une autre modification (version du compte)
+ * est rejoué (cf. ExecuteurTransactionnel).
+ *
+ * Reprise : les plages d'un jour sont enregistrées au premier lancement ; relancer le traitement du même jour
+ * reprend chaque plage après son dernier lot écrit. Un jour déjà traité ne l'est donc pas deux fois.
+ * Un débit est limité au solde du compte (pas de solde négatif, comme pour un débit au guichet).
+ *
+ * Le traitement écrit directement en base : il est refusé quand le moteur de comptes est actif (cf. MoteurComptes).
+ *
+ * Métriques exposées : banque.fin-de-journee.comptes, banque.fin-de-journee.operations
+ * et banque.fin-de-journee.lot (durée d'écriture d'un lot)
+ */
+@Service
+public class FinDeJournee {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(FinDeJournee.class);
+
+    /**
+     * Résultat de l'écriture d'un lot
+     * @param comptes nombre de comptes traités
+     * @param operations nombre d'opérations créées
+     * @param credits total crédité
+     * @param debits total débité
+     * @param dernierTraite id du dernier compte traité
+     */
+    private record ResultatLot(long comptes, long operations, double credits, double debits, long dernierTraite) {
+    }
+
+    /**
+     * Bean repository pour les comptes
+     */
+    private final CompteRepository compteRepository;
+
+    /**
+     * Bean repository pour les opérations
+     */
+    private final OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Bean repository pour l'avancement des traitements
+     */
+    private final PositionFinDeJourneeRepository positionFinDeJourneeRepository;
+
+    /**
+     * Bean qui exécute chaque lot dans une transaction et le rejoue en cas de conflit
+     */
+    private final ExecuteurTransactionnel executeur;
+
+    /**
+     * Moteur de comptes (le traitement est refusé quand il est actif)
+     */
+    private final MoteurComptes moteurComptes;
+
+    /**
+     * Publie les comptes modifiés (cf. CompteModifie)
+     */
+    private final ApplicationEventPublisher publieur;
+
+    /**
+     * Boîte d'envoi des opérations créées
+     */
+    private final BoiteEnvoi boiteEnvoi;
+
+    /**
+     * Règles appliquées à chaque compte, dans l'ordre
+     */
+    private final List<RegleFinDeJournee> regles;
+
+    /**
+     * Nombre de plages traitées en parallèle
+     */
+    private final int paralleles;
+
+    /**
+     * Nombre de comptes écrits par transaction
+     */
+    private final int tailleLot;
+
+    /**
+     * Un seul traitement à la fois
+     */
+    private final ReentrantLock verrou = new ReentrantLock();
+
+    /**
+     * Compteurs des comptes traités et des opérations créées, durée d'écriture des lots
+     */
+    private final Counter comptesTraites;
+    private final Counter operationsCreees;
+    private final Timer dureeLot;
+
+    /**
+     * Constructeur pour l'injection
+     * @param compteRepository bean repo comptes injecté
+     * @param operationCompteRepository bean repo opérations injecté
+     * @param positionFinDeJourneeRepository bean repo avancement injecté
+     * @param executeur bean d'exécution transactionnelle injecté
+     * @param moteurComptes moteur de comptes injecté
+     * @param publieur publication des événements
+     * @param boiteEnvoi boîte d'envoi des opérations
+     * @param regles règles de fin de journée injectées (dans l'ordre de leur @Order)
+     * @param meterRegistry registre des métriques
+     * @param paralleles nombre de plages traitées en parallèle
+     * @param tailleLot nombre de comptes écrits par transaction
+     */
+    public FinDeJournee(CompteRepository compteRepository,
+                        OperationCompteRepository operationCompteRepository,
+                        PositionFinDeJourneeRepository positionFinDeJourneeRepository,
+                        ExecuteurTransactionnel executeur,
+                        MoteurComptes moteurComptes,
+                        ApplicationEventPublisher publieur,
+                        BoiteEnvoi boiteEnvoi,
+                        List<RegleFinDeJournee> regles,
+                        MeterRegistry meterRegistry,
+                        @Value("${banque.fin-de-journee.paralleles:4}") int paralleles,
+                        @Value("${banque.fin-de-journee.taille-lot:500}") int tailleLot) {
+        this.compteRepository = compteRepository;
+        this.operationCompteRepository = operationCompteRepository;
+        this.positionFinDeJourneeRepository = positionFinDeJourneeRepository;
+        this.executeur = executeur;
+        this.moteurComptes = moteurComptes;
+        this.publieur = publieur;
+        this.boiteEnvoi = boiteEnvoi;
+        this.regles = List.copyOf(regles);
+        this.paralleles = Math.max(1, paralleles);
+        this.tailleLot = Math.max(1, tailleLot);
+        this.comptesTraites = Counter.builder("banque.fin-de-journee.comptes")
+                .description("Comptes traités en fin de journée").register(meterRegistry);
+        this.operationsCreees = Counter.builder("banque.fin-de-journee.operations")
+                .description("Opérations créées en fin de journée").register(meterRegistry);
+        this.dureeLot = Timer.builder("banque.fin-de-journee.lot")
+                .description("Durée d'écriture d'un lot de fin de journée").register(meterRegistry);
+    }
+
+    /**
+     * Traitement planifié du jour courant (banque.fin-de-journee.cron, désactivé par défaut)
+     */
+    @Scheduled(cron = "${banque.fin-de-journee.cron:-}")
+    public void traitementPlanifie() {
+        try {
+            traiter(LocalDate.now());
+        } catch (TraitementImpossibleException e) {
+            logger.warn("Traitement de fin de journée planifié ignoré : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Applique les règles de fin de journée à tous les comptes actifs, ou reprend le traitement interrompu du jour
+     * @param jour jour traité
+     * @return le rapport du traitement
+     * @throws TraitementImpossibleException si un traitement est en cours ou si le moteur de comptes est actif
+     */
+    public RapportFinDeJournee traiter(LocalDate jour) throws TraitementImpossibleException {
+        if (moteurComptes.isActif())
+            throw new TraitementImpossibleException("Traitement de fin de journée impossible : le moteur de comptes est actif");
+        if (!verrou.tryLock())
+            throw new TraitementImpossibleException("Un traitement de fin de journée est déjà en cours");
+        try {
+            long debut = System.currentTimeMillis();
+            List<PositionFinDeJournee> positions = positionFinDeJourneeRepository.findByJourOrderByPlage(jour);
+            boolean reprise = !positions.isEmpty();
+            if (reprise) {
+                logger.info("Reprise du traitement de fin de journée du {}", jour);
+            } else {
+                positions = new ArrayList<>();
+                List<long[]> plages = TraitementParPlages.decouper(compteRepository.idMin(), compteRepository.idMax(), paralleles);
+                for (int i = 0; i < plages.size(); i++)
+                    positions.add(new PositionFinDeJournee(jour + "/" + i, jour, i, plages.get(i)[0], plages.get(i)[1],
+                            plages.get(i)[0] - 1));
+                positionFinDeJourneeRepository.saveAll(positions);
+            }
+            List<ResultatLot> resultats = TraitementParPlages.traiter("fin-de-journee", positions, this::traiterPlage);
+            RapportFinDeJournee rapport = new RapportFinDeJournee(jour, reprise,
+                    resultats.stream().mapToLong(ResultatLot::comptes).sum(),
+                    resultats.stream().mapToLong(ResultatLot::operations).sum(),
+                    resultats.stream().mapToDouble(ResultatLot::credits).sum(),
+                    resultats.stream().mapToDouble(ResultatLot::debits).sum(),
+                    System.currentTimeMillis() - debut);
+            logger.info("Fin de journée du {} : {} comptes, {} opérations en {} ms", jour, rapport.getComptes(),
+                    rapport.getOperations(), rapport.getDuree());
+            return rapport;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Traite une plage lot par lot à partir de son avancement (dans un thread du traitement)
+     * @param position avancement de la plage
+     * @return le total des lots écrits
+     */
+    private ResultatLot traiterPlage(PositionFinDeJournee position) {
+        long comptes = 0;
+        long operations = 0;
+        double credits = 0;
+        double debits = 0;
+        long apres = position.getDernierTraite();
+        while (apres < position.getDernier()) {
+            long depart = apres;
+            long debutLot = System.nanoTime();
+            ResultatLot lot = executeur.executer("fin-de-journee", () -> ecrireLot(position, depart));
+            dureeLot.record(System.nanoTime() - debutLot, TimeUnit.NANOSECONDS);
+            comptesTraites.increment(lot.comptes());
+            operationsCreees.increment(lot.operations());
+            comptes += lot.comptes();
+            operations += lot.operations();
+            credits += lot.credits();
+            debits += lot.debits();
+            apres = lot.dernierTraite();
+        }
+        return new ResultatLot(comptes, operations, credits, debits, apres);
+    }
+
+    /**
+     * Applique les règles au lot de comptes suivant d'une plage, dans une transaction avec l'avancement de la plage
+     * @param position avancement de la plage
+     * @param apres id du dernier compte déjà traité
+     * @return le résultat du lot
+     */
+    private ResultatLot ecrireLot(PositionFinDeJournee position, long apres) {
+        List<Compte> comptes = compteRepository.findLotActifs(apres, position.getDernier(), Limit.of(tailleLot));
+        List<OperationCompte> operations = new ArrayList<>();
+        double credits = 0;
+        double debits = 0;
+        for (Compte compte : comptes) {
+            double soldeInitial = compte.getSolde();
+            for (RegleFinDeJournee regle : regles) {
+                double montant = regle.montant(compte.getId(), compte.getSolde(), position.getJour());
+                if (montant > 0) {
+                    compte.setSolde(compte.getSolde() + montant);
+                    operations.add(new OperationCompte(compte, OperationCompte.OperationType.CREDIT, montant));
+                    credits += montant;
+                } else if (montant < 0) {
+                    // pas de solde négatif
+                    double debit = Math.min(-montant, compte.getSolde());
+                    if (debit > 0) {
+                        compte.setSolde(compte.getSolde() - debit);
+                        operations.add(new OperationCompte(compte, OperationCompte.OperationType.DEBIT, debit));
+                        debits += debit;
+                    }
+                }
+            }
+            if (compte.getSolde() != soldeInitial)
+                publieur.publishEvent(new CompteModifie(compte));
+        }
+        // insertions et mises à jour par lots JDBC à la validation
+        operationCompteRepository.saveAll(operations);
+        boiteEnvoi.ajouter(operations);
+        long dernierTraite = comptes.size() < tailleLot ? position.getDernier() : comptes.get(comptes.size() - 1).getId();
+        positionFinDeJourneeRepository.save(new PositionFinDeJournee(position.getId(), position.getJour(),
+                position.getPlage(), position.getPremier(), position.getDernier(), dernierTraite));
+        return new ResultatLot(comptes.size(), operations.size(), credits, debits, dernierTraite);
+    }
+}
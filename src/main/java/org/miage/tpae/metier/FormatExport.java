@@ -0,0 +1,15 @@
+package org.miage.tpae.metier;
+
+/**
+ * Formats des fichiers d'export des opérations (cf. ExportOperations)
+ */
+public enum FormatExport {
+    /**
+     * Une ligne CSV par opération (id,idCompte,operationType,valeur,dateOperation), avec une ligne d'en-tête
+     */
+    CSV,
+    /**
+     * Une opération JSON par ligne
+     */
+    NDJSON
+}
@@ -0,0 +1,42 @@
+package org.miage.tpae.metier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+/**
+ * Frais de tenue de compte, prélevés le dernier jour du mois (banque.fin-de-journee.frais-mensuels, 0 pour aucun frais)
+ */
+@Component
+@Order(2)
+public class FraisTenueCompte implements RegleFinDeJournee {
+
+    /**
+     * Montant des frais mensuels
+     */
+    private final double fraisMensuels;
+
+    /**
+     * Constructeur pour l'injection
+     * @param fraisMensuels montant des frais mensuels
+     */
+    public FraisTenueCompte(@Value("${banque.fin-de-journee.frais-mensuels:0}") double fraisMensuels) {
+        this.fraisMensuels = fraisMensuels;
+    }
+
+    /**
+     * Frais du jour
+     * @param idCompte id du compte
+     * @param solde solde du compte
+     * @param jour jour traité
+     * @return les frais à débiter (négatif) le dernier jour du mois, 0 sinon
+     */
+    @Override
+    public double montant(long idCompte, double solde, LocalDate jour) {
+        if (fraisMensuels <= 0 || jour.getDayOfMonth() != jour.lengthOfMonth())
+            return 0;
+        return -fraisMensuels;
+    }
+}
@@ -0,0 +1,283 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.ClientRepository;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionImportRepository;
+import org.miage.tpae.entities.Client;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.entities.PositionImport;
+import org.miage.tpae.export.ProgressionImport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Import en masse de clients et de comptes depuis un fichier CSV
+ * Chaque ligne ouvre un compte : prenom,nom,solde (une ligne d'en-tête commençant par "prenom" est ignorée).
+ *
+ * Le fichier est lu au fur et à mesure et traité par lots de banque.import.taille-lot lignes :
+ * pour chaque lot, les clients déjà en base sont cherchés en une requête, les clients répétés dans le lot
+ * ne sont créés qu'une fois, puis les clients, comptes et opérations d'ouverture sont insérés par lots JDBC.
+ * L'avancement (cf. PositionImport) est écrit dans la même transaction que le lot : un import interrompu
+ * peut être relancé avec le même nom et le même fichier, les lignes déjà importées sont sautées.
+ *
+ * Métriques exposées : banque.import.lignes (tag resultat = importee ou rejetee)
+ */
+@Service
+public class ImportClients {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(ImportClients.class);
+
+    /**
+     * Une ligne valide du fichier
+     * @param prenom prénom du client
+     * @param nom nom du client
+     * @param solde solde initial du compte
+     */
+    private record LigneImport(String prenom, String nom, double solde) {
+    }
+
+    /**
+     * Résultat de l'écriture d'un lot
+     * @param clients nombre de clients créés
+     * @param comptes nombre de comptes ouverts
+     * @param rejets numéros des lignes rejetées
+     */
+    private record ResultatLot(int clients, int comptes, List<Long> rejets) {
+    }
+
+    /**
+     * Bean repository pour les clients
+     */
+    private final ClientRepository clientRepository;
+
+    /**
+     * Bean repository pour les comptes
+     */
+    private final CompteRepository compteRepository;
+
+    /**
+     * Bean repository pour les opérations
+     */
+    private final OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Bean repository pour l'avancement des imports
+     */
+    private final PositionImportRepository positionImportRepository;
+
+    /**
+     * Bean qui exécute chaque lot dans une transaction et le rejoue en cas de conflit
+     */
+    private final ExecuteurTransactionnel executeur;
+
+    /**
+     * Publie les comptes ouverts (cf. CompteModifie)
+     */
+    private final ApplicationEventPublisher publieur;
+
+    /**
+     * Boîte d'envoi des opérations d'ouverture
+     */
+    private final BoiteEnvoi boiteEnvoi;
+
+    /**
+     * Nombre de lignes écrites par transaction
+     */
+    private final int tailleLot;
+
+    /**
+     * Compteurs des lignes importées et rejetées
+     */
+    private final Counter lignesImportees;
+    private final Counter lignesRejetees;
+
+    /**
+     * Constructeur pour l'injection
+     * @param clientRepository bean repo clients injecté
+     * @param compteRepository bean repo comptes injecté
+     * @param operationCompteRepository bean repo opérations injecté
+     * @param positionImportRepository bean repo avancement des imports injecté
+     * @param executeur bean d'exécution transactionnelle injecté
+     * @param publieur publication des événements
+     * @param boiteEnvoi boîte d'envoi des opérations
+     * @param meterRegistry registre des métriques
+     * @param tailleLot nombre de lignes écrites par transaction
+     */
+    public ImportClients(ClientRepository clientRepository,
+                         CompteRepository compteRepository,
+                         OperationCompteRepository operationCompteRepository,
+                         PositionImportRepository positionImportRepository,
+                         ExecuteurTransactionnel executeur,
+                         ApplicationEventPublisher publieur,
+                         BoiteEnvoi boiteEnvoi,
+                         MeterRegistry meterRegistry,
+                         @Value("${banque.import.taille-lot:1000}") int tailleLot) {
+        this.clientRepository = clientRepository;
+        this.compteRepository = compteRepository;
+        this.operationCompteRepository = operationCompteRepository;
+        this.positionImportRepository = positionImportRepository;
+        this.executeur = executeur;
+        this.publieur = publieur;
+        this.boiteEnvoi = boiteEnvoi;
+        this.tailleLot = Math.max(1, tailleLot);
+        this.lignesImportees = Counter.builder("banque.import.lignes").tag("resultat", "importee")
+                .description("Lignes importées").register(meterRegistry);
+        this.lignesRejetees = Counter.builder("banque.import.lignes").tag("resultat", "rejetee")
+                .description("Lignes rejetées").register(meterRegistry);
+    }
+
+    /**
+     * Importe un fichier CSV, ou reprend son import là où il s'est arrêté
+     * @param nom nom de l'import (le même pour reprendre un import interrompu)
+     * @param lecteur lecteur du fichier
+     * @param progression reçoit l'avancement après chaque lot écrit en base
+     * @return l'avancement final
+     * @throws IOException en cas de problème de lecture du fichier
+     */
+    public ProgressionImport importer(String nom, BufferedReader lecteur, Consumer<ProgressionImport> progression)
+            throws IOException {
+        long dejaTraitees = positionImportRepository.findById(nom).map(PositionImport::getLignes).orElse(0L);
+        if (dejaTraitees > 0)
+            logger.info("Reprise de l'import {} après {} lignes", nom, dejaTraitees);
+        long numero = 0;
+        long clients = 0;
+        long comptes = 0;
+        List<String> lot = new ArrayList<>(tailleLot);
+        String ligne = lecteur.readLine();
+        if (ligne != null && ligne.strip().toLowerCase(Locale.ROOT).startsWith("prenom"))
+            ligne = lecteur.readLine();
+        for (; ligne != null; ligne = lecteur.readLine()) {
+            numero++;
+            // lignes déjà en base lors d'un import précédent
+            if (numero <= dejaTraitees)
+                continue;
+            lot.add(ligne);
+            if (lot.size() == tailleLot) {
+                ResultatLot resultat = ecrireLot(nom, numero - lot.size(), lot);
+                clients += resultat.clients();
+                comptes += resultat.comptes();
+                progression.accept(new ProgressionImport(nom, numero, clients, comptes, resultat.rejets(), false));
+                lot.clear();
+            }
+        }
+        List<Long> rejets = List.of();
+        if (!lot.isEmpty()) {
+            ResultatLot resultat = ecrireLot(nom, numero - lot.size(), lot);
+            clients += resultat.clients();
+            comptes += resultat.comptes();
+            rejets = resultat.rejets();
+        }
+        ProgressionImport fin = new ProgressionImport(nom, Math.max(numero, dejaTraitees), clients, comptes, rejets, true);
+        logger.info("Import {} terminé : {} clients créés, {} comptes ouverts", nom, clients, comptes);
+        progression.accept(fin);
+        return fin;
+    }
+
+    /**
+     * Écrit un lot de lignes en base, dans une transaction avec l'avancement de l'import
+     * @param nom nom de l'import
+     * @param avant nombre de lignes du fichier avant ce lot
+     * @param lignes les lignes du lot
+     * @return le résultat du lot
+     */
+    private ResultatLot ecrireLot(String nom, long avant, List<String> lignes) {
+        // analyse hors transaction
+        List<LigneImport> valides = new ArrayList<>(lignes.size());
+        List<Long> rejets = new ArrayList<>();
+        for (int i = 0; i < lignes.size(); i++) {
+            LigneImport ligne = analyser(lignes.get(i));
+            if (ligne != null)
+                valides.add(ligne);
+            else if (!lignes.get(i).isBlank())
+                rejets.add(avant + i + 1);
+        }
+        ResultatLot resultat = executeur.executer("import-clients", () -> {
+            // clients du lot déjà en base (une requête sur les couples prénom, nom), puis clients du lot créés une seule fois
+            Set<ClientRepository.PrenomNom> cles = new HashSet<>();
+            valides.forEach(l -> cles.add(new ClientRepository.PrenomNom(l.prenom(), l.nom())));
+            Map<String, Client> clientsParNom = new HashMap<>();
+            for (Client c : clientRepository.findByPrenomNomIn(cles))
+                clientsParNom.putIfAbsent(cle(c.getPrenom(), c.getNom()), c);
+            List<Client> nouveauxClients = new ArrayList<>();
+            List<Compte> comptes = new ArrayList<>(valides.size());
+            List<OperationCompte> operations = new ArrayList<>(valides.size());
+            for (LigneImport l : valides) {
+                Client client = clientsParNom.computeIfAbsent(cle(l.prenom(), l.nom()), k -> {
+                    Client nouveau = new Client();
+                    nouveau.setPrenom(l.prenom());
+                    nouveau.setNom(l.nom());
+                    nouveauxClients.add(nouveau);
+                    return nouveau;
+                });
+                Compte compte = new Compte();
+                compte.setClient(client);
+                compte.setSolde(l.solde());
+                comptes.add(compte);
+                operations.add(new OperationCompte(compte, OperationCompte.OperationType.OUVERTURE, l.solde()));
+            }
+            // insertions par lots JDBC (ids réservés par blocs dans les séquences)
+            clientRepository.saveAll(nouveauxClients);
+            compteRepository.saveAll(comptes);
+            operationCompteRepository.saveAll(operations);
+            boiteEnvoi.ajouter(operations);
+            comptes.forEach(c -> publieur.publishEvent(new CompteModifie(c)));
+            positionImportRepository.save(new PositionImport(nom, avant + lignes.size()));
+            return new ResultatLot(nouveauxClients.size(), comptes.size(), rejets);
+        });
+        lignesImportees.increment(valides.size());
+        lignesRejetees.increment(rejets.size());
+        if (!rejets.isEmpty())
+            logger.warn("Import {} : lignes rejetées {}", nom, rejets);
+        return resultat;
+    }
+
+    /**
+     * Analyse une ligne du fichier
+     * @param ligne la ligne : prenom,nom,solde
+     * @return la ligne analysée, null si elle est invalide
+     */
+    private static LigneImport analyser(String ligne) {
+        String[] champs = ligne.split(",", -1);
+        if (champs.length != 3)
+            return null;
+        String prenom = champs[0].strip();
+        String nom = champs[1].strip();
+        if (prenom.isEmpty() || nom.isEmpty())
+            return null;
+        double solde;
+        try {
+            solde = Double.parseDouble(champs[2].strip());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        // mêmes règles que l'ouverture d'un compte
+        if (!Double.isFinite(solde) || solde < 0.)
+            return null;
+        return new LigneImport(prenom, nom, solde);
+    }
+
+    /**
+     * Clé d'un client (prénom et nom)
+     * @param prenom le prénom
+     * @param nom le nom
+     * @return la clé
+     */
+    private static String cle(String prenom, String nom) {
+        return prenom + '\u0000' + nom;
+    }
+}
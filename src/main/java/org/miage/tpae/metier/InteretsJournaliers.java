@@ -0,0 +1,43 @@
+package org.miage.tpae.metier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+/**
+ * Intérêts du jour sur les soldes positifs : solde * taux annuel / nombre de jours de l'année, arrondi au centime
+ * (banque.fin-de-journee.taux-interet, 0 pour ne pas verser d'intérêts)
+ */
+@Component
+@Order(1)
+public class InteretsJournaliers implements RegleFinDeJournee {
+
+    /**
+     * Taux d'intérêt annuel (0.01 pour 1%)
+     */
+    private final double tauxAnnuel;
+
+    /**
+     * Constructeur pour l'injection
+     * @param tauxAnnuel taux d'intérêt annuel
+     */
+    public InteretsJournaliers(@Value("${banque.fin-de-journee.taux-interet:0}") double tauxAnnuel) {
+        this.tauxAnnuel = tauxAnnuel;
+    }
+
+    /**
+     * Intérêts du jour
+     * @param idCompte id du compte
+     * @param solde solde du compte
+     * @param jour jour traité
+     * @return les intérêts à créditer
+     */
+    @Override
+    public double montant(long idCompte, double solde, LocalDate jour) {
+        if (solde <= 0 || tauxAnnuel <= 0)
+            return 0;
+        return Math.round(solde * tauxAnnuel / jour.lengthOfYear() * 100) / 100.;
+    }
+}
@@ -0,0 +1,369 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Journal des consultations de comptes
+ * Les consultations sont mises dans une file bornée en mémoire et un écrivain en tâche de fond
+ * les enregistre par lots (une transaction par lot) : opérations CONSULTATION et date de dernière
+ * interrogation des comptes. La consultation d'un compte n'écrit donc plus rien en base.
+ *
+ * Le comportement quand la file est pleine dépend de la durabilité choisie (cf. DurabiliteConsultation).
+ * Après chaque lot, seuls les comptes dont la date a changé sont retirés du cache de second niveau.
+ *
+ * Un lot en conflit (verrou, interblocage) est rejoué par l'ExecuteurTransactionnel. En mode FIABLE ou SYNCHRONE,
+ * l'écrivain réessaie ensuite le même lot (toutes les banque.consultations.pause-reprise) tant que l'erreur est
+ * transitoire (base indisponible, conflit persistant) : la file se remplit et bloque les consultations au lieu
+ * de les perdre. Restent perdus (et comptés dans banque.consultations.erreurs) : un lot refusé par la base
+ * (erreur non transitoire), un lot en erreur pendant l'arrêt de l'écrivain ou écrit par l'appelant (cf. vider),
+ * et les consultations en attente lors d'un arrêt brutal.
+ *
+ * Métriques exposées :
+ * banque.consultations.attente (taille de la file), banque.consultations.ecrites,
+ * banque.consultations.perdues, banque.consultations.reprises et banque.consultations.erreurs
+ */
+@Component
+public class JournalConsultations implements SmartLifecycle {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(JournalConsultations.class);
+
+    /**
+     * Une consultation en attente d'écriture
+     * @param idCompte id du compte consulté
+     * @param solde solde lu
+     * @param date date de la consultation
+     * @param ecrite terminée quand la consultation est écrite (seulement en mode SYNCHRONE)
+     */
+    private record Consultation(long idCompte, double solde, Calendar date, CompletableFuture<Void> ecrite) {
+    }
+
+    /**
+     * Bean repository pour les comptes
+     */
+    private final CompteRepository compteRepository;
+
+    /**
+     * Bean repository pour les opérations
+     */
+    private final OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Fabrique d'EntityManager (pour retirer les comptes modifiés du cache de second niveau)
+     */
+    private final EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Écrit chaque lot dans sa transaction, rejouée en cas de conflit
+     */
+    private final ExecuteurTransactionnel executeurTransactionnel;
+
+    /**
+     * Permet d'écrire un lot dans une nouvelle transaction en lecture-écriture
+     * (écriture par l'appelant en mode SYNCHRONE, cf. enregistrer)
+     */
+    private final TransactionTemplate nouvelleTransaction;
+
+    /**
+     * Registre des métriques
+     */
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Niveau de durabilité des consultations
+     */
+    private final DurabiliteConsultation durabilite;
+
+    /**
+     * Nombre maximum de consultations écrites par transaction
+     */
+    private final int tailleLot;
+
+    /**
+     * Attente avant de réessayer un lot qui n'a pas pu être écrit (modes FIABLE et SYNCHRONE)
+     */
+    private final Duration pauseReprise;
+
+    /**
+     * File des consultations en attente d'écriture
+     */
+    private final BlockingQueue<Consultation> file;
+
+    /**
+     * Écrivain en tâche de fond (null s'il n'est pas démarré)
+     */
+    private volatile Thread ecrivain;
+
+    /**
+     * L'écrivain doit-il continuer ?
+     */
+    private volatile boolean enMarche;
+
+    /**
+     * Constructeur pour l'injection
+     * @param compteRepository bean repo comptes injecté
+     * @param operationCompteRepository bean repo opérations injecté
+     * @param entityManagerFactory fabrique d'EntityManager
+     * @param transactionManager gestionnaire de transactions
+     * @param executeurTransactionnel exécuteur des transactions rejouées en cas de conflit
+     * @param meterRegistry registre des métriques
+     * @param durabilite niveau de durabilité des consultations
+     * @param capacite nombre maximum de consultations en attente
+     * @param tailleLot nombre maximum de consultations écrites par transaction
+     * @param pauseReprise attente avant de réessayer un lot qui n'a pas pu être écrit
+     */
+    public JournalConsultations(CompteRepository compteRepository, OperationCompteRepository operationCompteRepository,
+                                EntityManagerFactory entityManagerFactory,
+                                PlatformTransactionManager transactionManager,
+                                ExecuteurTransactionnel executeurTransactionnel,
+                                MeterRegistry meterRegistry,
+                                @Value("${banque.consultations.durabilite:FIABLE}") DurabiliteConsultation durabilite,
+                                @Value("${banque.consultations.capacite:10000}") int capacite,
+                                @Value("${banque.consultations.taille-lot:500}") int tailleLot,
+                                @Value("${banque.consultations.pause-reprise:PT1S}") Duration pauseReprise) {
+        this.compteRepository = compteRepository;
+        this.operationCompteRepository = operationCompteRepository;
+        this.entityManagerFactory = entityManagerFactory;
+        this.executeurTransactionnel = executeurTransactionnel;
+        this.nouvelleTransaction = new TransactionTemplate(transactionManager);
+        this.nouvelleTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.meterRegistry = meterRegistry;
+        this.durabilite = durabilite;
+        this.tailleLot = Math.max(1, tailleLot);
+        this.pauseReprise = pauseReprise;
+        this.file = new ArrayBlockingQueue<>(Math.max(1, capacite));
+        meterRegistry.gaugeCollectionSize("banque.consultations.attente", List.of(), file);
+    }
+
+    /**
+     * Enregistre une consultation
+     * En mode SYNCHRONE, on attend que la consultation soit écrite en base
+     * (si l'écrivain n'est pas démarré, c'est l'appelant qui écrit les consultations en attente).
+     * L'appelant ne doit pas attendre dans une transaction (il garderait sa connexion pendant l'attente) :
+     * s'il est quand même dans une transaction en lecture seule (qui peut être servie par une réplique),
+     * les consultations en attente sont écrites dans une nouvelle transaction en lecture-écriture.
+     * @param idCompte id du compte consulté
+     * @param solde solde lu
+     * @param date date de la consultation
+     */
+    public void enregistrer(long idCompte, double solde, Calendar date) {
+        if (durabilite == DurabiliteConsultation.AU_MIEUX) {
+            if (!file.offer(new Consultation(idCompte, solde, date, null))) {
+                meterRegistry.counter("banque.consultations.perdues").increment();
+            }
+            return;
+        }
+        CompletableFuture<Void> ecrite = durabilite == DurabiliteConsultation.SYNCHRONE ? new CompletableFuture<>() : null;
+        try {
+            file.put(new Consultation(idCompte, solde, date, ecrite));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interruption pendant l'enregistrement d'une consultation", e);
+        }
+        if (ecrite != null) {
+            if (!enMarche) {
+                if (TransactionSynchronizationManager.isCurrentTransactionReadOnly())
+                    vider(ecriture -> nouvelleTransaction.executeWithoutResult(status -> ecriture.run()));
+                else
+                    vider();
+            }
+            ecrite.join();
+        }
+    }
+
+    /**
+     * Écrit immédiatement, dans le thread appelant, toutes les consultations en attente
+     * Si une transaction est en cours, les écritures y participent (sans reprise en cas de conflit).
+     * Un lot qui ne peut pas être écrit est perdu et compté.
+     */
+    public void vider() {
+        vider(ecriture -> executeurTransactionnel.executer("consultations", ecriture));
+    }
+
+    /**
+     * Écrit dans le thread appelant toutes les consultations en attente
+     * @param transaction exécute l'écriture d'un lot dans sa transaction
+     */
+    private void vider(Consumer<Runnable> transaction) {
+        List<Consultation> lot = new ArrayList<>(tailleLot);
+        while (file.drainTo(lot, tailleLot) > 0) {
+            try {
+                ecrire(lot, transaction);
+            } catch (RuntimeException e) {
+                perdre(lot, e);
+            }
+            lot.clear();
+        }
+    }
+
+    /**
+     * Démarre l'écrivain en tâche de fond
+     */
+    @Override
+    public synchronized void start() {
+        if (enMarche)
+            return;
+        enMarche = true;
+        ecrivain = new Thread(this::ecrireEnContinu, "journal-consultations");
+        ecrivain.setDaemon(true);
+        ecrivain.start();
+    }
+
+    /**
+     * Arrête l'écrivain après qu'il a écrit les consultations en attente
+     */
+    @Override
+    public synchronized void stop() {
+        if (!enMarche)
+            return;
+        enMarche = false;
+        try {
+            ecrivain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ecrivain = null;
+        // au cas où des consultations seraient arrivées pendant l'arrêt
+        vider();
+    }
+
+    /**
+     * L'écrivain est-il démarré ?
+     * @return vrai si l'écrivain est démarré
+     */
+    @Override
+    public boolean isRunning() {
+        return enMarche;
+    }
+
+    /**
+     * Boucle de l'écrivain : attend une consultation puis écrit tout ce qui est en attente (dans la limite d'un lot)
+     */
+    private void ecrireEnContinu() {
+        List<Consultation> lot = new ArrayList<>(tailleLot);
+        while (enMarche || !file.isEmpty()) {
+            try {
+                Consultation premiere = file.poll(100, TimeUnit.MILLISECONDS);
+                if (premiere == null)
+                    continue;
+                lot.add(premiere);
+                file.drainTo(lot, tailleLot - 1);
+                ecrireAvecReprise(lot);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lot.clear();
+            }
+        }
+    }
+
+    /**
+     * Écrit un lot de consultations pour l'écrivain
+     * Une erreur n'arrête pas l'écrivain. En mode FIABLE ou SYNCHRONE, un lot en erreur transitoire est réessayé
+     * tant que l'écrivain est en marche ; sinon le lot est perdu et compté.
+     * @param lot les consultations
+     * @throws InterruptedException si l'écrivain est interrompu pendant l'attente avant de réessayer
+     */
+    private void ecrireAvecReprise(List<Consultation> lot) throws InterruptedException {
+        while (true) {
+            try {
+                ecrire(lot, ecriture -> executeurTransactionnel.executer("consultations", ecriture));
+                return;
+            } catch (RuntimeException e) {
+                if (durabilite == DurabiliteConsultation.AU_MIEUX || !enMarche || !transitoire(e)) {
+                    perdre(lot, e);
+                    return;
+                }
+                meterRegistry.counter("banque.consultations.reprises").increment(lot.size());
+                logger.warn("Impossible d'écrire {} consultations, nouvel essai dans {}", lot.size(), pauseReprise, e);
+                LockSupport.parkNanos(pauseReprise.toNanos());
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Une erreur est-elle transitoire (le même lot peut être écrit plus tard) ?
+     * @param e l'erreur
+     * @return vrai pour un conflit, une base indisponible ou une connexion perdue
+     */
+    private static boolean transitoire(RuntimeException e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof CannotCreateTransactionException;
+    }
+
+    /**
+     * Compte un lot qui ne sera pas écrit
+     * @param lot les consultations
+     * @param e l'erreur
+     */
+    private void perdre(List<Consultation> lot, RuntimeException e) {
+        meterRegistry.counter("banque.consultations.erreurs").increment(lot.size());
+        logger.error("Impossible d'écrire {} consultations", lot.size(), e);
+        lot.forEach(c -> {
+            if (c.ecrite() != null)
+                c.ecrite().completeExceptionally(e);
+        });
+    }
+
+    /**
+     * Écrit un lot de consultations dans une transaction
+     * @param lot les consultations
+     * @param transaction exécute l'écriture du lot dans sa transaction
+     * @throws RuntimeException si le lot n'a pas pu être écrit
+     */
+    private void ecrire(List<Consultation> lot, Consumer<Runnable> transaction) {
+        // on ne garde que la date de dernière interrogation de chaque compte
+        Map<Long, Calendar> dernieresDates = new HashMap<>();
+        transaction.accept(() -> {
+            dernieresDates.clear();
+            List<OperationCompte> operations = new ArrayList<>(lot.size());
+            for (Consultation c : lot) {
+                OperationCompte oc = new OperationCompte(compteRepository.getReferenceById(c.idCompte()),
+                        OperationCompte.OperationType.CONSULTATION, c.solde());
+                oc.setDateOperation(c.date());
+                operations.add(oc);
+                dernieresDates.merge(c.idCompte(), c.date(), (d1, d2) -> d1.after(d2) ? d1 : d2);
+            }
+            operationCompteRepository.saveAll(operations);
+            dernieresDates.forEach(compteRepository::majDateInterrogation);
+        });
+        // les comptes en cache ont une date périmée
+        dernieresDates.keySet().forEach(id -> entityManagerFactory.getCache().evict(Compte.class, id));
+        meterRegistry.counter("banque.consultations.ecrites").increment(lot.size());
+        lot.forEach(c -> {
+            if (c.ecrite() != null)
+                c.ecrite().complete(null);
+        });
+    }
+}
@@ -0,0 +1,272 @@
+package org.miage.tpae.metier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Journal en ajout seul d'un shard du moteur de comptes, dans des fichiers projetés en mémoire
+ * Les entrées ont une taille fixe et sont repérées par leur indice. Le type d'une entrée est écrit en dernier :
+ * une entrée de type 0 marque la fin du journal.
+ *
+ * Le journal est découpé en segments d'un nombre fixe d'entrées, un fichier par segment (nom du journal suivi
+ * du numéro du segment). Un segment dont toutes les entrées sont écrites en base est libéré (cf. liberer) :
+ * il n'est plus projeté et son fichier est supprimé. La projection elle-même disparaît quand le ramasse-miettes
+ * récupère le segment (il n'y a pas de libération explicite d'une projection en Java 17).
+ *
+ * Un seul thread écrit (le shard), d'autres threads peuvent lire les entrées déjà écrites et pas encore libérées.
+ */
+class JournalMoteur implements Closeable {
+
+    /**
+     * Types des entrées du journal
+     */
+    enum TypeEntree {
+        CREDIT, DEBIT, VIREMENT, CLOTURE
+    }
+
+    /**
+     * Une entrée du journal
+     * @param type type de l'entrée
+     * @param idCompte compte crédité, débité ou clôturé (compte débité pour un virement)
+     * @param idAutre compte crédité pour un virement (0 sinon)
+     * @param montant montant de l'opération
+     * @param date date de l'opération (en ms depuis l'époque)
+     */
+    record Entree(TypeEntree type, long idCompte, long idAutre, double montant, long date) {
+    }
+
+    /**
+     * Taille d'une entrée en octets : type, idCompte, idAutre, montant, date
+     */
+    static final int TAILLE_ENTREE = 40;
+
+    /**
+     * Nombre d'entrées par segment par défaut (40 Mo par segment)
+     */
+    static final int ENTREES_PAR_SEGMENT = 1 << 20;
+
+    /**
+     * Accès aux longs des segments avec les garanties d'un champ volatile
+     */
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Fichier du journal (préfixe des fichiers des segments)
+     */
+    private final Path fichier;
+
+    /**
+     * Nombre d'entrées par segment
+     */
+    private final int entreesParSegment;
+
+    /**
+     * Segments projetés, par numéro de segment
+     */
+    private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+    /**
+     * Numéro du plus petit segment qui n'a pas été libéré (Long.MAX_VALUE s'il n'y a encore aucun segment)
+     */
+    private long premierSegment;
+
+    /**
+     * Indice de la première entrée qui n'a pas encore été forcée sur disque
+     */
+    private volatile long premiereNonForcee;
+
+    /**
+     * Ouvre (ou crée) un journal, avec des segments de taille par défaut
+     * @param fichier fichier du journal
+     */
+    JournalMoteur(Path fichier) {
+        this(fichier, ENTREES_PAR_SEGMENT);
+    }
+
+    /**
+     * Ouvre (ou crée) un journal
+     * @param fichier fichier du journal (préfixe des fichiers des segments)
+     * @param entreesParSegment nombre d'entrées par segment (le même à chaque ouverture d'un journal)
+     */
+    JournalMoteur(Path fichier, int entreesParSegment) {
+        this.fichier = fichier;
+        this.entreesParSegment = entreesParSegment;
+        // les segments libérés ont été supprimés : on repart du plus petit segment encore présent
+        String prefixe = fichier.getFileName() + ".";
+        try (Stream<Path> fichiers = Files.list(fichier.toAbsolutePath().getParent())) {
+            this.premierSegment = fichiers.map(f -> f.getFileName().toString())
+                    .filter(nom -> nom.startsWith(prefixe) && nom.substring(prefixe.length()).matches("\\d+"))
+                    .mapToLong(nom -> Long.parseLong(nom.substring(prefixe.length())))
+                    .min().orElse(Long.MAX_VALUE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'ouvrir le journal " + fichier, e);
+        }
+    }
+
+    /**
+     * Écrit une entrée (réservé au thread du shard)
+     * @param indice indice de l'entrée
+     * @param entree l'entrée
+     */
+    void ecrire(long indice, Entree entree) {
+        MappedByteBuffer segment = segment(indice, true);
+        int position = position(indice);
+        LONGS.set(segment, position + 8, entree.idCompte());
+        LONGS.set(segment, position + 16, entree.idAutre());
+        LONGS.set(segment, position + 24, Double.doubleToRawLongBits(entree.montant()));
+        LONGS.set(segment, position + 32, entree.date());
+        // le type en dernier : l'entrée n'est visible qu'une fois complète
+        LONGS.setRelease(segment, position, (long) entree.type().ordinal() + 1);
+    }
+
+    /**
+     * Lit une entrée
+     * @param indice indice de l'entrée
+     * @return l'entrée, null si elle n'a pas été écrite
+     */
+    Entree lire(long indice) {
+        MappedByteBuffer segment = segment(indice, false);
+        if (segment == null)
+            return null;
+        int position = position(indice);
+        long type = (long) LONGS.getAcquire(segment, position);
+        if (type <= 0 || type > TypeEntree.values().length)
+            return null;
+        return new Entree(TypeEntree.values()[(int) type - 1],
+                (long) LONGS.get(segment, position + 8),
+                (long) LONGS.get(segment, position + 16),
+                Double.longBitsToDouble((long) LONGS.get(segment, position + 24)),
+                (long) LONGS.get(segment, position + 32));
+    }
+
+    /**
+     * Cherche la fin du journal
+     * @param debut indice à partir duquel chercher
+     * @return l'indice de la première entrée non écrite
+     */
+    long fin(long debut) {
+        long indice = debut;
+        while (lire(indice) != null)
+            indice++;
+        return indice;
+    }
+
+    /**
+     * Force sur disque les entrées écrites depuis le dernier appel (réservé au thread du shard)
+     * @param fin indice de la première entrée non écrite
+     */
+    void forcer(long fin) {
+        if (fin <= premiereNonForcee)
+            return;
+        for (long s = premiereNonForcee / entreesParSegment; s <= (fin - 1) / entreesParSegment; s++) {
+            // un segment déjà libéré est entièrement en base
+            MappedByteBuffer segment = segments.get(s);
+            if (segment != null)
+                segment.force();
+        }
+        premiereNonForcee = fin;
+    }
+
+    /**
+     * Nombre d'entrées forcées sur disque
+     * @return l'indice de la première entrée qui n'a pas encore été forcée
+     */
+    long forcees() {
+        return premiereNonForcee;
+    }
+
+    /**
+     * Libère les segments dont toutes les entrées sont écrites en base (réservé à l'écrivain du shard) :
+     * ils ne sont plus projetés et leurs fichiers sont supprimés
+     * En cas d'échec, les segments qui restent seront libérés au prochain appel.
+     * @param confirmees indice de la première entrée qui n'est pas encore en base
+     * @throws UncheckedIOException si le fichier d'un segment ne peut pas être supprimé
+     */
+    synchronized void liberer(long confirmees) {
+        long limite = confirmees / entreesParSegment;
+        for (; premierSegment < limite; premierSegment++) {
+            segments.remove(premierSegment);
+            try {
+                Files.deleteIfExists(fichierSegment(premierSegment));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Impossible de supprimer le segment " + premierSegment + " du journal " + fichier, e);
+            }
+        }
+    }
+
+    /**
+     * Ferme le journal (les segments ne sont plus projetés)
+     */
+    @Override
+    public void close() {
+        segments.clear();
+    }
+
+    /**
+     * Retourne le segment qui contient une entrée
+     * @param indice indice de l'entrée
+     * @param creer faut-il projeter le segment s'il ne l'est pas encore ?
+     * @return le segment, null s'il n'est pas projeté et qu'il ne faut pas le créer
+     */
+    private MappedByteBuffer segment(long indice, boolean creer) {
+        long numero = indice / entreesParSegment;
+        MappedByteBuffer segment = segments.get(numero);
+        if (segment != null)
+            return segment;
+        // en lecture, on ne projette que les segments qui existent déjà (et ne sont pas libérés)
+        if (!creer && !Files.exists(fichierSegment(numero)))
+            return null;
+        return projeter(numero);
+    }
+
+    /**
+     * Projette un segment en mémoire (son fichier est créé si besoin)
+     * @param numero numéro du segment
+     * @return le segment
+     */
+    private synchronized MappedByteBuffer projeter(long numero) {
+        MappedByteBuffer segment = segments.get(numero);
+        if (segment != null)
+            return segment;
+        Path f = fichierSegment(numero);
+        // la projection reste valide après la fermeture du canal
+        try (FileChannel canal = FileChannel.open(f, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) entreesParSegment * TAILLE_ENTREE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de projeter le journal " + f, e);
+        }
+        segments.put(numero, segment);
+        premierSegment = Math.min(premierSegment, numero);
+        return segment;
+    }
+
+    /**
+     * Fichier d'un segment
+     * @param numero numéro du segment
+     * @return le fichier
+     */
+    private Path fichierSegment(long numero) {
+        return fichier.resolveSibling(fichier.getFileName() + "." + numero);
+    }
+
+    /**
+     * Position d'une entrée dans son segment
+     * @param indice indice de l'entrée
+     * @return la position en octets
+     */
+    private int position(long indice) {
+        return (int) (indice % entreesParSegment) * TAILLE_ENTREE;
+    }
+}
@@ -0,0 +1,15 @@
+package org.miage.tpae.metier;
+
+/**
+ * Modes de verrouillage des comptes lors des opérations de débit, crédit et virement
+ */
+public enum ModeVerrouillage {
+    /**
+     * Les lignes des comptes sont verrouillées (SELECT ... FOR UPDATE) dans l'ordre croissant des ids
+     */
+    PESSIMISTE,
+    /**
+     * Pas de verrou : les conflits sont détectés grâce à la version du compte lors de l'écriture
+     */
+    OPTIMISTE
+}
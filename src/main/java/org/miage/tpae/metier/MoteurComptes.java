@@ -0,0 +1,851 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionJournalRepository;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.entities.PositionJournal;
+import org.miage.tpae.export.Position;
+import org.miage.tpae.utilities.CompteClotureException;
+import org.miage.tpae.utilities.CompteInconnuException;
+import org.miage.tpae.utilities.SoldeInsuffisantException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moteur d'exécution des débits, crédits, virements et clôtures pour les périodes de pointe
+ * (utilisé par ServiceCompte quand banque.moteur.actif=true)
+ *
+ * Les comptes sont répartis par id entre des shards. Chaque shard a un seul thread, qui possède en mémoire
+ * le solde des comptes qu'il a déjà vus (chargés depuis la base au premier accès) : il n'y a ni verrou
+ * ni accès à la base pour les commandes. Chaque commande acceptée est ajoutée au journal du shard
+ * (cf. JournalMoteur) avant d'être acquittée ; les commandes sont traitées par groupes et, en mode
+ * synchrone, le journal est forcé sur disque une fois par groupe.
+ *
+ * Un écrivain par shard recopie le journal en base par lots (opérations et soldes, dans une transaction
+ * qui enregistre aussi l'indice de la dernière entrée écrite, cf. PositionJournal). Au démarrage, les entrées
+ * du journal qui ne sont pas encore en base sont écrites avant d'accepter des commandes.
+ * Les segments du journal dont toutes les entrées sont en base sont supprimés au fil de l'eau (cf. JournalMoteur.liberer) :
+ * le disque et la mémoire projetée utilisés restent bornés par le retard de l'écrivain.
+ *
+ * Un virement entre deux shards est mis dans les deux files sous un verrou commun : tous les shards voient
+ * ces virements dans le même ordre, il n'y a donc pas d'interblocage. Le shard du compte crédité vérifie
+ * son compte puis s'arrête sur le virement pendant que celui du compte débité le réalise et le journalise
+ * (le virement n'est journalisé que par le shard du compte débité). Le shard du compte crédité ne repart,
+ * en créditant lui-même son compte, qu'une fois le journal du shard du compte débité forcé sur disque :
+ * aucune commande qui dépend du crédit ne peut être acquittée (ni forcée dans son journal) avant le virement.
+ * Le shard du compte débité force son journal et libère les shards crédités en attente à la fin de chaque
+ * groupe, et avant de s'arrêter lui-même sur un autre virement.
+ *
+ * Les comptes ne doivent être modifiés que par le moteur tant qu'il est actif (les ouvertures de comptes
+ * et les consultations enregistrées par JournalConsultations ne posent pas de problème).
+ *
+ * Métriques exposées (tag "shard") : banque.moteur.attente (commandes en attente),
+ * banque.moteur.retard (entrées du journal pas encore en base) et banque.moteur.erreurs (lots non écrits)
+ */
+@Component
+public class MoteurComptes implements SmartLifecycle {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(MoteurComptes.class);
+
+    /**
+     * Types de commandes
+     */
+    private enum TypeCommande {
+        CREDIT, DEBIT, VIREMENT, CLOTURE, CONSULTATION
+    }
+
+    /**
+     * Une commande en attente dans la file d'un shard
+     * @param type type de la commande
+     * @param idCompte compte concerné (compte débité pour un virement)
+     * @param idAutre compte crédité pour un virement (0 sinon)
+     * @param montant montant de l'opération
+     * @param resultat terminé quand la commande est acquittée
+     * @param arrivee terminé quand le shard du compte crédité atteint le virement, en erreur si le compte
+     *                crédité n'est pas utilisable (virement entre deux shards)
+     * @param fin terminé quand le virement est réalisé et forcé dans le journal du shard du compte débité (vrai)
+     *            ou refusé (faux) (virement entre deux shards)
+     */
+    private record Commande(TypeCommande type, long idCompte, long idAutre, double montant,
+                            CompletableFuture<Position> resultat, CompletableFuture<Void> arrivee,
+                            CompletableFuture<Boolean> fin) {
+    }
+
+    /**
+     * Solde et état d'un compte, possédés par le thread d'un shard
+     */
+    private static final class SoldeCompte {
+        double solde;
+        boolean actif;
+    }
+
+    /**
+     * Bean repository pour les comptes
+     */
+    private final CompteRepository compteRepository;
+
+    /**
+     * Bean repository pour les opérations
+     */
+    private final OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Bean repository pour l'avancement de l'écriture des journaux
+     */
+    private final PositionJournalRepository positionJournalRepository;
+
+    /**
+     * Permet d'écrire chaque lot dans une transaction
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Publie les modifications des comptes (cf. RegistreSoldes)
+     */
+    private final ApplicationEventPublisher publieur;
+
+    /**
+     * Boîte d'envoi des opérations écrites en base
+     */
+    private final BoiteEnvoi boiteEnvoi;
+
+    /**
+     * Registre des métriques
+     */
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Le moteur est-il utilisé ?
+     */
+    private final boolean actif;
+
+    /**
+     * Nombre de shards
+     */
+    private final int nbShards;
+
+    /**
+     * Répertoire des journaux
+     */
+    private final Path repertoire;
+
+    /**
+     * Faut-il forcer le journal sur disque avant d'acquitter les commandes ?
+     */
+    private final boolean synchrone;
+
+    /**
+     * Nombre maximum de commandes en attente par shard
+     */
+    private final int capacite;
+
+    /**
+     * Nombre maximum d'entrées du journal écrites en base par transaction
+     */
+    private final int tailleLot;
+
+    /**
+     * Nombre d'entrées par segment (fichier) des journaux
+     */
+    private final int entreesParSegment;
+
+    /**
+     * Verrou pour mettre les virements entre deux shards dans les deux files
+     */
+    private final Object verrouVirements = new Object();
+
+    /**
+     * Les shards (vide si le moteur n'est pas démarré)
+     */
+    private Shard[] shards = new Shard[0];
+
+    /**
+     * Le moteur est-il démarré ?
+     */
+    private volatile boolean enMarche;
+
+    /**
+     * Constructeur pour l'injection
+     * @param compteRepository bean repo comptes injecté
+     * @param operationCompteRepository bean repo opérations injecté
+     * @param positionJournalRepository bean repo avancement des journaux injecté
+     * @param transactionManager gestionnaire de transactions
+     * @param publieur publie les modifications des comptes
+     * @param boiteEnvoi boîte d'envoi des opérations
+     * @param meterRegistry registre des métriques
+     * @param actif le moteur est-il utilisé ?
+     * @param nbShards nombre de shards
+     * @param repertoire répertoire des journaux
+     * @param synchrone faut-il forcer le journal sur disque avant d'acquitter les commandes ?
+     * @param capacite nombre maximum de commandes en attente par shard
+     * @param tailleLot nombre maximum d'entrées du journal écrites en base par transaction
+     * @param entreesParSegment nombre d'entrées par segment (fichier) des journaux
+     */
+    public MoteurComptes(CompteRepository compteRepository, OperationCompteRepository operationCompteRepository,
+                         PositionJournalRepository positionJournalRepository,
+                         PlatformTransactionManager transactionManager,
+                         ApplicationEventPublisher publieur,
+                         BoiteEnvoi boiteEnvoi,
+                         MeterRegistry meterRegistry,
+                         @Value("${banque.moteur.actif:false}") boolean actif,
+                         @Value("${banque.moteur.shards:4}") int nbShards,
+                         @Value("${banque.moteur.repertoire:journal-moteur}") String repertoire,
+                         @Value("${banque.moteur.synchrone:true}") boolean synchrone,
+                         @Value("${banque.moteur.capacite:10000}") int capacite,
+                         @Value("${banque.moteur.taille-lot:500}") int tailleLot,
+                         @Value("${banque.moteur.entrees-par-segment:1048576}") int entreesParSegment) {
+        this.compteRepository = compteRepository;
+        this.operationCompteRepository = operationCompteRepository;
+        this.positionJournalRepository = positionJournalRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.publieur = publieur;
+        this.boiteEnvoi = boiteEnvoi;
+        this.meterRegistry = meterRegistry;
+        this.actif = actif;
+        this.nbShards = Math.max(1, nbShards);
+        this.repertoire = Path.of(repertoire);
+        this.synchrone = synchrone;
+        this.capacite = Math.max(1, capacite);
+        this.tailleLot = Math.max(1, tailleLot);
+        this.entreesParSegment = Math.max(1, entreesParSegment);
+    }
+
+    /**
+     * Le moteur est-il utilisé ? (sinon ServiceCompte modifie les comptes en base, dans ses transactions)
+     * @return vrai si les commandes doivent passer par le moteur
+     */
+    public boolean isActif() {
+        return actif;
+    }
+
+    /**
+     * Crédite un compte
+     * @param idCompte id du compte
+     * @param montant le montant à créditer (positif)
+     * @return la position du compte après le crédit
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws CompteClotureException si le compte est cloturé
+     */
+    public Position crediter(long idCompte, double montant) throws CompteInconnuException, CompteClotureException {
+        return attendre(soumettre(TypeCommande.CREDIT, idCompte, 0, montant));
+    }
+
+    /**
+     * Débite un compte
+     * @param idCompte id du compte
+     * @param montant le montant à débiter (positif)
+     * @return la position du compte après le débit
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws SoldeInsuffisantException si le solde est insuffisant
+     * @throws CompteClotureException si le compte est cloturé
+     */
+    public Position debiter(long idCompte, double montant) throws CompteInconnuException, SoldeInsuffisantException, CompteClotureException {
+        return attendre(soumettre(TypeCommande.DEBIT, idCompte, 0, montant));
+    }
+
+    /**
+     * Virement entre deux comptes
+     * @param idCompteDebiteur id du compte à débiter
+     * @param idCompteCrediteur id du compte à créditer
+     * @param montant montant à virer (positif)
+     * @return la position du compte débité après le virement
+     * @throws CompteInconnuException si un des comptes n'existe pas
+     * @throws SoldeInsuffisantException si le solde du compte à débiter est insuffisant
+     * @throws CompteClotureException si l'un des comptes est cloturé
+     */
+    public Position virer(long idCompteDebiteur, long idCompteCrediteur, double montant) throws CompteInconnuException, SoldeInsuffisantException, CompteClotureException {
+        return attendre(soumettreVirement(idCompteDebiteur, idCompteCrediteur, montant));
+    }
+
+    /**
+     * Soumet un virement sans attendre qu'il soit réalisé (pour les lots de virements)
+     * @param idCompteDebiteur id du compte à débiter
+     * @param idCompteCrediteur id du compte à créditer
+     * @param montant montant à virer (positif)
+     * @return la position du compte débité après le virement, ou l'erreur qui l'a empêché
+     */
+    public CompletableFuture<Position> soumettreVirement(long idCompteDebiteur, long idCompteCrediteur, double montant) {
+        return soumettre(TypeCommande.VIREMENT, idCompteDebiteur, idCompteCrediteur, montant);
+    }
+
+    /**
+     * Clôture un compte
+     * @param idCompte id du compte
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws CompteClotureException si le compte est déjà cloturé
+     */
+    public void fermer(long idCompte) throws CompteInconnuException, CompteClotureException {
+        attendre(soumettre(TypeCommande.CLOTURE, idCompte, 0, 0));
+    }
+
+    /**
+     * Retourne la position courante d'un compte, lue par son shard
+     * @param idCompte id du compte
+     * @return la position
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws CompteClotureException si le compte est cloturé
+     */
+    public Position consulter(long idCompte) throws CompteInconnuException, CompteClotureException {
+        return attendre(soumettre(TypeCommande.CONSULTATION, idCompte, 0, 0));
+    }
+
+    /**
+     * Écrit en base les entrées des journaux qui n'y sont pas encore, puis démarre les shards et les écrivains
+     */
+    @Override
+    public synchronized void start() {
+        if (!actif || enMarche)
+            return;
+        try {
+            Files.createDirectories(repertoire);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de créer le répertoire des journaux " + repertoire, e);
+        }
+        Shard[] nouveaux = new Shard[nbShards];
+        for (int i = 0; i < nbShards; i++) {
+            nouveaux[i] = new Shard(i);
+            nouveaux[i].rattraper();
+        }
+        shards = nouveaux;
+        enMarche = true;
+        for (Shard shard : shards)
+            shard.demarrer();
+    }
+
+    /**
+     * Arrête le moteur après avoir traité les commandes en attente et écrit tout le journal en base
+     */
+    @Override
+    public synchronized void stop() {
+        if (!enMarche)
+            return;
+        enMarche = false;
+        for (Shard shard : shards)
+            shard.arreter();
+        shards = new Shard[0];
+    }
+
+    /**
+     * Le moteur est-il démarré ?
+     * @return vrai si le moteur est démarré
+     */
+    @Override
+    public boolean isRunning() {
+        return enMarche;
+    }
+
+    /**
+     * Le moteur démarre avant le serveur web (et s'arrête après lui)
+     * @return la phase du moteur
+     */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 2048;
+    }
+
+    /**
+     * Met une commande dans la file de son shard (et dans celle du compte crédité pour un virement entre deux shards)
+     * @param type type de la commande
+     * @param idCompte compte concerné
+     * @param idAutre compte crédité pour un virement
+     * @param montant montant de l'opération
+     * @return le résultat de la commande
+     */
+    private CompletableFuture<Position> soumettre(TypeCommande type, long idCompte, long idAutre, double montant) {
+        if (!enMarche)
+            throw new IllegalStateException("Le moteur de comptes n'est pas démarré");
+        Shard shard = shard(idCompte);
+        CompletableFuture<Position> resultat = new CompletableFuture<>();
+        if (type == TypeCommande.VIREMENT && shard(idAutre) != shard) {
+            Commande commande = new Commande(type, idCompte, idAutre, montant, resultat,
+                    new CompletableFuture<>(), new CompletableFuture<>());
+            synchronized (verrouVirements) {
+                shard.mettre(commande);
+                shard(idAutre).mettre(commande);
+            }
+        } else {
+            shard.mettre(new Commande(type, idCompte, idAutre, montant, resultat, null, null));
+        }
+        return resultat;
+    }
+
+    /**
+     * Attend le résultat d'une commande (ou l'arrivée du shard crédité sur un virement), sans pouvoir être interrompu
+     * @param resultat le résultat
+     * @return la position
+     * @param <T> type du résultat
+     */
+    private static <T> T attendre(CompletableFuture<T> resultat) {
+        try {
+            return resultat.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Nombre d'entrées forcées sur disque dans le journal du shard d'un compte (pour les tests)
+     * @param idCompte id du compte
+     * @return le nombre d'entrées forcées
+     */
+    long entreesForcees(long idCompte) {
+        return shard(idCompte).journal.forcees();
+    }
+
+    /**
+     * Shard d'un compte
+     * @param idCompte id du compte
+     * @return le shard
+     */
+    private Shard shard(long idCompte) {
+        return shards[(int) Math.floorMod(idCompte, (long) shards.length)];
+    }
+
+    /**
+     * Convertit une date du journal
+     * @param date date en ms depuis l'époque
+     * @return la date
+     */
+    private static Calendar calendrier(long date) {
+        Calendar calendrier = GregorianCalendar.getInstance();
+        calendrier.setTimeInMillis(date);
+        return calendrier;
+    }
+
+    /**
+     * Un shard : une file de commandes, un thread qui les traite, les comptes qu'il possède,
+     * son journal et l'écrivain qui recopie le journal en base
+     */
+    private final class Shard {
+
+        /**
+         * Numéro du shard
+         */
+        private final int numero;
+
+        /**
+         * File des commandes en attente
+         */
+        private final BlockingQueue<Commande> file = new ArrayBlockingQueue<>(capacite);
+
+        /**
+         * Comptes possédés par le shard (uniquement accédés par son thread,
+         * ou par celui d'un autre shard pendant un virement où ce shard est arrêté)
+         */
+        private final Map<Long, SoldeCompte> comptes = new HashMap<>();
+
+        /**
+         * Journal du shard
+         */
+        private final JournalMoteur journal;
+
+        /**
+         * Nombre d'entrées écrites dans le journal
+         */
+        private volatile long ecrites;
+
+        /**
+         * Nombre d'entrées du journal écrites en base
+         */
+        private volatile long confirmees;
+
+        /**
+         * Virements entre deux shards réalisés par ce shard dont le shard du compte crédité attend
+         * que le journal soit forcé (uniquement accédé par le thread du shard)
+         */
+        private final List<Commande> virementsAForcer = new ArrayList<>();
+
+        /**
+         * Thread qui traite les commandes
+         */
+        private Thread executant;
+
+        /**
+         * Thread qui écrit le journal en base
+         */
+        private Thread ecrivain;
+
+        /**
+         * Ouvre le journal du shard et cherche sa fin
+         * @param numero numéro du shard
+         */
+        Shard(int numero) {
+            this.numero = numero;
+            this.journal = new JournalMoteur(repertoire.resolve("shard-" + numero + ".journal"), entreesParSegment);
+            this.confirmees = positionJournalRepository.findById(numero).map(PositionJournal::getConfirmees).orElse(0L);
+            this.ecrites = journal.fin(confirmees);
+            liberer();
+            Tags tags = Tags.of("shard", String.valueOf(numero));
+            meterRegistry.gaugeCollectionSize("banque.moteur.attente", tags, file);
+            meterRegistry.gauge("banque.moteur.retard", tags, this, s -> s.ecrites - s.confirmees);
+        }
+
+        /**
+         * Écrit en base toutes les entrées du journal qui n'y sont pas encore
+         */
+        void rattraper() {
+            if (ecrites > confirmees)
+                logger.info("Shard {} : écriture en base de {} entrées du journal", numero, ecrites - confirmees);
+            while (confirmees < ecrites)
+                ecrireLot();
+        }
+
+        /**
+         * Démarre le thread du shard et son écrivain
+         */
+        void demarrer() {
+            executant = new Thread(this::executer, "moteur-shard-" + numero);
+            ecrivain = new Thread(this::ecrireEnContinu, "moteur-ecrivain-" + numero);
+            executant.start();
+            ecrivain.start();
+        }
+
+        /**
+         * Attend que le shard ait traité ses commandes et que l'écrivain ait tout écrit, puis ferme le journal
+         */
+        void arreter() {
+            try {
+                executant.join();
+                LockSupport.unpark(ecrivain);
+                ecrivain.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            journal.close();
+        }
+
+        /**
+         * Met une commande dans la file (on attend s'il n'y a pas de place)
+         * @param commande la commande
+         */
+        void mettre(Commande commande) {
+            try {
+                file.put(commande);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interruption pendant la soumission d'une commande", e);
+            }
+        }
+
+        /**
+         * Boucle du shard : traite les commandes par groupes, force le journal puis acquitte le groupe
+         */
+        private void executer() {
+            List<Commande> groupe = new ArrayList<>();
+            List<Runnable> acquittements = new ArrayList<>();
+            while (enMarche || !file.isEmpty()) {
+                try {
+                    Commande premiere = file.poll(100, TimeUnit.MILLISECONDS);
+                    if (premiere == null)
+                        continue;
+                    groupe.add(premiere);
+                    file.drainTo(groupe);
+                    for (Commande commande : groupe)
+                        traiter(commande, acquittements);
+                    forcer();
+                    LockSupport.unpark(ecrivain);
+                    acquittements.forEach(Runnable::run);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    forcer();
+                    return;
+                } finally {
+                    groupe.clear();
+                    acquittements.clear();
+                }
+            }
+        }
+
+        /**
+         * Traite une commande ; son acquittement est ajouté à la liste
+         * @param commande la commande
+         * @param acquittements acquittements du groupe
+         */
+        private void traiter(Commande commande, List<Runnable> acquittements) {
+            final Position position;
+            try {
+                position = switch (commande.type()) {
+                    case CREDIT -> {
+                        SoldeCompte compte = compteActif(commande.idCompte());
+                        long date = journaliser(JournalMoteur.TypeEntree.CREDIT, commande);
+                        compte.solde += commande.montant();
+                        yield new Position(compte.solde, calendrier(date));
+                    }
+                    case DEBIT -> {
+                        SoldeCompte compte = compteActif(commande.idCompte());
+                        verifierSolde(commande.idCompte(), compte, commande.montant());
+                        long date = journaliser(JournalMoteur.TypeEntree.DEBIT, commande);
+                        compte.solde -= commande.montant();
+                        yield new Position(compte.solde, calendrier(date));
+                    }
+                    case CLOTURE -> {
+                        SoldeCompte compte = compteActif(commande.idCompte());
+                        long date = journaliser(JournalMoteur.TypeEntree.CLOTURE, commande);
+                        compte.actif = false;
+                        yield new Position(compte.solde, calendrier(date));
+                    }
+                    case CONSULTATION -> new Position(compteActif(commande.idCompte()).solde, GregorianCalendar.getInstance());
+                    case VIREMENT -> virer(commande);
+                };
+            } catch (RuntimeException e) {
+                acquittements.add(() -> commande.resultat().completeExceptionally(e));
+                return;
+            }
+            if (position != null)
+                acquittements.add(() -> commande.resultat().complete(position));
+        }
+
+        /**
+         * Réalise un virement
+         * Entre deux shards, le shard du compte crédité vérifie son compte puis attend que celui du compte débité
+         * ait réalisé le virement et forcé son journal, et crédite alors son compte.
+         * @param commande le virement
+         * @return la position du compte débité, null si ce shard est celui du compte crédité
+         */
+        private Position virer(Commande commande) {
+            if (commande.fin() == null) {
+                SoldeCompte debiteur = compteActif(commande.idCompte());
+                SoldeCompte crediteur = compteActif(commande.idAutre());
+                verifierSolde(commande.idCompte(), debiteur, commande.montant());
+                long date = journaliser(JournalMoteur.TypeEntree.VIREMENT, commande);
+                debiteur.solde -= commande.montant();
+                crediteur.solde += commande.montant();
+                return new Position(debiteur.solde, calendrier(date));
+            }
+            if (shard(commande.idAutre()) == this) {
+                SoldeCompte crediteur;
+                try {
+                    crediteur = compteActif(commande.idAutre());
+                } catch (RuntimeException e) {
+                    commande.arrivee().completeExceptionally(e);
+                    return null;
+                }
+                commande.arrivee().complete(null);
+                // le shard du compte débité peut attendre un virement vers ce shard : on le libère avant
+                forcer();
+                if (commande.fin().join())
+                    crediteur.solde += commande.montant();
+                return null;
+            }
+            boolean realise = false;
+            try {
+                // le shard du compte crédité peut attendre un virement réalisé par ce shard : on le libère avant
+                forcer();
+                attendre(commande.arrivee());
+                SoldeCompte debiteur = compteActif(commande.idCompte());
+                verifierSolde(commande.idCompte(), debiteur, commande.montant());
+                long date = journaliser(JournalMoteur.TypeEntree.VIREMENT, commande);
+                debiteur.solde -= commande.montant();
+                realise = true;
+                return new Position(debiteur.solde, calendrier(date));
+            } finally {
+                if (realise)
+                    virementsAForcer.add(commande);
+                else
+                    commande.fin().complete(false);
+            }
+        }
+
+        /**
+         * Force le journal sur disque (en mode synchrone) puis libère les shards crédités
+         * par les virements qui y sont journalisés
+         */
+        private void forcer() {
+            try {
+                if (synchrone)
+                    journal.forcer(ecrites);
+            } finally {
+                virementsAForcer.forEach(commande -> commande.fin().complete(true));
+                virementsAForcer.clear();
+            }
+        }
+
+        /**
+         * Retourne un compte actif du shard (chargé depuis la base au premier accès)
+         * @param idCompte id du compte
+         * @return le compte
+         * @throws CompteInconnuException si le compte n'existe pas
+         * @throws CompteClotureException si le compte est cloturé
+         */
+        private SoldeCompte compteActif(long idCompte) throws CompteInconnuException, CompteClotureException {
+            SoldeCompte compte = comptes.get(idCompte);
+            if (compte == null) {
+                Compte c = compteRepository.findById(idCompte)
+                        .orElseThrow(() -> new CompteInconnuException("Le compte d'id " + idCompte + " est inconnu."));
+                compte = new SoldeCompte();
+                compte.solde = c.getSolde();
+                compte.actif = c.isActif();
+                comptes.put(idCompte, compte);
+            }
+            if (!compte.actif) {
+                throw new CompteClotureException("Compte " + idCompte + " clôturé.");
+            }
+            return compte;
+        }
+
+        /**
+         * Vérifie qu'un retrait est possible
+         * @param idCompte id du compte
+         * @param compte le compte
+         * @param montant le montant à retirer
+         * @throws SoldeInsuffisantException si le solde est insuffisant
+         */
+        private void verifierSolde(long idCompte, SoldeCompte compte, double montant) throws SoldeInsuffisantException {
+            if (compte.solde - montant < 0) {
+                throw new SoldeInsuffisantException("Solde sur le compte " + idCompte + " insuffisant pour un retrait de " + montant + ".");
+            }
+        }
+
+        /**
+         * Ajoute une commande au journal (avant de modifier les comptes)
+         * @param type type de l'entrée
+         * @param commande la commande
+         * @return la date de l'opération
+         */
+        private long journaliser(JournalMoteur.TypeEntree type, Commande commande) {
+            long date = System.currentTimeMillis();
+            journal.ecrire(ecrites, new JournalMoteur.Entree(type, commande.idCompte(), commande.idAutre(), commande.montant(), date));
+            ecrites = ecrites + 1;
+            return date;
+        }
+
+        /**
+         * Boucle de l'écrivain : écrit le journal en base par lots
+         * Une erreur n'arrête pas l'écrivain : le lot est réessayé un peu plus tard
+         */
+        private void ecrireEnContinu() {
+            while (enMarche || confirmees < ecrites) {
+                if (confirmees >= ecrites) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                    continue;
+                }
+                try {
+                    ecrireLot();
+                } catch (RuntimeException e) {
+                    meterRegistry.counter("banque.moteur.erreurs", "shard", String.valueOf(numero)).increment();
+                    logger.error("Shard {} : impossible d'écrire le journal en base à partir de l'entrée {}", numero, confirmees, e);
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                }
+            }
+        }
+
+        /**
+         * Écrit en base, dans une transaction, le prochain lot d'entrées du journal
+         */
+        private void ecrireLot() {
+            long debut = confirmees;
+            long fin = Math.min(ecrites, debut + tailleLot);
+            List<JournalMoteur.Entree> entrees = new ArrayList<>((int) (fin - debut));
+            for (long i = debut; i < fin; i++)
+                entrees.add(journal.lire(i));
+            transactionTemplate.executeWithoutResult(status -> appliquer(entrees, fin));
+            confirmees = fin;
+            liberer();
+        }
+
+        /**
+         * Libère les segments du journal entièrement écrits en base
+         * Un échec n'empêche pas d'écrire le journal : les segments seront libérés après un prochain lot.
+         */
+        private void liberer() {
+            try {
+                journal.liberer(confirmees);
+            } catch (UncheckedIOException e) {
+                logger.warn("Shard {} : impossible de libérer les segments du journal avant l'entrée {}", numero, confirmees, e);
+            }
+        }
+
+        /**
+         * Applique des entrées du journal en base (dans la transaction courante)
+         * Les soldes sont modifiés relativement : l'ordre entre les écrivains des différents shards n'a pas d'importance.
+         * Une entrée dont un compte est introuvable n'est jamais ignorée (son opération a été acquittée) :
+         * le lot est annulé et l'écrivain s'arrête sur cette entrée (réessayée, cf. ecrireEnContinu),
+         * et le moteur ne démarre pas si elle est rencontrée au rattrapage.
+         * @param entrees les entrées
+         * @param fin indice de la première entrée qui suit le lot
+         * @throws IllegalStateException si un compte d'une entrée est introuvable en base
+         */
+        private void appliquer(List<JournalMoteur.Entree> entrees, long fin) {
+            Set<Long> ids = new HashSet<>();
+            for (JournalMoteur.Entree e : entrees) {
+                ids.add(e.idCompte());
+                if (e.type() == JournalMoteur.TypeEntree.VIREMENT)
+                    ids.add(e.idAutre());
+            }
+            // les comptes sont verrouillés dans l'ordre des ids (pas d'interblocage entre écrivains)
+            Map<Long, Compte> comptesModifies = new HashMap<>();
+            compteRepository.findAllByIdPourModification(ids).forEach(c -> comptesModifies.put(c.getId(), c));
+            // toutes les entrées sont vérifiées avant de modifier le moindre compte
+            for (JournalMoteur.Entree e : entrees) {
+                if (!comptesModifies.containsKey(e.idCompte())
+                        || (e.type() == JournalMoteur.TypeEntree.VIREMENT && !comptesModifies.containsKey(e.idAutre())))
+                    throw new IllegalStateException("Shard " + numero + " : compte introuvable en base pour l'entrée " + e);
+            }
+            List<OperationCompte> operations = new ArrayList<>(entrees.size() + 1);
+            for (JournalMoteur.Entree e : entrees) {
+                Compte compte = comptesModifies.get(e.idCompte());
+                Compte autre = e.type() == JournalMoteur.TypeEntree.VIREMENT ? comptesModifies.get(e.idAutre()) : null;
+                switch (e.type()) {
+                    case CREDIT -> {
+                        compte.setSolde(compte.getSolde() + e.montant());
+                        operations.add(operation(compte, OperationCompte.OperationType.CREDIT, e));
+                    }
+                    case DEBIT -> {
+                        compte.setSolde(compte.getSolde() - e.montant());
+                        operations.add(operation(compte, OperationCompte.OperationType.DEBIT, e));
+                    }
+                    case VIREMENT -> {
+                        compte.setSolde(compte.getSolde() - e.montant());
+                        autre.setSolde(autre.getSolde() + e.montant());
+                        operations.add(operation(autre, OperationCompte.OperationType.VIREMENT_CREDIT, e));
+                        operations.add(operation(compte, OperationCompte.OperationType.VIREMENT_DEBIT, e));
+                    }
+                    case CLOTURE -> {
+                        compte.setActif(false);
+                        operations.add(operation(compte, OperationCompte.OperationType.CLOTURE, e));
+                    }
+                }
+            }
+            operationCompteRepository.saveAll(operations);
+            boiteEnvoi.ajouter(operations);
+            positionJournalRepository.save(new PositionJournal(numero, fin));
+            comptesModifies.values().forEach(c -> publieur.publishEvent(new CompteModifie(c)));
+        }
+
+        /**
+         * Crée l'opération correspondant à une entrée du journal
+         * @param compte le compte
+         * @param type le type d'opération
+         * @param e l'entrée
+         * @return l'opération
+         */
+        private OperationCompte operation(Compte compte, OperationCompte.OperationType type, JournalMoteur.Entree e) {
+            OperationCompte oc = new OperationCompte(compte, type, type == OperationCompte.OperationType.CLOTURE ? 0 : e.montant());
+            oc.setDateOperation(calendrier(e.date()));
+            return oc;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.miage.tpae.metier;
+
+import org.miage.tpae.export.MouvementCompte;
+
+import java.util.List;
+
+/**
+ * Événement publié par BoiteEnvoi quand des opérations sont ajoutées dans la transaction courante
+ * La position de chaque mouvement est le solde du compte au moment de l'ajout : pour une opération enregistrée
+ * par ServiceCompte c'est le solde juste après l'opération, pour un lot (moteur, fin de journée) le solde après le lot.
+ * @param mouvements les mouvements, dans l'ordre des opérations
+ */
+public record OperationsEnregistrees(List<MouvementCompte> mouvements) {
+}
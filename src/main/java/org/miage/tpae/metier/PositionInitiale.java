@@ -0,0 +1,13 @@
+package org.miage.tpae.metier;
+
+import org.miage.tpae.export.Position;
+
+import java.util.Set;
+
+/**
+ * Position d'un compte au début d'un flux en direct (cf. ServiceCompte.lirePositionInitiale)
+ * @param position la position lue en base
+ * @param operationsIncluses ids, parmi les opérations déjà reçues par l'abonné, de celles dont la position tient compte
+ */
+public record PositionInitiale(Position position, Set<Long> operationsIncluses) {
+}
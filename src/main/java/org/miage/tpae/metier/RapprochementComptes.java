@@ -0,0 +1,364 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionRapprochementRepository;
+import org.miage.tpae.entities.PositionRapprochement;
+import org.miage.tpae.export.EcartSolde;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.RapportRapprochement;
+import org.miage.tpae.utilities.RapprochementEnCoursException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Rapprochement des soldes des comptes avec leurs opérations
+ * Le solde d'un compte est modifié sur place : on le compare au solde recalculé en rejouant ses opérations
+ * (ouverture, crédits et virements reçus moins débits et virements émis) et on signale les écarts.
+ *
+ * Les ids de comptes sont découpés récursivement en plages dans un pool fork-join de banque.rapprochement.paralleles
+ * threads, jusqu'à des plages de banque.rapprochement.taille-plage ids. Chaque plage est lue dans sa propre transaction
+ * en lecture seule et en lecture répétable (soldes et opérations d'un même instantané) : les soldes de la plage,
+ * puis ses opérations avec un curseur par compte et par id. La mémoire utilisée ne dépend que de la taille des plages.
+ *
+ * Repère : un rapprochement incrémental ne vérifie que les comptes ayant une opération écrite en base
+ * (OperationCompte.dateEnregistrement) après le repère précédent, en rejouant tout leur historique.
+ * Les ids ne conviennent pas : réservés par blocs (séquence "pooled"), une opération validée après le rapprochement
+ * peut avoir un id bien inférieur au plus grand id déjà visible. La date d'écriture précède la validation de moins
+ * que la durée d'une transaction : une opération qui n'était pas visible au début d'un rapprochement a donc été
+ * écrite après le début moins banque.rapprochement.marge. C'est ce repère qui est enregistré à la fin
+ * (cf. PositionRapprochement) : les rapprochements successifs se recouvrent de la marge, qui doit dépasser
+ * la plus longue transaction d'écriture des opérations et l'écart entre les horloges des instances.
+ * Les opérations écrites avant l'ajout de la date d'écriture ne sont vérifiées que par un rapprochement complet
+ * (le premier rapprochement incrémental sans repère daté est complet).
+ *
+ * Métriques exposées : banque.rapprochement.comptes, banque.rapprochement.ecarts
+ */
+@Service
+public class RapprochementComptes {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(RapprochementComptes.class);
+
+    /**
+     * Id de la ligne du repère
+     */
+    private static final int ID_POSITION = 1;
+
+    /**
+     * Bean repository pour les comptes
+     */
+    private final CompteRepository compteRepository;
+
+    /**
+     * Bean repository pour les opérations
+     */
+    private final OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Bean repository pour le repère du dernier rapprochement
+     */
+    private final PositionRapprochementRepository positionRapprochementRepository;
+
+    /**
+     * Permet de lire chaque plage dans sa propre transaction (lecture seule, lecture répétable)
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Nombre de threads du pool fork-join
+     */
+    private final int paralleles;
+
+    /**
+     * Largeur maximale (en ids de comptes) d'une plage lue dans une transaction
+     */
+    private final long taillePlage;
+
+    /**
+     * Écart toléré entre le solde et le solde recalculé (arrondis des sommes de doubles)
+     */
+    private final double tolerance;
+
+    /**
+     * Nombre maximum d'écarts détaillés dans le rapport
+     */
+    private final int ecartsMax;
+
+    /**
+     * Recouvrement de deux rapprochements incrémentaux successifs
+     */
+    private final Duration marge;
+
+    /**
+     * Un seul rapprochement à la fois
+     */
+    private final ReentrantLock verrou = new ReentrantLock();
+
+    /**
+     * Compteurs des comptes vérifiés et des comptes en écart
+     */
+    private final Counter comptesVerifies;
+    private final Counter comptesEnEcart;
+
+    /**
+     * Constructeur pour l'injection
+     * @param compteRepository bean repo comptes injecté
+     * @param operationCompteRepository bean repo opérations injecté
+     * @param positionRapprochementRepository bean repo repère injecté
+     * @param transactionManager gestionnaire de transactions
+     * @param meterRegistry registre des métriques
+     * @param paralleles nombre de threads du pool fork-join
+     * @param taillePlage largeur maximale d'une plage de comptes lue dans une transaction
+     * @param tolerance écart toléré entre le solde et le solde recalculé
+     * @param ecartsMax nombre maximum d'écarts détaillés dans le rapport
+     * @param marge recouvrement de deux rapprochements incrémentaux successifs
+     */
+    public RapprochementComptes(CompteRepository compteRepository,
+                                OperationCompteRepository operationCompteRepository,
+                                PositionRapprochementRepository positionRapprochementRepository,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry,
+                                @Value("${banque.rapprochement.paralleles:4}") int paralleles,
+                                @Value("${banque.rapprochement.taille-plage:1000}") long taillePlage,
+                                @Value("${banque.rapprochement.tolerance:0.005}") double tolerance,
+                                @Value("${banque.rapprochement.ecarts-max:1000}") int ecartsMax,
+                                @Value("${banque.rapprochement.marge:PT5M}") Duration marge) {
+        this.compteRepository = compteRepository;
+        this.operationCompteRepository = operationCompteRepository;
+        this.positionRapprochementRepository = positionRapprochementRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.paralleles = Math.max(1, paralleles);
+        this.taillePlage = Math.max(1, taillePlage);
+        this.tolerance = tolerance;
+        this.ecartsMax = Math.max(0, ecartsMax);
+        this.marge = marge;
+        this.comptesVerifies = Counter.builder("banque.rapprochement.comptes")
+                .description("Comptes vérifiés par le rapprochement").register(meterRegistry);
+        this.comptesEnEcart = Counter.builder("banque.rapprochement.ecarts")
+                .description("Comptes dont le solde ne correspond pas aux opérations").register(meterRegistry);
+    }
+
+    /**
+     * Rapprochement incrémental planifié (banque.rapprochement.cron, désactivé par défaut)
+     */
+    @Scheduled(cron = "${banque.rapprochement.cron:-}")
+    public void rapprochementPlanifie() {
+        try {
+            rapprocher(true);
+        } catch (RapprochementEnCoursException e) {
+            logger.info("Rapprochement planifié ignoré : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Rapproche les soldes des comptes avec leurs opérations
+     * @param incremental ne vérifier que les comptes modifiés depuis le dernier rapprochement ?
+     * @return le rapport du rapprochement
+     * @throws RapprochementEnCoursException si un rapprochement est déjà en cours
+     */
+    public RapportRapprochement rapprocher(boolean incremental) throws RapprochementEnCoursException {
+        if (!verrou.tryLock())
+            throw new RapprochementEnCoursException("Un rapprochement est déjà en cours");
+        try {
+            long debut = System.currentTimeMillis();
+            Instant depuis = incremental ? positionRapprochementRepository.findById(ID_POSITION)
+                    .map(PositionRapprochement::getRepere).orElse(null) : null;
+            // les opérations écrites avant sont toutes visibles par les plages (lues après ce point)
+            Instant jusqua = Instant.now().minus(marge);
+            Resultat resultat;
+            ForkJoinPool pool = new ForkJoinPool(paralleles);
+            try {
+                resultat = pool.invoke(new Plage(compteRepository.idMin(), compteRepository.idMax(), depuis));
+            } finally {
+                pool.shutdownNow();
+            }
+            positionRapprochementRepository.save(new PositionRapprochement(ID_POSITION, jusqua));
+            RapportRapprochement rapport = new RapportRapprochement(incremental, depuis, jusqua, resultat.comptes,
+                    resultat.operations, resultat.nombreEcarts, resultat.ecarts, System.currentTimeMillis() - debut);
+            comptesVerifies.increment(rapport.getComptes());
+            comptesEnEcart.increment(rapport.getNombreEcarts());
+            if (rapport.getNombreEcarts() > 0)
+                logger.warn("Rapprochement : {} comptes en écart, dont {}", rapport.getNombreEcarts(), rapport.getEcarts());
+            logger.info("Rapprochement {} : {} comptes et {} opérations vérifiés en {} ms",
+                    incremental ? "incrémental" : "complet", rapport.getComptes(), rapport.getOperations(),
+                    rapport.getDuree());
+            return rapport;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Effet d'une opération sur le solde de son compte
+     * @param operation l'opération
+     * @return le montant ajouté au solde (négatif pour un débit)
+     */
+    static double effet(OperationExport operation) {
+        return switch (operation.getOperationType()) {
+            case OUVERTURE, CREDIT, VIREMENT_CREDIT -> operation.getValeur();
+            case DEBIT, VIREMENT_DEBIT -> -operation.getValeur();
+            case CLOTURE, CONSULTATION -> 0;
+        };
+    }
+
+    /**
+     * Rapproche une plage de comptes dans une transaction : les soldes de la plage sont parcourus
+     * en même temps que ses opérations (triées par compte puis par id)
+     * @param premier plus petit id de compte de la plage
+     * @param dernier plus grand id de compte de la plage
+     * @param depuis repère (null pour tous les comptes)
+     * @return le résultat de la plage
+     */
+    private Resultat rapprocherPlage(long premier, long dernier, Instant depuis) {
+        return transactionTemplate.execute(status -> {
+            Resultat resultat = new Resultat();
+            Iterator<Object[]> comptes = compteRepository.findSoldesPourRapprochement(premier, dernier, depuis).iterator();
+            Object[] compte = comptes.hasNext() ? comptes.next() : null;
+            double soldeRecalcule = 0;
+            long nombre = 0;
+            try (Stream<OperationExport> operations = operationCompteRepository.streamPourRapprochement(premier, dernier, depuis)) {
+                Iterator<OperationExport> it = operations.iterator();
+                while (compte != null && it.hasNext()) {
+                    OperationExport operation = it.next();
+                    // comptes sans autre opération
+                    while (compte != null && ((Number) compte[0]).longValue() < operation.getIdCompte()) {
+                        resultat.verifier(compte, soldeRecalcule, nombre);
+                        compte = comptes.hasNext() ? comptes.next() : null;
+                        soldeRecalcule = 0;
+                        nombre = 0;
+                    }
+                    if (compte != null && ((Number) compte[0]).longValue() == operation.getIdCompte()) {
+                        soldeRecalcule += effet(operation);
+                        nombre++;
+                    }
+                }
+            }
+            for (; compte != null; compte = comptes.hasNext() ? comptes.next() : null) {
+                resultat.verifier(compte, soldeRecalcule, nombre);
+                soldeRecalcule = 0;
+                nombre = 0;
+            }
+            return resultat;
+        });
+    }
+
+    /**
+     * Tâche fork-join : une plage d'ids de comptes, découpée en deux tant qu'elle est trop large
+     */
+    private final class Plage extends RecursiveTask<Resultat> {
+
+        /**
+         * Plus petit et plus grand id de compte de la plage
+         */
+        private final long premier;
+        private final long dernier;
+
+        /**
+         * Repère (null pour tous les comptes)
+         */
+        private final Instant depuis;
+
+        /**
+         * Constructeur
+         * @param premier plus petit id de compte de la plage
+         * @param dernier plus grand id de compte de la plage
+         * @param depuis repère (null pour tous les comptes)
+         */
+        Plage(long premier, long dernier, Instant depuis) {
+            this.premier = premier;
+            this.dernier = dernier;
+            this.depuis = depuis;
+        }
+
+        /**
+         * Rapproche la plage
+         * @return le résultat de la plage
+         */
+        @Override
+        protected Resultat compute() {
+            if (dernier - premier < taillePlage)
+                return rapprocherPlage(premier, dernier, depuis);
+            long milieu = premier + (dernier - premier) / 2;
+            Plage gauche = new Plage(premier, milieu, depuis);
+            gauche.fork();
+            Resultat droite = new Plage(milieu + 1, dernier, depuis).compute();
+            // écarts par id croissant : la moitié gauche d'abord
+            return gauche.join().ajouter(droite);
+        }
+    }
+
+    /**
+     * Résultat (partiel) d'un rapprochement
+     */
+    private final class Resultat {
+
+        /**
+         * Nombre de comptes vérifiés, d'opérations rejouées et de comptes en écart
+         */
+        private long comptes;
+        private long operations;
+        private long nombreEcarts;
+
+        /**
+         * Les premiers comptes en écart
+         */
+        private final List<EcartSolde> ecarts = new ArrayList<>();
+
+        /**
+         * Compare le solde d'un compte au solde recalculé
+         * @param compte le compte { id, solde }
+         * @param soldeRecalcule solde recalculé à partir des opérations
+         * @param nombre nombre d'opérations rejouées
+         */
+        void verifier(Object[] compte, double soldeRecalcule, long nombre) {
+            comptes++;
+            operations += nombre;
+            double solde = ((Number) compte[1]).doubleValue();
+            if (Math.abs(solde - soldeRecalcule) > tolerance) {
+                nombreEcarts++;
+                if (ecarts.size() < ecartsMax)
+                    ecarts.add(new EcartSolde(((Number) compte[0]).longValue(), solde, soldeRecalcule, nombre));
+            }
+        }
+
+        /**
+         * Ajoute le résultat d'une plage suivante
+         * @param autre le résultat de la plage suivante
+         * @return ce résultat
+         */
+        Resultat ajouter(Resultat autre) {
+            comptes += autre.comptes;
+            operations += autre.operations;
+            nombreEcarts += autre.nombreEcarts;
+            for (EcartSolde ecart : autre.ecarts) {
+                if (ecarts.size() >= ecartsMax)
+                    break;
+                ecarts.add(ecart);
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.entities.Compte;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Registre hors tas des soldes des comptes : id → (solde, actif, version)
+ * Les états sont rangés dans un fichier projeté en mémoire, dans une case de taille fixe à la position
+ * donnée par l'id du compte (les ids viennent d'une séquence, ils sont donc denses) :
+ * pas d'objet par compte, donc pas de pression sur le ramasse-miettes, même avec des dizaines de millions de comptes.
+ *
+ * Le fichier n'est qu'un cache : il est vidé et reconstruit depuis la base à chaque démarrage, en tâche de fond.
+ * Il est ensuite mis à jour par ServiceCompte (événement CompteModifie) après la validation de chaque transaction.
+ * Une mise à jour n'est prise en compte que si la version du compte est plus récente que celle du registre,
+ * l'ordre d'arrivée des mises à jour et du rechargement n'a donc pas d'importance.
+ * Les modifications des comptes faites sans passer par ServiceCompte ne sont vues qu'au redémarrage suivant.
+ *
+ * Chaque case est protégée par un compteur de séquence (seqlock) : les lectures ne prennent aucun verrou
+ * et recommencent si une écriture était en cours.
+ *
+ * Métrique exposée : banque.soldes.comptes (nombre de comptes dans le registre)
+ */
+@Component
+public class RegistreSoldes implements SmartLifecycle {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(RegistreSoldes.class);
+
+    /**
+     * État d'un compte lu dans le registre
+     * @param solde solde du compte
+     * @param actif le compte est-il actif ?
+     * @param version version du compte
+     */
+    public record EtatCompte(double solde, boolean actif, long version) {
+    }
+
+    /**
+     * Taille d'une case en octets : séquence, solde, puis version et état actif (version * 2 + actif)
+     * Une séquence à 0 indique une case vide, une séquence impaire une écriture en cours.
+     */
+    static final int TAILLE_CASE = 24;
+
+    /**
+     * Nombre de cases par segment projeté en mémoire (96 Mo par segment)
+     */
+    static final int CASES_PAR_SEGMENT = 1 << 22;
+
+    /**
+     * Nombre de verrous pour les écritures (puissance de 2)
+     */
+    private static final int NB_VERROUS = 64;
+
+    /**
+     * Accès aux longs des segments avec les garanties d'un champ volatile
+     */
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Bean repository pour les comptes
+     */
+    private final CompteRepository compteRepository;
+
+    /**
+     * Permet de relire les comptes dans une transaction en lecture seule
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Le registre est-il utilisé ?
+     */
+    private final boolean actif;
+
+    /**
+     * Fichier projeté en mémoire
+     */
+    private final Path fichier;
+
+    /**
+     * Verrous des écritures (une écriture par case à la fois)
+     */
+    private final Object[] verrous = new Object[NB_VERROUS];
+
+    /**
+     * Verrou pour la projection des segments et la fermeture du fichier
+     */
+    private final Object verrouSegments = new Object();
+
+    /**
+     * Nombre de comptes dans le registre
+     */
+    private final AtomicLong nbComptes = new AtomicLong();
+
+    /**
+     * Canal du fichier (null si le registre n'est pas démarré)
+     */
+    private FileChannel canal;
+
+    /**
+     * Segments projetés, indexés par numéro de segment (null si le segment n'a pas encore servi)
+     */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * Le registre est-il démarré ?
+     */
+    private volatile boolean enMarche;
+
+    /**
+     * Le rechargement depuis la base est-il terminé ?
+     */
+    private volatile boolean pret;
+
+    /**
+     * Rechargement en tâche de fond (null s'il n'est pas en cours)
+     */
+    private Thread chargement;
+
+    /**
+     * Constructeur pour l'injection
+     * @param compteRepository bean repo comptes injecté
+     * @param transactionManager gestionnaire de transactions
+     * @param meterRegistry registre des métriques
+     * @param actif le registre est-il utilisé ? (sinon toutes les lectures passent par la base)
+     * @param fichier chemin du fichier projeté en mémoire
+     */
+    public RegistreSoldes(CompteRepository compteRepository, PlatformTransactionManager transactionManager,
+                          MeterRegistry meterRegistry,
+                          @Value("${banque.soldes.actif:false}") boolean actif,
+                          @Value("${banque.soldes.fichier:${java.io.tmpdir}/tpae-soldes.bin}") String fichier) {
+        this.compteRepository = compteRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.actif = actif;
+        this.fichier = Path.of(fichier);
+        for (int i = 0; i < NB_VERROUS; i++)
+            verrous[i] = new Object();
+        meterRegistry.gauge("banque.soldes.comptes", nbComptes);
+    }
+
+    /**
+     * Lit l'état d'un compte
+     * @param idCompte id du compte
+     * @return l'état du compte, vide si le registre n'est pas prêt ou si le compte n'y est pas
+     */
+    public Optional<EtatCompte> lire(long idCompte) {
+        if (!pret)
+            return Optional.empty();
+        MappedByteBuffer segment = segment(idCompte, false);
+        if (segment == null)
+            return Optional.empty();
+        int position = position(idCompte);
+        while (true) {
+            long sequence = (long) LONGS.getVolatile(segment, position);
+            if (sequence == 0)
+                return Optional.empty();
+            if ((sequence & 1) != 0) {
+                // écriture en cours
+                Thread.onSpinWait();
+                continue;
+            }
+            long solde = (long) LONGS.getVolatile(segment, position + 8);
+            long versionActif = (long) LONGS.getVolatile(segment, position + 16);
+            if ((long) LONGS.getVolatile(segment, position) == sequence)
+                return Optional.of(new EtatCompte(Double.longBitsToDouble(solde), (versionActif & 1) != 0, versionActif >>> 1));
+        }
+    }
+
+    /**
+     * Met à jour l'état d'un compte s'il est plus récent que celui du registre
+     * @param idCompte id du compte
+     * @param solde solde du compte
+     * @param actif le compte est-il actif ?
+     * @param version version du compte
+     * @return vrai si le registre a été modifié
+     */
+    public boolean ecrire(long idCompte, double solde, boolean actif, long version) {
+        if (!enMarche)
+            return false;
+        MappedByteBuffer segment = segment(idCompte, true);
+        if (segment == null)
+            return false;
+        int position = position(idCompte);
+        long sequence;
+        synchronized (verrous[(int) (idCompte & (NB_VERROUS - 1))]) {
+            sequence = (long) LONGS.getVolatile(segment, position);
+            if (sequence != 0 && ((long) LONGS.getVolatile(segment, position + 16)) >>> 1 >= version)
+                return false;
+            LONGS.setVolatile(segment, position, sequence + 1);
+            LONGS.setVolatile(segment, position + 8, Double.doubleToRawLongBits(solde));
+            LONGS.setVolatile(segment, position + 16, version << 1 | (actif ? 1 : 0));
+            LONGS.setVolatile(segment, position, sequence + 2);
+        }
+        if (sequence == 0)
+            nbComptes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Reporte dans le registre un compte modifié, une fois la transaction validée
+     * @param evenement le compte modifié
+     */
+    @TransactionalEventListener
+    public void compteModifie(CompteModifie evenement) {
+        Compte compte = evenement.compte();
+        if (compte.getId() != null)
+            ecrire(compte.getId(), compte.getSolde(), compte.isActif(), compte.getVersion());
+    }
+
+    /**
+     * Le rechargement depuis la base est-il terminé ?
+     * @return vrai si les lectures peuvent être servies par le registre
+     */
+    public boolean isPret() {
+        return pret;
+    }
+
+    /**
+     * Vide le fichier et lance le rechargement depuis la base en tâche de fond
+     */
+    @Override
+    public synchronized void start() {
+        if (!actif || enMarche)
+            return;
+        try {
+            // le fichier est vidé : seul le rechargement fait foi
+            FileChannel nouveauCanal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            synchronized (verrouSegments) {
+                canal = nouveauCanal;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'ouvrir le registre des soldes " + fichier, e);
+        }
+        nbComptes.set(0);
+        enMarche = true;
+        chargement = new Thread(this::charger, "registre-soldes");
+        chargement.setDaemon(true);
+        chargement.start();
+    }
+
+    /**
+     * Arrête le registre : les lectures repassent par la base
+     */
+    @Override
+    public synchronized void stop() {
+        if (!enMarche)
+            return;
+        pret = false;
+        enMarche = false;
+        try {
+            chargement.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        chargement = null;
+        synchronized (verrouSegments) {
+            segments = new MappedByteBuffer[0];
+            try {
+                canal.close();
+            } catch (IOException e) {
+                logger.warn("Impossible de fermer le registre des soldes {}", fichier, e);
+            }
+            canal = null;
+        }
+    }
+
+    /**
+     * Le registre est-il démarré ?
+     * @return vrai si le registre est démarré
+     */
+    @Override
+    public boolean isRunning() {
+        return enMarche;
+    }
+
+    /**
+     * Recharge l'état de tous les comptes depuis la base (curseur, sans entités gérées)
+     */
+    private void charger() {
+        long debut = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<Object[]> etats = compteRepository.streamEtats()) {
+                    etats.takeWhile(etat -> enMarche)
+                            .forEach(etat -> ecrire(((Number) etat[0]).longValue(), ((Number) etat[1]).doubleValue(),
+                                    (Boolean) etat[2], ((Number) etat[3]).longValue()));
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.error("Impossible de charger le registre des soldes : les lectures passeront par la base", e);
+            return;
+        }
+        if (!enMarche)
+            return;
+        pret = true;
+        logger.info("Registre des soldes chargé : {} comptes en {} ms", nbComptes.get(),
+                (System.nanoTime() - debut) / 1_000_000);
+    }
+
+    /**
+     * Retourne le segment qui contient la case d'un compte
+     * @param idCompte id du compte
+     * @param creer faut-il projeter le segment s'il ne l'est pas encore ?
+     * @return le segment, null s'il n'existe pas (ou si l'id est invalide)
+     */
+    private MappedByteBuffer segment(long idCompte, boolean creer) {
+        if (idCompte < 0 || idCompte / CASES_PAR_SEGMENT >= Integer.MAX_VALUE)
+            return null;
+        int numero = (int) (idCompte / CASES_PAR_SEGMENT);
+        MappedByteBuffer[] courants = segments;
+        if (numero < courants.length && courants[numero] != null)
+            return courants[numero];
+        return creer ? projeter(numero) : null;
+    }
+
+    /**
+     * Projette un segment en mémoire (le fichier est agrandi si besoin, les cases sont à 0)
+     * @param numero numéro du segment
+     * @return le segment
+     */
+    private MappedByteBuffer projeter(int numero) {
+        synchronized (verrouSegments) {
+            if (canal == null)
+                return null;
+            MappedByteBuffer[] courants = segments;
+            if (numero < courants.length && courants[numero] != null)
+                return courants[numero];
+            long taille = (long) CASES_PAR_SEGMENT * TAILLE_CASE;
+            MappedByteBuffer segment;
+            try {
+                segment = canal.map(FileChannel.MapMode.READ_WRITE, numero * taille, taille);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Impossible de projeter le registre des soldes " + fichier, e);
+            }
+            MappedByteBuffer[] nouveaux = Arrays.copyOf(courants, Math.max(courants.length, numero + 1));
+            nouveaux[numero] = segment;
+            segments = nouveaux;
+            return segment;
+        }
+    }
+
+    /**
+     * Position de la case d'un compte dans son segment
+     * @param idCompte id du compte
+     * @return la position en octets
+     */
+    private static int position(long idCompte) {
+        return (int) (idCompte % CASES_PAR_SEGMENT) * TAILLE_CASE;
+    }
+}
@@ -0,0 +1,21 @@
+package org.miage.tpae.metier;
+
+import java.time.LocalDate;
+
+/**
+ * Règle appliquée à chaque compte actif par le traitement de fin de journée (cf. FinDeJournee)
+ * Les règles sont des beans : elles sont appliquées dans l'ordre donné par leur @Order,
+ * chacune voyant le solde laissé par les précédentes.
+ * Une règle ne doit dépendre que de ses paramètres : un lot peut être rejoué en cas de conflit.
+ */
+public interface RegleFinDeJournee {
+
+    /**
+     * Montant à porter sur un compte
+     * @param idCompte id du compte
+     * @param solde solde du compte
+     * @param jour jour traité
+     * @return le montant à créditer (positif) ou à débiter (négatif), 0 si rien
+     */
+    double montant(long idCompte, double solde, LocalDate jour);
+}
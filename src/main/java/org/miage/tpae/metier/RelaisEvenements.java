@@ -0,0 +1,137 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.EvenementOperationRepository;
+import org.miage.tpae.entities.EvenementOperation;
+import org.miage.tpae.export.OperationExport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZoneId;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Relais de la boîte d'envoi (cf. BoiteEnvoi) : toutes les banque.outbox.intervalle, les événements en attente
+ * sont lus par lots de banque.outbox.taille-lot (par date d'écriture, cf. EvenementOperation), publiés vers
+ * la destination (cf. DestinationEvenements) puis supprimés, dans une transaction par lot.
+ * Les lignes du lot sont verrouillées : avec plusieurs instances, un seul relais publie un lot donné.
+ * Si la publication échoue, la transaction est annulée et le lot est repris au passage suivant :
+ * un lot peut donc être publié plusieurs fois (l'id de l'opération permet d'éliminer les doublons).
+ *
+ * Ordre de diffusion : la base ne donne pas l'ordre de validation des transactions. Les ids (réservés par blocs
+ * par chaque instance) en sont loin ; la date d'écriture le suit à la durée d'une transaction près.
+ * Les opérations d'un même compte sont diffusées dans l'ordre où elles ont été réalisées : leurs transactions
+ * sont sérialisées par le verrou du compte (ou par le shard du moteur), chacune écrit donc ses événements
+ * après la validation de la précédente (avec plusieurs instances, à l'écart entre leurs horloges près).
+ * Entre comptes différents, il n'y a pas d'ordre global : un événement peut être diffusé après un événement
+ * d'une transaction validée plus tard (les transactions en cours ne sont pas visibles par le relais).
+ * Un consommateur ne doit donc pas utiliser la diffusion comme une position globale (« tout avant cet événement
+ * a été reçu ») : seul l'ordre par compte est garanti.
+ *
+ * Métriques exposées : banque.outbox.relayes, banque.outbox.erreurs
+ */
+@Component
+public class RelaisEvenements {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(RelaisEvenements.class);
+
+    /**
+     * Bean repository pour la boîte d'envoi
+     */
+    private final EvenementOperationRepository evenementOperationRepository;
+
+    /**
+     * Destination des événements
+     */
+    private final DestinationEvenements destination;
+
+    /**
+     * Permet de relayer chaque lot dans une transaction
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Nombre maximum d'événements par lot
+     */
+    private final int tailleLot;
+
+    /**
+     * Compteurs des événements relayés et des lots en échec
+     */
+    private final Counter relayes;
+    private final Counter erreurs;
+
+    /**
+     * Constructeur pour l'injection
+     * @param evenementOperationRepository bean repo boîte d'envoi injecté
+     * @param destination destination des événements injectée
+     * @param transactionManager gestionnaire de transactions
+     * @param meterRegistry registre des métriques
+     * @param tailleLot nombre maximum d'événements par lot
+     */
+    public RelaisEvenements(EvenementOperationRepository evenementOperationRepository,
+                            DestinationEvenements destination,
+                            PlatformTransactionManager transactionManager,
+                            MeterRegistry meterRegistry,
+                            @Value("${banque.outbox.taille-lot:500}") int tailleLot) {
+        this.evenementOperationRepository = evenementOperationRepository;
+        this.destination = destination;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tailleLot = Math.max(1, tailleLot);
+        this.relayes = Counter.builder("banque.outbox.relayes")
+                .description("Événements relayés").register(meterRegistry);
+        this.erreurs = Counter.builder("banque.outbox.erreurs")
+                .description("Lots d'événements non relayés").register(meterRegistry);
+    }
+
+    /**
+     * Relaie tous les événements en attente, lot par lot
+     */
+    @Scheduled(fixedDelayString = "${banque.outbox.intervalle:PT1S}")
+    public void relayer() {
+        try {
+            while (relayerLot() == tailleLot) {
+                // lot complet : il reste peut-être des événements
+            }
+        } catch (RuntimeException e) {
+            erreurs.increment();
+            logger.warn("Impossible de relayer la boîte d'envoi, nouvel essai au prochain passage", e);
+        }
+    }
+
+    /**
+     * Relaie un lot d'événements dans une transaction
+     * @return le nombre d'événements relayés
+     */
+    int relayerLot() {
+        Integer nombre = transactionTemplate.execute(status -> {
+            List<EvenementOperation> lot = evenementOperationRepository.findLotARelayer(Limit.of(tailleLot));
+            if (lot.isEmpty())
+                return 0;
+            try {
+                destination.publier(lot.stream().map(e -> new OperationExport(e.getIdOperation(), e.getOperationType(),
+                        e.getValeur(), GregorianCalendar.from(e.getDateOperation().atZone(ZoneId.systemDefault())),
+                        e.getIdCompte())).toList());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            evenementOperationRepository.deleteAllInBatch(lot);
+            return lot.size();
+        });
+        relayes.increment(nombre);
+        return nombre;
+    }
+}
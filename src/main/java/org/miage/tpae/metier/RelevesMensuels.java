@@ -0,0 +1,354 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.dao.ClientRepository;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionReleveRepository;
+import org.miage.tpae.entities.PositionReleve;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.RapportReleves;
+import org.miage.tpae.utilities.PeriodeInvalideException;
+import org.miage.tpae.utilities.TraitementImpossibleException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Génération des relevés mensuels : un fichier texte par client, avec pour chacun de ses comptes
+ * le solde de début de mois, les opérations du mois et le solde de fin de mois
+ *
+ * Les clients sont répartis en banque.releves.paralleles plages d'ids consécutifs, traitées en parallèle.
+ * Chaque plage est lue par lots de banque.releves.taille-lot clients (pagination sur curseur). Un lot est lu
+ * avec un nombre constant de requêtes, quel que soit son nombre de comptes : les clients, leurs comptes,
+ * les mouvements qui permettent de retrouver les soldes (cf. ServiceCompte.releve) et un curseur sur les opérations
+ * du mois, triées par client puis par compte. Les relevés sont écrits au fur et à mesure de la lecture du curseur :
+ * la mémoire utilisée ne dépend pas du nombre d'opérations.
+ * Un lot est lu dans une seule transaction en lecture seule (lecture répétable) : ses soldes et ses opérations
+ * sont cohérents.
+ *
+ * Les relevés du mois sont écrits sous banque.releves.repertoire/AAAA-MM, dans un sous-répertoire par millier
+ * de clients (12/client-12345.txt). Chaque fichier est écrit à côté puis renommé : un relevé présent est complet.
+ *
+ * Reprise : les plages d'un mois sont enregistrées au premier lancement (cf. PositionReleve) et l'avancement de
+ * chaque plage après l'écriture de chaque lot ; relancer la génération du même mois reprend chaque plage
+ * après son dernier lot écrit. Un lot interrompu est réécrit entièrement (les fichiers sont remplacés).
+ *
+ * Métriques exposées : banque.releves.clients, banque.releves.operations, banque.releves.lot (durée d'un lot)
+ * et banque.releves.avancement (part des ids de clients traités par la génération en cours)
+ */
+@Service
+public class RelevesMensuels {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(RelevesMensuels.class);
+
+    /**
+     * Taille des tampons d'écriture
+     */
+    private static final int TAILLE_TAMPON = 1 << 14;
+
+    /**
+     * Format des dates des opérations
+     */
+    private static final DateTimeFormatter FORMAT_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Résultat de l'écriture d'un lot
+     * @param clients nombre de relevés écrits
+     * @param comptes nombre de comptes
+     * @param operations nombre d'opérations
+     * @param dernierTraite id du dernier client traité
+     */
+    private record ResultatLot(long clients, long comptes, long operations, long dernierTraite) {
+    }
+
+    /**
+     * Bean repository pour les clients
+     */
+    private final ClientRepository clientRepository;
+
+    /**
+     * Bean repository pour les comptes
+     */
+    private final CompteRepository compteRepository;
+
+    /**
+     * Bean repository pour les opérations
+     */
+    private final OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Bean repository pour l'avancement des générations
+     */
+    private final PositionReleveRepository positionReleveRepository;
+
+    /**
+     * Permet de lire chaque lot dans sa propre transaction (en lecture seule, lecture répétable)
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Répertoire des relevés
+     */
+    private final Path repertoire;
+
+    /**
+     * Nombre de plages traitées en parallèle
+     */
+    private final int paralleles;
+
+    /**
+     * Nombre de clients lus par transaction
+     */
+    private final int tailleLot;
+
+    /**
+     * Une seule génération à la fois
+     */
+    private final ReentrantLock verrou = new ReentrantLock();
+
+    /**
+     * Avancement de la génération en cours : ids de clients traités sur le nombre d'ids des plages
+     */
+    private final AtomicLong idsTraites = new AtomicLong();
+    private volatile long idsTotal;
+
+    /**
+     * Compteurs des relevés et des opérations écrits, durée d'écriture des lots
+     */
+    private final Counter clientsEcrits;
+    private final Counter operationsEcrites;
+    private final Timer dureeLot;
+
+    /**
+     * Constructeur pour l'injection
+     * @param clientRepository bean repo clients injecté
+     * @param compteRepository bean repo comptes injecté
+     * @param operationCompteRepository bean repo opérations injecté
+     * @param positionReleveRepository bean repo avancement injecté
+     * @param transactionManager gestionnaire de transactions
+     * @param meterRegistry registre des métriques
+     * @param repertoire répertoire des relevés
+     * @param paralleles nombre de plages traitées en parallèle
+     * @param tailleLot nombre de clients lus par transaction
+     */
+    public RelevesMensuels(ClientRepository clientRepository,
+                           CompteRepository compteRepository,
+                           OperationCompteRepository operationCompteRepository,
+                           PositionReleveRepository positionReleveRepository,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry,
+                           @Value("${banque.releves.repertoire:releves}") String repertoire,
+                           @Value("${banque.releves.paralleles:4}") int paralleles,
+                           @Value("${banque.releves.taille-lot:500}") int tailleLot) {
+        this.clientRepository = clientRepository;
+        this.compteRepository = compteRepository;
+        this.operationCompteRepository = operationCompteRepository;
+        this.positionReleveRepository = positionReleveRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.repertoire = Path.of(repertoire);
+        this.paralleles = Math.max(1, paralleles);
+        this.tailleLot = Math.max(1, tailleLot);
+        this.clientsEcrits = Counter.builder("banque.releves.clients")
+                .description("Relevés mensuels écrits").register(meterRegistry);
+        this.operationsEcrites = Counter.builder("banque.releves.operations")
+                .description("Opérations écrites dans les relevés mensuels").register(meterRegistry);
+        this.dureeLot = Timer.builder("banque.releves.lot")
+                .description("Durée d'écriture d'un lot de relevés").register(meterRegistry);
+        Gauge.builder("banque.releves.avancement", this, r -> r.idsTotal == 0 ? Double.NaN : (double) r.idsTraites.get() / r.idsTotal)
+                .description("Avancement de la génération des relevés en cours").register(meterRegistry);
+    }
+
+    /**
+     * Génération planifiée des relevés du mois précédent (banque.releves.cron, désactivée par défaut)
+     */
+    @Scheduled(cron = "${banque.releves.cron:-}")
+    public void generationPlanifiee() {
+        try {
+            generer(YearMonth.now().minusMonths(1));
+        } catch (TraitementImpossibleException e) {
+            logger.warn("Génération des relevés planifiée ignorée : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Écrit les relevés de tous les clients pour un mois terminé, ou reprend la génération interrompue de ce mois
+     * @param mois le mois
+     * @return le rapport de la génération
+     * @throws PeriodeInvalideException si le mois n'est pas terminé
+     * @throws TraitementImpossibleException si une génération est en cours
+     * @throws UncheckedIOException en cas de problème d'écriture des fichiers
+     */
+    public RapportReleves generer(YearMonth mois) throws PeriodeInvalideException, TraitementImpossibleException {
+        if (!mois.isBefore(YearMonth.now()))
+            throw new PeriodeInvalideException("Le mois " + mois + " n'est pas terminé");
+        if (!verrou.tryLock())
+            throw new TraitementImpossibleException("Une génération des relevés est déjà en cours");
+        try {
+            long debutGeneration = System.currentTimeMillis();
+            Path dossier = repertoire.resolve(mois.toString());
+            ZoneId zone = ZoneId.systemDefault();
+            Calendar debut = GregorianCalendar.from(mois.atDay(1).atStartOfDay(zone));
+            Calendar fin = GregorianCalendar.from(mois.plusMonths(1).atDay(1).atStartOfDay(zone));
+            List<PositionReleve> positions = positionReleveRepository.findByMoisOrderByPlage(mois.toString());
+            boolean reprise = !positions.isEmpty();
+            if (reprise) {
+                logger.info("Reprise de la génération des relevés de {}", mois);
+            } else {
+                positions = new ArrayList<>();
+                List<long[]> plages = TraitementParPlages.decouper(clientRepository.idMin(), clientRepository.idMax(), paralleles);
+                for (int i = 0; i < plages.size(); i++)
+                    positions.add(new PositionReleve(mois + "/" + i, mois.toString(), i, plages.get(i)[0],
+                            plages.get(i)[1], plages.get(i)[0] - 1));
+                positionReleveRepository.saveAll(positions);
+            }
+            idsTotal = positions.stream().mapToLong(p -> p.getDernier() - p.getPremier() + 1).sum();
+            idsTraites.set(positions.stream().mapToLong(p -> p.getDernierTraite() - p.getPremier() + 1).sum());
+            List<ResultatLot> resultats = TraitementParPlages.traiter("releves", positions,
+                    position -> genererPlage(position, dossier, debut, fin));
+            RapportReleves rapport = new RapportReleves(mois.toString(), reprise,
+                    resultats.stream().mapToLong(ResultatLot::clients).sum(),
+                    resultats.stream().mapToLong(ResultatLot::comptes).sum(),
+                    resultats.stream().mapToLong(ResultatLot::operations).sum(),
+                    dossier.toString(), System.currentTimeMillis() - debutGeneration);
+            logger.info("Relevés de {} : {} clients, {} opérations en {} ms", mois, rapport.getClients(),
+                    rapport.getOperations(), rapport.getDuree());
+            return rapport;
+        } finally {
+            idsTotal = 0;
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Écrit les relevés d'une plage lot par lot à partir de son avancement (dans un thread de la génération)
+     * @param position avancement de la plage
+     * @param dossier répertoire des relevés du mois
+     * @param debut début du mois (inclus)
+     * @param fin fin du mois (exclue)
+     * @return le total des lots écrits
+     */
+    private ResultatLot genererPlage(PositionReleve position, Path dossier, Calendar debut, Calendar fin) {
+        long clients = 0;
+        long comptes = 0;
+        long operations = 0;
+        long apres = position.getDernierTraite();
+        while (apres < position.getDernier()) {
+            long depart = apres;
+            long debutLot = System.nanoTime();
+            ResultatLot lot = transactionTemplate.execute(status -> ecrireLot(position, depart, dossier, debut, fin));
+            // l'avancement n'est enregistré qu'une fois les fichiers du lot écrits
+            positionReleveRepository.save(new PositionReleve(position.getId(), position.getMois(),
+                    position.getPlage(), position.getPremier(), position.getDernier(), lot.dernierTraite()));
+            dureeLot.record(System.nanoTime() - debutLot, TimeUnit.NANOSECONDS);
+            clientsEcrits.increment(lot.clients());
+            operationsEcrites.increment(lot.operations());
+            idsTraites.addAndGet(lot.dernierTraite() - depart);
+            clients += lot.clients();
+            comptes += lot.comptes();
+            operations += lot.operations();
+            apres = lot.dernierTraite();
+        }
+        return new ResultatLot(clients, comptes, operations, apres);
+    }
+
+    /**
+     * Lit le lot de clients suivant d'une plage et écrit leurs relevés (dans la transaction du lot)
+     * @param position avancement de la plage
+     * @param apres id du dernier client déjà traité
+     * @param dossier répertoire des relevés du mois
+     * @param debut début du mois (inclus)
+     * @param fin fin du mois (exclue)
+     * @return le résultat du lot
+     */
+    private ResultatLot ecrireLot(PositionReleve position, long apres, Path dossier, Calendar debut, Calendar fin) {
+        List<Object[]> clients = clientRepository.findLotPourReleves(apres, position.getDernier(), Limit.of(tailleLot));
+        if (clients.isEmpty())
+            return new ResultatLot(0, 0, 0, position.getDernier());
+        long idClientMin = (Long) clients.get(0)[0];
+        long idClientMax = (Long) clients.get(clients.size() - 1)[0];
+        // { id client, id, solde } par client puis par compte
+        List<Object[]> comptes = compteRepository.findPourReleves(idClientMin, idClientMax);
+        // id compte → { mouvements depuis le début du mois, mouvements depuis la fin du mois }
+        Map<Long, double[]> mouvements = new HashMap<>();
+        for (Object[] ligne : operationCompteRepository.mouvementsPourReleves(debut, fin, idClientMin, idClientMax,
+                ServiceCompte.CREDITS, ServiceCompte.DEBITS))
+            mouvements.put((Long) ligne[0], new double[]{((Number) ligne[1]).doubleValue(), ((Number) ligne[2]).doubleValue()});
+        long operations = 0;
+        try (Stream<OperationExport> flux = operationCompteRepository.streamPourReleves(debut, fin, idClientMin, idClientMax)) {
+            Iterator<OperationExport> curseur = flux.iterator();
+            OperationExport suivante = curseur.hasNext() ? curseur.next() : null;
+            int indiceCompte = 0;
+            for (Object[] client : clients) {
+                long idClient = (Long) client[0];
+                Path fichier = dossier.resolve(String.valueOf(idClient / 1000)).resolve("client-" + idClient + ".txt");
+                Path temporaire = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+                Files.createDirectories(fichier.getParent());
+                try (Writer sortie = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temporaire),
+                        StandardCharsets.UTF_8), TAILLE_TAMPON)) {
+                    sortie.write("Relevé mensuel " + position.getMois() + "\n");
+                    sortie.write("Client " + idClient + " : " + client[2] + " " + client[1] + "\n");
+                    // les comptes et les opérations sont triés par client puis par compte
+                    while (indiceCompte < comptes.size() && (Long) comptes.get(indiceCompte)[0] == idClient) {
+                        Object[] compte = comptes.get(indiceCompte++);
+                        long idCompte = (Long) compte[1];
+                        double solde = ((Number) compte[2]).doubleValue();
+                        double[] depuis = mouvements.getOrDefault(idCompte, new double[2]);
+                        sortie.write("\nCompte " + idCompte + "\n");
+                        sortie.write("Solde au début du mois : " + montant(solde - depuis[0]) + "\n");
+                        while (suivante != null && suivante.getIdCompte() == idCompte) {
+                            sortie.write(suivante.getDateOperation().toInstant().atZone(ZoneId.systemDefault())
+                                    .format(FORMAT_DATE) + " " + suivante.getOperationType() + " "
+                                    + montant(suivante.getValeur()) + "\n");
+                            operations++;
+                            suivante = curseur.hasNext() ? curseur.next() : null;
+                        }
+                        sortie.write("Solde à la fin du mois : " + montant(solde - depuis[1]) + "\n");
+                    }
+                }
+                Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'écrire les relevés dans " + dossier, e);
+        }
+        long dernierTraite = clients.size() < tailleLot ? position.getDernier() : idClientMax;
+        return new ResultatLot(clients.size(), comptes.size(), operations, dernierTraite);
+    }
+
+    /**
+     * Formate un montant avec deux décimales
+     * @param valeur le montant
+     * @return le montant formaté
+     */
+    private static String montant(double valeur) {
+        return String.format(Locale.ROOT, "%.2f", valeur);
+    }
+}
@@ -4,9 +4,12 @@ import org.miage.tpae.dao.ClientRepository;
 import org.miage.tpae.dao.CompteRepository;
 import org.miage.tpae.entities.Client;
 import org.miage.tpae.entities.Compte;
+import org.miage.tpae.export.ClientExport;
+import org.miage.tpae.export.CompteExport;
 import org.miage.tpae.utilities.ClientInexistant;
 import org.miage.tpae.utilities.MontantInvalidException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -22,11 +25,18 @@ public class ServiceClient {
     private final ClientRepository clientRepository;
 
     /**
-     * Constructeur pour l'injection du bean repository
-     * @param clientRepository le bean repository à injecter
+     * Bean repository qui sera injecté par le constructeur
      */
-    public ServiceClient(ClientRepository clientRepository) {
+    private final CompteRepository compteRepository;
+
+    /**
+     * Constructeur pour l'injection des beans repository
+     * @param clientRepository le bean repository client à injecter
+     * @param compteRepository le bean repository compte à injecter
+     */
+    public ServiceClient(ClientRepository clientRepository, CompteRepository compteRepository) {
         this.clientRepository = clientRepository;
+        this.compteRepository = compteRepository;
     }
 
     /**
@@ -63,6 +73,7 @@ public class ServiceClient {
      * @return infos du client
      * @throws ClientInexistant s'il n'existe pas de client avec cet id
      */
+    @Transactional(readOnly = true)
     public Client recupererClient(long idClient) throws ClientInexistant {
         // on cherche le client
         final Optional<Client> optionalClient = clientRepository.findById(idClient);
@@ -72,4 +83,37 @@ public class ServiceClient {
         // sinon, on renvoie les infos
         return optionalClient.get();
     }
+
+    /**
+     * Permet de consulter un client et ses comptes
+     * Le client et ses comptes sont lus en une seule requête et copiés dans un export :
+     * rien n'est chargé à la demande après la transaction (pendant la sérialisation JSON par exemple)
+     * @param idClient id du client
+     * @return infos du client et de ses comptes
+     * @throws ClientInexistant s'il n'existe pas de client avec cet id
+     */
+    @Transactional(readOnly = true)
+    public ClientExport consulterClient(long idClient) throws ClientInexistant {
+        Client client = clientRepository.findAvecComptesById(idClient)
+                .orElseThrow(() -> new ClientInexistant("Le client d'id "+idClient+" n'existe pas."));
+        List<CompteExport> comptes = client.getComptes() == null ? List.of() : client.getComptes().stream()
+                .map(c -> new CompteExport(c.getId(), c.getSolde(), c.isActif(), c.getVersion(), c.getDateInterrogation()))
+                .toList();
+        return new ClientExport(client.getId(), client.getNom(), client.getPrenom(), comptes);
+    }
+
+    /**
+     * Permet de récupérer les comptes d'un client sans charger les entités
+     * @param idClient id du client
+     * @return les comptes du client
+     * @throws ClientInexistant s'il n'existe pas de client avec cet id
+     */
+    @Transactional(readOnly = true)
+    public List<CompteExport> listerComptes(long idClient) throws ClientInexistant {
+        List<CompteExport> comptes = compteRepository.findExportsByClientId(idClient);
+        // une liste vide : le client n'a pas de compte ou n'existe pas
+        if (comptes.isEmpty() && !clientRepository.existsById(idClient))
+            throw new ClientInexistant("Le client d'id "+idClient+" n'existe pas.");
+        return comptes;
+    }
 }
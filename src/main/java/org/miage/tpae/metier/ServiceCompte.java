@@ -6,23 +6,54 @@ import org.miage.tpae.dao.OperationCompteRepository;
 import org.miage.tpae.entities.Client;
 import org.miage.tpae.entities.Compte;
 import org.miage.tpae.entities.OperationCompte;
-import org.miage.tpae.export.Position;
+import org.miage.tpae.export.*;
 import org.miage.tpae.utilities.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.Collection;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Bean métier pour la gestion des comptes
  * Le Transactional sert à éviter que les opérations soient réalisées partiellement.
  * C'est surtout important pour le virement.
+ *
+ * Les débits, crédits et virements verrouillent les comptes concernés (cf. ModeVerrouillage)
+ * et sont rejoués automatiquement en cas de conflit (cf. ExecuteurTransactionnel).
+ * Les consultations ne font que lire : elles sont enregistrées en différé (cf. JournalConsultations).
+ * Chaque modification d'un compte est publiée (cf. CompteModifie) pour tenir à jour le registre des soldes
+ * (cf. RegistreSoldes), qui sert les consultations et les refus pour solde insuffisant sans aller en base.
+ * Quand le moteur de comptes est actif (cf. MoteurComptes), c'est lui qui réalise les débits, crédits,
+ * virements et clôtures, et qui donne les positions.
+ * Les lectures (readOnly) peuvent être servies par une réplique de la base (cf. RoutageDataSource).
  */
 @Service
 @Transactional
 public class ServiceCompte {
 
+    /**
+     * Types d'opérations qui augmentent le solde (l'ouverture porte le solde initial)
+     */
+    static final Set<OperationCompte.OperationType> CREDITS = EnumSet.of(OperationCompte.OperationType.OUVERTURE,
+            OperationCompte.OperationType.CREDIT, OperationCompte.OperationType.VIREMENT_CREDIT);
+
+    /**
+     * Types d'opérations qui diminuent le solde
+     */
+    static final Set<OperationCompte.OperationType> DEBITS = EnumSet.of(OperationCompte.OperationType.DEBIT,
+            OperationCompte.OperationType.VIREMENT_DEBIT);
+
     /**
      * Bean repository, pour les clients, qui sera injecté
      */
@@ -38,16 +69,72 @@ public class ServiceCompte {
      */
     private final OperationCompteRepository operationCompteRepository;
 
+    /**
+     * Bean qui exécute les opérations dans une transaction et les rejoue en cas de conflit
+     */
+    private final ExecuteurTransactionnel executeur;
+
+    /**
+     * Mode de verrouillage des comptes lors des modifications
+     */
+    private final ModeVerrouillage modeVerrouillage;
+
+    /**
+     * Bean qui enregistre les consultations en différé
+     */
+    private final JournalConsultations journalConsultations;
+
+    /**
+     * Bean registre hors tas des soldes des comptes
+     */
+    private final RegistreSoldes registreSoldes;
+
+    /**
+     * Publie les modifications des comptes
+     */
+    private final ApplicationEventPublisher publieur;
+
+    /**
+     * Bean moteur de comptes (shards en mémoire avec journal)
+     */
+    private final MoteurComptes moteurComptes;
+
+    /**
+     * Bean boîte d'envoi des opérations (diffusion aux systèmes en aval)
+     */
+    private final BoiteEnvoi boiteEnvoi;
+
     /**
      * Constructeur pour l'injection
      * @param clientRepository bean repo clients injecté
      * @param compteRepository bean repo comptes injecté
      * @param operationCompteRepository bean repo opérations injecté
+     * @param executeur bean d'exécution avec reprise injecté
+     * @param modeVerrouillage mode de verrouillage des comptes (propriété banque.verrouillage.mode)
+     * @param journalConsultations bean journal des consultations injecté
+     * @param registreSoldes bean registre des soldes injecté
+     * @param publieur publie les modifications des comptes
+     * @param moteurComptes bean moteur de comptes injecté
+     * @param boiteEnvoi bean boîte d'envoi des opérations injecté
      */
-    public ServiceCompte(ClientRepository clientRepository, CompteRepository compteRepository, OperationCompteRepository operationCompteRepository) {
+    public ServiceCompte(ClientRepository clientRepository, CompteRepository compteRepository, OperationCompteRepository operationCompteRepository,
+                         ExecuteurTransactionnel executeur,
+                         @Value("${banque.verrouillage.mode:PESSIMISTE}") ModeVerrouillage modeVerrouillage,
+                         JournalConsultations journalConsultations,
+                         RegistreSoldes registreSoldes,
+                         ApplicationEventPublisher publieur,
+                         MoteurComptes moteurComptes,
+                         BoiteEnvoi boiteEnvoi) {
         this.clientRepository = clientRepository;
         this.compteRepository = compteRepository;
         this.operationCompteRepository = operationCompteRepository;
+        this.executeur = executeur;
+        this.modeVerrouillage = modeVerrouillage;
+        this.journalConsultations = journalConsultations;
+        this.registreSoldes = registreSoldes;
+        this.publieur = publieur;
+        this.moteurComptes = moteurComptes;
+        this.boiteEnvoi = boiteEnvoi;
     }
 
     /**
@@ -86,8 +173,12 @@ public class ServiceCompte {
      * @throws CompteInconnuException si le compte n'existe pas
      */
     public void fermer(long idCompte) throws CompteInconnuException {
+        if (moteurComptes.isActif()) {
+            moteurComptes.fermer(idCompte);
+            return;
+        }
         //Récupération du compte et vérification des règles métiers
-        Compte compte = findCompte(idCompte);
+        Compte compte = findCompteAModifier(idCompte);
         //Opération métier
         compte.setActif(false);
         this.nouvelleCloture(compte);
@@ -95,60 +186,124 @@ public class ServiceCompte {
 
     /**
      * Retourne la position courante du compte
+     * Le solde est lu dans le registre des soldes s'il connaît le compte, sinon en base (en lecture seule) :
+     * l'opération de consultation et la date de dernière interrogation du compte sont écrites plus tard,
+     * par lots, par le journal des consultations.
+     * La lecture a sa propre transaction en lecture seule : en mode SYNCHRONE, l'attente de l'écriture de la
+     * consultation se fait sans garder de connexion ni de transaction en lecture seule (cf. JournalConsultations).
      * @param idCompte id du compte
      * @return la position
      * @throws CompteInconnuException si le compte n'existe pas
      * @throws CompteClotureException si le compte est cloturé
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Position consulter(long idCompte) throws CompteInconnuException, CompteClotureException {
-        //Récupération du compte et vérification des règles métiers
-        Compte c = findCompte(idCompte);
-        final OperationCompte oc = this.nouvelleConsultation(c, c.getSolde());
+        //Récupération du solde et vérification des règles métiers
+        final double solde = this.executeur.lire(() -> soldeCourant(idCompte));
         //Opération métier
-        c.setDateInterrogation(oc.getDateOperation());
-        return new Position(oc.getValeur(), oc.getDateOperation());
+        Calendar dateInterrogation = GregorianCalendar.getInstance();
+        this.journalConsultations.enregistrer(idCompte, solde, dateInterrogation);
+        return new Position(solde, dateInterrogation);
+    }
+
+    /**
+     * Retourne la position du compte au début d'un flux en direct (cf. FluxComptes), sans enregistrer de consultation
+     * Le solde est lu en base, et non dans le moteur ou le registre : il doit correspondre aux opérations diffusées,
+     * qui sont celles validées en base. La transaction est en REPEATABLE READ : les opérations déjà reçues
+     * par l'abonné sont cherchées dans le même instantané que le solde, on sait ainsi lesquelles il reflète.
+     * @param idCompte id du compte
+     * @param operationsRecues ids des opérations reçues par l'abonné depuis son inscription (lus après le solde)
+     * @return la position et les opérations reçues dont elle tient compte
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws CompteClotureException si le compte est cloturé
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public PositionInitiale lirePositionInitiale(long idCompte, Supplier<Collection<Long>> operationsRecues)
+            throws CompteInconnuException, CompteClotureException {
+        CompteExport compte = compteRepository.findExportById(idCompte)
+                .orElseThrow(() -> new CompteInconnuException("Le compte d'id " + idCompte + " est inconnu."));
+        if (!compte.isActif()) {
+            throw new CompteClotureException("Compte " + idCompte + " clôturé.");
+        }
+        Collection<Long> recues = operationsRecues.get();
+        Set<Long> incluses = recues.isEmpty() ? Set.of()
+                : new HashSet<>(operationCompteRepository.findIdsParmi(idCompte, recues));
+        return new PositionInitiale(new Position(compte.getSolde(), GregorianCalendar.getInstance()), incluses);
+    }
+
+    /**
+     * Lit le solde courant d'un compte actif dans le moteur, le registre des soldes ou la base
+     * Les comptes inconnus ou clôturés passent par la base pour avoir le bon message d'erreur.
+     * @param idCompte id du compte
+     * @return le solde
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws CompteClotureException si le compte est cloturé
+     */
+    private double soldeCourant(long idCompte) throws CompteInconnuException, CompteClotureException {
+        if (moteurComptes.isActif()) {
+            return moteurComptes.consulter(idCompte).getSolde();
+        }
+        Optional<RegistreSoldes.EtatCompte> etat = this.registreSoldes.lire(idCompte);
+        return etat.isPresent() && etat.get().actif() ? etat.get().solde() : findCompte(idCompte).getSolde();
     }
 
     /**
      * Débite le compte
      * @param idCompte id du compte
      * @param montant le montant à débiter
+     * @return la position du compte après le débit (lue dans la même transaction)
      * @throws CompteInconnuException si le compte n'existe pas
      * @throws MontantInvalidException si le montant est invalide
      * @throws SoldeInsuffisantException si le solde est insuffisant
      * @throws CompteClotureException si le compte est cloturé
      */
-    public void debiter(long idCompte, double montant) throws CompteInconnuException, MontantInvalidException, SoldeInsuffisantException, CompteClotureException {
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Position debiter(long idCompte, double montant) throws CompteInconnuException, MontantInvalidException, SoldeInsuffisantException, CompteClotureException {
         //Récupération du compte et vérification des règles métiers
         if (montant < 0.) {
             throw new MontantInvalidException("Le montant à débiter ne peut pas être négatif.");
         }
-        Compte c = findCompte(idCompte);
-        if (c.getSolde() - montant < 0) {
-            throw new SoldeInsuffisantException("Solde sur le compte " + idCompte + " insuffisant pour un retrait de " + montant + ".");
+        if (moteurComptes.isActif()) {
+            return moteurComptes.debiter(idCompte, montant);
         }
-        //Opération métier
-        c.setSolde(c.getSolde() - montant);
-        this.nouveauDebit(c, montant);
+        verifierSoldeConnu(idCompte, montant);
+        return executeur.executer("debit", () -> {
+            Compte c = findCompteAModifier(idCompte);
+            if (c.getSolde() - montant < 0) {
+                throw new SoldeInsuffisantException("Solde sur le compte " + idCompte + " insuffisant pour un retrait de " + montant + ".");
+            }
+            //Opération métier
+            c.setSolde(c.getSolde() - montant);
+            OperationCompte oc = this.nouveauDebit(c, montant);
+            return new Position(c.getSolde(), oc.getDateOperation());
+        });
     }
 
     /**
      * Crédite le compte
      * @param idCompte id du compte
      * @param montant le montant à créditer
+     * @return la position du compte après le crédit (lue dans la même transaction)
      * @throws CompteInconnuException si le compte n'existe pas
      * @throws MontantInvalidException si le montant est invalide
      * @throws CompteClotureException si le compte est cloturé
      */
-    public void crediter(long idCompte, double montant) throws CompteInconnuException, MontantInvalidException, CompteClotureException {
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Position crediter(long idCompte, double montant) throws CompteInconnuException, MontantInvalidException, CompteClotureException {
         //Récupération du compte et vérification des règles métiers
         if (montant < 0.) {
             throw new MontantInvalidException("Le montant à créditer ne peut pas être négatif.");
         }
-        Compte c = findCompte(idCompte);
-        //Opération métier
-        c.setSolde(c.getSolde() + montant);
-        this.nouveauCredit(c, montant);
+        if (moteurComptes.isActif()) {
+            return moteurComptes.crediter(idCompte, montant);
+        }
+        return executeur.executer("credit", () -> {
+            Compte c = findCompteAModifier(idCompte);
+            //Opération métier
+            c.setSolde(c.getSolde() + montant);
+            OperationCompte oc = this.nouveauCredit(c, montant);
+            return new Position(c.getSolde(), oc.getDateOperation());
+        });
     }
 
 
@@ -157,26 +312,67 @@ public class ServiceCompte {
      * @param idCompteDebiteur id du compte à débiter
      * @param idCompteCrediteur id du compte à créditer
      * @param montant montant à virer
+     * @return la position du compte débité après le virement (lue dans la même transaction)
      * @throws CompteInconnuException si un des comptes n'existe pas
      * @throws MontantInvalidException si le montant est invalide
      * @throws SoldeInsuffisantException si le solde du compte à débiter est insuffisant
      * @throws CompteClotureException si l'un des comptes est cloturé
      */
-    public void virer(long idCompteDebiteur, long idCompteCrediteur, double montant) throws CompteInconnuException, MontantInvalidException, SoldeInsuffisantException, CompteClotureException {
-        //Récupération des comptes et vérification des règles métiers
-        final Compte cDebiteur = this.findCompte(idCompteDebiteur);
-        final Compte cCrediteur = this.findCompte(idCompteCrediteur);
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Position virer(long idCompteDebiteur, long idCompteCrediteur, double montant) throws CompteInconnuException, MontantInvalidException, SoldeInsuffisantException, CompteClotureException {
+        //Vérification des règles métiers
         if (montant < 0.) {
             throw new MontantInvalidException("Le montant à virer ne peut pas être négatif.");
         }
-        if (cDebiteur.getSolde() - montant < 0) {
-            throw new SoldeInsuffisantException("Solde sur le compte " + idCompteDebiteur + " insuffisant pour un retrait de " + montant + ".");
+        if (moteurComptes.isActif()) {
+            return moteurComptes.virer(idCompteDebiteur, idCompteCrediteur, montant);
+        }
+        verifierSoldeConnu(idCompteDebiteur, montant);
+        return executeur.executer("virement", () -> {
+            //Récupération des comptes
+            //Les verrous sont toujours pris dans l'ordre croissant des ids pour éviter les interblocages
+            //entre deux virements croisés (A vers B et B vers A)
+            final Compte cDebiteur;
+            final Compte cCrediteur;
+            if (idCompteDebiteur <= idCompteCrediteur) {
+                cDebiteur = this.findCompteAModifier(idCompteDebiteur);
+                cCrediteur = this.findCompteAModifier(idCompteCrediteur);
+            } else {
+                cCrediteur = this.findCompteAModifier(idCompteCrediteur);
+                cDebiteur = this.findCompteAModifier(idCompteDebiteur);
+            }
+            OperationCompte oc = this.effectuerVirement(cDebiteur, cCrediteur, montant);
+            return new Position(cDebiteur.getSolde(), oc.getDateOperation());
+        });
+    }
+
+    /**
+     * Réalise un lot de virements
+     * Les virements sont regroupés en paquets : chaque paquet est réalisé dans une seule transaction
+     * (et rejoué en entier en cas de conflit) et ses opérations sont insérées ensemble.
+     * Un virement refusé (compte inconnu ou clôturé, montant invalide, solde insuffisant)
+     * n'empêche pas les autres virements du paquet.
+     * Quand le moteur de comptes est actif, les virements d'un paquet lui sont soumis ensemble.
+     * @param virements les virements à réaliser (peuvent être lus au fur et à mesure)
+     * @param taillePaquet nombre de virements par transaction
+     * @param resultats reçoit le résultat de chaque virement, paquet par paquet, dans l'ordre du lot
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void virerLot(Iterator<VirementLotImport> virements, int taillePaquet, Consumer<ResultatVirement> resultats) {
+        long numero = 0;
+        List<VirementLotImport> paquet = new ArrayList<>(taillePaquet);
+        while (virements.hasNext()) {
+            paquet.add(virements.next());
+            if (paquet.size() >= taillePaquet || !virements.hasNext()) {
+                final long premierNumero = numero;
+                List<ResultatVirement> resultatsPaquet = moteurComptes.isActif()
+                        ? this.soumettrePaquet(paquet, premierNumero)
+                        : executeur.executer("virement-lot", () -> this.virerPaquet(paquet, premierNumero));
+                resultatsPaquet.forEach(resultats);
+                numero += paquet.size();
+                paquet.clear();
+            }
         }
-        //Opération métier
-        cCrediteur.setSolde(cCrediteur.getSolde() + montant);
-        cDebiteur.setSolde(cDebiteur.getSolde() - montant);
-        this.nouveauVirementCredit(cCrediteur, montant);
-        this.nouveauVirementDebit(cDebiteur, montant);
     }
 
     /**
@@ -184,14 +380,191 @@ public class ServiceCompte {
      * @param idCompte id du compte
      * @return la liste d'opérations
      */
+    @Transactional(readOnly = true)
     public Collection<OperationCompte> recupererOperations(long idCompte) {
         // Ceci marche à distance, mais pose des problèmes pour les tests
         // teste si le compte existe
-        Optional<Compte> optionalCompte = compteRepository.findById(idCompte);
-        if (optionalCompte.isEmpty()) {
+        verifierExistence(idCompte);
+        return operationCompteRepository.findAllByCompteId(idCompte);
+    }
+
+    /**
+     * Retourne une page de l'historique des opérations d'un compte (pagination sur curseur)
+     * @param idCompte id du compte
+     * @param apres id de la dernière opération déjà lue (0 pour la première page)
+     * @param limite nombre maximum d'opérations de la page
+     * @return la page d'opérations et le curseur de la page suivante
+     * @throws CompteInconnuException si le compte n'existe pas
+     */
+    @Transactional(readOnly = true)
+    public PageOperations recupererOperations(long idCompte, long apres, int limite) throws CompteInconnuException {
+        verifierExistence(idCompte);
+        List<OperationExport> operations = operationCompteRepository.findPageByCompteId(idCompte, apres, Limit.of(limite));
+        // une page pleine indique qu'il peut y avoir une page suivante
+        Long suivant = operations.size() == limite ? operations.get(operations.size() - 1).getId() : null;
+        return new PageOperations(operations, suivant);
+    }
+
+    /**
+     * Parcourt tout l'historique des opérations d'un compte, par id croissant, sans le charger en mémoire
+     * @param idCompte id du compte
+     * @param consommateur reçoit les opérations une par une
+     * @throws CompteInconnuException si le compte n'existe pas
+     */
+    @Transactional(readOnly = true)
+    public void parcourirOperations(long idCompte, Consumer<OperationExport> consommateur) throws CompteInconnuException {
+        verifierExistence(idCompte);
+        try (Stream<OperationExport> operations = operationCompteRepository.streamByCompteId(idCompte)) {
+            operations.forEach(consommateur);
+        }
+    }
+
+    /**
+     * Établit le relevé d'un compte sur une période
+     * Les totaux sont calculés en base (aucune opération n'est lue). Les soldes sont retrouvés à partir du solde
+     * actuel, en retirant les mouvements postérieurs : ils ne dépendent que des opérations enregistrées.
+     * @param idCompte id du compte (actif ou clôturé)
+     * @param debut début de la période (inclus)
+     * @param fin fin de la période (exclue)
+     * @return le relevé
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws PeriodeInvalideException si la fin est avant le début
+     */
+    @Transactional(readOnly = true)
+    public Releve releve(long idCompte, Calendar debut, Calendar fin) throws CompteInconnuException, PeriodeInvalideException {
+        if (fin.before(debut))
+            throw new PeriodeInvalideException("La fin de la période est avant son début");
+        Compte compte = this.compteRepository.findById(idCompte)
+                .orElseThrow(() -> new CompteInconnuException("Le compte "+idCompte+" est inconnu"));
+        List<TotalOperations> totaux = operationCompteRepository.totauxParType(idCompte, debut, fin);
+        double soldeFinal = compte.getSolde() - operationCompteRepository.sommeMouvementsDepuis(idCompte, fin, CREDITS, DEBITS);
+        double mouvements = 0;
+        for (TotalOperations total : totaux) {
+            if (CREDITS.contains(total.getOperationType()))
+                mouvements += total.getTotal();
+            else if (DEBITS.contains(total.getOperationType()))
+                mouvements -= total.getTotal();
+        }
+        return new Releve(idCompte, debut, fin, soldeFinal - mouvements, soldeFinal, totaux);
+    }
+
+    /**
+     * Vérifie qu'un compte existe (qu'il soit actif ou non)
+     * @param idCompte id du compte
+     * @throws CompteInconnuException si le compte n'existe pas
+     */
+    private void verifierExistence(long idCompte) throws CompteInconnuException {
+        if (!compteRepository.existsById(idCompte)) {
             throw new CompteInconnuException("Le compte "+idCompte+" est inconnu");
         }
-        return operationCompteRepository.findAllByCompteId(idCompte);
+    }
+
+    /**
+     * Refuse un retrait si le registre des soldes sait déjà que le solde est insuffisant
+     * Ce n'est qu'une vérification préalable, sans verrou ni accès à la base : le solde est vérifié
+     * à nouveau sur le compte verrouillé. Elle n'est pas faite dans une transaction englobante,
+     * qui peut avoir modifié le compte sans que le registre le sache encore.
+     * @param idCompte id du compte à débiter
+     * @param montant le montant à retirer
+     * @throws SoldeInsuffisantException si le solde connu est insuffisant
+     */
+    private void verifierSoldeConnu(long idCompte, double montant) throws SoldeInsuffisantException {
+        if (TransactionSynchronizationManager.isActualTransactionActive())
+            return;
+        Optional<RegistreSoldes.EtatCompte> etat = this.registreSoldes.lire(idCompte);
+        if (etat.isPresent() && etat.get().actif() && etat.get().solde() - montant < 0) {
+            throw new SoldeInsuffisantException("Solde sur le compte " + idCompte + " insuffisant pour un retrait de " + montant + ".");
+        }
+    }
+
+    /**
+     * Soumet un paquet de virements au moteur de comptes puis attend leurs résultats
+     * @param paquet les virements
+     * @param premierNumero numéro du premier virement du paquet dans le lot
+     * @return les résultats des virements
+     */
+    private List<ResultatVirement> soumettrePaquet(List<VirementLotImport> paquet, long premierNumero) {
+        List<CompletableFuture<Position>> positions = new ArrayList<>(paquet.size());
+        for (VirementLotImport v : paquet) {
+            positions.add(v.getValeur() < 0.
+                    ? CompletableFuture.failedFuture(new MontantInvalidException("Le montant à virer ne peut pas être négatif."))
+                    : moteurComptes.soumettreVirement(v.getIdCompteDebiteur(), v.getIdCompteDestinataire(), v.getValeur()));
+        }
+        List<ResultatVirement> resultats = new ArrayList<>(paquet.size());
+        long numero = premierNumero;
+        for (int i = 0; i < paquet.size(); i++) {
+            VirementLotImport v = paquet.get(i);
+            try {
+                positions.get(i).join();
+                resultats.add(new ResultatVirement(numero, v.getIdCompteDebiteur(), v.getIdCompteDestinataire(), v.getValeur(), true, null));
+            } catch (CompletionException ce) {
+                Throwable e = ce.getCause();
+                if (!(e instanceof CompteInconnuException || e instanceof CompteClotureException
+                        || e instanceof MontantInvalidException || e instanceof SoldeInsuffisantException)) {
+                    throw ce;
+                }
+                resultats.add(new ResultatVirement(numero, v.getIdCompteDebiteur(), v.getIdCompteDestinataire(), v.getValeur(), false,
+                        new ErrorExport(e.getMessage(), e.getClass().getName())));
+            }
+            numero++;
+        }
+        return resultats;
+    }
+
+    /**
+     * Réalise un paquet de virements dans la transaction courante
+     * @param paquet les virements
+     * @param premierNumero numéro du premier virement du paquet dans le lot
+     * @return les résultats des virements
+     */
+    private List<ResultatVirement> virerPaquet(List<VirementLotImport> paquet, long premierNumero) {
+        // on charge (et verrouille) en une fois tous les comptes concernés
+        Set<Long> ids = new HashSet<>();
+        for (VirementLotImport v : paquet) {
+            ids.add(v.getIdCompteDebiteur());
+            ids.add(v.getIdCompteDestinataire());
+        }
+        Map<Long, Compte> comptes = findComptesAModifier(ids);
+        List<ResultatVirement> resultats = new ArrayList<>(paquet.size());
+        long numero = premierNumero;
+        for (VirementLotImport v : paquet) {
+            try {
+                //Vérification des règles métiers
+                if (v.getValeur() < 0.) {
+                    throw new MontantInvalidException("Le montant à virer ne peut pas être négatif.");
+                }
+                Compte cDebiteur = verifierCompte(v.getIdCompteDebiteur(), Optional.ofNullable(comptes.get(v.getIdCompteDebiteur())));
+                Compte cCrediteur = verifierCompte(v.getIdCompteDestinataire(), Optional.ofNullable(comptes.get(v.getIdCompteDestinataire())));
+                //Opération métier
+                this.effectuerVirement(cDebiteur, cCrediteur, v.getValeur());
+                resultats.add(new ResultatVirement(numero, v.getIdCompteDebiteur(), v.getIdCompteDestinataire(), v.getValeur(), true, null));
+            } catch (CompteInconnuException | CompteClotureException | MontantInvalidException | SoldeInsuffisantException e) {
+                // ces erreurs sont détectées avant toute modification : on passe au virement suivant
+                resultats.add(new ResultatVirement(numero, v.getIdCompteDebiteur(), v.getIdCompteDestinataire(), v.getValeur(), false,
+                        new ErrorExport(e.getMessage(), e.getClass().getName())));
+            }
+            numero++;
+        }
+        return resultats;
+    }
+
+    /**
+     * Réalise un virement entre deux comptes déjà chargés (et vérifiés)
+     * @param cDebiteur compte à débiter
+     * @param cCrediteur compte à créditer
+     * @param montant montant à virer
+     * @return l'opération de débit du virement
+     * @throws SoldeInsuffisantException si le solde du compte à débiter est insuffisant
+     */
+    private OperationCompte effectuerVirement(Compte cDebiteur, Compte cCrediteur, double montant) throws SoldeInsuffisantException {
+        if (cDebiteur.getSolde() - montant < 0) {
+            throw new SoldeInsuffisantException("Solde sur le compte " + cDebiteur.getId() + " insuffisant pour un retrait de " + montant + ".");
+        }
+        //Opération métier
+        cCrediteur.setSolde(cCrediteur.getSolde() + montant);
+        cDebiteur.setSolde(cDebiteur.getSolde() - montant);
+        this.nouveauVirementCredit(cCrediteur, montant);
+        return this.nouveauVirementDebit(cDebiteur, montant);
     }
 
     /**
@@ -202,7 +575,48 @@ public class ServiceCompte {
      * @throws CompteClotureException si le compte est cloturé
      */
     private Compte findCompte(long idCompte) throws CompteInconnuException, CompteClotureException {
-        final Optional<Compte> c = this.compteRepository.findById(idCompte);
+        return verifierCompte(idCompte, this.compteRepository.findById(idCompte));
+    }
+
+    /**
+     * Recherche un compte qui va être modifié
+     * En mode pessimiste, la ligne du compte est verrouillée jusqu'à la fin de la transaction
+     * En mode optimiste, c'est la version du compte qui permettra de détecter les conflits
+     * @param idCompte id du compte
+     * @return le compte s'il existe
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws CompteClotureException si le compte est cloturé
+     */
+    private Compte findCompteAModifier(long idCompte) throws CompteInconnuException, CompteClotureException {
+        if (modeVerrouillage == ModeVerrouillage.PESSIMISTE)
+            return verifierCompte(idCompte, this.compteRepository.findByIdPourModification(idCompte));
+        return findCompte(idCompte);
+    }
+
+    /**
+     * Recherche un ensemble de comptes qui vont être modifiés
+     * En mode pessimiste, les lignes sont verrouillées dans l'ordre croissant des ids
+     * @param ids ids des comptes
+     * @return les comptes trouvés indexés par id (les comptes inconnus sont absents)
+     */
+    private Map<Long, Compte> findComptesAModifier(Collection<Long> ids) {
+        Iterable<Compte> comptes = modeVerrouillage == ModeVerrouillage.PESSIMISTE
+                ? this.compteRepository.findAllByIdPourModification(ids)
+                : this.compteRepository.findAllById(ids);
+        Map<Long, Compte> resultat = new HashMap<>();
+        comptes.forEach(c -> resultat.put(c.getId(), c));
+        return resultat;
+    }
+
+    /**
+     * Vérifie qu'un compte existe et qu'il est actif
+     * @param idCompte id du compte
+     * @param c résultat de la recherche du compte
+     * @return le compte s'il existe
+     * @throws CompteInconnuException si le compte n'existe pas
+     * @throws CompteClotureException si le compte est cloturé
+     */
+    private Compte verifierCompte(long idCompte, Optional<Compte> c) throws CompteInconnuException, CompteClotureException {
         if (c.isEmpty()) {
             throw new CompteInconnuException("Le compte d'id " + idCompte + " est inconnu.");
         }
@@ -220,18 +634,7 @@ public class ServiceCompte {
      */
     private OperationCompte nouveauCompte(Compte compte, double soldeInitial) {
         OperationCompte oc = new OperationCompte(compte, OperationCompte.OperationType.OUVERTURE, soldeInitial);
-        return this.operationCompteRepository.save(oc);
-    }
-
-    /**
-     * Crée une opération de consultation
-     * @param compte le compte sur lequel l'opération est effectuée
-     * @param solde le solde du compte
-     * @return l'opération
-     */
-    private OperationCompte nouvelleConsultation(Compte compte, double solde){
-        OperationCompte oc = new OperationCompte(compte, OperationCompte.OperationType.CONSULTATION, solde);
-        return this.operationCompteRepository.save(oc);
+        return this.enregistrerOperation(oc);
     }
 
     /**
@@ -242,7 +645,7 @@ public class ServiceCompte {
      */
     private OperationCompte nouveauCredit(Compte compte, double montant) {
         OperationCompte oc = new OperationCompte(compte, OperationCompte.OperationType.CREDIT, montant);
-        return this.operationCompteRepository.save(oc);
+        return this.enregistrerOperation(oc);
     }
 
     /**
@@ -253,7 +656,7 @@ public class ServiceCompte {
      */
     private OperationCompte nouveauDebit(Compte compte, double montant) {
         OperationCompte oc = new OperationCompte(compte, OperationCompte.OperationType.DEBIT, montant);
-        return this.operationCompteRepository.save(oc);
+        return this.enregistrerOperation(oc);
     }
 
     /**
@@ -264,7 +667,7 @@ public class ServiceCompte {
      */
     private OperationCompte nouveauVirementCredit(Compte compte, double montant) {
         OperationCompte oc = new OperationCompte(compte, OperationCompte.OperationType.VIREMENT_CREDIT, montant);
-        return this.operationCompteRepository.save(oc);
+        return this.enregistrerOperation(oc);
     }
 
     /**
@@ -275,7 +678,7 @@ public class ServiceCompte {
      */
     private OperationCompte nouveauVirementDebit(Compte compte, double montant) {
         OperationCompte oc = new OperationCompte(compte, OperationCompte.OperationType.VIREMENT_DEBIT, montant);
-        return this.operationCompteRepository.save(oc);
+        return this.enregistrerOperation(oc);
     }
 
     /**
@@ -285,6 +688,19 @@ public class ServiceCompte {
      */
     private OperationCompte nouvelleCloture(Compte compte) {
         OperationCompte oc = new OperationCompte(compte, OperationCompte.OperationType.CLOTURE, 0);
-        return this.operationCompteRepository.save(oc);
+        return this.enregistrerOperation(oc);
+    }
+
+    /**
+     * Enregistre une opération, l'ajoute à la boîte d'envoi et publie la modification de son compte
+     * (le registre des soldes la prendra en compte après la validation de la transaction)
+     * @param oc l'opération
+     * @return l'opération enregistrée
+     */
+    private OperationCompte enregistrerOperation(OperationCompte oc) {
+        this.publieur.publishEvent(new CompteModifie(oc.getCompte()));
+        OperationCompte enregistree = this.operationCompteRepository.save(oc);
+        this.boiteEnvoi.ajouter(List.of(enregistree));
+        return enregistree;
     }
 }
@@ -0,0 +1,70 @@
+package org.miage.tpae.metier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Traitements en masse découpés en plages d'ids consécutifs (export, fin de journée, relevés) :
+ * découpage des ids en plages et traitement des plages en parallèle, un thread par plage
+ */
+final class TraitementParPlages {
+
+    /**
+     * Pas d'instance
+     */
+    private TraitementParPlages() {
+    }
+
+    /**
+     * Découpe des ids en plages consécutives de même largeur
+     * @param idMin plus petit id
+     * @param idMax plus grand id
+     * @param nombre nombre maximum de plages
+     * @return les plages { premier id, dernier id }
+     */
+    static List<long[]> decouper(long idMin, long idMax, int nombre) {
+        long largeur = Math.max(1, (idMax - idMin + nombre) / nombre);
+        List<long[]> plages = new ArrayList<>(nombre);
+        for (long premier = idMin; premier <= idMax; premier += largeur)
+            plages.add(new long[]{premier, Math.min(idMax, premier + largeur - 1)});
+        return plages;
+    }
+
+    /**
+     * Traite des plages en parallèle (un thread par plage) et attend la fin de toutes les plages
+     * @param nom préfixe du nom des threads
+     * @param plages les plages
+     * @param traitement traitement d'une plage
+     * @return les résultats, dans l'ordre des plages
+     * @param <P> type d'une plage
+     * @param <R> type du résultat d'une plage
+     * @throws RuntimeException la première exception d'une plage (dans l'ordre des plages) ;
+     * les autres plages sont alors interrompues
+     */
+    static <P, R> List<R> traiter(String nom, List<P> plages, Function<P, R> traitement) {
+        AtomicInteger numeroThread = new AtomicInteger();
+        ExecutorService executeur = Executors.newFixedThreadPool(Math.max(1, plages.size()),
+                r -> new Thread(r, nom + "-" + numeroThread.getAndIncrement()));
+        try {
+            List<CompletableFuture<R>> taches = new ArrayList<>(plages.size());
+            for (P plage : plages)
+                taches.add(CompletableFuture.supplyAsync(() -> traitement.apply(plage), executeur));
+            List<R> resultats = new ArrayList<>(plages.size());
+            for (CompletableFuture<R> tache : taches)
+                resultats.add(tache.join());
+            return resultats;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        } finally {
+            executeur.shutdownNow();
+        }
+    }
+}
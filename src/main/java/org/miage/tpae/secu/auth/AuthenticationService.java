@@ -5,6 +5,9 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.miage.tpae.secu.config.JwtService;
+import org.miage.tpae.secu.config.ParsedToken;
+import org.miage.tpae.secu.config.RevocationList;
+import org.miage.tpae.secu.config.VerifiedTokenCache;
 import org.miage.tpae.secu.token.Token;
 import org.miage.tpae.secu.token.TokenRepository;
 import org.miage.tpae.secu.token.TokenType;
@@ -19,6 +22,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.time.Instant;
 
 /**
  * Service gérant l'authentification
@@ -36,6 +40,10 @@ public class AuthenticationService {
   private final JwtService jwtService;
   // Gestionnaire d'authentification
   private final AuthenticationManager authenticationManager;
+  // cache des jetons déjà vérifiés
+  private final VerifiedTokenCache verifiedTokenCache;
+  // liste des jetons révoqués (mode sans état)
+  private final RevocationList revocationList;
 
   /**
    * Enregistrement d'un utilisateur
@@ -63,8 +71,9 @@ public class AuthenticationService {
     // génère les jetons
     var jwtToken = jwtService.generateToken(user);
     var refreshToken = jwtService.generateRefreshToken(user);
-    // stocke le jeton d'accès en BD
-    saveUserToken(savedUser, jwtToken);
+    // stocke le jeton d'accès en BD (sauf en mode sans état)
+    if (!jwtService.isStateless())
+      saveUserToken(savedUser, jwtToken);
     // construit et retourne la réponse
     return AuthenticationResponse.builder()
         .accessToken(jwtToken)
@@ -91,10 +100,8 @@ public class AuthenticationService {
     // construit les jetons
     var jwtToken = jwtService.generateToken(user);
     var refreshToken = jwtService.generateRefreshToken(user);
-    // révoque les anciens jetons de l'utilisateur
-    revokeAllUserTokens(user);
-    // sauve le jeton d'accès en BD
-    saveUserToken(user, jwtToken);
+    // révoque les anciens jetons de l'utilisateur et sauve le jeton d'accès en BD
+    replaceUserTokens(user, jwtToken);
     // construit et retourne la réponse avec les jetons
     return AuthenticationResponse.builder()
         .accessToken(jwtToken)
@@ -102,6 +109,22 @@ public class AuthenticationService {
         .build();
   }
 
+  /**
+   * Remplace les jetons d'accès d'un utilisateur par un nouveau jeton
+   * En mode sans état, aucun jeton n'est stocké : les jetons de l'utilisateur créés avant le nouveau
+   * sont ajoutés à la liste des révocations (une ligne en BD par authentification).
+   * @param user utilisateur
+   * @param jwtToken nouveau jeton d'accès
+   */
+  private void replaceUserTokens(User user, String jwtToken) {
+    if (jwtService.isStateless()) {
+      revocationList.revokeUser(user.getEmail(), jwtService.parseToken(jwtToken).issuedAt());
+      return;
+    }
+    revokeAllUserTokens(user);
+    saveUserToken(user, jwtToken);
+  }
+
   /**
    * Stocke un jeton d'accès en BD
    * @param user utilisateur
@@ -111,10 +134,12 @@ public class AuthenticationService {
     // construit le jeton
     var token = Token.builder()
         .user(user)
-        .token(jwtToken)
+        .tokenHash(Token.hash(jwtToken))
         .tokenType(TokenType.BEARER)
         .expired(false)
         .revoked(false)
+        .createdAt(Instant.now())
+        .expiresAt(jwtService.parseToken(jwtToken).expiration())
         .build();
     // le sauve en BD
     tokenRepository.save(token);
@@ -137,6 +162,8 @@ public class AuthenticationService {
     });
     // update en BD
     tokenRepository.saveAll(validUserTokens);
+    // retire les jetons révoqués du cache
+    validUserTokens.forEach(token -> verifiedTokenCache.invalidateHash(token.getTokenHash()));
   }
 
   /**
@@ -160,21 +187,22 @@ public class AuthenticationService {
     }
     // récupération du jeton
     refreshToken = authHeader.substring(7);
-    // récupère l'email à partir du jeton
-    userEmail = jwtService.extractUsername(refreshToken);
+    // vérifie le jeton une seule fois et récupère l'email
+    final ParsedToken parsedToken = jwtService.parseToken(refreshToken);
+    userEmail = parsedToken.username();
     // s'il y a bien un mail dans le jeton
     if (userEmail != null) {
       // cherche l'utilisateur correspondant
       var user = this.repository.findByEmail(userEmail)
               .orElseThrow();
       // vérifie que le jeton est encore valide pour cet utilisateur
-      if (jwtService.isTokenValid(refreshToken, user)) {
+      // (en mode sans état, un jeton d'accès ne permet pas d'en obtenir un nouveau)
+      if (jwtService.isTokenValid(parsedToken, user)
+          && (!jwtService.isStateless() || JwtService.REFRESH_TYPE.equals(parsedToken.type()))) {
         // génère un jeton d'accès
         var accessToken = jwtService.generateToken(user);
-        // révoque les anciens jetons
-        revokeAllUserTokens(user);
-        // sauve le nouveau jeton en BD
-        saveUserToken(user, accessToken);
+        // révoque les anciens jetons et sauve le nouveau jeton en BD
+        replaceUserTokens(user, accessToken);
         // construit la réponse
         var authResponse = AuthenticationResponse.builder()
                 .accessToken(accessToken)
@@ -9,6 +9,7 @@ import org.miage.tpae.secu.token.TokenRepository;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
@@ -30,6 +31,10 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
   private final UserDetailsService userDetailsService;
   // repo pour les jetons
   private final TokenRepository tokenRepository;
+  // cache des jetons déjà vérifiés
+  private final VerifiedTokenCache verifiedTokenCache;
+  // liste des jetons révoqués (mode sans état)
+  private final RevocationList revocationList;
 
   /**
    * filtre proprement dit
@@ -63,8 +68,31 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     }
     // récupère le jeton
     jwt = authHeader.substring(7);
-    // récupère le mail à partir du jeton
-    userEmail = jwtService.extractUsername(jwt);
+    // mode sans état : signature, expiration et liste des révocations, sans aucune requête en BD
+    if (jwtService.isStateless()) {
+      final ParsedToken parsedToken = jwtService.parseToken(jwt);
+      if (parsedToken.isAccessToken() && parsedToken.username() != null && !revocationList.isRevoked(parsedToken)
+          && SecurityContextHolder.getContext().getAuthentication() == null) {
+        // l'utilisateur est reconstruit à partir du jeton
+        authenticate(request, User.withUsername(parsedToken.username())
+            .password("")
+            .authorities(parsedToken.authorities().toArray(String[]::new))
+            .build());
+      }
+      filterChain.doFilter(request, response);
+      return;
+    }
+    // si le jeton a déjà été vérifié, on ne va pas en BD
+    var verified = verifiedTokenCache.get(jwt);
+    if (verified != null) {
+      if (SecurityContextHolder.getContext().getAuthentication() == null)
+        authenticate(request, verified.userDetails());
+      filterChain.doFilter(request, response);
+      return;
+    }
+    // vérifie le jeton une seule fois et récupère ses infos (dont le mail)
+    final ParsedToken parsedToken = jwtService.parseToken(jwt);
+    userEmail = parsedToken.username();
     // s'il y a bien un mail et que l'authentification n'a pas déjà été faite
     // Note : la seconde partie sert pour les tests essentiellement
     if (userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null) {
@@ -75,22 +103,33 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
           .map(t -> !t.isExpired() && !t.isRevoked())
           .orElse(false);
       // vérifie le jeton via JWT
-      if (jwtService.isTokenValid(jwt, userDetails) && isTokenValid) {
-        // construit un objet d'authentification avec tout ce qui peut être utile
-        UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-            userDetails,
-            null,
-            userDetails.getAuthorities()
-        );
-        // ajoute les infos de la requête HTTP
-        authToken.setDetails(
-            new WebAuthenticationDetailsSource().buildDetails(request)
-        );
-        // positionne l'objet d'authentification
-        SecurityContextHolder.getContext().setAuthentication(authToken);
+      if (jwtService.isTokenValid(parsedToken, userDetails) && isTokenValid) {
+        authenticate(request, userDetails);
+        // les requêtes suivantes avec ce jeton n'iront plus en BD
+        verifiedTokenCache.put(jwt, userDetails, parsedToken.expiration());
       }
     }
     // on passe aux autres filtres
     filterChain.doFilter(request, response);
   }
+
+  /**
+   * Positionne l'authentification de la requête
+   * @param request la requête HTTP
+   * @param userDetails l'utilisateur authentifié
+   */
+  private void authenticate(HttpServletRequest request, UserDetails userDetails) {
+    // construit un objet d'authentification avec tout ce qui peut être utile
+    UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+        userDetails,
+        null,
+        userDetails.getAuthorities()
+    );
+    // ajoute les infos de la requête HTTP
+    authToken.setDetails(
+        new WebAuthenticationDetailsSource().buildDetails(request)
+    );
+    // positionne l'objet d'authentification
+    SecurityContextHolder.getContext().setAuthentication(authToken);
+  }
 }
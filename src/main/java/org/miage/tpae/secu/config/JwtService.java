@@ -1,11 +1,15 @@
 package org.miage.tpae.secu.config;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
@@ -13,14 +17,30 @@ import java.security.Key;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 import java.util.function.Function;
 
 /**
  * Service gérant les jetons JWT
+ * La clé de signature et le parseur sont construits une seule fois, au démarrage (ils sont sans état).
+ * Pour valider un jeton, on le vérifie une seule fois avec parseToken puis on utilise le ParsedToken obtenu.
+ *
+ * Chaque jeton porte un identifiant (jti), son type (accès ou rafraichissement) et, pour un jeton d'accès,
+ * les autorités de l'utilisateur. En mode sans état (application.security.jwt.stateless=true), un jeton d'accès
+ * est validé sans la BD : signature, expiration et liste des révocations (cf. RevocationList).
  */
 @Service
 public class JwtService {
 
+  // nom de l'information portant le type du jeton
+  public static final String TYPE_CLAIM = "type";
+  // nom de l'information portant les autorités de l'utilisateur
+  public static final String AUTHORITIES_CLAIM = "authorities";
+  // type des jetons d'accès
+  public static final String ACCESS_TYPE = "access";
+  // type des jetons de rafraichissement
+  public static final String REFRESH_TYPE = "refresh";
+
   // clé d'encodage des jetons
   @Value("${application.security.jwt.secret-key}")
   private String secretKey;
@@ -30,6 +50,62 @@ public class JwtService {
   // expiration des jetons de rafraichissement
   @Value("${application.security.jwt.refresh-token.expiration}")
   private long refreshExpiration;
+  // jetons d'accès sans état (pas de jeton en BD)
+  @Value("${application.security.jwt.stateless:false}")
+  private boolean stateless;
+  // clé de signature (construite une seule fois)
+  private Key signInKey;
+  // parseur des jetons (construit une seule fois, utilisable par plusieurs threads)
+  private JwtParser parser;
+
+  /**
+   * Construit la clé de signature et le parseur une fois la clé secrète injectée
+   */
+  @PostConstruct
+  void init() {
+    byte[] keyBytes = Decoders.BASE64.decode(secretKey);
+    signInKey = Keys.hmacShaKeyFor(keyBytes);
+    parser = Jwts
+        .parserBuilder()
+        .setSigningKey(signInKey)
+        .build();
+  }
+
+  /**
+   * Les jetons d'accès sont-ils sans état (validés sans la BD) ?
+   * @return vrai en mode sans état
+   */
+  public boolean isStateless() {
+    return stateless;
+  }
+
+  /**
+   * Durée de validité des jetons d'accès
+   * @return la durée en ms
+   */
+  public long getJwtExpiration() {
+    return jwtExpiration;
+  }
+
+  /**
+   * Vérifie un jeton (signature et expiration) et extrait ses informations, en une seule fois
+   * @param token le jeton
+   * @return les informations du jeton
+   * @throws JwtException si le jeton est invalide ou expiré
+   */
+  public ParsedToken parseToken(String token) throws JwtException {
+    return ParsedToken.of(extractAllClaims(token));
+  }
+
+  /**
+   * Vérifie si un jeton déjà vérifié correspond à l'utilisateur et n'est pas expiré
+   * @param token le jeton vérifié
+   * @param userDetails les données de l'utilisateur
+   * @return vrai s'il est valide
+   */
+  public boolean isTokenValid(ParsedToken token, UserDetails userDetails) {
+    return token.username() != null && token.username().equals(userDetails.getUsername()) && !token.isExpired();
+  }
 
   /**
    * Extraction du nom de l'utilisateur (ici un email)
@@ -71,7 +147,11 @@ public class JwtService {
       Map<String, Object> extraClaims,
       UserDetails userDetails
   ) {
-    return buildToken(extraClaims, userDetails, jwtExpiration);
+    Map<String, Object> claims = new HashMap<>(extraClaims);
+    // les autorités permettent de valider le jeton sans aller chercher l'utilisateur en BD
+    claims.put(AUTHORITIES_CLAIM, userDetails.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
+    claims.put(TYPE_CLAIM, ACCESS_TYPE);
+    return buildToken(claims, userDetails, jwtExpiration);
   }
 
   /**
@@ -82,7 +162,7 @@ public class JwtService {
   public String generateRefreshToken(
       UserDetails userDetails
   ) {
-    return buildToken(new HashMap<>(), userDetails, refreshExpiration);
+    return buildToken(new HashMap<>(Map.of(TYPE_CLAIM, REFRESH_TYPE)), userDetails, refreshExpiration);
   }
 
   /**
@@ -101,6 +181,7 @@ public class JwtService {
     return Jwts
             .builder()
             .setClaims(extraClaims)
+            .setId(UUID.randomUUID().toString())
             .setSubject(userDetails.getUsername())
             .setIssuedAt(new Date(System.currentTimeMillis()))
             .setExpiration(new Date(System.currentTimeMillis() + expiration))
@@ -110,34 +191,13 @@ public class JwtService {
 
   /**
    * Vérifie si un jeton est valide (même email et non expiré)
+   * Le jeton n'est vérifié qu'une fois (cf. parseToken)
    * @param token le jeton
    * @param userDetails les données de l'utilisateur
    * @return vrai s'il est valide
    */
   public boolean isTokenValid(String token, UserDetails userDetails) {
-    // récupère le nom depuis le jeton
-    final String username = extractUsername(token);
-    // vérifie si c'est le même et si le jeton n'est pas expiré
-    return (username.equals(userDetails.getUsername())) && !isTokenExpired(token);
-  }
-
-  /**
-   * Contrôle l'expiration du jeton
-   * @param token le jeton
-   * @return vrai s'il est expiré
-   */
-  private boolean isTokenExpired(String token) {
-    // vérifie que la date d'expiration est dans le passé
-    return extractExpiration(token).before(new Date());
-  }
-
-  /**
-   * Extraction de la date d'expiration
-   * @param token le jeton
-   * @return la date d'expiration
-   */
-  private Date extractExpiration(String token) {
-    return extractClaim(token, Claims::getExpiration);
+    return isTokenValid(parseToken(token), userDetails);
   }
 
   /**
@@ -146,20 +206,16 @@ public class JwtService {
    * @return les infos
    */
   private Claims extractAllClaims(String token) {
-    return Jwts
-        .parserBuilder()
-        .setSigningKey(getSignInKey())
-        .build()
+    return parser
         .parseClaimsJws(token)
         .getBody();
   }
 
   /**
-   * Construit la clé de signature (clé publique) à partir de la clé secrète
+   * Retourne la clé de signature (construite à partir de la clé secrète)
    * @return la clé
    */
   private Key getSignInKey() {
-    byte[] keyBytes = Decoders.BASE64.decode(secretKey);
-    return Keys.hmacShaKeyFor(keyBytes);
+    return signInKey;
   }
 }
@@ -1,5 +1,6 @@
 package org.miage.tpae.secu.config;
 
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
@@ -18,6 +19,12 @@ public class LogoutService implements LogoutHandler {
 
   // repo des tokens
   private final TokenRepository tokenRepository;
+  // cache des jetons déjà vérifiés
+  private final VerifiedTokenCache verifiedTokenCache;
+  // service des jetons
+  private final JwtService jwtService;
+  // liste des jetons révoqués (mode sans état)
+  private final RevocationList revocationList;
 
   /**
    * Méthode gérant la déconnexion
@@ -41,6 +48,20 @@ public class LogoutService implements LogoutHandler {
     }
     // récupère le jeton
     jwt = authHeader.substring(7);
+    // mode sans état : le jeton n'est pas en BD, on ajoute son identifiant à la liste des révocations
+    if (jwtService.isStateless()) {
+      try {
+        revocationList.revoke(jwtService.parseToken(jwt));
+      } catch (JwtException e) {
+        // jeton invalide ou déjà expiré : rien à révoquer
+        return;
+      }
+      // enlève les infos d'authentification
+      SecurityContextHolder.clearContext();
+      return;
+    }
+    // le jeton ne doit plus être accepté sans passer par la BD
+    verifiedTokenCache.invalidate(jwt);
     // va chercher le jeton en BD
     var storedToken = tokenRepository.findByToken(jwt)
         .orElse(null);
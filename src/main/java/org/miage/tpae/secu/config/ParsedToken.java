@@ -0,0 +1,54 @@
+package org.miage.tpae.secu.config;
+
+import io.jsonwebtoken.Claims;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Informations d'un jeton dont la signature a été vérifiée (cf. JwtService.parseToken)
+ * L'objet est immuable : on peut le réutiliser pendant toute la requête sans revérifier le jeton.
+ * @param id identifiant du jeton (jti, null pour les anciens jetons)
+ * @param username le nom de l'utilisateur (ici un email)
+ * @param type type du jeton (JwtService.ACCESS_TYPE ou REFRESH_TYPE, null pour les anciens jetons)
+ * @param authorities autorités de l'utilisateur (jetons d'accès)
+ * @param issuedAt date de création du jeton
+ * @param expiration date d'expiration du jeton
+ */
+public record ParsedToken(String id, String username, String type, List<String> authorities,
+                          Instant issuedAt, Instant expiration) {
+
+  /**
+   * Construit l'objet à partir des infos du jeton
+   * @param claims les infos du jeton
+   * @return l'objet
+   */
+  static ParsedToken of(Claims claims) {
+    List<?> authorities = claims.get(JwtService.AUTHORITIES_CLAIM, List.class);
+    return new ParsedToken(
+        claims.getId(),
+        claims.getSubject(),
+        claims.get(JwtService.TYPE_CLAIM, String.class),
+        authorities == null ? List.of() : authorities.stream().map(String::valueOf).toList(),
+        claims.getIssuedAt() == null ? null : claims.getIssuedAt().toInstant(),
+        claims.getExpiration() == null ? null : claims.getExpiration().toInstant()
+    );
+  }
+
+  /**
+   * Est-ce un jeton d'accès ?
+   * @return vrai si c'est un jeton d'accès
+   */
+  public boolean isAccessToken() {
+    return JwtService.ACCESS_TYPE.equals(type);
+  }
+
+  /**
+   * Contrôle l'expiration du jeton
+   * @return vrai s'il est expiré
+   */
+  public boolean isExpired() {
+    // vérifie que la date d'expiration est dans le passé
+    return expiration != null && expiration.isBefore(Instant.now());
+  }
+}
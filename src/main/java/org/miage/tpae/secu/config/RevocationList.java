@@ -0,0 +1,173 @@
+package org.miage.tpae.secu.config;
+
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.secu.token.TokenRevocation;
+import org.miage.tpae.secu.token.TokenRevocationRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Liste des révocations des jetons d'accès sans état (application.security.jwt.stateless=true)
+ * Les jetons d'accès ne sont pas stockés en BD : une déconnexion révoque l'identifiant du jeton (jti),
+ * une nouvelle authentification révoque les jetons de l'utilisateur créés avant le nouveau jeton.
+ *
+ * La liste est en mémoire, la vérification d'un jeton ne fait donc aucune requête en BD.
+ * Chaque révocation est aussi enregistrée en BD (cf. TokenRevocation) : la liste est rechargée au démarrage
+ * et chaque instance lit les révocations des autres toutes les application.security.jwt.revocation.sync.
+ * On relit une marge (application.security.jwt.revocation.overlap) avant la dernière lecture : une révocation
+ * validée en retard ou datée par une horloge un peu décalée n'est pas perdue (appliquer deux fois une
+ * révocation ne change rien).
+ * Une révocation est oubliée (en mémoire et en BD) dès que tous les jetons concernés ont expiré.
+ * Chaque nouvelle authentification écrit sa révocation, même si cette instance ne connaît pas de jeton valide
+ * de l'utilisateur : les jetons délivrés par une autre instance, ou avant un redémarrage, sont aussi révoqués.
+ */
+@Component
+public class RevocationList {
+
+  // logger
+  private static final Logger logger = LogManager.getLogger(RevocationList.class);
+
+  /**
+   * Révocation des jetons d'un utilisateur
+   * @param issuedBefore les jetons créés avant cette date (en s, comme la date du jeton) sont révoqués
+   * @param expiresAt date à partir de laquelle la révocation est inutile (en ms)
+   */
+  private record UserRevocation(long issuedBefore, long expiresAt) {
+  }
+
+  // service des jetons (mode et durée de validité des jetons d'accès)
+  private final JwtService jwtService;
+  // repo des révocations
+  private final TokenRevocationRepository tokenRevocationRepository;
+  // marge de relecture des révocations
+  private final Duration overlap;
+  // jetons révoqués : jti → expiration du jeton (en ms)
+  private final ConcurrentHashMap<String, Long> revokedTokens = new ConcurrentHashMap<>();
+  // utilisateurs dont les anciens jetons sont révoqués : email → révocation
+  private final ConcurrentHashMap<String, UserRevocation> revokedUsers = new ConcurrentHashMap<>();
+  // date de la dernière lecture des révocations en BD
+  private volatile Instant lastSync = Instant.EPOCH;
+
+  /**
+   * Constructeur pour l'injection
+   * @param jwtService service des jetons
+   * @param tokenRevocationRepository repo des révocations
+   * @param overlap marge de relecture des révocations
+   */
+  public RevocationList(JwtService jwtService,
+                        TokenRevocationRepository tokenRevocationRepository,
+                        @Value("${application.security.jwt.revocation.overlap:PT1M}") Duration overlap) {
+    this.jwtService = jwtService;
+    this.tokenRevocationRepository = tokenRevocationRepository;
+    this.overlap = overlap;
+  }
+
+  /**
+   * Charge les révocations encore utiles au démarrage
+   */
+  @PostConstruct
+  void load() {
+    if (!jwtService.isStateless())
+      return;
+    Instant start = Instant.now();
+    List<TokenRevocation> revocations = tokenRevocationRepository.findByExpiresAtAfter(start);
+    revocations.forEach(this::apply);
+    lastSync = start;
+    logger.info("{} révocations de jetons chargées", revocations.size());
+  }
+
+  /**
+   * Vérifie si un jeton d'accès est révoqué (sans requête en BD)
+   * @param token le jeton vérifié
+   * @return vrai s'il est révoqué
+   */
+  public boolean isRevoked(ParsedToken token) {
+    if (token.id() != null && revokedTokens.containsKey(token.id()))
+      return true;
+    UserRevocation revocation = revokedUsers.get(token.username());
+    return revocation != null && token.issuedAt() != null
+        && token.issuedAt().getEpochSecond() < revocation.issuedBefore();
+  }
+
+  /**
+   * Révoque un jeton (déconnexion)
+   * @param token le jeton vérifié
+   */
+  public void revoke(ParsedToken token) {
+    if (token.id() == null)
+      return;
+    TokenRevocation revocation = tokenRevocationRepository.save(TokenRevocation.builder()
+        .jti(token.id())
+        .expiresAt(token.expiration())
+        .createdAt(Instant.now())
+        .build());
+    apply(revocation);
+  }
+
+  /**
+   * Révoque les jetons d'un utilisateur créés avant une date (nouvelle authentification)
+   * Les jetons créés dans la même seconde que cette date ne sont pas révoqués (précision des dates des jetons).
+   * @param email l'utilisateur
+   * @param issuedBefore la date (en général la date de création du nouveau jeton)
+   */
+  public void revokeUser(String email, Instant issuedBefore) {
+    TokenRevocation revocation = tokenRevocationRepository.save(TokenRevocation.builder()
+        .email(email)
+        .issuedBefore(issuedBefore)
+        .expiresAt(issuedBefore.plusMillis(jwtService.getJwtExpiration()))
+        .createdAt(Instant.now())
+        .build());
+    apply(revocation);
+  }
+
+  /**
+   * Lit les révocations enregistrées par les autres instances depuis la dernière lecture
+   */
+  @Scheduled(fixedDelayString = "${application.security.jwt.revocation.sync:PT5S}")
+  public void sync() {
+    if (!jwtService.isStateless())
+      return;
+    Instant start = Instant.now();
+    tokenRevocationRepository.findByCreatedAtGreaterThanEqual(lastSync.minus(overlap)).forEach(this::apply);
+    lastSync = start;
+  }
+
+  /**
+   * Oublie les révocations devenues inutiles (en mémoire et en BD)
+   */
+  @Scheduled(fixedDelayString = "${application.security.jwt.revocation.purge:PT10M}")
+  public void purge() {
+    if (!jwtService.isStateless())
+      return;
+    long now = System.currentTimeMillis();
+    revokedTokens.values().removeIf(expiresAt -> expiresAt < now);
+    revokedUsers.values().removeIf(revocation -> revocation.expiresAt() < now);
+    int deleted = tokenRevocationRepository.deleteExpired(Instant.ofEpochMilli(now));
+    if (deleted > 0)
+      logger.info("{} révocations de jetons expirées supprimées", deleted);
+  }
+
+  /**
+   * Applique une révocation à la liste en mémoire
+   * @param revocation la révocation
+   */
+  private void apply(TokenRevocation revocation) {
+    long expiresAt = revocation.getExpiresAt().toEpochMilli();
+    if (revocation.getJti() != null) {
+      revokedTokens.merge(revocation.getJti(), expiresAt, Math::max);
+    } else if (revocation.getEmail() != null) {
+      // on garde la révocation la plus récente
+      UserRevocation userRevocation = new UserRevocation(revocation.getIssuedBefore().getEpochSecond(), expiresAt);
+      revokedUsers.merge(revocation.getEmail(), userRevocation,
+          (a, b) -> a.issuedBefore() >= b.issuedBefore() ? a : b);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package org.miage.tpae.secu.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.miage.tpae.secu.token.TokenRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Suppression des jetons stockés en BD devenus inutiles
+ * Un jeton expiré n'est plus jamais accepté, qu'il ait été révoqué (déconnexion, nouvelle authentification)
+ * ou non : sans suppression, la table et son index unique sur le jeton grossissent à chaque authentification.
+ *
+ * Les jetons sont conservés pendant application.security.jwt.purge.retention après leur expiration (audit).
+ * Ils sont ensuite supprimés par lots de application.security.jwt.purge.batch-size, chaque lot dans sa propre
+ * transaction courte, avec une pause de application.security.jwt.purge.pause entre deux lots :
+ * les authentifications ne sont jamais bloquées longtemps par la suppression.
+ * Les lots sont lus par date d'expiration (index idx_token_expires_at) : chaque lot ne lit que les lignes supprimées.
+ *
+ * Les jetons créés avant l'ajout de la date d'expiration n'en ont pas : on leur donne la date d'expiration
+ * la plus tardive possible (maintenant plus la durée de validité des jetons d'accès), par lots également.
+ *
+ * Métrique exposée : banque.jetons.supprimes (nombre de jetons supprimés)
+ */
+@Component
+public class TokenCompaction {
+
+  // logger
+  private static final Logger logger = LogManager.getLogger(TokenCompaction.class);
+
+  // repo des jetons
+  private final TokenRepository tokenRepository;
+  // service des jetons (durée de validité des jetons d'accès)
+  private final JwtService jwtService;
+  // durée de conservation des jetons après leur expiration
+  private final Duration retention;
+  // nombre de jetons traités par transaction
+  private final int batchSize;
+  // pause entre deux lots
+  private final Duration pause;
+  // nombre de jetons supprimés
+  private final Counter purged;
+
+  /**
+   * Constructeur pour l'injection
+   * @param tokenRepository repo des jetons
+   * @param jwtService service des jetons
+   * @param meterRegistry registre des métriques
+   * @param retention durée de conservation des jetons après leur expiration
+   * @param batchSize nombre de jetons traités par transaction
+   * @param pause pause entre deux lots
+   */
+  public TokenCompaction(TokenRepository tokenRepository,
+                         JwtService jwtService,
+                         MeterRegistry meterRegistry,
+                         @Value("${application.security.jwt.purge.retention:P30D}") Duration retention,
+                         @Value("${application.security.jwt.purge.batch-size:1000}") int batchSize,
+                         @Value("${application.security.jwt.purge.pause:PT0.2S}") Duration pause) {
+    this.tokenRepository = tokenRepository;
+    this.jwtService = jwtService;
+    this.retention = retention;
+    this.batchSize = Math.max(1, batchSize);
+    this.pause = pause;
+    this.purged = Counter.builder("banque.jetons.supprimes")
+        .description("Nombre de jetons expirés supprimés")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Donne une date d'expiration aux anciens jetons puis supprime par lots les jetons sortis de la période de conservation
+   * @return le nombre de jetons supprimés
+   */
+  @Scheduled(fixedDelayString = "${application.security.jwt.purge.interval:PT1H}",
+      initialDelayString = "${application.security.jwt.purge.interval:PT1H}")
+  public int purge() {
+    Instant now = Instant.now();
+    // un ancien jeton expire au plus tard dans la durée de validité d'un jeton d'accès
+    Instant latestExpiration = now.plusMillis(jwtService.getJwtExpiration());
+    int dated = inBatches(() -> tokenRepository.findIdsWithoutExpiration(Limit.of(batchSize)),
+        ids -> tokenRepository.setExpiresAt(ids, latestExpiration));
+    if (dated > 0)
+      logger.info("{} anciens jetons sans date d'expiration datés", dated);
+    Instant expiredBefore = now.minus(retention);
+    int total = inBatches(() -> tokenRepository.findPurgeableIds(expiredBefore, Limit.of(batchSize)), ids -> {
+      // une transaction par lot (un seul delete ... where id in ...)
+      tokenRepository.deleteAllByIdInBatch(ids);
+      purged.increment(ids.size());
+    });
+    if (total > 0)
+      logger.info("{} jetons expirés supprimés", total);
+    return total;
+  }
+
+  /**
+   * Traite des lots jusqu'au dernier lot incomplet, avec une pause entre deux lots
+   * @param next lecture des ids du lot suivant (chaque lot traité ne doit plus être relu)
+   * @param process traitement d'un lot
+   * @return le nombre de jetons traités
+   */
+  private int inBatches(Supplier<List<Integer>> next, Consumer<List<Integer>> process) {
+    int total = 0;
+    while (true) {
+      List<Integer> ids = next.get();
+      if (ids.isEmpty())
+        break;
+      process.accept(ids);
+      total += ids.size();
+      if (ids.size() < batchSize || !pause())
+        break;
+    }
+    return total;
+  }
+
+  /**
+   * Pause entre deux lots
+   * @return faux si le thread a été interrompu (arrêt de l'application)
+   */
+  private boolean pause() {
+    try {
+      Thread.sleep(pause.toMillis());
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
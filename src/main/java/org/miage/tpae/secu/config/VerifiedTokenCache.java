@@ -0,0 +1,142 @@
+package org.miage.tpae.secu.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.miage.tpae.secu.token.Token;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache des jetons d'accès déjà vérifiés (signature, utilisateur et présence en BD sans révocation)
+ * Une requête authentifiée avec un jeton du cache ne fait aucune requête en BD.
+ *
+ * Une entrée expire à l'expiration du jeton (claim exp), et au plus tard au bout de
+ * application.security.jwt.cache.max-duration : une révocation faite sur une autre instance
+ * (ou un changement de rôle) est donc prise en compte après ce délai au maximum.
+ * Sur cette instance, LogoutService et AuthenticationService retirent les jetons révoqués immédiatement.
+ * Les jetons sont rangés par empreinte (cf. Token.hash) : c'est ce qui est stocké en BD et donc ce qu'on
+ * connaît d'un jeton révoqué lors d'une nouvelle authentification.
+ *
+ * Métriques exposées : cache.* avec le tag cache=jwt
+ */
+@Component
+public class VerifiedTokenCache {
+
+  /**
+   * Un jeton vérifié
+   * @param userDetails l'utilisateur du jeton (avec ses autorités)
+   * @param expiration date d'expiration du jeton en ms
+   */
+  public record VerifiedToken(UserDetails userDetails, long expiration) {
+  }
+
+  // durée maximale de conservation d'un jeton vérifié
+  private final Duration maxDuration;
+  // jetons vérifiés, par empreinte
+  private final Cache<ByteBuffer, VerifiedToken> tokens;
+
+  /**
+   * Constructeur pour l'injection
+   * @param meterRegistry registre des métriques
+   * @param capacity nombre maximum de jetons en mémoire
+   * @param maxDuration durée maximale de conservation d'un jeton vérifié
+   */
+  @Autowired
+  public VerifiedTokenCache(MeterRegistry meterRegistry,
+                            @Value("${application.security.jwt.cache.capacity:10000}") long capacity,
+                            @Value("${application.security.jwt.cache.max-duration:PT5M}") Duration maxDuration) {
+    this(meterRegistry, capacity, maxDuration, Ticker.systemTicker());
+  }
+
+  /**
+   * Constructeur avec une horloge donnée (pour les tests)
+   * @param meterRegistry registre des métriques
+   * @param capacity nombre maximum de jetons en mémoire
+   * @param maxDuration durée maximale de conservation d'un jeton vérifié
+   * @param ticker horloge du cache
+   */
+  VerifiedTokenCache(MeterRegistry meterRegistry, long capacity, Duration maxDuration, Ticker ticker) {
+    this.maxDuration = maxDuration;
+    this.tokens = Caffeine.newBuilder()
+        .ticker(ticker)
+        .maximumSize(capacity)
+        .expireAfter(new Expiry<ByteBuffer, VerifiedToken>() {
+          @Override
+          public long expireAfterCreate(ByteBuffer key, VerifiedToken value, long currentTime) {
+            // jusqu'à l'expiration du jeton, dans la limite de la durée maximale
+            long remaining = TimeUnit.MILLISECONDS.toNanos(value.expiration() - System.currentTimeMillis());
+            return Math.max(0, Math.min(remaining, VerifiedTokenCache.this.maxDuration.toNanos()));
+          }
+
+          @Override
+          public long expireAfterUpdate(ByteBuffer key, VerifiedToken value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+          }
+
+          @Override
+          public long expireAfterRead(ByteBuffer key, VerifiedToken value, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, tokens, "jwt");
+  }
+
+  /**
+   * Cherche un jeton déjà vérifié
+   * @param jwt le jeton
+   * @return le jeton vérifié, null s'il n'est pas dans le cache ou s'il a expiré
+   */
+  public VerifiedToken get(String jwt) {
+    VerifiedToken verified = tokens.getIfPresent(key(jwt));
+    // l'expiration du cache n'est pas exacte à la milliseconde près
+    return verified != null && verified.expiration() > System.currentTimeMillis() ? verified : null;
+  }
+
+  /**
+   * Ajoute un jeton qui vient d'être vérifié
+   * @param jwt le jeton
+   * @param userDetails l'utilisateur du jeton
+   * @param expiration date d'expiration du jeton
+   */
+  public void put(String jwt, UserDetails userDetails, Instant expiration) {
+    tokens.put(key(jwt), new VerifiedToken(userDetails, expiration.toEpochMilli()));
+  }
+
+  /**
+   * Retire un jeton (révoqué)
+   * @param jwt le jeton
+   */
+  public void invalidate(String jwt) {
+    tokens.invalidate(key(jwt));
+  }
+
+  /**
+   * Retire un jeton révoqué dont on ne connaît que l'empreinte
+   * @param tokenHash l'empreinte du jeton (cf. Token.hash)
+   */
+  public void invalidateHash(byte[] tokenHash) {
+    tokens.invalidate(ByteBuffer.wrap(tokenHash));
+  }
+
+  /**
+   * Clé d'un jeton dans le cache
+   * @param jwt le jeton
+   * @return son empreinte
+   */
+  private static ByteBuffer key(String jwt) {
+    return ByteBuffer.wrap(Token.hash(jwt));
+  }
+}
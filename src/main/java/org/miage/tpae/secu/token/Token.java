@@ -7,14 +7,28 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.miage.tpae.secu.user.User;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+
 /**
  * Jeton stocké en BD
+ * Seule l'empreinte SHA-256 du jeton est stockée (32 octets, quelle que soit la taille du jeton) :
+ * l'index unique est bien plus petit que sur le jeton lui-même (cf. src/main/resources/db/migration-token-hash.sql)
+ * Les jetons sont supprimés une période de conservation après leur expiration (cf. TokenCompaction)
  */
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
+@Table(indexes = {
+    // recherche d'un jeton
+    @Index(name = "uk_token_hash", columnList = "tokenHash", unique = true),
+    // recherche des jetons à supprimer
+    @Index(name = "idx_token_expires_at", columnList = "expiresAt")
+})
 public class Token {
 
   /**
@@ -25,10 +39,12 @@ public class Token {
   public Integer id;
 
   /**
-   * Le jeton proprement dit
+   * Empreinte SHA-256 du jeton (cf. hash)
+   * La colonne n'est pas déclarée non nulle : si ddl-auto=update l'ajoute à une table déjà remplie (script de
+   * migration non exécuté), les anciennes lignes restent nulles et l'index unique peut quand même être créé.
    */
-  @Column(unique = true)
-  public String token;
+  @Column(length = 32)
+  public byte[] tokenHash;
 
   /**
    * Type de jeton
@@ -46,10 +62,34 @@ public class Token {
    */
   public boolean expired;
 
+  /**
+   * Date de création du jeton (null pour les jetons créés avant l'ajout de cette colonne)
+   */
+  public Instant createdAt;
+
+  /**
+   * Date d'expiration du jeton (null pour les jetons créés avant l'ajout de cette colonne, cf. TokenCompaction)
+   */
+  public Instant expiresAt;
+
   /**
    * L'utilisateur qui possède ce jeton
    */
   @ManyToOne(fetch = FetchType.LAZY)
   @JoinColumn(name = "user_id")
   public User user;
+
+  /**
+   * Calcule l'empreinte d'un jeton
+   * @param token le jeton
+   * @return son empreinte SHA-256 (32 octets)
+   */
+  public static byte[] hash(String token) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-256 est toujours fourni par la JVM
+      throw new IllegalStateException(e);
+    }
+  }
 }
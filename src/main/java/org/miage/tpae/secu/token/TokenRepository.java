@@ -1,8 +1,13 @@
 package org.miage.tpae.secu.token;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -28,5 +33,43 @@ public interface TokenRepository extends JpaRepository<Token, Integer> {
    * @param token le jeton
    * @return un optionnel qui peut comprendre l'entité
    */
-  Optional<Token> findByToken(String token);
+  default Optional<Token> findByToken(String token) {
+    return findByTokenHash(Token.hash(token));
+  }
+
+  /**
+   * Cherche une entité jeton à partir de l'empreinte du jeton
+   * @param tokenHash l'empreinte du jeton (cf. Token.hash)
+   * @return un optionnel qui peut comprendre l'entité
+   */
+  Optional<Token> findByTokenHash(byte[] tokenHash);
+
+  /**
+   * Cherche un lot de jetons à supprimer : expirés avant une date (par date d'expiration, index idx_token_expires_at)
+   * Un jeton révoqué reste stocké jusqu'à son expiration, puis pendant la période de conservation.
+   * @param expiredBefore date limite d'expiration (date courante moins la période de conservation)
+   * @param limit nombre maximum de jetons
+   * @return les ids des jetons
+   */
+  @Query("select t.id from Token t where t.expiresAt < :expiredBefore order by t.expiresAt")
+  List<Integer> findPurgeableIds(Instant expiredBefore, Limit limit);
+
+  /**
+   * Cherche un lot de jetons sans date d'expiration (créés avant l'ajout de cette colonne)
+   * @param limit nombre maximum de jetons
+   * @return les ids des jetons
+   */
+  @Query("select t.id from Token t where t.expiresAt is null")
+  List<Integer> findIdsWithoutExpiration(Limit limit);
+
+  /**
+   * Fixe la date d'expiration de jetons
+   * @param ids ids des jetons
+   * @param expiresAt date d'expiration
+   * @return le nombre de jetons modifiés
+   */
+  @Transactional
+  @Modifying
+  @Query("update Token t set t.expiresAt = :expiresAt where t.id in :ids")
+  int setExpiresAt(Collection<Integer> ids, Instant expiresAt);
 }
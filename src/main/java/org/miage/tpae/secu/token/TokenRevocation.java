@@ -0,0 +1,61 @@
+package org.miage.tpae.secu.token;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Révocation de jetons d'accès sans état stockée en BD (cf. RevocationList)
+ * Soit un jeton (jti), soit tous les jetons d'un utilisateur créés avant une date.
+ * La table sert de journal des changements : chaque instance lit régulièrement les révocations récentes.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = {
+    // lecture des révocations récentes
+    @Index(name = "idx_token_revocation_created_at", columnList = "createdAt"),
+    // purge des révocations devenues inutiles
+    @Index(name = "idx_token_revocation_expires_at", columnList = "expiresAt")
+})
+public class TokenRevocation {
+
+  /**
+   * Id de la révocation
+   */
+  @Id
+  @GeneratedValue
+  private Long id;
+
+  /**
+   * Identifiant du jeton révoqué (null pour une révocation de tous les jetons d'un utilisateur)
+   */
+  @Column(length = 36)
+  private String jti;
+
+  /**
+   * Utilisateur dont les jetons créés avant issuedBefore sont révoqués (null pour un seul jeton)
+   */
+  private String email;
+
+  /**
+   * Les jetons de l'utilisateur créés avant cette date sont révoqués
+   */
+  private Instant issuedBefore;
+
+  /**
+   * Date à partir de laquelle les jetons concernés ont tous expiré (la révocation peut alors être oubliée)
+   */
+  private Instant expiresAt;
+
+  /**
+   * Date d'enregistrement de la révocation
+   */
+  private Instant createdAt;
+}
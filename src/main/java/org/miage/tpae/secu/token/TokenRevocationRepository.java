@@ -0,0 +1,39 @@
+package org.miage.tpae.secu.token;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Repo pour les révocations de jetons sans état
+ */
+public interface TokenRevocationRepository extends JpaRepository<TokenRevocation, Long> {
+
+  /**
+   * Cherche les révocations enregistrées depuis une date
+   * @param since la date
+   * @return les révocations
+   */
+  List<TokenRevocation> findByCreatedAtGreaterThanEqual(Instant since);
+
+  /**
+   * Cherche les révocations encore utiles (au démarrage)
+   * @param now la date courante
+   * @return les révocations
+   */
+  List<TokenRevocation> findByExpiresAtAfter(Instant now);
+
+  /**
+   * Supprime les révocations devenues inutiles (tous les jetons concernés ont expiré)
+   * @param now la date courante
+   * @return le nombre de révocations supprimées
+   */
+  @Transactional
+  @Modifying
+  @Query("delete from TokenRevocation r where r.expiresAt < :now")
+  int deleteExpired(Instant now);
+}
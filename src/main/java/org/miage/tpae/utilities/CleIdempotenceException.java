@@ -0,0 +1,14 @@
+package org.miage.tpae.utilities;
+
+/**
+ * Exception clé d'idempotence en conflit (requête en cours ou clé déjà utilisée pour une autre requête)
+ */
+public class CleIdempotenceException extends RuntimeException {
+    /**
+     * Constructeur
+     * @param s message d'erreur
+     */
+    public CleIdempotenceException(String s) {
+        super(s);
+    }
+}
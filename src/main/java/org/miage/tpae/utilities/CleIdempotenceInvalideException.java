@@ -0,0 +1,14 @@
+package org.miage.tpae.utilities;
+
+/**
+ * Exception clé d'idempotence invalide (trop longue)
+ */
+public class CleIdempotenceInvalideException extends RuntimeException {
+    /**
+     * Constructeur
+     * @param s message d'erreur
+     */
+    public CleIdempotenceInvalideException(String s) {
+        super(s);
+    }
+}
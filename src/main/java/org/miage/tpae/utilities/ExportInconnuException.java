@@ -0,0 +1,14 @@
+package org.miage.tpae.utilities;
+
+/**
+ * Exception export inconnu
+ */
+public class ExportInconnuException extends RuntimeException {
+    /**
+     * Constructeur
+     * @param s message d'erreur
+     */
+    public ExportInconnuException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,14 @@
+package org.miage.tpae.utilities;
+
+/**
+ * Exception période invalide (fin avant le début)
+ */
+public class PeriodeInvalideException extends RuntimeException {
+    /**
+     * Constructeur
+     * @param s message d'erreur
+     */
+    public PeriodeInvalideException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,14 @@
+package org.miage.tpae.utilities;
+
+/**
+ * Exception rapprochement déjà en cours
+ */
+public class RapprochementEnCoursException extends RuntimeException {
+    /**
+     * Constructeur
+     * @param s message d'erreur
+     */
+    public RapprochementEnCoursException(String s) {
+        super(s);
+    }
+}
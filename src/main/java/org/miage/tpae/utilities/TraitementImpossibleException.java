@@ -0,0 +1,14 @@
+package org.miage.tpae.utilities;
+
+/**
+ * Exception traitement de masse impossible pour le moment (déjà en cours, moteur de comptes actif...)
+ */
+public class TraitementImpossibleException extends RuntimeException {
+    /**
+     * Constructeur
+     * @param s message d'erreur
+     */
+    public TraitementImpossibleException(String s) {
+        super(s);
+    }
+}
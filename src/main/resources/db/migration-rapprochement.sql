@@ -0,0 +1,16 @@
+-- Migration du repère du rapprochement incrémental (MySQL)
+--
+-- Le repère était le plus grand id d'opération (position_rapprochement.derniere_operation) ; c'est maintenant
+-- une date d'écriture des opérations (position_rapprochement.repere, operation_compte.date_enregistrement).
+-- spring.jpa.hibernate.ddl-auto=update ajoute les nouvelles colonnes et l'index
+-- idx_operation_compte_compte_id_enregistrement (sur une grosse table, on peut le créer avant, application arrêtée),
+-- mais ne supprime pas l'ancienne colonne, non nulle et sans valeur par défaut : l'insertion de la première ligne
+-- du repère échouerait. Les opérations déjà en base n'ont pas de date d'écriture : elles ne sont vérifiées que par
+-- un rapprochement complet, et le premier rapprochement incrémental (sans repère daté) est complet.
+--
+-- Ce script est à exécuter une fois, application arrêtée, avant de démarrer la nouvelle version.
+
+ALTER TABLE operation_compte ADD COLUMN date_enregistrement DATETIME(6);
+CREATE INDEX idx_operation_compte_compte_id_enregistrement ON operation_compte (compte_id, date_enregistrement);
+ALTER TABLE position_rapprochement ADD COLUMN repere DATETIME(6);
+ALTER TABLE position_rapprochement DROP COLUMN derniere_operation;
@@ -0,0 +1,27 @@
+-- Migration des générateurs d'ids de Client, Compte et OperationCompte (MySQL)
+--
+-- Les entités utilisent des séquences "pooled" (client_seq, compte_seq : blocs de 50,
+-- operation_compte_seq : blocs de 500). Sous MySQL, qui n'a pas de séquences,
+-- Hibernate les émule par des tables à une colonne next_val.
+--
+-- Ce script est à exécuter une fois, application arrêtée, avant de démarrer la nouvelle version :
+--  * si la base a été créée avec des colonnes AUTO_INCREMENT (IDENTITY) : les tables *_seq n'existent pas ;
+--  * si la base a été créée avec des blocs de 50 pour operation_compte_seq : la taille de bloc change.
+-- Dans les deux cas, la prochaine valeur lue doit être au moins MAX(id) + taille du bloc + 1,
+-- sinon Hibernate distribuerait des ids déjà utilisés.
+-- Le script peut être rejoué sans risque.
+--
+-- Pour une base avec de vraies séquences (H2, PostgreSQL...), l'équivalent est :
+--   ALTER SEQUENCE operation_compte_seq RESTART WITH <MAX(id) + 501> INCREMENT BY 500;
+
+CREATE TABLE IF NOT EXISTS client_seq (next_val BIGINT);
+DELETE FROM client_seq;
+INSERT INTO client_seq (next_val) SELECT COALESCE(MAX(id), 0) + 50 + 1 FROM client;
+
+CREATE TABLE IF NOT EXISTS compte_seq (next_val BIGINT);
+DELETE FROM compte_seq;
+INSERT INTO compte_seq (next_val) SELECT COALESCE(MAX(id), 0) + 50 + 1 FROM compte;
+
+CREATE TABLE IF NOT EXISTS operation_compte_seq (next_val BIGINT);
+DELETE FROM operation_compte_seq;
+INSERT INTO operation_compte_seq (next_val) SELECT COALESCE(MAX(id), 0) + 500 + 1 FROM operation_compte;
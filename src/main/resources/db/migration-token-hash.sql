@@ -0,0 +1,24 @@
+-- Migration des jetons stockés en BD vers leur empreinte SHA-256 (MySQL)
+--
+-- La table token stockait chaque jeton JWT entier (plusieurs centaines d'octets) avec un index unique :
+-- l'entité Token ne stocke plus que l'empreinte SHA-256 du jeton (32 octets, colonne token_hash),
+-- calculée sur les octets UTF-8 du jeton comme Token.hash (un jeton JWT est en ASCII, SHA2 donne donc
+-- la même empreinte).
+--
+-- Ce script est à exécuter une fois, application arrêtée, avant de démarrer la nouvelle version :
+-- les jetons déjà distribués restent valides. Il ne peut pas être rejoué (la colonne token est supprimée).
+-- Sur une grosse table, on peut d'abord lancer la suppression des jetons expirés (cf. TokenCompaction).
+--
+-- Si la nouvelle version démarre sans que ce script ait été exécuté, spring.jpa.hibernate.ddl-auto=update ajoute
+-- seulement la colonne token_hash (nulle pour les lignes existantes) et l'index unique uk_token_hash :
+-- les jetons déjà distribués ne sont plus trouvés (leurs utilisateurs doivent se réauthentifier) et
+-- l'ancienne colonne token (nullable) reste en place. Le script peut alors être exécuté (application arrêtée)
+-- sans l'ALTER TABLE ... ADD COLUMN ni le CREATE UNIQUE INDEX déjà faits : il remplit les empreintes manquantes
+-- et supprime l'ancienne colonne.
+
+ALTER TABLE token ADD COLUMN token_hash VARBINARY(32);
+UPDATE token SET token_hash = UNHEX(SHA2(token, 256)) WHERE token_hash IS NULL;
+ALTER TABLE token MODIFY token_hash VARBINARY(32) NOT NULL;
+CREATE UNIQUE INDEX uk_token_hash ON token (token_hash);
+-- supprime aussi l'ancien index unique sur le jeton
+ALTER TABLE token DROP COLUMN token;
@@ -0,0 +1,53 @@
+package org.miage.benchmark;
+
+import jakarta.persistence.*;
+import lombok.NoArgsConstructor;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+
+/**
+ * Opération dont l'id est généré par la base (colonne auto-incrémentée), comme avant les séquences
+ * Entité de mesure uniquement (cf. InsertionOperationsBenchmark) : elle est hors du paquetage de l'application,
+ * seul le benchmark l'ajoute aux entités et sa table n'existe que dans sa base de test.
+ */
+@Entity
+@Table(name = "operation_identity")
+@NoArgsConstructor
+public class OperationIdentity {
+    /**
+     * Id généré par la base à l'insertion
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * Type de l'opération
+     */
+    @Enumerated(EnumType.STRING)
+    private OperationCompte.OperationType operationType;
+
+    /**
+     * Valeur de l'opération
+     */
+    private double valeur;
+
+    /**
+     * Compte sur lequel l'opération a eu lieu
+     */
+    @ManyToOne(optional = false, fetch = FetchType.LAZY)
+    @JoinColumn
+    private Compte compte;
+
+    /**
+     * Constructeur
+     * @param compte le compte
+     * @param operationType le type d'opération
+     * @param valeur la valeur (somme)
+     */
+    public OperationIdentity(Compte compte, OperationCompte.OperationType operationType, double valeur) {
+        this.compte = compte;
+        this.operationType = operationType;
+        this.valeur = valeur;
+    }
+}
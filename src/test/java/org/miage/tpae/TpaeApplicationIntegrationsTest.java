@@ -4,6 +4,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.miage.tpae.entities.Client;
 import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.metier.PositionInitiale;
 import org.miage.tpae.metier.ServiceClient;
 import org.miage.tpae.metier.ServiceCompte;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,6 +15,10 @@ import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.isA;
@@ -108,4 +114,77 @@ class TpaeApplicationIntegrationsTest {
                 .andExpect(jsonPath("$[0].solde", isA(Double.class)));
     }
 
-}
\ No newline at end of file
+    @Test
+    @WithMockUser // simule une authentification
+    void virerLotFlux() throws Exception {
+        // un second compte pour les virements
+        Compte compte2 = serviceCompte.ouvrir(client.getId(), 1000);
+        // deux virements en NDJSON : le second est refusé (solde insuffisant)
+        String lot = "{\"idCompteDebiteur\":" + compte.getId() + ",\"idCompteDestinataire\":" + compte2.getId() + ",\"valeur\":100}\n"
+                + "{\"idCompteDebiteur\":" + compte.getId() + ",\"idCompteDestinataire\":" + compte2.getId() + ",\"valeur\":1000000}\n";
+        String resultats = mvc.perform(post("/api/virements/lot")
+                        .contentType("application/x-ndjson")
+                        .accept("application/x-ndjson")
+                        .content(lot))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        // on vérifie qu'on a bien une ligne de résultat par virement
+        String[] lignes = resultats.trim().split("\n");
+        assertEquals(2, lignes.length);
+        assertTrue(lignes[0].contains("\"effectue\":true"));
+        assertTrue(lignes[1].contains("\"effectue\":false"));
+        // on vérifie que seul le premier virement a été réalisé
+        assertEquals(900, serviceCompte.consulter(compte.getId()).getSolde(), 0.1);
+    }
+
+    @Test
+    @WithMockUser // simule une authentification
+    void fluxOperations() throws Exception {
+        // on ajoute une opération au compte (en plus de l'ouverture)
+        serviceCompte.crediter(compte.getId(), 10);
+        String flux = mvc.perform(get("/api/comptes/" + compte.getId() + "/operations")
+                        .accept("application/x-ndjson"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        // on vérifie qu'on a bien une ligne par opération : l'ouverture puis le crédit
+        String[] lignes = flux.trim().split("\n");
+        assertEquals(2, lignes.length);
+        assertTrue(lignes[0].contains("\"operationType\":\"OUVERTURE\""));
+        assertTrue(lignes[1].contains("\"operationType\":\"CREDIT\""));
+        // et la version paginée
+        mvc.perform(get("/api/comptes/" + compte.getId() + "/operations").param("limite", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.operations.length()", is(1)))
+                .andExpect(jsonPath("$.suivant", isA(Number.class)));
+    }
+
+    @Test
+    void operationCompte() throws Exception {
+        // un crédit renvoie directement la nouvelle position du compte
+        mvc.perform(post("/api/comptes/" + compte.getId() + "/operations")
+                        .contentType("application/json")
+                        .content("{ \"valeur\" : 100, \"operationType\" : \"CREDIT\" }"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.solde", is(1100.0)));
+        // sans opération de consultation : seulement l'ouverture et le crédit
+        assertEquals(2, serviceCompte.recupererOperations(compte.getId()).size());
+    }
+
+    @Test
+    void positionInitiale() {
+        // la position d'un flux est lue dans un instantané : un crédit validé ensuite n'en fait pas partie
+        PositionInitiale initiale = serviceCompte.lirePositionInitiale(compte.getId(), () -> {
+            CompletableFuture.runAsync(() -> serviceCompte.crediter(compte.getId(), 10)).join();
+            // l'abonné a reçu l'ouverture et le crédit (lus hors de la transaction de la position)
+            return CompletableFuture.supplyAsync(() -> serviceCompte.recupererOperations(compte.getId()).stream()
+                    .map(OperationCompte::getId).toList()).join();
+        });
+        assertEquals(1000, initiale.position().getSolde(), 0.1);
+        Collection<OperationCompte> operations = serviceCompte.recupererOperations(compte.getId());
+        assertEquals(2, operations.size());
+        // seule l'ouverture est reflétée par la position
+        assertEquals(Set.of(operations.stream().mapToLong(OperationCompte::getId).min().orElseThrow()),
+                initiale.operationsIncluses());
+    }
+
+}
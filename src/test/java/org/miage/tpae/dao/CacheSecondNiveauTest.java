@@ -0,0 +1,183 @@
+package org.miage.tpae.dao;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.cache.jcache.internal.JCacheRegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.entities.Client;
+import org.miage.tpae.entities.Compte;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.cache.CacheManager;
+import java.util.GregorianCalendar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe de test du cache de second niveau (Client, Compte et Client.comptes)
+ *
+ * C'est un test d'intégration avec la BD H2 en mémoire : la SessionFactory démarre avec les régions
+ * de application.conf. Chaque étape est dans sa propre transaction validée (le cache n'est mis à jour
+ * qu'à la validation).
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CacheSecondNiveauTest {
+
+    @Autowired
+    ClientRepository clientRepository;
+
+    @Autowired
+    CompteRepository compteRepository;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Pour exécuter chaque étape dans une transaction
+     */
+    TransactionTemplate transactionTemplate;
+
+    /**
+     * Cache de second niveau
+     */
+    Cache cache;
+
+    /**
+     * Client de test (avec un compte)
+     */
+    Client client;
+
+    /**
+     * Compte de test
+     */
+    Compte compte;
+
+    /**
+     * Création d'un client avec un compte
+     */
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        cache = entityManagerFactory.getCache();
+        client = new Client();
+        client.setNom("Cache");
+        client.setPrenom("Jean");
+        client = clientRepository.save(client);
+        compte = nouveauCompte();
+        cache.evictAll();
+    }
+
+    /**
+     * Suppression des données de test
+     */
+    @AfterEach
+    void tearDown() {
+        transactionTemplate.executeWithoutResult(status -> {
+            compteRepository.deleteAll(compteRepository.findAllById(
+                    compteRepository.findExportsByClientId(client.getId()).stream().map(c -> c.getId()).toList()));
+            clientRepository.deleteById(client.getId());
+        });
+    }
+
+    /**
+     * Les régions sont créées avec la configuration de application.conf
+     */
+    @Test
+    void regions() {
+        CacheManager cacheManager = ((JCacheRegionFactory) entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getCache().getRegionFactory()).getCacheManager();
+        assertEquals(100_000, taille(cacheManager, "client"));
+        assertEquals(100_000, taille(cacheManager, "client-comptes"));
+        assertEquals(200_000, taille(cacheManager, "compte"));
+    }
+
+    /**
+     * Un compte lu une fois est ensuite servi par le cache
+     */
+    @Test
+    void lectureCompte() {
+        assertFalse(cache.contains(Compte.class, compte.getId()));
+        transactionTemplate.executeWithoutResult(status -> compteRepository.findById(compte.getId()).orElseThrow());
+        assertTrue(cache.contains(Compte.class, compte.getId()));
+    }
+
+    /**
+     * Un compte ajouté côté Compte (propriétaire de la relation) retire la liste des comptes du client du cache
+     */
+    @Test
+    void ajoutCompte() {
+        assertEquals(1, nombreComptes());
+        nouveauCompte();
+        assertEquals(2, nombreComptes());
+    }
+
+    /**
+     * La mise à jour de la date d'interrogation d'un compte ne vide pas la région des comptes
+     */
+    @Test
+    void majDateInterrogation() {
+        Compte autre = nouveauCompte();
+        transactionTemplate.executeWithoutResult(status -> {
+            compteRepository.findById(compte.getId()).orElseThrow();
+            compteRepository.findById(autre.getId()).orElseThrow();
+        });
+        transactionTemplate.executeWithoutResult(status ->
+                assertEquals(1, compteRepository.majDateInterrogation(compte.getId(), GregorianCalendar.getInstance())));
+        assertTrue(cache.contains(Compte.class, compte.getId()));
+        assertTrue(cache.contains(Compte.class, autre.getId()));
+        // un débit sur le compte en cache ne remet pas l'ancienne date (nulle)
+        transactionTemplate.executeWithoutResult(status -> {
+            Compte c = compteRepository.findById(compte.getId()).orElseThrow();
+            c.setSolde(c.getSolde() - 10);
+        });
+        cache.evict(Compte.class, compte.getId());
+        assertNotNull(compteRepository.findExportsByClientId(client.getId()).get(0).getDateInterrogation());
+    }
+
+    /**
+     * Crée un compte pour le client de test (côté Compte uniquement)
+     * @return le compte créé
+     */
+    Compte nouveauCompte() {
+        Compte c = new Compte();
+        c.setClient(client);
+        c.setSolde(100);
+        return compteRepository.save(c);
+    }
+
+    /**
+     * Nombre de comptes du client de test, lus via la collection (éventuellement en cache)
+     * @return le nombre de comptes
+     */
+    int nombreComptes() {
+        Integer nombre = transactionTemplate.execute(status ->
+                clientRepository.findById(client.getId()).orElseThrow().getComptes().size());
+        assertTrue(cache.contains(Client.class, client.getId()));
+        return nombre;
+    }
+
+    /**
+     * Taille maximale d'une région
+     * @param cacheManager gestionnaire des caches
+     * @param region nom de la région
+     * @return nombre maximum d'éléments
+     */
+    static long taille(CacheManager cacheManager, String region) {
+        javax.cache.Cache<?, ?> cache = cacheManager.getCache(region);
+        assertNotNull(cache, region);
+        return cache.getConfiguration(CaffeineConfiguration.class).getMaximumSize().orElseThrow();
+    }
+}
@@ -51,4 +51,36 @@ class ClientRepositoryTest {
         // et qu'elle est bien vide
         assertTrue(liste.isEmpty());
     }
-}
\ No newline at end of file
+
+    /**
+     * Test de la méthode findByPrenomNomIn : seuls les couples (prénom, nom) cherchés sont lus,
+     * pas les autres clients qui portent le même nom ou le même prénom
+     */
+    @Test
+    void findByPrenomNomIn() {
+        Client jeanTest = client("Jean", "Test");
+        Client anneTest = client("Anne", "Test");
+        client("Paul", "Test");
+        client("Jean", "Autre");
+        List<Client> liste = clientRepository.findByPrenomNomIn(List.of(
+                new ClientRepository.PrenomNom("Jean", "Test"),
+                new ClientRepository.PrenomNom("Anne", "Test"),
+                new ClientRepository.PrenomNom("Eve", "Test")));
+        assertEquals(2, liste.size());
+        assertTrue(liste.containsAll(List.of(jeanTest, anneTest)));
+        assertTrue(clientRepository.findByPrenomNomIn(List.of()).isEmpty());
+    }
+
+    /**
+     * Insère un client en base
+     * @param prenom le prénom
+     * @param nom le nom
+     * @return le client inséré
+     */
+    Client client(String prenom, String nom) {
+        Client client = new Client();
+        client.setPrenom(prenom);
+        client.setNom(nom);
+        return clientRepository.save(client);
+    }
+}
@@ -0,0 +1,92 @@
+package org.miage.tpae.dao;
+
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.entities.Client;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.EvenementOperation;
+import org.miage.tpae.entities.OperationCompte;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
+import org.springframework.data.domain.Limit;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe de test pour EvenementOperationRepository
+ *
+ * C'est un test d'intégration avec la BD H2 en mémoire
+ */
+@DataJpaTest
+class EvenementOperationRepositoryTest {
+
+    @Autowired
+    ClientRepository clientRepository;
+
+    @Autowired
+    CompteRepository compteRepository;
+
+    @Autowired
+    OperationCompteRepository operationCompteRepository;
+
+    @Autowired
+    EvenementOperationRepository evenementOperationRepository;
+
+    @Autowired
+    TestEntityManager entityManager;
+
+    /**
+     * Les événements sont relayés par date d'écriture, pas par id : un événement d'id inférieur (bloc d'ids
+     * réservé plus tôt par une autre instance) écrit plus tard est relayé après
+     */
+    @Test
+    void findLotARelayer() {
+        Client client = new Client();
+        client.setNom("Test");
+        client.setPrenom("Jean");
+        client = clientRepository.save(client);
+        Compte compte = new Compte();
+        compte.setClient(client);
+        compte.setSolde(1000);
+        compte = compteRepository.save(compte);
+        EvenementOperation premier = evenement(compte);
+        EvenementOperation second = evenement(compte);
+        EvenementOperation troisieme = evenement(compte);
+        entityManager.flush();
+        assertNotNull(premier.getDateEnregistrement());
+        // écrits dans l'ordre des ids
+        assertEquals(List.of(premier.getId(), second.getId(), troisieme.getId()), ids(Limit.of(10)));
+        // le premier a été écrit après les autres
+        entityManager.getEntityManager()
+                .createQuery("update EvenementOperation e set e.dateEnregistrement = :date where e.id = :id")
+                .setParameter("date", troisieme.getDateEnregistrement().plusSeconds(1))
+                .setParameter("id", premier.getId())
+                .executeUpdate();
+        entityManager.clear();
+        assertEquals(List.of(second.getId(), troisieme.getId(), premier.getId()), ids(Limit.of(10)));
+        assertEquals(List.of(second.getId()), ids(Limit.of(1)));
+    }
+
+    /**
+     * Crée et enregistre une opération et son événement
+     * @param compte le compte
+     * @return l'événement
+     */
+    EvenementOperation evenement(Compte compte) {
+        OperationCompte operation = operationCompteRepository.save(
+                new OperationCompte(compte, OperationCompte.OperationType.CREDIT, 10));
+        return evenementOperationRepository.save(new EvenementOperation(operation));
+    }
+
+    /**
+     * Ids des événements à relayer
+     * @param limite nombre maximum d'événements
+     * @return les ids, dans l'ordre de diffusion
+     */
+    List<Long> ids(Limit limite) {
+        return evenementOperationRepository.findLotARelayer(limite).stream().map(EvenementOperation::getId).toList();
+    }
+}
@@ -0,0 +1,159 @@
+package org.miage.tpae.dao;
+
+import jakarta.persistence.EntityManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.benchmark.OperationIdentity;
+import org.miage.tpae.TpaeApplication;
+import org.miage.tpae.entities.Client;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.persistence.autoconfigure.EntityScan;
+import org.springframework.boot.test.context.TestConfiguration;
+
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mesure du débit d'insertion des opérations (insertions par seconde)
+ *
+ * Ce n'est pas un test : il n'est pas lancé par "mvn test" (le nom de la classe ne finit pas par Test).
+ * Pour le lancer :
+ * mvn test -Dtest=InsertionOperationsBenchmark -Dsurefire.failIfNoSpecifiedTests=false
+ *
+ * "avant" insère des opérations dont l'id est généré par la base (IDENTITY, cf. OperationIdentity) :
+ * Hibernate doit exécuter chaque INSERT dès la sauvegarde pour connaître l'id (pas de lot JDBC possible).
+ * "apres" utilise les séquences "pooled" et les lots JDBC : les INSERT sont envoyés par 50.
+ * Attention : avec H2 en mémoire il n'y a pas d'aller-retour réseau, l'écart est donc bien
+ * plus faible qu'avec MySQL.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.show-sql=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "spring.jpa.properties.hibernate.order_inserts=true"})
+class InsertionOperationsBenchmark {
+
+    /**
+     * logger
+     */
+    private static final Logger logger = LogManager.getLogger(InsertionOperationsBenchmark.class);
+
+    /**
+     * Nombre d'opérations insérées par mesure
+     */
+    private static final int NOMBRE = 20000;
+
+    /**
+     * Ajoute l'entité de mesure aux entités de l'application, pour ce benchmark seulement
+     */
+    @TestConfiguration
+    @EntityScan(basePackageClasses = {TpaeApplication.class, OperationIdentity.class})
+    static class EntitesBenchmark {
+    }
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    ClientRepository clientRepository;
+
+    @Autowired
+    CompteRepository compteRepository;
+
+    /**
+     * Compte sur lequel on insère les opérations
+     */
+    Compte compte;
+
+    /**
+     * Création du compte
+     */
+    @BeforeEach
+    void setUp() {
+        Client client = new Client();
+        client.setNom("Bench");
+        client.setPrenom("Jean");
+        client = clientRepository.save(client);
+        compte = new Compte();
+        compte.setClient(client);
+        compte.setSolde(1000);
+        compte = compteRepository.save(compte);
+        entityManager.flush();
+    }
+
+    /**
+     * Avant : id IDENTITY, une requête INSERT par opération malgré les lots JDBC configurés
+     */
+    @Test
+    void avant() {
+        long requetes = mesurer("avant (id IDENTITY)", 50, 1000,
+                (c, i) -> new OperationIdentity(c, OperationCompte.OperationType.CREDIT, i));
+        assertTrue(requetes >= NOMBRE);
+    }
+
+    /**
+     * Après : séquence pooled et lots JDBC de 50
+     */
+    @Test
+    void apres() {
+        long requetes = mesurer("après (séquence pooled et lots JDBC)", 50, 1000,
+                (c, i) -> new OperationCompte(c, OperationCompte.OperationType.CREDIT, i));
+        // un INSERT préparé par flush, et une interrogation de la séquence par bloc de 500 ids
+        assertTrue(requetes < NOMBRE / 10);
+    }
+
+    /**
+     * Insère les opérations et journalise le débit obtenu
+     * @param libelle libellé de la mesure
+     * @param tailleLot taille des lots JDBC
+     * @param flushToutesLes nombre d'opérations entre deux flush
+     * @param creer création de la i-ème opération sur un compte
+     * @return le nombre de requêtes préparées pendant la mesure
+     */
+    private long mesurer(String libelle, int tailleLot, int flushToutesLes, BiFunction<Compte, Integer, Object> creer) {
+        Session session = entityManager.unwrap(Session.class);
+        session.setJdbcBatchSize(tailleLot);
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        // tour de chauffe
+        inserer(session, NOMBRE / 10, flushToutesLes, creer);
+        statistics.clear();
+        long debut = System.nanoTime();
+        inserer(session, NOMBRE, flushToutesLes, creer);
+        long duree = System.nanoTime() - debut;
+        long requetes = statistics.getPrepareStatementCount();
+        logger.info("{} : {} insertions en {} ms, soit {} insertions/s ({} requêtes préparées)",
+                libelle, NOMBRE, duree / 1_000_000, Math.round(NOMBRE * 1e9 / duree), requetes);
+        assertEquals(NOMBRE, statistics.getEntityInsertCount());
+        return requetes;
+    }
+
+    /**
+     * Insère des opérations de crédit sur le compte
+     * @param session session Hibernate
+     * @param nombre nombre d'opérations
+     * @param flushToutesLes nombre d'opérations entre deux flush
+     * @param creer création de la i-ème opération sur un compte
+     */
+    private void inserer(Session session, int nombre, int flushToutesLes, BiFunction<Compte, Integer, Object> creer) {
+        Compte c = session.getReference(Compte.class, compte.getId());
+        for (int i = 1; i <= nombre; i++) {
+            session.persist(creer.apply(c, i));
+            if (i % flushToutesLes == 0) {
+                session.flush();
+                session.clear();
+                c = session.getReference(Compte.class, compte.getId());
+            }
+        }
+        session.flush();
+        session.clear();
+    }
+}
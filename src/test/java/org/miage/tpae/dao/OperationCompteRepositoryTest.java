@@ -4,11 +4,15 @@ import org.junit.jupiter.api.Test;
 import org.miage.tpae.entities.Client;
 import org.miage.tpae.entities.Compte;
 import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.export.OperationExport;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.GregorianCalendar;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,6 +33,9 @@ class OperationCompteRepositoryTest {
     @Autowired
     OperationCompteRepository operationCompteRepository;
 
+    @Autowired
+    TestEntityManager entityManager;
+
     @Test
     void findAllByCompteId() {
         // on vérifie que les repositories sont bien injectés
@@ -74,4 +81,37 @@ class OperationCompteRepositoryTest {
         // on vérifie que la collection est vide
         assertTrue(operations.isEmpty());
     }
-}
\ No newline at end of file
+
+    /**
+     * La date d'écriture est donnée à l'insertion et sert de repère au rapprochement incrémental
+     */
+    @Test
+    void streamPourRapprochement() {
+        Client client = new Client();
+        client.setNom("Test");
+        client.setPrenom("Jean");
+        client = clientRepository.save(client);
+        Compte compte = new Compte();
+        compte.setClient(client);
+        compte.setSolde(1000);
+        compte = compteRepository.save(compte);
+        Instant avant = Instant.now().minusSeconds(1);
+        OperationCompte operationCompte = operationCompteRepository.save(
+                new OperationCompte(compte, OperationCompte.OperationType.OUVERTURE, 1000));
+        entityManager.flush();
+        assertNotNull(operationCompte.getDateEnregistrement());
+        Instant apres = operationCompte.getDateEnregistrement().plusSeconds(1);
+        long id = compte.getId();
+        try (Stream<OperationExport> operations = operationCompteRepository.streamPourRapprochement(id, id, avant)) {
+            assertEquals(1, operations.count());
+        }
+        try (Stream<OperationExport> operations = operationCompteRepository.streamPourRapprochement(id, id, apres)) {
+            assertEquals(0, operations.count());
+        }
+        try (Stream<OperationExport> operations = operationCompteRepository.streamPourRapprochement(id, id, null)) {
+            assertEquals(1, operations.count());
+        }
+        assertEquals(1, compteRepository.findSoldesPourRapprochement(id, id, avant).size());
+        assertTrue(compteRepository.findSoldesPourRapprochement(id, id, apres).isEmpty());
+    }
+}
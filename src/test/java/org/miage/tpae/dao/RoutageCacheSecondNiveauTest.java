@@ -0,0 +1,185 @@
+package org.miage.tpae.dao;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManagerFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.entities.Client;
+import org.miage.tpae.entities.Compte;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jdbc.test.autoconfigure.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test du routage vers une réplique avec JPA et le cache de second niveau (cf. RoutageTransactionManager)
+ *
+ * Deux bases H2 en mémoire : la primaire et une "réplique", configurées par ReplicasConfiguration.
+ * La réplication est simulée en recopiant toute la base primaire dans la réplique.
+ * Chaque étape est dans sa propre transaction validée (le cache n'est mis à jour qu'à la validation).
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:routage-primaire;DB_CLOSE_DELAY=-1",
+        "banque.replicas.urls=jdbc:h2:mem:routage-replica;DB_CLOSE_DELAY=-1"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ReplicasConfiguration.class, RoutageCacheSecondNiveauTest.Metriques.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RoutageCacheSecondNiveauTest {
+
+    @Autowired
+    ClientRepository clientRepository;
+
+    @Autowired
+    CompteRepository compteRepository;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    RoutageDataSource routage;
+
+    /**
+     * Accès direct aux deux bases
+     */
+    JdbcTemplate primaire = new JdbcTemplate(h2("routage-primaire"));
+    JdbcTemplate replica = new JdbcTemplate(h2("routage-replica"));
+
+    /**
+     * Transactions en lecture seule et en écriture
+     */
+    TransactionTemplate lecture;
+    TransactionTemplate ecriture;
+
+    /**
+     * Cache de second niveau
+     */
+    Cache cache;
+
+    /**
+     * Compte de test (solde 100), présent dans la réplique
+     */
+    Compte compte;
+
+    /**
+     * Création d'un client avec un compte, puis réplication
+     */
+    @BeforeEach
+    void setUp() {
+        lecture = new TransactionTemplate(transactionManager);
+        lecture.setReadOnly(true);
+        ecriture = new TransactionTemplate(transactionManager);
+        cache = entityManagerFactory.getCache();
+        Client client = new Client();
+        client.setNom("Replica");
+        client.setPrenom("Jean");
+        client = clientRepository.save(client);
+        Compte c = new Compte();
+        c.setClient(client);
+        c.setSolde(100);
+        compte = compteRepository.save(c);
+        repliquer();
+        cache.evictAll();
+    }
+
+    /**
+     * Une lecture servie par la réplique ne met pas en cache un solde en retard, ni ne lit le cache
+     */
+    @Test
+    void lectureSurReplique() {
+        assertInstanceOf(RoutageTransactionManager.class, transactionManager);
+        // débit validé sur la base primaire, pas encore reçu par la réplique ; retiré du cache
+        // (comme après JournalConsultations.ecrire)
+        ecriture.executeWithoutResult(status -> compteRepository.findById(compte.getId()).orElseThrow().setSolde(50));
+        cache.evict(Compte.class, compte.getId());
+        assertEquals(100, solde(lecture), 0.1);
+        assertFalse(cache.contains(Compte.class, compte.getId()));
+        // une écriture relit donc la base primaire, et met le compte en cache
+        assertEquals(50, solde(ecriture), 0.1);
+        assertTrue(cache.contains(Compte.class, compte.getId()));
+        // la réplique n'utilise pas le cache, même à jour
+        assertEquals(100, solde(lecture), 0.1);
+        // réplique en retard : la lecture va sur la base primaire, avec le cache
+        replica.update("update battement_replica set date_battement = ?", System.currentTimeMillis() - 60_000);
+        routage.surveiller();
+        cache.evictAll();
+        assertEquals(50, solde(lecture), 0.1);
+        assertTrue(cache.contains(Compte.class, compte.getId()));
+    }
+
+    /**
+     * Une lecture sur la réplique reprise après une transaction d'écriture imbriquée reste hors du cache
+     */
+    @Test
+    void transactionSuspendue() {
+        TransactionTemplate imbriquee = new TransactionTemplate(transactionManager);
+        imbriquee.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        lecture.executeWithoutResult(status -> {
+            imbriquee.executeWithoutResult(s -> compteRepository.findById(compte.getId()).orElseThrow().setSolde(50));
+            cache.evict(Compte.class, compte.getId());
+            assertEquals(RoutageDataSource.REPLICA + 0, TransactionSynchronizationManager.getResource(routage));
+            assertEquals(100, compteRepository.findById(compte.getId()).orElseThrow().getSolde(), 0.1);
+        });
+        assertFalse(cache.contains(Compte.class, compte.getId()));
+    }
+
+    /**
+     * Lit le solde du compte de test
+     * @param transaction transaction de la lecture
+     * @return le solde
+     */
+    private double solde(TransactionTemplate transaction) {
+        return transaction.execute(status -> compteRepository.findById(compte.getId()).orElseThrow().getSolde());
+    }
+
+    /**
+     * Écrit un battement, recopie la base primaire dans la réplique puis relit sa position
+     */
+    private void repliquer() {
+        routage.surveiller();
+        replica.execute("drop all objects");
+        for (String instruction : primaire.queryForList("script nopasswords nosettings", String.class)) {
+            if (!instruction.startsWith("--"))
+                replica.execute(instruction);
+        }
+        routage.surveiller();
+    }
+
+    /**
+     * Crée une connexion à une base H2 en mémoire
+     * @param nom nom de la base
+     * @return la base
+     */
+    private static JdbcDataSource h2(String nom) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + nom + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    /**
+     * Registre des métriques (absent des tests @DataJpaTest), utilisé par RoutageDataSource
+     */
+    @TestConfiguration
+    static class Metriques {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.miage.tpae.dao;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test de RoutageDataSource avec deux bases H2 en mémoire : une primaire et une "réplique"
+ * La réplication est simulée en recopiant le battement de la base primaire dans la réplique.
+ */
+class RoutageDataSourceTest {
+
+    /**
+     * Accès direct aux deux bases
+     */
+    JdbcTemplate primaire;
+    JdbcTemplate replica;
+
+    /**
+     * DataSource testée
+     */
+    RoutageDataSource routage;
+
+    /**
+     * Accès aux bases à travers le routage
+     */
+    JdbcTemplate jdbc;
+
+    /**
+     * Transactions en lecture seule et en écriture à travers le routage
+     */
+    TransactionTemplate lecture;
+    TransactionTemplate ecriture;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     * Chaque base contient une table qui donne son nom
+     */
+    @BeforeEach
+    void setUp() {
+        DataSource basePrimaire = h2("primaire");
+        DataSource baseReplica = h2("replica");
+        primaire = new JdbcTemplate(basePrimaire);
+        replica = new JdbcTemplate(baseReplica);
+        for (JdbcTemplate base : List.of(primaire, replica)) {
+            base.execute("create table battement_replica (id int primary key, date_battement bigint not null)");
+            base.execute("create table identite (nom varchar(20))");
+        }
+        primaire.update("insert into identite values ('primaire')");
+        replica.update("insert into identite values ('replica')");
+        routage = new RoutageDataSource(basePrimaire, List.of(baseReplica), Duration.ofSeconds(5), new SimpleMeterRegistry());
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routage);
+        jdbc = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        lecture = new TransactionTemplate(transactionManager);
+        lecture.setReadOnly(true);
+        ecriture = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Méthode appelée après chaque test
+     */
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        primaire.execute("drop all objects");
+        replica.execute("drop all objects");
+    }
+
+    /**
+     * Les lectures vont sur la réplique quand elle est à jour, les écritures toujours sur la base primaire
+     */
+    @Test
+    void routage() {
+        // position de la réplique inconnue : base primaire
+        assertEquals("primaire", lire());
+        repliquer();
+        assertEquals("replica", lire());
+        assertEquals("primaire", ecrire());
+        // réplique en retard
+        replica.update("update battement_replica set date_battement = ?", System.currentTimeMillis() - 10_000);
+        routage.surveiller();
+        assertEquals("primaire", lire());
+        // réplique indisponible
+        replica.execute("drop table battement_replica");
+        routage.surveiller();
+        assertEquals("primaire", lire());
+    }
+
+    /**
+     * Après une écriture pendant une requête, les lectures du même appelant restent sur la base primaire
+     * tant que la réplique n'a pas reçu l'écriture ; les autres appelants lisent la réplique
+     */
+    @Test
+    void lireSesEcritures() {
+        repliquer();
+        requete("10.0.0.1");
+        assertEquals("replica", lire());
+        assertEquals("primaire", ecrire());
+        assertEquals("primaire", lire());
+        requete("10.0.0.2");
+        assertEquals("replica", lire());
+        // la réplique reçoit l'écriture
+        requete("10.0.0.1");
+        repliquer();
+        assertEquals("replica", lire());
+    }
+
+    /**
+     * Crée une base H2 en mémoire
+     * @param nom nom de la base
+     * @return la base
+     */
+    private static DataSource h2(String nom) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + nom + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    /**
+     * Écrit un battement, le recopie dans la réplique puis relit sa position
+     */
+    private void repliquer() {
+        routage.surveiller();
+        Long battement = primaire.queryForObject("select date_battement from battement_replica where id = 1", Long.class);
+        replica.update("merge into battement_replica key (id) values (1, ?)", battement);
+        routage.surveiller();
+    }
+
+    /**
+     * Simule une requête HTTP d'un appelant
+     * @param adresse adresse de l'appelant
+     */
+    private static void requete(String adresse) {
+        MockHttpServletRequest requete = new MockHttpServletRequest();
+        requete.setRemoteAddr(adresse);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(requete));
+    }
+
+    /**
+     * Lit le nom de la base dans une transaction en lecture seule
+     * @return le nom de la base utilisée
+     */
+    private String lire() {
+        return lecture.execute(status -> jdbc.queryForObject("select nom from identite", String.class));
+    }
+
+    /**
+     * Lit le nom de la base dans une transaction d'écriture
+     * @return le nom de la base utilisée
+     */
+    private String ecrire() {
+        return ecriture.execute(status -> jdbc.queryForObject("select nom from identite", String.class));
+    }
+}
@@ -0,0 +1,167 @@
+package org.miage.tpae.exposition;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.export.MouvementCompte;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.Position;
+import org.miage.tpae.metier.OperationsEnregistrees;
+import org.miage.tpae.metier.PositionInitiale;
+import org.miage.tpae.utilities.CompteInconnuException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitaire de FluxComptes
+ * Les envois sont mis de côté et exécutés à la demande : on simule ainsi des clients lents.
+ * Chaque abonné peut avoir 3 événements en attente.
+ */
+class FluxComptesUnitTest {
+
+    /**
+     * Envois programmés, pas encore exécutés
+     */
+    List<Runnable> envois = new ArrayList<>();
+
+    /**
+     * Registre des métriques
+     */
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * La diffusion testée
+     */
+    FluxComptes fluxComptes;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        fluxComptes = new FluxComptes(envois::add, meterRegistry, 3, Duration.ofMinutes(1));
+    }
+
+    /**
+     * Seuls les abonnés du compte reçoivent ses mouvements ; une file n'est confiée qu'à un envoi à la fois
+     */
+    @Test
+    void distribuer() {
+        fluxComptes.abonner(1, recues -> initiale(100));
+        fluxComptes.abonner(1, recues -> initiale(100));
+        fluxComptes.abonner(2, recues -> initiale(50));
+        assertEquals(3, meterRegistry.get("banque.flux.abonnes").gauge().value());
+        fluxComptes.operationsEnregistrees(mouvements(1, 1));
+        // le compteur compte les événements mis en file, par abonné :
+        // 3 positions initiales puis 2 mouvements du compte 1 pour chacun de ses 2 abonnés
+        assertEquals(7, meterRegistry.counter("banque.flux.evenements").count());
+        assertEquals(3, envois.size());
+        envois.forEach(Runnable::run);
+        envois.clear();
+        fluxComptes.operationsEnregistrees(mouvements(2));
+        assertEquals(1, envois.size());
+        assertEquals(2, fluxComptes.abonnes(1));
+        assertEquals(1, fluxComptes.abonnes(2));
+    }
+
+    /**
+     * Un abonné dont la file est pleine est déconnecté, sans bloquer la distribution aux autres
+     */
+    @Test
+    void abonneLent() {
+        fluxComptes.abonner(1, recues -> initiale(100));
+        fluxComptes.abonner(1, recues -> initiale(100));
+        envois.get(1).run();
+        // le premier abonné n'est jamais servi : position + 2 mouvements remplissent sa file
+        fluxComptes.operationsEnregistrees(mouvements(1, 1));
+        assertEquals(2, fluxComptes.abonnes(1));
+        fluxComptes.operationsEnregistrees(mouvements(1));
+        assertEquals(1, fluxComptes.abonnes(1));
+        assertEquals(1, meterRegistry.counter("banque.flux.lents").count());
+        assertEquals(1, meterRegistry.get("banque.flux.abonnes").gauge().value());
+    }
+
+    /**
+     * Un compte inconnu n'a pas d'abonné
+     */
+    @Test
+    void compteInconnu() {
+        assertThrows(CompteInconnuException.class, () -> fluxComptes.abonner(3, recues -> {
+            throw new CompteInconnuException("Compte 3 inconnu");
+        }));
+        assertEquals(0, fluxComptes.abonnes(3));
+        assertEquals(0, meterRegistry.get("banque.flux.abonnes").gauge().value());
+    }
+
+    /**
+     * Une opération validée pendant la lecture de la position est envoyée après elle,
+     * sauf si la position en tient déjà compte
+     */
+    @Test
+    void operationPendantLecture() {
+        fluxComptes.abonner(1, recues -> {
+            // deux transactions validées pendant la lecture : la première est dans l'instantané lu, pas la seconde
+            fluxComptes.operationsEnregistrees(mouvements(1));
+            assertTrue(envois.isEmpty());
+            assertEquals(List.of(1L), recues.get());
+            fluxComptes.operationsEnregistrees(new OperationsEnregistrees(List.of(mouvement(2, 1))));
+            return new PositionInitiale(position(110), Set.of(1L));
+        });
+        // position puis opération 2, un seul envoi programmé
+        assertEquals(1, envois.size());
+        assertEquals(2, meterRegistry.counter("banque.flux.evenements").count());
+        fluxComptes.operationsEnregistrees(new OperationsEnregistrees(List.of(mouvement(3, 1))));
+        assertEquals(3, meterRegistry.counter("banque.flux.evenements").count());
+        assertEquals(1, fluxComptes.abonnes(1));
+    }
+
+    /**
+     * Crée une position
+     * @param solde solde du compte
+     * @return la position
+     */
+    private static Position position(double solde) {
+        return new Position(solde, GregorianCalendar.getInstance());
+    }
+
+    /**
+     * Crée une position initiale qui ne tient compte d'aucune opération reçue
+     * @param solde solde du compte
+     * @return la position initiale
+     */
+    private static PositionInitiale initiale(double solde) {
+        return new PositionInitiale(position(solde), Set.of());
+    }
+
+    /**
+     * Crée le mouvement d'un crédit de 10
+     * @param idOperation id de l'opération
+     * @param idCompte id du compte
+     * @return le mouvement
+     */
+    private static MouvementCompte mouvement(long idOperation, long idCompte) {
+        Calendar date = GregorianCalendar.getInstance();
+        return new MouvementCompte(new OperationExport(idOperation,
+                OperationCompte.OperationType.CREDIT, 10, date, idCompte), new Position(110, date));
+    }
+
+    /**
+     * Crée l'événement d'une transaction : un crédit de 10 par compte donné
+     * @param idComptes ids des comptes
+     * @return l'événement
+     */
+    private static OperationsEnregistrees mouvements(long... idComptes) {
+        List<MouvementCompte> mouvements = new ArrayList<>();
+        for (long idCompte : idComptes)
+            mouvements.add(mouvement(mouvements.size() + 1, idCompte));
+        return new OperationsEnregistrees(mouvements);
+    }
+}
@@ -6,9 +6,13 @@ import org.miage.tpae.dao.CompteRepository;
 import org.miage.tpae.dao.OperationCompteRepository;
 import org.miage.tpae.entities.Client;
 import org.miage.tpae.entities.Compte;
+import org.miage.tpae.export.ClientExport;
+import org.miage.tpae.export.CompteExport;
 import org.miage.tpae.metier.ServiceClient;
 import org.miage.tpae.metier.ServiceCompte;
 import org.miage.tpae.secu.config.JwtService;
+import org.miage.tpae.secu.config.RevocationList;
+import org.miage.tpae.secu.config.VerifiedTokenCache;
 import org.miage.tpae.secu.token.TokenRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
@@ -16,7 +20,6 @@ import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
-import java.util.Arrays;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -57,6 +60,10 @@ class RestClientTest {
     JwtService jwtService;
     @MockitoBean
     TokenRepository tokenRepository;
+    @MockitoBean
+    VerifiedTokenCache verifiedTokenCache;
+    @MockitoBean
+    RevocationList revocationList;
 
     /**
      * Test de la méthode GET getClient
@@ -71,7 +78,7 @@ class RestClientTest {
         client.setNom("Test");
         client.setId(0L);
         // On mocke la méthode métier
-        given(serviceClient.recupererClient(0L)).willReturn(client);
+        given(serviceClient.consulterClient(0L)).willReturn(new ClientExport(0L, "Test", "Jean", List.of()));
         // On appelle la méthode GET
         mvc.perform(get("/api/clients/0")
                         .contentType("application/json;charset=UTF-8")) // précise le content-type
@@ -91,8 +98,9 @@ class RestClientTest {
         client.setPrenom("Jean");
         client.setNom("Test");
         client.setId(0L);
-        // On mocke la méthode métier
+        // On mocke les méthodes métier
         given(serviceClient.creerClient("Jean", "Test")).willReturn(client);
+        given(serviceClient.consulterClient(0L)).willReturn(new ClientExport(0L, "Test", "Jean", List.of()));
         // On appelle la méthode POST
         mvc.perform(post("/api/clients")
                         .with(csrf())
@@ -139,22 +147,10 @@ class RestClientTest {
     @Test
     @WithMockUser // simule une authentification
     void listerComptes() throws Exception {
-        // On crée un client en dur (y compris son id - pas de JPA ici)
-        Client client = new Client();
-        client.setPrenom("Jean");
-        client.setNom("Test");
-        client.setId(0L);
         // On crée un compte en dur (y compris son id - pas de JPA ici)
-        Compte compte = new Compte();
-        compte.setId(1L);
-        compte.setClient(client);
-        compte.setSolde(1000);
-        compte.setDateInterrogation(null);
-        // On doit gérer la liste nous-mêmes (pas de JPA ici)
-        List<Compte> compteList = Arrays.asList(compte);
-        client.setComptes(compteList);
+        CompteExport compte = new CompteExport(1L, 1000, true, 0L, null);
         // On mocke la méthode métier
-        given(serviceClient.recupererClient(0L)).willReturn(client);
+        given(serviceClient.listerComptes(0L)).willReturn(List.of(compte));
         // On appelle la méthode GET
         mvc.perform(get("/api/clients/0/comptes")
                         .contentType("application/json;charset=UTF-8")) // précise le content-type
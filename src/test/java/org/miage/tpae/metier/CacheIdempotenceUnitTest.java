@@ -0,0 +1,184 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.dao.ReponseIdempotenteRepository;
+import org.miage.tpae.entities.ReponseIdempotente;
+import org.miage.tpae.export.Position;
+import org.miage.tpae.utilities.CleIdempotenceException;
+import org.miage.tpae.utilities.CleIdempotenceInvalideException;
+import org.miage.tpae.utilities.SoldeInsuffisantException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de CacheIdempotence
+ * La "base" est simulée par une map des réponses.
+ */
+class CacheIdempotenceUnitTest {
+
+    /**
+     * Repository qu'on va mocker
+     */
+    ReponseIdempotenteRepository reponseIdempotenteRepository;
+
+    /**
+     * Réponses en "base"
+     */
+    Map<String, ReponseIdempotente> reponses;
+
+    /**
+     * La "base" est-elle en panne ?
+     */
+    AtomicBoolean enPanne;
+
+    /**
+     * Le cache testé
+     */
+    CacheIdempotence cacheIdempotence;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        reponses = new HashMap<>();
+        enPanne = new AtomicBoolean();
+        reponseIdempotenteRepository = mock(ReponseIdempotenteRepository.class);
+        when(reponseIdempotenteRepository.findById(anyString())).thenAnswer(invocation -> {
+            if (enPanne.get())
+                throw new DataAccessResourceFailureException("Base indisponible");
+            return Optional.ofNullable(reponses.get(invocation.<String>getArgument(0)));
+        });
+        when(reponseIdempotenteRepository.save(any())).thenAnswer(invocation -> {
+            ReponseIdempotente r = invocation.getArgument(0);
+            reponses.put(r.getCle(), r);
+            return r;
+        });
+        doAnswer(invocation -> reponses.remove(invocation.<String>getArgument(0)))
+                .when(reponseIdempotenteRepository).deleteById(anyString());
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        cacheIdempotence = new CacheIdempotence(reponseIdempotenteRepository, transactionManager,
+                new SimpleMeterRegistry(), 100, Duration.ofHours(1));
+    }
+
+    /**
+     * Une requête rejouée avec la même clé renvoie la première position sans refaire l'opération
+     */
+    @Test
+    void rejouer() {
+        AtomicInteger appels = new AtomicInteger();
+        Position p1 = cacheIdempotence.executer("cle", "credit 1 100",
+                () -> new Position(100 * appels.incrementAndGet(), GregorianCalendar.getInstance()));
+        Position p2 = cacheIdempotence.executer("cle", "credit 1 100",
+                () -> new Position(100 * appels.incrementAndGet(), GregorianCalendar.getInstance()));
+        assertEquals(1, appels.get());
+        assertEquals(p1, p2);
+        // la réponse est aussi en base
+        assertEquals(100, reponses.get("cle").getSolde(), 0.001);
+    }
+
+    /**
+     * Une réponse en base (autre instance, redémarrage) est aussi rejouée
+     */
+    @Test
+    void rejouerDepuisBase() {
+        ReponseIdempotente r = new ReponseIdempotente("cle", "credit 1 100", Instant.now());
+        r.setSolde(250.0);
+        r.setDateInterrogation(Instant.now());
+        reponses.put("cle", r);
+        Position p = cacheIdempotence.executer("cle", "credit 1 100", () -> fail("l'opération ne doit pas être refaite"));
+        assertEquals(250, p.getSolde(), 0.001);
+    }
+
+    /**
+     * Une clé réutilisée pour une autre requête, ou en cours d'utilisation, est refusée
+     */
+    @Test
+    void conflit() {
+        cacheIdempotence.executer("cle", "credit 1 100", () -> new Position(100, GregorianCalendar.getInstance()));
+        assertThrows(CleIdempotenceException.class, () ->
+                cacheIdempotence.executer("cle", "debit 1 100", () -> new Position(0, GregorianCalendar.getInstance())));
+        // réservée mais pas encore complétée
+        reponses.put("encours", new ReponseIdempotente("encours", "credit 1 100", Instant.now()));
+        assertThrows(CleIdempotenceException.class, () ->
+                cacheIdempotence.executer("encours", "credit 1 100", () -> new Position(100, GregorianCalendar.getInstance())));
+    }
+
+    /**
+     * Si l'opération échoue, la clé est libérée et la requête peut être rejouée
+     */
+    @Test
+    void echec() {
+        assertThrows(SoldeInsuffisantException.class, () -> cacheIdempotence.executer("cle", "debit 1 1000", () -> {
+            throw new SoldeInsuffisantException("Solde insuffisant");
+        }));
+        assertFalse(reponses.containsKey("cle"));
+        Position p = cacheIdempotence.executer("cle", "debit 1 1000", () -> new Position(0, GregorianCalendar.getInstance()));
+        assertEquals(0, p.getSolde(), 0.001);
+    }
+
+    /**
+     * Si la réponse ne peut pas être écrite en base, elle est quand même renvoyée et rejouée,
+     * puis écrite en base au rejeu suivant
+     */
+    @Test
+    void echecEcriture() {
+        AtomicInteger appels = new AtomicInteger();
+        Position p1 = cacheIdempotence.executer("cle", "credit 1 100", () -> {
+            enPanne.set(true); // la base tombe pendant l'opération
+            return new Position(100 * appels.incrementAndGet(), GregorianCalendar.getInstance());
+        });
+        assertEquals(100, p1.getSolde(), 0.001);
+        assertNull(reponses.get("cle").getSolde());
+        enPanne.set(false);
+        Position p2 = cacheIdempotence.executer("cle", "credit 1 100",
+                () -> new Position(100 * appels.incrementAndGet(), GregorianCalendar.getInstance()));
+        assertEquals(1, appels.get());
+        assertEquals(p1, p2);
+        assertEquals(100, reponses.get("cle").getSolde(), 0.001);
+    }
+
+    /**
+     * Une clé trop longue pour la base est refusée avant toute réservation
+     */
+    @Test
+    void cleTropLongue() {
+        String cle = "c".repeat(ReponseIdempotente.LONGUEUR_CLE + 1);
+        assertThrows(CleIdempotenceInvalideException.class, () ->
+                cacheIdempotence.executer(cle, "credit 1 100", () -> fail("l'opération ne doit pas être faite")));
+        verifyNoInteractions(reponseIdempotenteRepository);
+        Position p = cacheIdempotence.executer(cle.substring(1), "credit 1 100",
+                () -> new Position(100, GregorianCalendar.getInstance()));
+        assertEquals(100, p.getSolde(), 0.001);
+    }
+
+    /**
+     * Sans clé, l'opération est toujours réalisée
+     */
+    @Test
+    void sansCle() {
+        AtomicInteger appels = new AtomicInteger();
+        cacheIdempotence.executer(null, "credit 1 100", () -> new Position(appels.incrementAndGet(), GregorianCalendar.getInstance()));
+        cacheIdempotence.executer(null, "credit 1 100", () -> new Position(appels.incrementAndGet(), GregorianCalendar.getInstance()));
+        assertEquals(2, appels.get());
+        verifyNoInteractions(reponseIdempotenteRepository);
+    }
+}
@@ -0,0 +1,102 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.utilities.SoldeInsuffisantException;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de ExecuteurTransactionnel
+ */
+class ExecuteurTransactionnelUnitTest {
+
+    /**
+     * Gestionnaire de transactions qu'on va mocker
+     */
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Registre de métriques en mémoire
+     */
+    SimpleMeterRegistry meterRegistry;
+
+    /**
+     * Exécuteur testé : 3 tentatives au maximum, attentes courtes
+     */
+    ExecuteurTransactionnel executeur;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        // mock du gestionnaire de transactions : chaque tentative reçoit une nouvelle transaction
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        meterRegistry = new SimpleMeterRegistry();
+        executeur = new ExecuteurTransactionnel(transactionManager, meterRegistry, 3, 1, 2);
+    }
+
+    /**
+     * Un conflit passager est rejoué jusqu'au succès
+     */
+    @Test
+    void repriseApresConflit() {
+        AtomicInteger appels = new AtomicInteger();
+        // les deux premières tentatives échouent sur un verrou
+        String resultat = executeur.executer("test", () -> {
+            if (appels.incrementAndGet() < 3)
+                throw new CannotAcquireLockException("verrou");
+            return "ok";
+        });
+        // on vérifie le résultat et le nombre de tentatives
+        assertEquals("ok", resultat);
+        assertEquals(3, appels.get());
+        // chaque tentative a eu sa transaction, dont 2 annulées
+        verify(transactionManager, times(3)).getTransaction(any());
+        verify(transactionManager, times(2)).rollback(any());
+        verify(transactionManager, times(1)).commit(any());
+        // on vérifie les métriques
+        assertEquals(2, meterRegistry.counter("banque.verrou.conflits", "operation", "test").count());
+        assertEquals(2, meterRegistry.counter("banque.verrou.reprises", "operation", "test").count());
+        assertEquals(0, meterRegistry.counter("banque.verrou.abandons", "operation", "test").count());
+    }
+
+    /**
+     * Un conflit persistant est remonté après la dernière tentative
+     */
+    @Test
+    void abandonApresTentativesMax() {
+        AtomicInteger appels = new AtomicInteger();
+        assertThrows(CannotAcquireLockException.class, () -> executeur.executer("test", () -> {
+            appels.incrementAndGet();
+            throw new CannotAcquireLockException("verrou");
+        }));
+        // on vérifie que le nombre de tentatives est bien borné
+        assertEquals(3, appels.get());
+        assertEquals(1, meterRegistry.counter("banque.verrou.abandons", "operation", "test").count());
+    }
+
+    /**
+     * Une erreur métier n'est jamais rejouée
+     */
+    @Test
+    void pasDeRepriseSurErreurMetier() {
+        AtomicInteger appels = new AtomicInteger();
+        assertThrows(SoldeInsuffisantException.class, () -> executeur.executer("test", () -> {
+            appels.incrementAndGet();
+            throw new SoldeInsuffisantException("solde");
+        }));
+        assertEquals(1, appels.get());
+        assertEquals(0, meterRegistry.counter("banque.verrou.conflits", "operation", "test").count());
+    }
+}
@@ -0,0 +1,181 @@
+package org.miage.tpae.metier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.export.EtatExport;
+import org.miage.tpae.export.ManifesteExport;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.SegmentExport;
+import org.miage.tpae.utilities.ExportInconnuException;
+import org.miage.tpae.utilities.PeriodeInvalideException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.stream.LongStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de ExportOperations
+ * La "base" contient les comptes 1 à 10, avec 3 opérations chacun.
+ */
+class ExportOperationsUnitTest {
+
+    /**
+     * Répertoire temporaire pour les exports
+     */
+    @TempDir
+    Path repertoire;
+
+    /**
+     * Repository des opérations qu'on va mocker
+     */
+    OperationCompteRepository operationCompteRepository;
+
+    /**
+     * L'export testé : 3 plages, fichiers de 200 octets au plus avant compression
+     */
+    ExportOperations exportOperations;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        CompteRepository compteRepository = mock(CompteRepository.class);
+        when(compteRepository.idMin()).thenReturn(1L);
+        when(compteRepository.idMax()).thenReturn(10L);
+        operationCompteRepository = mock(OperationCompteRepository.class);
+        when(operationCompteRepository.streamPourExport(any(), any(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            long min = invocation.getArgument(2);
+            long max = invocation.getArgument(3);
+            return LongStream.rangeClosed(min, max).boxed().flatMap(idCompte -> LongStream.range(0, 3).mapToObj(i ->
+                    new OperationExport(idCompte * 10 + i, OperationCompte.OperationType.CREDIT, 10, GregorianCalendar.getInstance(), idCompte)));
+        });
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        exportOperations = new ExportOperations(operationCompteRepository, compteRepository, transactionManager,
+                JsonMapper.builder().build(), repertoire.toString(), 3, 200);
+    }
+
+    /**
+     * Arrêt des exports lancés
+     */
+    @AfterEach
+    void tearDown() {
+        exportOperations.arreter();
+    }
+
+    /**
+     * Toutes les opérations sont exportées, dans des fichiers dont le manifeste donne les lignes et les empreintes
+     */
+    @Test
+    void exporter() throws Exception {
+        for (FormatExport format : FormatExport.values()) {
+            ManifesteExport manifeste = exportOperations.exporter(GregorianCalendar.getInstance(), GregorianCalendar.getInstance(), format);
+            assertEquals(30, manifeste.getLignes());
+            // les fichiers sont découpés
+            assertTrue(manifeste.getSegments().size() > 3);
+            Path dossier = repertoire.resolve(manifeste.getId());
+            assertTrue(Files.exists(dossier.resolve("manifeste.json")));
+            for (SegmentExport segment : manifeste.getSegments()) {
+                Path fichier = dossier.resolve(segment.getFichier());
+                assertEquals(Files.size(fichier), segment.getOctets());
+                assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(fichier))),
+                        segment.getSha256());
+                List<String> lignes;
+                try (BufferedReader lecteur = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(Files.newInputStream(fichier)), StandardCharsets.UTF_8))) {
+                    lignes = lecteur.lines().toList();
+                }
+                // plus l'en-tête en CSV
+                assertEquals(segment.getLignes() + (format == FormatExport.CSV ? 1 : 0), lignes.size());
+                // les ids de comptes sont ceux des opérations du fichier (pas ceux de toute la plage)
+                if (format == FormatExport.CSV) {
+                    LongSummaryStatistics idsComptes = lignes.stream().skip(1)
+                            .mapToLong(ligne -> Long.parseLong(ligne.split(",")[1])).summaryStatistics();
+                    assertEquals(idsComptes.getMin(), segment.getIdCompteMin());
+                    assertEquals(idsComptes.getMax(), segment.getIdCompteMax());
+                }
+            }
+        }
+        // une plage par thread
+        verify(operationCompteRepository, times(2)).streamPourExport(any(), any(), eq(1L), eq(4L));
+        verify(operationCompteRepository, times(2)).streamPourExport(any(), any(), eq(9L), eq(10L));
+    }
+
+    /**
+     * Une période qui finit avant de commencer est refusée
+     */
+    @Test
+    void periodeInvalide() {
+        Calendar fin = GregorianCalendar.getInstance();
+        Calendar debut = GregorianCalendar.getInstance();
+        debut.add(Calendar.DAY_OF_MONTH, 1);
+        assertThrows(PeriodeInvalideException.class, () -> exportOperations.exporter(debut, fin, FormatExport.CSV));
+        assertThrows(PeriodeInvalideException.class, () -> exportOperations.lancer(debut, fin, FormatExport.CSV));
+    }
+
+    /**
+     * Un export lancé s'exécute en arrière-plan et son état donne son manifeste une fois terminé
+     */
+    @Test
+    void lancer() throws Exception {
+        String id = exportOperations.lancer(GregorianCalendar.getInstance(), GregorianCalendar.getInstance(),
+                FormatExport.NDJSON).getId();
+        EtatExport etat = attendre(id);
+        assertEquals("TERMINE", etat.getEtat());
+        assertEquals(30, etat.getManifeste().getLignes());
+        assertEquals(id, etat.getManifeste().getId());
+        assertEquals(etat.getManifeste().getSegments().size(), etat.getManifeste().getSegments().stream()
+                .map(SegmentExport::getFichier).distinct().count());
+        // id inconnu, ou qui n'est pas un id d'export
+        assertThrows(ExportInconnuException.class, () -> exportOperations.etat(UUID.randomUUID().toString()));
+        assertThrows(ExportInconnuException.class, () -> exportOperations.etat("../" + id));
+    }
+
+    /**
+     * Un export lancé qui échoue est signalé avec sa cause
+     */
+    @Test
+    void lancerEchec() throws Exception {
+        when(operationCompteRepository.streamPourExport(any(), any(), anyLong(), anyLong()))
+                .thenThrow(new IllegalStateException("base indisponible"));
+        EtatExport etat = exportOperations.lancer(GregorianCalendar.getInstance(), GregorianCalendar.getInstance(),
+                FormatExport.CSV);
+        etat = attendre(etat.getId());
+        assertEquals("ECHEC", etat.getEtat());
+        assertEquals("base indisponible", etat.getErreur());
+        assertNull(etat.getManifeste());
+    }
+
+    /**
+     * Attend la fin d'un export lancé
+     * @param id identifiant de l'export
+     * @return l'état final de l'export
+     */
+    EtatExport attendre(String id) throws InterruptedException {
+        long limite = System.currentTimeMillis() + 10_000;
+        EtatExport etat = exportOperations.etat(id);
+        while ("EN_COURS".equals(etat.getEtat()) && System.currentTimeMillis() < limite) {
+            Thread.sleep(10);
+            etat = exportOperations.etat(id);
+        }
+        return etat;
+    }
+}
@@ -0,0 +1,201 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionFinDeJourneeRepository;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.entities.PositionFinDeJournee;
+import org.miage.tpae.export.RapportFinDeJournee;
+import org.miage.tpae.utilities.TraitementImpossibleException;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de FinDeJournee
+ * La "base" contient les comptes 1 à 10 avec un solde de 1000, sauf le compte 6 (solde 5) ; le compte 4 est clôturé.
+ * Le 31 mars 2026 : intérêts de 0,10 par compte (3,65% par an), frais de 10 (limités au solde du compte 6).
+ */
+class FinDeJourneeUnitTest {
+
+    /**
+     * Jour traité (dernier jour du mois)
+     */
+    static final LocalDate JOUR = LocalDate.of(2026, 3, 31);
+
+    /**
+     * Comptes "en base"
+     */
+    Map<Long, Compte> comptes = new TreeMap<>();
+
+    /**
+     * Opérations enregistrées
+     */
+    List<OperationCompte> operations = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Avancement enregistré des plages
+     */
+    Map<String, PositionFinDeJournee> positions = new ConcurrentHashMap<>();
+
+    /**
+     * Nombre d'enregistrements de lots d'opérations (pour simuler une panne)
+     */
+    AtomicInteger lots = new AtomicInteger();
+
+    /**
+     * Numéro de l'enregistrement qui échoue (0 pour aucun)
+     */
+    int lotEnPanne;
+
+    /**
+     * Mocks
+     */
+    CompteRepository compteRepository;
+    OperationCompteRepository operationCompteRepository;
+    PositionFinDeJourneeRepository positionFinDeJourneeRepository;
+    MoteurComptes moteurComptes;
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        for (long id = 1; id <= 10; id++) {
+            Compte compte = new Compte();
+            compte.setId(id);
+            compte.setSolde(id == 6 ? 5 : 1000);
+            compte.setActif(id != 4);
+            comptes.put(id, compte);
+        }
+        compteRepository = mock(CompteRepository.class);
+        when(compteRepository.idMin()).thenReturn(1L);
+        when(compteRepository.idMax()).thenReturn(10L);
+        // lot suivant de comptes actifs (des copies, comme une nouvelle lecture en base)
+        when(compteRepository.findLotActifs(anyLong(), anyLong(), any())).thenAnswer(invocation -> {
+            long apres = invocation.getArgument(0);
+            long max = invocation.getArgument(1);
+            Limit limite = invocation.getArgument(2);
+            return comptes.values().stream().filter(c -> c.getId() > apres && c.getId() <= max && c.isActif())
+                    .limit(limite.max()).map(c -> {
+                        Compte copie = new Compte();
+                        copie.setId(c.getId());
+                        copie.setSolde(c.getSolde());
+                        copie.setActif(true);
+                        return copie;
+                    }).toList();
+        });
+        operationCompteRepository = mock(OperationCompteRepository.class);
+        when(operationCompteRepository.saveAll(any())).thenAnswer(invocation -> {
+            if (lots.incrementAndGet() == lotEnPanne)
+                throw new IllegalStateException("panne");
+            List<OperationCompte> lot = invocation.getArgument(0);
+            operations.addAll(lot);
+            return lot;
+        });
+        positionFinDeJourneeRepository = mock(PositionFinDeJourneeRepository.class);
+        when(positionFinDeJourneeRepository.findByJourOrderByPlage(any())).thenAnswer(invocation ->
+                positions.values().stream().filter(p -> p.getJour().equals(invocation.getArgument(0)))
+                        .sorted(Comparator.comparingInt(PositionFinDeJournee::getPlage)).toList());
+        when(positionFinDeJourneeRepository.save(any())).thenAnswer(invocation -> {
+            PositionFinDeJournee position = invocation.getArgument(0);
+            positions.put(position.getId(), position);
+            return position;
+        });
+        when(positionFinDeJourneeRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<PositionFinDeJournee> liste = invocation.getArgument(0);
+            liste.forEach(p -> positions.put(p.getId(), p));
+            return liste;
+        });
+        moteurComptes = mock(MoteurComptes.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+    }
+
+    /**
+     * Crée le traitement testé (lots de 2 comptes)
+     * @param paralleles nombre de plages traitées en parallèle
+     * @return le traitement
+     */
+    FinDeJournee finDeJournee(int paralleles) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new FinDeJournee(compteRepository, operationCompteRepository, positionFinDeJourneeRepository,
+                new ExecuteurTransactionnel(transactionManager, meterRegistry, 3, 1, 2), moteurComptes,
+                mock(ApplicationEventPublisher.class), mock(BoiteEnvoi.class), List.of(new InteretsJournaliers(0.0365), new FraisTenueCompte(10)),
+                meterRegistry, paralleles, 2);
+    }
+
+    /**
+     * Chaque compte actif reçoit ses intérêts et ses frais, une seule fois par jour
+     */
+    @Test
+    void traiter() {
+        FinDeJournee finDeJournee = finDeJournee(3);
+        RapportFinDeJournee rapport = finDeJournee.traiter(JOUR);
+        assertFalse(rapport.isReprise());
+        assertEquals(9, rapport.getComptes());
+        // 9 débits, 8 crédits (les intérêts du compte 6 sont arrondis à 0)
+        assertEquals(17, rapport.getOperations());
+        assertEquals(0.8, rapport.getCredits(), 1e-9);
+        assertEquals(85, rapport.getDebits(), 1e-9);
+        assertEquals(5., debits(6), 1e-9);
+        assertEquals(0., debits(4));
+        // le jour est déjà traité
+        assertEquals(0, finDeJournee.traiter(JOUR).getComptes());
+        assertEquals(17, operations.size());
+    }
+
+    /**
+     * Un traitement interrompu reprend après le dernier lot écrit
+     */
+    @Test
+    void reprise() {
+        lotEnPanne = 3;
+        FinDeJournee finDeJournee = finDeJournee(1);
+        assertThrows(IllegalStateException.class, () -> finDeJournee.traiter(JOUR));
+        // lots 1-2 et 3-5 écrits
+        assertEquals(4, operations.stream().map(o -> o.getCompte().getId()).distinct().count());
+        RapportFinDeJournee rapport = finDeJournee.traiter(JOUR);
+        assertTrue(rapport.isReprise());
+        assertEquals(5, rapport.getComptes());
+        // un seul prélèvement de frais par compte actif
+        for (long id = 1; id <= 10; id++)
+            assertEquals(id == 4 ? 0. : id == 6 ? 5. : 10., debits(id), 1e-9);
+    }
+
+    /**
+     * Le traitement est refusé quand le moteur de comptes est actif
+     */
+    @Test
+    void moteurActif() {
+        when(moteurComptes.isActif()).thenReturn(true);
+        assertThrows(TraitementImpossibleException.class, () -> finDeJournee(1).traiter(JOUR));
+        verifyNoInteractions(compteRepository);
+    }
+
+    /**
+     * Total débité sur un compte
+     * @param idCompte id du compte
+     * @return le total débité
+     */
+    double debits(long idCompte) {
+        return operations.stream().filter(o -> o.getCompte().getId() == idCompte
+                        && o.getOperationType() == OperationCompte.OperationType.DEBIT)
+                .mapToDouble(OperationCompte::getValeur).sum();
+    }
+}
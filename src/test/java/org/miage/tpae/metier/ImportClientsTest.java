@@ -0,0 +1,127 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.dao.ClientRepository;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.EvenementOperationRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionImportRepository;
+import org.miage.tpae.entities.Client;
+import org.miage.tpae.export.ProgressionImport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe de test pour ImportClients
+ *
+ * Ici, c'est un test d'intégration avec une BD H2 en mémoire
+ * Note : ces tests ne fonctionnent que via Maven.
+ */
+@DataJpaTest
+class ImportClientsTest {
+
+    /**
+     * Repositories injectés par DataJpaTest
+     */
+    @Autowired
+    ClientRepository clientRepository;
+
+    @Autowired
+    CompteRepository compteRepository;
+
+    @Autowired
+    OperationCompteRepository operationCompteRepository;
+
+    @Autowired
+    PositionImportRepository positionImportRepository;
+
+    @Autowired
+    EvenementOperationRepository evenementOperationRepository;
+
+    /**
+     * Gestionnaire de transactions injecté par DataJpaTest
+     */
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * L'import testé (lots de 2 lignes)
+     */
+    ImportClients importClients;
+
+    /**
+     * Méthode exécutée avant chaque test
+     */
+    @BeforeEach
+    void setUp() {
+        importClients = new ImportClients(clientRepository, compteRepository, operationCompteRepository,
+                positionImportRepository, new ExecuteurTransactionnel(transactionManager, new SimpleMeterRegistry(), 5, 10, 200),
+                evenement -> { }, new BoiteEnvoi(evenementOperationRepository, evenement -> { }), new SimpleMeterRegistry(), 2);
+    }
+
+    /**
+     * Import d'un fichier avec un client répété, un client déjà en base et une ligne invalide
+     */
+    @Test
+    void importer() throws IOException {
+        Client existant = new Client();
+        existant.setPrenom("Anne");
+        existant.setNom("Import");
+        existant = clientRepository.save(existant);
+        String csv = """
+                prenom,nom,solde
+                Jean,Import,100
+                Jean,Import,200
+                Anne,Import,50
+                Paul,Import,-1
+                Marc,Import,10.5
+                """;
+        List<ProgressionImport> progressions = new ArrayList<>();
+        ProgressionImport fin = importClients.importer("test", new BufferedReader(new StringReader(csv)), progressions::add);
+        // deux lots pleins, puis le dernier lot (une ligne)
+        assertEquals(3, progressions.size());
+        assertTrue(fin.isTermine());
+        assertEquals(5, fin.getLignes());
+        // Jean et Marc sont créés, Anne existait déjà
+        assertEquals(2, fin.getClients());
+        assertEquals(4, fin.getComptes());
+        assertEquals(List.of(4L), progressions.get(1).getRejets());
+        assertEquals(1, clientRepository.findByPrenomAndNom("Jean", "Import").size());
+        assertEquals(2, compteRepository.findExportsByClientId(clientRepository.findByPrenomAndNom("Jean", "Import").get(0).getId()).size());
+        assertEquals(1, compteRepository.findExportsByClientId(existant.getId()).size());
+        assertEquals(5, positionImportRepository.findById("test").orElseThrow().getLignes());
+    }
+
+    /**
+     * Un import relancé avec le même nom reprend après les lignes déjà importées
+     */
+    @Test
+    void reprise() throws IOException {
+        String debut = """
+                Luc,Reprise,100
+                Luc,Reprise,200
+                """;
+        importClients.importer("reprise", new BufferedReader(new StringReader(debut)), p -> { });
+        // le fichier complet est renvoyé
+        String complet = debut + """
+                Eve,Reprise,300
+                """;
+        ProgressionImport fin = importClients.importer("reprise", new BufferedReader(new StringReader(complet)), p -> { });
+        assertEquals(3, fin.getLignes());
+        assertEquals(1, fin.getClients());
+        assertEquals(1, fin.getComptes());
+        Long idLuc = clientRepository.findByPrenomAndNom("Luc", "Reprise").get(0).getId();
+        assertEquals(2, compteRepository.findExportsByClientId(idLuc).size());
+    }
+}
@@ -0,0 +1,188 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de JournalConsultations
+ */
+class JournalConsultationsUnitTest {
+
+    /**
+     * Repositories qu'on va mocker
+     */
+    CompteRepository compteRepository;
+    OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Fabrique d'EntityManager qu'on va mocker (avec son cache de second niveau)
+     */
+    EntityManagerFactory entityManagerFactory;
+    Cache cache;
+
+    /**
+     * Gestionnaire de transactions qu'on va mocker
+     */
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Registre de métriques en mémoire
+     */
+    SimpleMeterRegistry meterRegistry;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        compteRepository = mock(CompteRepository.class);
+        operationCompteRepository = mock(OperationCompteRepository.class);
+        entityManagerFactory = mock(EntityManagerFactory.class);
+        cache = mock(Cache.class);
+        when(entityManagerFactory.getCache()).thenReturn(cache);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    /**
+     * Crée un journal (conflits rejoués sans attente, lot réessayé toutes les 10 ms)
+     * @param durabilite niveau de durabilité des consultations
+     * @param capacite nombre maximum de consultations en attente
+     * @param tailleLot nombre maximum de consultations écrites par transaction
+     * @return le journal (écrivain non démarré)
+     */
+    JournalConsultations journal(DurabiliteConsultation durabilite, int capacite, int tailleLot) {
+        return new JournalConsultations(compteRepository, operationCompteRepository, entityManagerFactory,
+                transactionManager, new ExecuteurTransactionnel(transactionManager, meterRegistry, 5, 0, 0),
+                meterRegistry, durabilite, capacite, tailleLot, Duration.ofMillis(10));
+    }
+
+    /**
+     * Les consultations en attente sont écrites en un seul lot,
+     * avec une seule mise à jour de la date par compte
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void ecritureParLot() {
+        JournalConsultations journal = journal(DurabiliteConsultation.FIABLE, 10, 10);
+        Calendar d1 = new GregorianCalendar(2026, Calendar.JANUARY, 1);
+        Calendar d2 = new GregorianCalendar(2026, Calendar.JANUARY, 2);
+        journal.enregistrer(1L, 100, d1);
+        journal.enregistrer(1L, 100, d2);
+        journal.enregistrer(2L, 50, d1);
+        // rien n'est écrit tant que le journal n'est pas vidé
+        verifyNoInteractions(operationCompteRepository);
+        journal.vider();
+        // une seule transaction et un seul lot de 3 opérations
+        verify(transactionManager, times(1)).commit(any());
+        verify(operationCompteRepository).saveAll(argThat(operations ->
+                ((List<OperationCompte>) operations).size() == 3));
+        // la date la plus récente de chaque compte
+        verify(compteRepository).majDateInterrogation(1L, d2);
+        verify(compteRepository).majDateInterrogation(2L, d1);
+        verify(compteRepository, never()).majDateInterrogation(1L, d1);
+        assertEquals(3, meterRegistry.counter("banque.consultations.ecrites").count());
+        // seuls les comptes modifiés sont retirés du cache
+        verify(cache).evict(Compte.class, 1L);
+        verify(cache).evict(Compte.class, 2L);
+        verifyNoMoreInteractions(cache);
+    }
+
+    /**
+     * En mode SYNCHRONE sans écrivain, l'appelant écrit sa consultation avant de rendre la main :
+     * dans une transaction en lecture seule, l'écriture a sa propre transaction en lecture-écriture
+     */
+    @Test
+    void synchroneDansLectureSeule() {
+        JournalConsultations journal = journal(DurabiliteConsultation.SYNCHRONE, 10, 10);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        try {
+            journal.enregistrer(1L, 100, GregorianCalendar.getInstance());
+        } finally {
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        }
+        verify(transactionManager).getTransaction(argThat(definition ->
+                definition.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW
+                        && !definition.isReadOnly()));
+        verify(transactionManager).commit(any());
+        assertEquals(1, meterRegistry.counter("banque.consultations.ecrites").count());
+        // hors transaction, l'écriture a sa transaction habituelle
+        journal.enregistrer(1L, 100, GregorianCalendar.getInstance());
+        verify(transactionManager).getTransaction(argThat(definition ->
+                definition.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRED));
+        assertEquals(2, meterRegistry.counter("banque.consultations.ecrites").count());
+    }
+
+    /**
+     * En mode AU_MIEUX, les consultations qui ne tiennent pas dans la file sont perdues et comptées
+     */
+    @Test
+    void perteQuandFilePleine() {
+        JournalConsultations journal = journal(DurabiliteConsultation.AU_MIEUX, 2, 10);
+        for (int i = 0; i < 5; i++)
+            journal.enregistrer(1L, 100, GregorianCalendar.getInstance());
+        assertEquals(3, meterRegistry.counter("banque.consultations.perdues").count());
+        journal.vider();
+        assertEquals(2, meterRegistry.counter("banque.consultations.ecrites").count());
+    }
+
+    /**
+     * En mode FIABLE, un lot en erreur transitoire (base indisponible) est réessayé par l'écrivain au lieu d'être perdu ;
+     * un lot refusé par la base est perdu et compté
+     */
+    @Test
+    void repriseEnModeFiable() throws InterruptedException {
+        when(operationCompteRepository.saveAll(anyIterable()))
+                .thenThrow(new QueryTimeoutException("base indisponible"))
+                .thenThrow(new QueryTimeoutException("base indisponible"))
+                .thenAnswer(invocation -> invocation.getArgument(0))
+                .thenThrow(new DataIntegrityViolationException("refusé"));
+        JournalConsultations journal = journal(DurabiliteConsultation.FIABLE, 10, 10);
+        journal.start();
+        try {
+            journal.enregistrer(1L, 100, GregorianCalendar.getInstance());
+            attendre(() -> meterRegistry.counter("banque.consultations.ecrites").count() == 1);
+            assertEquals(2, meterRegistry.counter("banque.consultations.reprises").count());
+            assertEquals(0, meterRegistry.counter("banque.consultations.erreurs").count());
+            journal.enregistrer(2L, 100, GregorianCalendar.getInstance());
+            attendre(() -> meterRegistry.counter("banque.consultations.erreurs").count() == 1);
+            assertEquals(1, meterRegistry.counter("banque.consultations.ecrites").count());
+        } finally {
+            journal.stop();
+        }
+    }
+
+    /**
+     * Attend (au plus 5 s) qu'une condition soit vraie
+     * @param condition la condition
+     */
+    void attendre(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++)
+            Thread.sleep(10);
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,54 @@
+package org.miage.tpae.metier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitaire du journal du moteur de comptes (segments de 4 entrées)
+ */
+class JournalMoteurUnitTest {
+
+    /**
+     * Répertoire temporaire pour le journal
+     */
+    @TempDir
+    Path repertoire;
+
+    /**
+     * Les segments entièrement confirmés sont supprimés, les autres restent lisibles,
+     * y compris après la réouverture du journal
+     */
+    @Test
+    void liberer() {
+        Path fichier = repertoire.resolve("shard-0.journal");
+        try (JournalMoteur journal = new JournalMoteur(fichier, 4)) {
+            for (int i = 0; i < 10; i++)
+                journal.ecrire(i, new JournalMoteur.Entree(JournalMoteur.TypeEntree.CREDIT, 1L, 0, i, i));
+            journal.forcer(10);
+            assertTrue(Files.exists(repertoire.resolve("shard-0.journal.2")));
+            // l'entrée 8 est la première du segment 2 : les segments 0 et 1 sont libérés
+            journal.liberer(9);
+            assertFalse(Files.exists(repertoire.resolve("shard-0.journal.0")));
+            assertFalse(Files.exists(repertoire.resolve("shard-0.journal.1")));
+            assertNull(journal.lire(7));
+            assertEquals(9, journal.lire(9).montant(), 0.001);
+            // un journal libéré peut encore être forcé
+            journal.ecrire(10, new JournalMoteur.Entree(JournalMoteur.TypeEntree.DEBIT, 1L, 0, 10, 10));
+            journal.forcer(11);
+        }
+        try (JournalMoteur journal = new JournalMoteur(fichier, 4)) {
+            assertEquals(11, journal.fin(9));
+            assertEquals(JournalMoteur.TypeEntree.DEBIT, journal.lire(10).type());
+            journal.liberer(12);
+            assertFalse(Files.exists(repertoire.resolve("shard-0.journal.2")));
+            // un nouveau segment commence après l'entrée 11
+            journal.ecrire(12, new JournalMoteur.Entree(JournalMoteur.TypeEntree.CREDIT, 1L, 0, 12, 12));
+            assertTrue(Files.exists(repertoire.resolve("shard-0.journal.3")));
+        }
+    }
+}
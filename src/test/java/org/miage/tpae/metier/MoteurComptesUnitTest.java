@@ -0,0 +1,281 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionJournalRepository;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.entities.PositionJournal;
+import org.miage.tpae.utilities.CompteClotureException;
+import org.miage.tpae.utilities.CompteInconnuException;
+import org.miage.tpae.utilities.SoldeInsuffisantException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de MoteurComptes
+ * La "base" est simulée par une map de comptes et une map des positions des journaux.
+ */
+class MoteurComptesUnitTest {
+
+    /**
+     * Repositories qu'on va mocker
+     */
+    CompteRepository compteRepository;
+    OperationCompteRepository operationCompteRepository;
+    PositionJournalRepository positionJournalRepository;
+
+    /**
+     * Gestionnaire de transactions qu'on va mocker
+     */
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Comptes en "base"
+     */
+    Map<Long, Compte> comptes;
+
+    /**
+     * Positions des journaux en "base"
+     */
+    Map<Integer, PositionJournal> positions;
+
+    /**
+     * Opérations écrites en "base"
+     */
+    List<OperationCompte> operations;
+
+    /**
+     * Répertoire temporaire pour les journaux
+     */
+    @TempDir
+    Path repertoire;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     * La base contient trois comptes actifs : 1 et 3 (shard 1), 2 (shard 0)
+     */
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        comptes = new HashMap<>();
+        positions = new ConcurrentHashMap<>();
+        operations = Collections.synchronizedList(new ArrayList<>());
+        for (long id = 1; id <= 3; id++) {
+            Compte c = new Compte();
+            c.setId(id);
+            c.setSolde(100);
+            comptes.put(id, c);
+        }
+        compteRepository = mock(CompteRepository.class);
+        when(compteRepository.findById(anyLong())).thenAnswer(invocation -> {
+            Compte c = comptes.get(invocation.<Long>getArgument(0));
+            if (c == null)
+                return Optional.empty();
+            // une copie, comme une lecture en base
+            Compte copie = new Compte();
+            copie.setId(c.getId());
+            copie.setSolde(c.getSolde());
+            copie.setActif(c.isActif());
+            return Optional.of(copie);
+        });
+        when(compteRepository.findAllByIdPourModification(anyCollection())).thenAnswer(invocation ->
+                ((Collection<Long>) invocation.getArgument(0)).stream().sorted()
+                        .map(comptes::get).filter(Objects::nonNull).toList());
+        operationCompteRepository = mock(OperationCompteRepository.class);
+        when(operationCompteRepository.saveAll(anyIterable())).thenAnswer(invocation -> {
+            ((Iterable<OperationCompte>) invocation.getArgument(0)).forEach(operations::add);
+            return invocation.getArgument(0);
+        });
+        positionJournalRepository = mock(PositionJournalRepository.class);
+        when(positionJournalRepository.findById(anyInt())).thenAnswer(invocation ->
+                Optional.ofNullable(positions.get(invocation.<Integer>getArgument(0))));
+        when(positionJournalRepository.save(any())).thenAnswer(invocation -> {
+            PositionJournal p = invocation.getArgument(0);
+            positions.put(p.getShard(), p);
+            return p;
+        });
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+    }
+
+    /**
+     * Crée un moteur à deux shards sur le répertoire de test
+     * @return le moteur (non démarré)
+     */
+    MoteurComptes moteur() {
+        return moteur(JournalMoteur.ENTREES_PAR_SEGMENT);
+    }
+
+    /**
+     * Crée un moteur à deux shards sur le répertoire de test
+     * @param entreesParSegment nombre d'entrées par segment des journaux
+     * @return le moteur (non démarré)
+     */
+    MoteurComptes moteur(int entreesParSegment) {
+        return new MoteurComptes(compteRepository, operationCompteRepository, positionJournalRepository,
+                transactionManager, evenement -> { }, mock(BoiteEnvoi.class), new SimpleMeterRegistry(), true, 2,
+                repertoire.toString(), true, 100, 10, entreesParSegment);
+    }
+
+    /**
+     * Débits, crédits et virements (dans un shard et entre deux shards) sont réalisés en mémoire
+     * puis écrits en base à l'arrêt
+     */
+    @Test
+    void operations() {
+        MoteurComptes moteur = moteur();
+        moteur.start();
+        assertEquals(150, moteur.crediter(1L, 50).getSolde(), 0.001);
+        assertEquals(120, moteur.debiter(1L, 30).getSolde(), 0.001);
+        // même shard
+        assertEquals(100, moteur.virer(1L, 3L, 20).getSolde(), 0.001);
+        // deux shards
+        assertEquals(90, moteur.virer(1L, 2L, 10).getSolde(), 0.001);
+        assertEquals(110, moteur.consulter(2L).getSolde(), 0.001);
+        assertThrows(SoldeInsuffisantException.class, () -> moteur.debiter(2L, 1000));
+        assertThrows(CompteInconnuException.class, () -> moteur.virer(2L, 99L, 1));
+        moteur.fermer(3L);
+        assertThrows(CompteClotureException.class, () -> moteur.crediter(3L, 1));
+        moteur.stop();
+        // tout est en base
+        assertEquals(90, comptes.get(1L).getSolde(), 0.001);
+        assertEquals(110, comptes.get(2L).getSolde(), 0.001);
+        assertEquals(120, comptes.get(3L).getSolde(), 0.001);
+        assertFalse(comptes.get(3L).isActif());
+        // crédit, débit, 2 virements (2 opérations chacun), clôture
+        assertEquals(7, operations.size());
+        // toutes les entrées sont dans le journal du shard 1 (celui des comptes débités, crédités ou clôturés)
+        assertEquals(5, positions.get(1).getConfirmees());
+    }
+
+    /**
+     * Des virements croisés concurrents entre deux shards ne se bloquent pas et conservent la somme des soldes
+     */
+    @Test
+    void virementsCroises() {
+        MoteurComptes moteur = moteur();
+        moteur.start();
+        List<CompletableFuture<?>> resultats = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            resultats.add(moteur.soumettreVirement(1L, 2L, 1));
+            resultats.add(moteur.soumettreVirement(2L, 1L, 1));
+        }
+        resultats.forEach(CompletableFuture::join);
+        moteur.stop();
+        assertEquals(200, comptes.get(1L).getSolde() + comptes.get(2L).getSolde(), 0.001);
+    }
+
+    /**
+     * Une commande du shard crédité qui suit un virement entre deux shards n'est acquittée qu'une fois
+     * le virement forcé dans le journal du shard débité (le groupe du shard débité est allongé par
+     * des virements dans le shard)
+     */
+    @Test
+    void virementForceAvantCrediteur() {
+        MoteurComptes moteur = moteur();
+        moteur.start();
+        for (int i = 0; i < 20; i++) {
+            moteur.soumettreVirement(1L, 2L, 1);
+            for (int j = 0; j < 10; j++)
+                moteur.soumettreVirement(1L, 3L, 0.1);
+            moteur.debiter(2L, 1);
+            // le virement est la (11 * i + 1)-ème entrée du journal du shard 1
+            assertTrue(moteur.entreesForcees(1L) >= 11L * i + 1);
+        }
+        moteur.stop();
+        assertEquals(60, comptes.get(1L).getSolde(), 0.001);
+        assertEquals(100, comptes.get(2L).getSolde(), 0.001);
+        assertEquals(120, comptes.get(3L).getSolde(), 0.001);
+    }
+
+    /**
+     * Au redémarrage, les entrées du journal qui ne sont pas en base y sont écrites avant d'accepter des commandes
+     * (on simule un arrêt brutal en écrivant directement les journaux)
+     */
+    @Test
+    void reprise() throws Exception {
+        long date = System.currentTimeMillis();
+        try (JournalMoteur journal = new JournalMoteur(repertoire.resolve("shard-1.journal"))) {
+            // la première entrée est déjà en base
+            journal.ecrire(0, new JournalMoteur.Entree(JournalMoteur.TypeEntree.CREDIT, 1L, 0, 1000, date));
+            journal.ecrire(1, new JournalMoteur.Entree(JournalMoteur.TypeEntree.CREDIT, 1L, 0, 50, date));
+        }
+        try (JournalMoteur journal = new JournalMoteur(repertoire.resolve("shard-0.journal"))) {
+            journal.ecrire(0, new JournalMoteur.Entree(JournalMoteur.TypeEntree.VIREMENT, 2L, 1L, 10, date));
+        }
+        positions.put(1, new PositionJournal(1, 1));
+        MoteurComptes moteur = moteur();
+        moteur.start();
+        assertEquals(160, comptes.get(1L).getSolde(), 0.001);
+        assertEquals(90, comptes.get(2L).getSolde(), 0.001);
+        assertEquals(160, moteur.consulter(1L).getSolde(), 0.001);
+        assertEquals(2, positions.get(1).getConfirmees());
+        assertEquals(1, positions.get(0).getConfirmees());
+        // les nouvelles entrées suivent les anciennes
+        moteur.debiter(1L, 60);
+        moteur.stop();
+        assertEquals(100, comptes.get(1L).getSolde(), 0.001);
+        assertEquals(3, positions.get(1).getConfirmees());
+    }
+
+    /**
+     * Les segments du journal entièrement écrits en base sont supprimés, y compris au redémarrage
+     */
+    @Test
+    void segmentsLiberes() {
+        MoteurComptes moteur = moteur(4);
+        moteur.start();
+        // 10 entrées dans le journal du shard 1 : segments 0, 1 et 2
+        for (int i = 0; i < 10; i++)
+            moteur.crediter(1L, 1);
+        moteur.stop();
+        assertEquals(10, positions.get(1).getConfirmees());
+        assertFalse(Files.exists(repertoire.resolve("shard-1.journal.0")));
+        assertFalse(Files.exists(repertoire.resolve("shard-1.journal.1")));
+        assertTrue(Files.exists(repertoire.resolve("shard-1.journal.2")));
+        // les nouvelles entrées suivent les anciennes après un redémarrage
+        moteur = moteur(4);
+        moteur.start();
+        for (int i = 0; i < 3; i++)
+            moteur.crediter(1L, 1);
+        moteur.stop();
+        assertEquals(113, comptes.get(1L).getSolde(), 0.001);
+        assertEquals(13, positions.get(1).getConfirmees());
+        assertFalse(Files.exists(repertoire.resolve("shard-1.journal.2")));
+        assertTrue(Files.exists(repertoire.resolve("shard-1.journal.3")));
+    }
+
+    /**
+     * Une entrée du journal dont le compte est introuvable en base n'est pas ignorée :
+     * le lot n'est pas écrit, la position du journal ne la dépasse pas et le moteur ne démarre pas
+     */
+    @Test
+    void entreeCompteIntrouvable() throws Exception {
+        long date = System.currentTimeMillis();
+        try (JournalMoteur journal = new JournalMoteur(repertoire.resolve("shard-1.journal"))) {
+            journal.ecrire(0, new JournalMoteur.Entree(JournalMoteur.TypeEntree.CREDIT, 1L, 0, 50, date));
+            journal.ecrire(1, new JournalMoteur.Entree(JournalMoteur.TypeEntree.CREDIT, 99L, 0, 10, date));
+        }
+        MoteurComptes moteur = moteur();
+        assertThrows(IllegalStateException.class, moteur::start);
+        assertFalse(moteur.isRunning());
+        assertNull(positions.get(1));
+        assertEquals(100, comptes.get(1L).getSolde(), 0.001);
+        assertTrue(operations.isEmpty());
+    }
+}
@@ -0,0 +1,158 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionRapprochementRepository;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.entities.PositionRapprochement;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.RapportRapprochement;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.GregorianCalendar;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de RapprochementComptes
+ * La "base" contient les comptes 1 à 10, avec 4 opérations chacun (solde recalculé : 100).
+ * Le compte 7 a un solde de 150, les autres de 100. Depuis un repère, seul le compte 3 a changé.
+ */
+class RapprochementComptesUnitTest {
+
+    /**
+     * Recouvrement de deux rapprochements incrémentaux
+     */
+    private static final Duration MARGE = Duration.ofMinutes(5);
+
+    /**
+     * Repositories qu'on va mocker
+     */
+    CompteRepository compteRepository;
+    OperationCompteRepository operationCompteRepository;
+
+    /**
+     * Repère enregistré
+     */
+    AtomicReference<PositionRapprochement> position = new AtomicReference<>();
+
+    /**
+     * Le rapprochement testé : 3 threads, plages de 2 comptes
+     */
+    RapprochementComptes rapprochementComptes;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        compteRepository = mock(CompteRepository.class);
+        when(compteRepository.idMin()).thenReturn(1L);
+        when(compteRepository.idMax()).thenReturn(10L);
+        when(compteRepository.findSoldesPourRapprochement(anyLong(), anyLong(), any())).thenAnswer(invocation ->
+                comptes(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2))
+                        .mapToObj(id -> new Object[]{id, id == 7 ? 150. : 100.}).toList());
+        operationCompteRepository = mock(OperationCompteRepository.class);
+        when(operationCompteRepository.streamPourRapprochement(anyLong(), anyLong(), any())).thenAnswer(invocation ->
+                comptes(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)).boxed()
+                        .flatMap(id -> Stream.of(
+                                operation(id, OperationCompte.OperationType.OUVERTURE, 100),
+                                operation(id, OperationCompte.OperationType.CREDIT, 30),
+                                operation(id, OperationCompte.OperationType.DEBIT, 20),
+                                operation(id, OperationCompte.OperationType.VIREMENT_DEBIT, 10))));
+        PositionRapprochementRepository positionRapprochementRepository = mock(PositionRapprochementRepository.class);
+        when(positionRapprochementRepository.findById(anyInt())).thenAnswer(invocation -> Optional.ofNullable(position.get()));
+        when(positionRapprochementRepository.save(any())).thenAnswer(invocation -> {
+            position.set(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        rapprochementComptes = new RapprochementComptes(compteRepository, operationCompteRepository,
+                positionRapprochementRepository, transactionManager, new SimpleMeterRegistry(), 3, 2, 0.005, 10, MARGE);
+    }
+
+    /**
+     * Tous les comptes sont vérifiés, seul le compte 7 est en écart ; le repère est enregistré
+     */
+    @Test
+    void rapprocherComplet() {
+        RapportRapprochement rapport = rapprochementComptes.rapprocher(false);
+        assertEquals(10, rapport.getComptes());
+        assertEquals(40, rapport.getOperations());
+        assertEquals(1, rapport.getNombreEcarts());
+        assertEquals(7, rapport.getEcarts().get(0).getIdCompte());
+        assertEquals(150., rapport.getEcarts().get(0).getSolde());
+        assertEquals(100., rapport.getEcarts().get(0).getSoldeRecalcule());
+        assertNull(rapport.getDepuis());
+        // plages 1-2, 3, 4-5, 6-7, 8 et 9-10 : chacune est lue dans sa transaction
+        verify(operationCompteRepository, times(6)).streamPourRapprochement(anyLong(), anyLong(), isNull());
+    }
+
+    /**
+     * Le repère enregistré est le début du rapprochement moins la marge : une opération écrite juste avant
+     * le début mais validée après (donc invisible) est écrite après le repère et vérifiée la fois suivante
+     */
+    @Test
+    void repere() {
+        Instant avant = Instant.now();
+        RapportRapprochement rapport = rapprochementComptes.rapprocher(false);
+        Instant repere = position.get().getRepere();
+        assertEquals(repere, rapport.getJusqua());
+        assertFalse(repere.isBefore(avant.minus(MARGE)));
+        assertFalse(repere.isAfter(Instant.now().minus(MARGE)));
+    }
+
+    /**
+     * Un rapprochement incrémental ne vérifie que les comptes modifiés depuis le repère précédent ;
+     * sans repère (premier rapprochement), il est complet
+     */
+    @Test
+    void rapprocherIncremental() {
+        RapportRapprochement rapport = rapprochementComptes.rapprocher(true);
+        assertNull(rapport.getDepuis());
+        assertEquals(10, rapport.getComptes());
+        Instant repere = position.get().getRepere();
+        rapport = rapprochementComptes.rapprocher(true);
+        assertEquals(repere, rapport.getDepuis());
+        assertEquals(1, rapport.getComptes());
+        assertEquals(0, rapport.getNombreEcarts());
+        verify(compteRepository, times(6)).findSoldesPourRapprochement(anyLong(), anyLong(), eq(repere));
+        // les rapprochements successifs se recouvrent
+        assertTrue(position.get().getRepere().isAfter(repere) || position.get().getRepere().equals(repere));
+    }
+
+    /**
+     * Comptes "en base" d'une plage
+     * @param min plus petit id de la plage
+     * @param max plus grand id de la plage
+     * @param depuis repère (null pour tous les comptes)
+     * @return les ids des comptes
+     */
+    private static LongStream comptes(long min, long max, Instant depuis) {
+        return LongStream.rangeClosed(min, max).filter(id -> depuis == null || id == 3);
+    }
+
+    /**
+     * Crée une opération
+     * @param idCompte id du compte
+     * @param type type de l'opération
+     * @param valeur valeur de l'opération
+     * @return l'opération
+     */
+    private static OperationExport operation(long idCompte, OperationCompte.OperationType type, double valeur) {
+        return new OperationExport(0, type, valeur, GregorianCalendar.getInstance(), idCompte);
+    }
+}
@@ -0,0 +1,123 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miage.tpae.dao.CompteRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de RegistreSoldes
+ */
+class RegistreSoldesUnitTest {
+
+    /**
+     * Repository qu'on va mocker
+     */
+    CompteRepository compteRepository;
+
+    /**
+     * Gestionnaire de transactions qu'on va mocker
+     */
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Registre de métriques en mémoire
+     */
+    SimpleMeterRegistry meterRegistry;
+
+    /**
+     * Le registre testé
+     */
+    RegistreSoldes registre;
+
+    /**
+     * Répertoire temporaire pour le fichier du registre
+     */
+    @TempDir
+    Path repertoire;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     * Le registre est rechargé avec deux comptes : 1 (actif) et 2 (clôturé)
+     */
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        compteRepository = mock(CompteRepository.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        when(compteRepository.streamEtats()).thenReturn(Stream.of(
+                new Object[]{1L, 100.0, true, 3L},
+                new Object[]{2L, 0.0, false, 1L}));
+        meterRegistry = new SimpleMeterRegistry();
+        registre = new RegistreSoldes(compteRepository, transactionManager, meterRegistry, true,
+                repertoire.resolve("soldes.bin").toString());
+        registre.start();
+        for (int i = 0; i < 100 && !registre.isPret(); i++)
+            Thread.sleep(50);
+        assertTrue(registre.isPret());
+    }
+
+    /**
+     * Méthode appelée après toute méthode de test
+     */
+    @AfterEach
+    void tearDown() {
+        registre.stop();
+    }
+
+    /**
+     * Les comptes rechargés depuis la base sont lus dans le registre
+     */
+    @Test
+    void chargement() {
+        assertEquals(new RegistreSoldes.EtatCompte(100.0, true, 3L), registre.lire(1L).orElseThrow());
+        assertEquals(new RegistreSoldes.EtatCompte(0.0, false, 1L), registre.lire(2L).orElseThrow());
+        assertTrue(registre.lire(3L).isEmpty());
+        assertEquals(2.0, meterRegistry.get("banque.soldes.comptes").gauge().value());
+    }
+
+    /**
+     * Seules les versions plus récentes que celle du registre sont prises en compte
+     */
+    @Test
+    void ecritureSelonVersion() {
+        assertFalse(registre.ecrire(1L, 50.0, true, 2L));
+        assertFalse(registre.ecrire(1L, 50.0, true, 3L));
+        assertEquals(100.0, registre.lire(1L).orElseThrow().solde());
+        assertTrue(registre.ecrire(1L, 50.0, true, 4L));
+        assertEquals(new RegistreSoldes.EtatCompte(50.0, true, 4L), registre.lire(1L).orElseThrow());
+    }
+
+    /**
+     * Un compte au-delà du premier segment en projette un nouveau
+     */
+    @Test
+    void plusieursSegments() {
+        long id = RegistreSoldes.CASES_PAR_SEGMENT + 5L;
+        assertTrue(registre.lire(id).isEmpty());
+        assertTrue(registre.ecrire(id, 10.0, true, 0L));
+        assertEquals(new RegistreSoldes.EtatCompte(10.0, true, 0L), registre.lire(id).orElseThrow());
+        assertEquals(100.0, registre.lire(1L).orElseThrow().solde());
+    }
+
+    /**
+     * Une fois arrêté, le registre ne sert plus de lectures
+     */
+    @Test
+    void arret() {
+        registre.stop();
+        assertTrue(registre.lire(1L).isEmpty());
+        assertFalse(registre.ecrire(1L, 50.0, true, 10L));
+    }
+}
@@ -0,0 +1,108 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.dao.EvenementOperationRepository;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.EvenementOperation;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.export.OperationExport;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de RelaisEvenements
+ * La boîte d'envoi contient 5 événements, la destination est une liste en mémoire.
+ */
+class RelaisEvenementsUnitTest {
+
+    /**
+     * Événements de la boîte d'envoi "en base"
+     */
+    List<EvenementOperation> boite = new ArrayList<>();
+
+    /**
+     * Opérations reçues par la destination
+     */
+    List<OperationExport> recues = new ArrayList<>();
+
+    /**
+     * La destination échoue-t-elle ?
+     */
+    boolean enPanne;
+
+    /**
+     * Registre des métriques
+     */
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * Le relais testé (lots de 2 événements)
+     */
+    RelaisEvenements relais;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        Compte compte = new Compte();
+        compte.setId(1L);
+        for (long id = 1; id <= 5; id++) {
+            OperationCompte operation = new OperationCompte(compte, OperationCompte.OperationType.CREDIT, id);
+            operation.setId(id * 10);
+            EvenementOperation evenement = new EvenementOperation(operation);
+            evenement.setId(id);
+            boite.add(evenement);
+        }
+        EvenementOperationRepository repository = mock(EvenementOperationRepository.class);
+        when(repository.findLotARelayer(any())).thenAnswer(invocation ->
+                List.copyOf(boite.subList(0, Math.min(boite.size(), invocation.<Limit>getArgument(0).max()))));
+        doAnswer(invocation -> boite.removeAll(invocation.<Collection<?>>getArgument(0)))
+                .when(repository).deleteAllInBatch(any());
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        relais = new RelaisEvenements(repository, operations -> {
+            if (enPanne)
+                throw new IOException("destination indisponible");
+            recues.addAll(operations);
+        }, transactionManager, meterRegistry, 2);
+    }
+
+    /**
+     * Tous les événements sont publiés dans l'ordre puis supprimés de la boîte d'envoi
+     */
+    @Test
+    void relayer() {
+        relais.relayer();
+        assertEquals(List.of(10L, 20L, 30L, 40L, 50L), recues.stream().map(OperationExport::getId).toList());
+        assertTrue(boite.isEmpty());
+        assertEquals(5, meterRegistry.counter("banque.outbox.relayes").count());
+    }
+
+    /**
+     * Un lot non publié reste dans la boîte d'envoi et sera repris
+     */
+    @Test
+    void destinationEnPanne() {
+        enPanne = true;
+        relais.relayer();
+        assertEquals(5, boite.size());
+        assertEquals(1, meterRegistry.counter("banque.outbox.erreurs").count());
+        enPanne = false;
+        relais.relayer();
+        assertEquals(5, recues.size());
+        assertTrue(boite.isEmpty());
+    }
+}
@@ -0,0 +1,195 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miage.tpae.dao.ClientRepository;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionReleveRepository;
+import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.entities.PositionReleve;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.RapportReleves;
+import org.miage.tpae.utilities.PeriodeInvalideException;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire avec Mockito de RelevesMensuels
+ * La "base" contient les clients 1 à 5 ; le client n a le compte 10n (solde 100), le client 2 a aussi le compte 21.
+ * En mars 2026, le compte 10 a reçu un crédit de 30 ; il a été débité de 10 en avril.
+ */
+class RelevesMensuelsUnitTest {
+
+    /**
+     * Mois des relevés
+     */
+    static final YearMonth MOIS = YearMonth.of(2026, 3);
+
+    /**
+     * Répertoire des relevés
+     */
+    @TempDir
+    Path repertoire;
+
+    /**
+     * Avancement enregistré des plages
+     */
+    Map<String, PositionReleve> positions = new ConcurrentHashMap<>();
+
+    /**
+     * Nombre de lectures d'opérations (pour simuler une panne)
+     */
+    AtomicInteger lectures = new AtomicInteger();
+
+    /**
+     * Numéro de la lecture qui échoue (0 pour aucune)
+     */
+    int lectureEnPanne;
+
+    /**
+     * Mocks
+     */
+    ClientRepository clientRepository;
+    CompteRepository compteRepository;
+    OperationCompteRepository operationCompteRepository;
+    PositionReleveRepository positionReleveRepository;
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Méthode appelée avant toute méthode de test
+     */
+    @BeforeEach
+    void setUp() {
+        clientRepository = mock(ClientRepository.class);
+        when(clientRepository.idMin()).thenReturn(1L);
+        when(clientRepository.idMax()).thenReturn(5L);
+        when(clientRepository.findLotPourReleves(anyLong(), anyLong(), any())).thenAnswer(invocation -> {
+            long apres = invocation.getArgument(0);
+            long max = invocation.getArgument(1);
+            Limit limite = invocation.getArgument(2);
+            return LongStream.rangeClosed(apres + 1, Math.min(max, 5)).limit(limite.max())
+                    .mapToObj(id -> new Object[]{id, "Nom" + id, "Prenom" + id}).toList();
+        });
+        compteRepository = mock(CompteRepository.class);
+        when(compteRepository.findPourReleves(anyLong(), anyLong())).thenAnswer(invocation -> {
+            List<Object[]> comptes = new ArrayList<>();
+            for (long idClient = invocation.<Long>getArgument(0); idClient <= invocation.<Long>getArgument(1); idClient++) {
+                comptes.add(new Object[]{idClient, idClient * 10, 100.});
+                if (idClient == 2)
+                    comptes.add(new Object[]{idClient, 21L, 100.});
+            }
+            return comptes;
+        });
+        operationCompteRepository = mock(OperationCompteRepository.class);
+        when(operationCompteRepository.mouvementsPourReleves(any(), any(), anyLong(), anyLong(), any(), any()))
+                .thenAnswer(invocation -> invocation.<Long>getArgument(2) == 1
+                        ? List.<Object[]>of(new Object[]{10L, 20., -10.}) : List.of());
+        when(operationCompteRepository.streamPourReleves(any(), any(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            if (lectures.incrementAndGet() == lectureEnPanne)
+                throw new IllegalStateException("panne");
+            Calendar date = invocation.getArgument(0);
+            return invocation.<Long>getArgument(2) == 1
+                    ? List.of(new OperationExport(1, OperationCompte.OperationType.CREDIT, 30, date, 10)).stream()
+                    : List.<OperationExport>of().stream();
+        });
+        positionReleveRepository = mock(PositionReleveRepository.class);
+        when(positionReleveRepository.findByMoisOrderByPlage(any())).thenAnswer(invocation ->
+                positions.values().stream().filter(p -> p.getMois().equals(invocation.getArgument(0)))
+                        .sorted(Comparator.comparingInt(PositionReleve::getPlage)).toList());
+        when(positionReleveRepository.save(any())).thenAnswer(invocation -> {
+            PositionReleve position = invocation.getArgument(0);
+            positions.put(position.getId(), position);
+            return position;
+        });
+        when(positionReleveRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<PositionReleve> liste = invocation.getArgument(0);
+            liste.forEach(p -> positions.put(p.getId(), p));
+            return liste;
+        });
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+    }
+
+    /**
+     * Crée la génération testée (lots de 2 clients)
+     * @param paralleles nombre de plages traitées en parallèle
+     * @return la génération
+     */
+    RelevesMensuels relevesMensuels(int paralleles) {
+        return new RelevesMensuels(clientRepository, compteRepository, operationCompteRepository,
+                positionReleveRepository, transactionManager, new SimpleMeterRegistry(), repertoire.toString(),
+                paralleles, 2);
+    }
+
+    /**
+     * Un relevé par client, avec les soldes de début et de fin de mois et les opérations du mois
+     */
+    @Test
+    void generer() throws IOException {
+        RapportReleves rapport = relevesMensuels(2).generer(MOIS);
+        assertFalse(rapport.isReprise());
+        assertEquals(5, rapport.getClients());
+        assertEquals(6, rapport.getComptes());
+        assertEquals(1, rapport.getOperations());
+        for (long idClient = 1; idClient <= 5; idClient++)
+            assertTrue(Files.exists(releve(idClient)));
+        String releve = Files.readString(releve(1));
+        assertTrue(releve.contains("Solde au début du mois : 80.00"));
+        assertTrue(releve.contains(" CREDIT 30.00"));
+        assertTrue(releve.contains("Solde à la fin du mois : 110.00"));
+        assertTrue(Files.readString(releve(2)).contains("Compte 21"));
+        // le mois est déjà traité
+        assertEquals(0, relevesMensuels(2).generer(MOIS).getClients());
+    }
+
+    /**
+     * Une génération interrompue reprend après le dernier lot écrit
+     */
+    @Test
+    void reprise() {
+        lectureEnPanne = 2;
+        RelevesMensuels relevesMensuels = relevesMensuels(1);
+        assertThrows(IllegalStateException.class, () -> relevesMensuels.generer(MOIS));
+        assertTrue(Files.exists(releve(2)));
+        assertFalse(Files.exists(releve(3)));
+        RapportReleves rapport = relevesMensuels.generer(MOIS);
+        assertTrue(rapport.isReprise());
+        assertEquals(3, rapport.getClients());
+        assertTrue(Files.exists(releve(5)));
+    }
+
+    /**
+     * Les relevés du mois en cours ne peuvent pas être générés
+     */
+    @Test
+    void moisEnCours() {
+        assertThrows(PeriodeInvalideException.class, () -> relevesMensuels(1).generer(YearMonth.now()));
+        verifyNoInteractions(clientRepository);
+    }
+
+    /**
+     * Fichier du relevé d'un client
+     * @param idClient id du client
+     * @return le chemin du fichier
+     */
+    Path releve(long idClient) {
+        return repertoire.resolve(MOIS.toString()).resolve("0").resolve("client-" + idClient + ".txt");
+    }
+}
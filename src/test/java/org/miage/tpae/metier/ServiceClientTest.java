@@ -3,10 +3,15 @@ package org.miage.tpae.metier;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.miage.tpae.dao.ClientRepository;
+import org.miage.tpae.dao.CompteRepository;
 import org.miage.tpae.entities.Client;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.export.ClientExport;
+import org.miage.tpae.export.CompteExport;
 import org.miage.tpae.utilities.ClientInexistant;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
 
 import java.util.List;
 
@@ -27,6 +32,18 @@ class ServiceClientTest {
     @Autowired
     ClientRepository clientRepository;
 
+    /**
+     * CompteRepository qui sera injecté par DataJpaTest
+     */
+    @Autowired
+    CompteRepository compteRepository;
+
+    /**
+     * EntityManager de test injecté par DataJpaTest
+     */
+    @Autowired
+    TestEntityManager entityManager;
+
     /**
      * On construira le service client avec le repository injecté
      */
@@ -38,7 +55,7 @@ class ServiceClientTest {
     @BeforeEach
     void setup() {
         // on construit le service client avec le repository injecté
-        serviceClient = new ServiceClient(clientRepository);
+        serviceClient = new ServiceClient(clientRepository, compteRepository);
     }
 
 
@@ -81,4 +98,35 @@ class ServiceClientTest {
         // on vérifie que ça lance bien l'exception ClientInexistant
         assertThrows(ClientInexistant.class, () -> serviceClient.recupererClient(9999L));
     }
+
+    /**
+     * Test des méthodes consulterClient et listerComptes
+     */
+    @Test
+    void consulterClient() {
+        // on crée un client avec un compte
+        Client client = serviceClient.creerClient("Jeanne", "Test");
+        Compte compte = new Compte();
+        compte.setClient(client);
+        compte.setSolde(500);
+        compte = compteRepository.save(compte);
+        // le compte n'a été ajouté que côté Compte : on relit le client depuis la BD
+        // (sinon le contexte de persistance rendrait le même objet Client, sans ce compte)
+        entityManager.flush();
+        entityManager.clear();
+        // le client et son compte sont lus ensemble
+        ClientExport export = serviceClient.consulterClient(client.getId());
+        assertEquals("Jeanne", export.getPrenom());
+        assertEquals(1, export.getComptes().size());
+        assertEquals(compte.getId(), export.getComptes().get(0).getId());
+        // la liste des comptes seule
+        List<CompteExport> comptes = serviceClient.listerComptes(client.getId());
+        assertEquals(1, comptes.size());
+        assertEquals(500, comptes.get(0).getSolde(), 0.001);
+        // un client sans compte et un client inexistant
+        Client sansCompte = serviceClient.creerClient("Paul", "Test");
+        assertTrue(serviceClient.listerComptes(sansCompte.getId()).isEmpty());
+        assertThrows(ClientInexistant.class, () -> serviceClient.consulterClient(9999L));
+        assertThrows(ClientInexistant.class, () -> serviceClient.listerComptes(9999L));
+    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package org.miage.tpae.metier;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.miage.tpae.dao.ClientRepository;
+import org.miage.tpae.dao.CompteRepository;
 import org.miage.tpae.entities.Client;
 import org.miage.tpae.utilities.ClientInexistant;
 
@@ -37,7 +38,7 @@ class ServiceClientUnitTest {
         // mock du repo
         clientRepository = mock(ClientRepository.class);
         // création du service métier avec le mock
-        serviceClient = new ServiceClient(clientRepository);
+        serviceClient = new ServiceClient(clientRepository, mock(CompteRepository.class));
     }
 
     /**
@@ -0,0 +1,112 @@
+package org.miage.tpae.metier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.dao.ClientRepository;
+import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.entities.Client;
+import org.miage.tpae.entities.Compte;
+import org.miage.tpae.export.VirementLotImport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe de test du registre des soldes tenu à jour par ServiceCompte
+ *
+ * C'est un test d'intégration avec la BD H2 en mémoire : ServiceCompte est le vrai bean (transactionnel)
+ * et le registre reçoit les modifications après la validation des transactions, comme dans l'application.
+ * Chaque méthode de ServiceCompte qui modifie un compte doit laisser le registre identique à la base
+ * (solde, état et version), sinon les consultations serviraient un solde périmé.
+ */
+@DataJpaTest(properties = {"banque.soldes.actif=true", "banque.soldes.fichier=target/tpae-soldes-test.bin"})
+@Import({ServiceCompte.class, ExecuteurTransactionnel.class, JournalConsultations.class, RegistreSoldes.class,
+        MoteurComptes.class, BoiteEnvoi.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // chaque appel du service valide sa transaction
+class ServiceCompteRegistreTest {
+
+    @Autowired
+    ServiceCompte serviceCompte;
+
+    @Autowired
+    RegistreSoldes registreSoldes;
+
+    @Autowired
+    ClientRepository clientRepository;
+
+    @Autowired
+    CompteRepository compteRepository;
+
+    /**
+     * Un client de test
+     */
+    Client client;
+
+    /**
+     * Méthode exécutée avant chaque test : attend la fin du rechargement du registre
+     */
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        for (int i = 0; i < 100 && !registreSoldes.isPret(); i++)
+            Thread.sleep(50);
+        assertTrue(registreSoldes.isPret());
+        client = new Client();
+        client.setNom("Registre");
+        client.setPrenom("Jean");
+        client = clientRepository.save(client);
+    }
+
+    /**
+     * Ouverture, crédit, débit, virement, lot de virements et clôture sont vus par le registre
+     */
+    @Test
+    void modificationsVuesParLeRegistre() {
+        Compte compte = serviceCompte.ouvrir(client.getId(), 100);
+        verifierRegistre(compte.getId(), 100, true);
+        Compte compte2 = serviceCompte.ouvrir(client.getId(), 0);
+        verifierRegistre(compte2.getId(), 0, true);
+
+        serviceCompte.crediter(compte.getId(), 50);
+        verifierRegistre(compte.getId(), 150, true);
+
+        serviceCompte.debiter(compte.getId(), 30);
+        verifierRegistre(compte.getId(), 120, true);
+
+        serviceCompte.virer(compte.getId(), compte2.getId(), 20);
+        verifierRegistre(compte.getId(), 100, true);
+        verifierRegistre(compte2.getId(), 20, true);
+
+        serviceCompte.virerLot(List.of(new VirementLotImport(compte2.getId(), compte.getId(), 5)).iterator(), 10,
+                resultat -> assertTrue(resultat.isEffectue()));
+        verifierRegistre(compte.getId(), 105, true);
+        verifierRegistre(compte2.getId(), 15, true);
+
+        serviceCompte.fermer(compte2.getId());
+        verifierRegistre(compte2.getId(), 15, false);
+        // les consultations sont servies par le registre
+        assertEquals(105, serviceCompte.consulter(compte.getId()).getSolde(), 0.001);
+    }
+
+    /**
+     * Vérifie que le registre a le même état que la base pour un compte
+     * @param idCompte id du compte
+     * @param solde solde attendu
+     * @param actif état attendu
+     */
+    void verifierRegistre(long idCompte, double solde, boolean actif) {
+        Compte compte = compteRepository.findById(idCompte).orElseThrow();
+        assertEquals(solde, compte.getSolde(), 0.001);
+        assertEquals(actif, compte.isActif());
+        RegistreSoldes.EtatCompte etat = registreSoldes.lire(idCompte).orElseThrow();
+        assertEquals(solde, etat.solde(), 0.001);
+        assertEquals(actif, etat.actif());
+        assertEquals(compte.getVersion(), etat.version());
+    }
+}
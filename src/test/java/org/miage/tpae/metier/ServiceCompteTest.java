@@ -1,19 +1,36 @@
 package org.miage.tpae.metier;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.miage.tpae.dao.ClientRepository;
 import org.miage.tpae.dao.CompteRepository;
+import org.miage.tpae.dao.EvenementOperationRepository;
 import org.miage.tpae.dao.OperationCompteRepository;
+import org.miage.tpae.dao.PositionJournalRepository;
 import org.miage.tpae.entities.Client;
 import org.miage.tpae.entities.Compte;
+import org.miage.tpae.entities.EvenementOperation;
 import org.miage.tpae.entities.OperationCompte;
+import org.miage.tpae.export.OperationExport;
+import org.miage.tpae.export.PageOperations;
 import org.miage.tpae.export.Position;
+import org.miage.tpae.export.Releve;
+import org.miage.tpae.export.ResultatVirement;
+import org.miage.tpae.export.VirementLotImport;
 import org.miage.tpae.utilities.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -45,6 +62,35 @@ class ServiceCompteTest {
     @Autowired
     OperationCompteRepository operationCompteRepository;
 
+    /**
+     * PositionJournalRepository sera injecté par DataJpaTest
+     */
+    @Autowired
+    PositionJournalRepository positionJournalRepository;
+
+    /**
+     * EvenementOperationRepository sera injecté par DataJpaTest
+     */
+    @Autowired
+    EvenementOperationRepository evenementOperationRepository;
+
+    /**
+     * Fabrique d'EntityManager injectée par DataJpaTest
+     */
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Gestionnaire de transactions injecté par DataJpaTest
+     */
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Journal des consultations (son écrivain n'est pas démarré : on le vide à la main)
+     */
+    JournalConsultations journalConsultations;
+
     /**
      * On construira le service compte avec les repositories injectés
      */
@@ -61,7 +107,17 @@ class ServiceCompteTest {
     @BeforeEach
     void setUp() {
         // On construit le service compte avec les repositories injectés
-        serviceCompte = new ServiceCompte(clientRepository, compteRepository, operationCompteRepository);
+        journalConsultations = new JournalConsultations(compteRepository, operationCompteRepository, entityManagerFactory, transactionManager,
+                new ExecuteurTransactionnel(transactionManager, new SimpleMeterRegistry(), 5, 10, 200),
+                new SimpleMeterRegistry(), DurabiliteConsultation.FIABLE, 100, 10, Duration.ofSeconds(1));
+        serviceCompte = new ServiceCompte(clientRepository, compteRepository, operationCompteRepository,
+                new ExecuteurTransactionnel(transactionManager, new SimpleMeterRegistry(), 5, 10, 200),
+                ModeVerrouillage.PESSIMISTE, journalConsultations,
+                new RegistreSoldes(compteRepository, transactionManager, new SimpleMeterRegistry(), false, "inutilise"),
+                evenement -> { },
+                new MoteurComptes(compteRepository, operationCompteRepository, positionJournalRepository, transactionManager, evenement -> { },
+                        new BoiteEnvoi(evenementOperationRepository, evenement -> { }), new SimpleMeterRegistry(), false, 1, "inutilise", false, 10, 10, 1024),
+                new BoiteEnvoi(evenementOperationRepository, evenement -> { }));
         // On crée un client de test
         client = new Client();
         client.setNom("Test");
@@ -138,8 +194,17 @@ class ServiceCompteTest {
         assertNotNull(position);
         // on vérifie que le solde est ok
         assertEquals(compte.getSolde(), position.getSolde(), 0.1);
-        // on vérifie que la date de dernière opération est ok
-        assertEquals(compte.getDateInterrogation(), position.getDateInterrogation());
+        // la consultation n'est pas encore écrite : seule l'ouverture est dans l'historique
+        assertEquals(1, serviceCompte.recupererOperations(compte.getId()).size());
+        // on écrit les consultations en attente
+        journalConsultations.vider();
+        // on vérifie que l'opération de consultation a bien été écrite
+        Collection<OperationCompte> operations = serviceCompte.recupererOperations(compte.getId());
+        assertEquals(2, operations.size());
+        assertTrue(operations.stream().anyMatch(o -> o.getOperationType() == OperationCompte.OperationType.CONSULTATION));
+        // on vérifie que la date de dernière interrogation est ok
+        Compte relu = compteRepository.findById(compte.getId()).orElseThrow();
+        assertEquals(position.getDateInterrogation().getTimeInMillis(), relu.getDateInterrogation().getTimeInMillis());
         // on tente de consulter un compte inexistant
         // on vérifie que ça lance bien l'exception CompteInconnuException
         assertThrows(CompteInconnuException.class, () -> serviceCompte.consulter(9999L));
@@ -161,9 +226,12 @@ class ServiceCompteTest {
         assertNotNull(compte.getId());
         assertEquals(compte.getSolde(), solde, 0.1);
         // on appelle la méthode
-        serviceCompte.debiter(compte.getId(), 100);
+        Position apresDebit = serviceCompte.debiter(compte.getId(), 100);
         // on modifie la variable référence
         solde -= 100;
+        // on vérifie la position renvoyée par le débit
+        assertEquals(solde, apresDebit.getSolde(), 0.1);
+        assertNotNull(apresDebit.getDateInterrogation());
         // on consulte le compte
         Position position = serviceCompte.consulter(compte.getId());
         // on vérifie que le solde est bien modifié
@@ -199,13 +267,18 @@ class ServiceCompteTest {
         assertNotNull(compte.getId());
         assertEquals(compte.getSolde(), solde, 0.1);
         // on appelle la méthode
-        serviceCompte.crediter(compte.getId(), 100);
+        Position apresCredit = serviceCompte.crediter(compte.getId(), 100);
         // on modifie la variable référence
         solde += 100;
+        // on vérifie la position renvoyée par le crédit
+        assertEquals(solde, apresCredit.getSolde(), 0.1);
         // on consulte le compte
         Position position = serviceCompte.consulter(compte.getId());
         // on vérifie que le solde est bien modifié
         assertEquals(solde, position.getSolde(), 0.1);
+        // l'ouverture et le crédit sont dans la boîte d'envoi (pas la consultation)
+        assertEquals(List.of(OperationCompte.OperationType.OUVERTURE, OperationCompte.OperationType.CREDIT),
+                evenementOperationRepository.findAll(Sort.by("id")).stream().map(EvenementOperation::getOperationType).toList());
         // on tente de créditer un compte inexistant
         // on vérifie que ça lance bien l'exception CompteInconnuException
         assertThrows(CompteInconnuException.class,
@@ -235,8 +308,9 @@ class ServiceCompteTest {
         Compte compte2 = serviceCompte.ouvrir(client.getId(), solde);
         assertNotNull(compte2.getId());
         assertEquals(compte2.getSolde(), solde, 0.1);
-        // on teste la méthode
-        serviceCompte.virer(compte.getId(), compte2.getId(), 100);
+        // on teste la méthode : la position renvoyée est celle du compte débité
+        Position apresVirement = serviceCompte.virer(compte.getId(), compte2.getId(), 100);
+        assertEquals(solde-100, apresVirement.getSolde(), 0.1);
         // on vérifie que les deux soldes sont bien modifiés
         Position position = serviceCompte.consulter(compte.getId());
         assertEquals(solde-100, position.getSolde(), 0.1);
@@ -266,6 +340,40 @@ class ServiceCompteTest {
         assertThrows(CompteClotureException.class, () -> serviceCompte.virer(compte.getId(), compte2.getId(), 1000000));
     }
 
+    /**
+     * Test de la méthode virerLot
+     */
+    @Test
+    void virerLot() {
+        // on crée 2 comptes
+        double solde = 1000;
+        Compte compte = serviceCompte.ouvrir(client.getId(), solde);
+        Compte compte2 = serviceCompte.ouvrir(client.getId(), solde);
+        // un lot avec deux virements corrects et trois virements refusés
+        List<VirementLotImport> virements = List.of(
+                new VirementLotImport(compte.getId(), compte2.getId(), 100),
+                new VirementLotImport(compte.getId(), 9999L, 100),
+                new VirementLotImport(compte.getId(), compte2.getId(), 1000000),
+                new VirementLotImport(compte2.getId(), compte.getId(), -100),
+                new VirementLotImport(compte2.getId(), compte.getId(), 50));
+        List<ResultatVirement> resultats = new ArrayList<>();
+        // on teste la méthode avec des paquets de 2 virements
+        serviceCompte.virerLot(virements.iterator(), 2, resultats::add);
+        // on vérifie qu'on a un résultat par virement, dans l'ordre
+        assertEquals(virements.size(), resultats.size());
+        for (int i = 0; i < resultats.size(); i++)
+            assertEquals(i, resultats.get(i).getNumero());
+        // on vérifie les virements effectués et les erreurs
+        assertTrue(resultats.get(0).isEffectue());
+        assertEquals(CompteInconnuException.class.getName(), resultats.get(1).getErreur().getExceptionType());
+        assertEquals(SoldeInsuffisantException.class.getName(), resultats.get(2).getErreur().getExceptionType());
+        assertEquals(MontantInvalidException.class.getName(), resultats.get(3).getErreur().getExceptionType());
+        assertTrue(resultats.get(4).isEffectue());
+        // on vérifie que les deux soldes sont bien modifiés
+        assertEquals(solde - 50, serviceCompte.consulter(compte.getId()).getSolde(), 0.1);
+        assertEquals(solde + 50, serviceCompte.consulter(compte2.getId()).getSolde(), 0.1);
+    }
+
     /**
      * Test de la méthode recupererOperations
      */
@@ -296,4 +404,81 @@ class ServiceCompteTest {
         // on vérifie que ça lance bien l'exception CompteInconnuException
         assertThrows(CompteInconnuException.class, () -> serviceCompte.recupererOperations(9999L));
     }
-}
\ No newline at end of file
+
+    /**
+     * Test de la méthode recupererOperations paginée
+     */
+    @Test
+    void recupererPageOperations() {
+        // on crée un compte avec 5 opérations : l'ouverture et 4 crédits
+        Compte compte = serviceCompte.ouvrir(client.getId(), 1000);
+        for (int i = 1; i <= 4; i++)
+            serviceCompte.crediter(compte.getId(), i);
+        // on parcourt l'historique par pages de 2 opérations
+        List<OperationExport> operations = new ArrayList<>();
+        int pages = 0;
+        Long apres = 0L;
+        while (apres != null) {
+            PageOperations page = serviceCompte.recupererOperations(compte.getId(), apres, 2);
+            operations.addAll(page.getOperations());
+            apres = page.getSuivant();
+            pages++;
+        }
+        // 2 pages pleines, puis une page avec la dernière opération
+        assertEquals(3, pages);
+        assertEquals(5, operations.size());
+        // les opérations sont dans l'ordre des ids, sans doublon
+        for (int i = 1; i < operations.size(); i++)
+            assertTrue(operations.get(i - 1).getId() < operations.get(i).getId());
+        assertEquals(OperationCompte.OperationType.OUVERTURE, operations.get(0).getOperationType());
+        assertEquals(4, operations.get(4).getValeur(), 0.1);
+        // le parcours complet renvoie les mêmes opérations
+        List<OperationExport> toutes = new ArrayList<>();
+        serviceCompte.parcourirOperations(compte.getId(), toutes::add);
+        assertEquals(operations, toutes);
+        // on vérifie que ça lance bien l'exception CompteInconnuException
+        assertThrows(CompteInconnuException.class, () -> serviceCompte.recupererOperations(9999L, 0, 2));
+        assertThrows(CompteInconnuException.class, () -> serviceCompte.parcourirOperations(9999L, o -> {}));
+    }
+
+    /**
+     * Test de la méthode releve
+     */
+    @Test
+    void releve() {
+        // on crée un compte avec une ouverture, un crédit et un débit aujourd'hui
+        Compte compte = serviceCompte.ouvrir(client.getId(), 1000);
+        serviceCompte.crediter(compte.getId(), 200);
+        serviceCompte.debiter(compte.getId(), 50);
+        Calendar hier = jour(-1), demain = jour(1);
+        // la période qui contient les opérations
+        Releve releve = serviceCompte.releve(compte.getId(), hier, demain);
+        assertEquals(0, releve.getSoldeInitial(), 0.1);
+        assertEquals(1150, releve.getSoldeFinal(), 0.1);
+        assertEquals(3, releve.getTotaux().size());
+        assertTrue(releve.getTotaux().stream().anyMatch(t ->
+                t.getOperationType() == OperationCompte.OperationType.CREDIT && t.getNombre() == 1 && t.getTotal() == 200));
+        // une période après les opérations
+        releve = serviceCompte.releve(compte.getId(), demain, jour(2));
+        assertEquals(1150, releve.getSoldeInitial(), 0.1);
+        assertEquals(1150, releve.getSoldeFinal(), 0.1);
+        assertTrue(releve.getTotaux().isEmpty());
+        // une période avant l'ouverture
+        releve = serviceCompte.releve(compte.getId(), jour(-2), hier);
+        assertEquals(0, releve.getSoldeFinal(), 0.1);
+        // on vérifie que ça lance bien les exceptions
+        assertThrows(PeriodeInvalideException.class, () -> serviceCompte.releve(compte.getId(), demain, hier));
+        assertThrows(CompteInconnuException.class, () -> serviceCompte.releve(9999L, hier, demain));
+    }
+
+    /**
+     * Retourne une date décalée d'un nombre de jours par rapport à maintenant
+     * @param jours nombre de jours
+     * @return la date
+     */
+    private static Calendar jour(int jours) {
+        Calendar date = GregorianCalendar.getInstance();
+        date.add(Calendar.DAY_OF_MONTH, jours);
+        return date;
+    }
+}
@@ -0,0 +1,53 @@
+package org.miage.tpae.metier;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitaire de TraitementParPlages
+ */
+class TraitementParPlagesUnitTest {
+
+    /**
+     * Découpage des ids en plages
+     */
+    @Test
+    void decouper() {
+        List<long[]> plages = TraitementParPlages.decouper(1, 10, 3);
+        assertEquals(3, plages.size());
+        assertArrayEquals(new long[]{1, 4}, plages.get(0));
+        assertArrayEquals(new long[]{9, 10}, plages.get(2));
+        // pas d'id : une seule plage vide
+        assertEquals(1, TraitementParPlages.decouper(0, 0, 4).size());
+        // moins d'ids que de plages
+        assertEquals(2, TraitementParPlages.decouper(5, 6, 4).size());
+    }
+
+    /**
+     * Les plages sont traitées chacune dans son thread et les résultats sont rendus dans l'ordre des plages
+     */
+    @Test
+    void traiter() {
+        List<String> resultats = TraitementParPlages.traiter("test", List.of(3, 1, 2),
+                plage -> plage + "@" + Thread.currentThread().getName().substring(0, 5));
+        assertEquals(List.of("3@test-", "1@test-", "2@test-"), resultats);
+        assertTrue(TraitementParPlages.traiter("test", List.<Integer>of(), plage -> plage).isEmpty());
+    }
+
+    /**
+     * L'exception d'une plage est relancée telle quelle
+     */
+    @Test
+    void traiterEchec() {
+        IllegalStateException exception = assertThrows(IllegalStateException.class,
+                () -> TraitementParPlages.traiter("test", List.of(1, 2), plage -> {
+                    if (plage == 2)
+                        throw new IllegalStateException("plage " + plage);
+                    return plage;
+                }));
+        assertEquals("plage 2", exception.getMessage());
+    }
+}
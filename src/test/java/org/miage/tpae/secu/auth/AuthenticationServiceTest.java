@@ -0,0 +1,78 @@
+package org.miage.tpae.secu.auth;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.secu.config.JwtService;
+import org.miage.tpae.secu.config.ParsedToken;
+import org.miage.tpae.secu.config.RevocationList;
+import org.miage.tpae.secu.config.VerifiedTokenCache;
+import org.miage.tpae.secu.token.TokenRepository;
+import org.miage.tpae.secu.user.Role;
+import org.miage.tpae.secu.user.User;
+import org.miage.tpae.secu.user.UserRepository;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire de l'authentification en mode sans état
+ */
+class AuthenticationServiceTest {
+
+  // liste des révocations (mockée)
+  RevocationList revocationList;
+  // service des jetons (mocké)
+  JwtService jwtService;
+  // service testé
+  AuthenticationService authenticationService;
+
+  /**
+   * Création du service en mode sans état pour un utilisateur existant
+   */
+  @BeforeEach
+  void setUp() {
+    User user = User.builder().email("a@miage.fr").role(Role.USER).build();
+    UserRepository userRepository = mock(UserRepository.class);
+    when(userRepository.findByEmail("a@miage.fr")).thenReturn(Optional.of(user));
+    jwtService = mock(JwtService.class);
+    when(jwtService.isStateless()).thenReturn(true);
+    when(jwtService.generateToken(any())).thenReturn("jeton");
+    when(jwtService.generateRefreshToken(any())).thenReturn("rafraichissement");
+    revocationList = mock(RevocationList.class);
+    authenticationService = new AuthenticationService(userRepository, mock(TokenRepository.class),
+        mock(PasswordEncoder.class), jwtService, mock(AuthenticationManager.class),
+        mock(VerifiedTokenCache.class), revocationList);
+  }
+
+  /**
+   * Chaque authentification révoque les jetons plus anciens de l'utilisateur, même si cette instance
+   * ne lui a délivré aucun jeton (autre instance, redémarrage)
+   */
+  @Test
+  void authenticateRevoqueLesAnciensJetons() {
+    Instant premier = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    Instant second = premier.plusSeconds(1);
+    when(jwtService.parseToken("jeton")).thenReturn(token(premier), token(second));
+    authenticationService.authenticate(new AuthenticationRequest("a@miage.fr", "1234"));
+    verify(revocationList).revokeUser("a@miage.fr", premier);
+    authenticationService.authenticate(new AuthenticationRequest("a@miage.fr", "1234"));
+    verify(revocationList).revokeUser("a@miage.fr", second);
+  }
+
+  /**
+   * Construit un jeton d'accès de l'utilisateur
+   * @param issuedAt date de création
+   * @return le jeton
+   */
+  ParsedToken token(Instant issuedAt) {
+    return new ParsedToken(issuedAt.toString(), "a@miage.fr", JwtService.ACCESS_TYPE, List.of(),
+        issuedAt, issuedAt.plusSeconds(3600));
+  }
+}
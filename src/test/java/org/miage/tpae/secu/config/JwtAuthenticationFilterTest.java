@@ -0,0 +1,107 @@
+package org.miage.tpae.secu.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.secu.token.TokenRepository;
+import org.miage.tpae.secu.token.TokenRevocationRepository;
+import org.miage.tpae.secu.user.Role;
+import org.miage.tpae.secu.user.User;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire du filtre d'authentification en mode sans état : aucune requête en BD
+ */
+class JwtAuthenticationFilterTest {
+
+  // service des jetons (vrai service, en mode sans état)
+  JwtService jwtService;
+  // mocks qui ne doivent pas être utilisés
+  UserDetailsService userDetailsService;
+  TokenRepository tokenRepository;
+  TokenRevocationRepository tokenRevocationRepository;
+  // liste des révocations
+  RevocationList revocationList;
+  // filtre testé
+  JwtAuthenticationFilter filter;
+  // utilisateur des jetons
+  User user;
+
+  /**
+   * Création du filtre
+   */
+  @BeforeEach
+  void setUp() {
+    jwtService = JwtServiceTest.service(JwtServiceTest.cle(), 3_600_000L);
+    ReflectionTestUtils.setField(jwtService, "stateless", true);
+    userDetailsService = mock(UserDetailsService.class);
+    tokenRepository = mock(TokenRepository.class);
+    tokenRevocationRepository = mock(TokenRevocationRepository.class);
+    when(tokenRevocationRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    revocationList = new RevocationList(jwtService, tokenRevocationRepository, Duration.ofMinutes(1));
+    filter = new JwtAuthenticationFilter(jwtService, userDetailsService, tokenRepository,
+        new VerifiedTokenCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(5)), revocationList);
+    user = User.builder().email("filtre@miage.fr").role(Role.ADMIN).build();
+  }
+
+  /**
+   * Nettoyage du contexte de sécurité
+   */
+  @AfterEach
+  void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  /**
+   * Un jeton d'accès est accepté avec les autorités qu'il porte, sans aucune requête en BD
+   */
+  @Test
+  void jetonAcces() throws Exception {
+    Authentication authentication = filtrer(jwtService.generateToken(user));
+    assertNotNull(authentication);
+    assertEquals("filtre@miage.fr", authentication.getName());
+    assertEquals(Role.ADMIN.name(), authentication.getAuthorities().iterator().next().getAuthority());
+    verifyNoInteractions(userDetailsService, tokenRepository, tokenRevocationRepository);
+  }
+
+  /**
+   * Un jeton révoqué ou un jeton de rafraichissement n'authentifie pas
+   */
+  @Test
+  void jetonsRefuses() throws Exception {
+    String jwt = jwtService.generateToken(user);
+    revocationList.revoke(jwtService.parseToken(jwt));
+    assertNull(filtrer(jwt));
+    assertNull(filtrer(jwtService.generateRefreshToken(user)));
+    verifyNoInteractions(userDetailsService, tokenRepository);
+  }
+
+  /**
+   * Passe une requête dans le filtre
+   * @param jwt jeton de la requête
+   * @return l'authentification obtenue (null si aucune)
+   */
+  Authentication filtrer(String jwt) throws Exception {
+    SecurityContextHolder.clearContext();
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/clients/1");
+    request.setServletPath("/api/clients/1");
+    request.addHeader("Authorization", "Bearer " + jwt);
+    MockFilterChain chain = new MockFilterChain();
+    filter.doFilter(request, new MockHttpServletResponse(), chain);
+    assertNotNull(chain.getRequest());
+    return SecurityContextHolder.getContext().getAuthentication();
+  }
+}
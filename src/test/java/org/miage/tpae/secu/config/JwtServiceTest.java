@@ -0,0 +1,112 @@
+package org.miage.tpae.secu.config;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.io.Encoders;
+import io.jsonwebtoken.security.WeakKeyException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.secu.user.Role;
+import org.miage.tpae.secu.user.User;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitaire de JwtService (clé et parseur construits une fois, jeton vérifié une seule fois)
+ */
+class JwtServiceTest {
+
+  // service testé
+  JwtService jwtService;
+  // utilisateur des jetons
+  User user;
+
+  /**
+   * Création du service avec une clé de 256 bits
+   */
+  @BeforeEach
+  void setUp() {
+    jwtService = service(cle(), 3_600_000L);
+    user = User.builder().email("jwt@miage.fr").role(Role.USER).build();
+  }
+
+  /**
+   * Un jeton d'accès est vérifié une fois et porte l'utilisateur, ses autorités, son type et un identifiant
+   */
+  @Test
+  void parseToken() {
+    ParsedToken token = jwtService.parseToken(jwtService.generateToken(user));
+    assertEquals("jwt@miage.fr", token.username());
+    assertTrue(token.isAccessToken());
+    assertEquals(1, token.authorities().size());
+    assertEquals(Role.USER.name(), token.authorities().get(0));
+    assertNotNull(token.id());
+    assertNotNull(token.issuedAt());
+    assertFalse(token.isExpired());
+    assertTrue(jwtService.isTokenValid(token, user));
+    assertFalse(jwtService.isTokenValid(token, User.builder().email("autre@miage.fr").role(Role.USER).build()));
+    // chaque jeton a son propre identifiant
+    assertNotEquals(token.id(), jwtService.parseToken(jwtService.generateToken(user)).id());
+  }
+
+  /**
+   * Un jeton de rafraichissement n'est pas un jeton d'accès
+   */
+  @Test
+  void refreshToken() {
+    ParsedToken token = jwtService.parseToken(jwtService.generateRefreshToken(user));
+    assertEquals(JwtService.REFRESH_TYPE, token.type());
+    assertFalse(token.isAccessToken());
+    assertTrue(token.authorities().isEmpty());
+  }
+
+  /**
+   * Un jeton modifié, signé avec une autre clé ou expiré est refusé
+   */
+  @Test
+  void jetonsInvalides() {
+    String jwt = jwtService.generateToken(user);
+    String modifie = jwt.substring(0, jwt.length() - 2) + (jwt.endsWith("AA") ? "BB" : "AA");
+    assertThrows(JwtException.class, () -> jwtService.parseToken(modifie));
+    String autreCle = service(cle(), 3_600_000L).generateToken(user);
+    assertThrows(JwtException.class, () -> jwtService.parseToken(autreCle));
+    String expire = service((String) ReflectionTestUtils.getField(jwtService, "secretKey"), -1_000L).generateToken(user);
+    assertThrows(ExpiredJwtException.class, () -> jwtService.parseToken(expire));
+  }
+
+  /**
+   * Une clé trop courte pour HS256 est refusée dès le démarrage
+   */
+  @Test
+  void cleTropCourte() {
+    assertThrows(WeakKeyException.class, () -> service("000000", 3_600_000L));
+  }
+
+  /**
+   * Génère une clé secrète aléatoire de 256 bits (base 64)
+   * @return la clé
+   */
+  static String cle() {
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    return Encoders.BASE64.encode(secret);
+  }
+
+  /**
+   * Crée un service initialisé comme au démarrage
+   * @param secretKey clé secrète (base 64)
+   * @param expiration durée de validité des jetons en ms
+   * @return le service
+   */
+  static JwtService service(String secretKey, long expiration) {
+    JwtService service = new JwtService();
+    ReflectionTestUtils.setField(service, "secretKey", secretKey);
+    ReflectionTestUtils.setField(service, "jwtExpiration", expiration);
+    ReflectionTestUtils.setField(service, "refreshExpiration", expiration);
+    service.init();
+    return service;
+  }
+}
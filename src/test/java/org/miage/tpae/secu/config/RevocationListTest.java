@@ -0,0 +1,123 @@
+package org.miage.tpae.secu.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.secu.token.TokenRevocation;
+import org.miage.tpae.secu.token.TokenRevocationRepository;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire de la liste des révocations (mode sans état)
+ */
+class RevocationListTest {
+
+  // marge de relecture des révocations
+  private static final Duration OVERLAP = Duration.ofMinutes(1);
+  // durée de validité des jetons d'accès (1 h)
+  private static final long EXPIRATION = 3_600_000L;
+
+  // repo des révocations (mocké)
+  TokenRevocationRepository repository;
+  // liste testée
+  RevocationList revocationList;
+
+  /**
+   * Création de la liste, chargée au démarrage depuis un repo vide
+   */
+  @BeforeEach
+  void setUp() {
+    JwtService jwtService = mock(JwtService.class);
+    when(jwtService.isStateless()).thenReturn(true);
+    when(jwtService.getJwtExpiration()).thenReturn(EXPIRATION);
+    repository = mock(TokenRevocationRepository.class);
+    when(repository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    revocationList = new RevocationList(jwtService, repository, OVERLAP);
+    revocationList.load();
+  }
+
+  /**
+   * La déconnexion révoque le seul jeton concerné et l'enregistre en BD
+   */
+  @Test
+  void revoke() {
+    ParsedToken token = token("a@miage.fr", "jti-1", Instant.now());
+    revocationList.revoke(token);
+    verify(repository).save(argThat(r -> "jti-1".equals(r.getJti()) && r.getEmail() == null));
+    assertTrue(revocationList.isRevoked(token));
+    assertFalse(revocationList.isRevoked(token("a@miage.fr", "jti-2", Instant.now())));
+  }
+
+  /**
+   * Une révocation d'utilisateur révoque ses jetons créés avant la date (à la seconde près)
+   */
+  @Test
+  void revokeUser() {
+    Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    revocationList.revokeUser("a@miage.fr", now);
+    assertTrue(revocationList.isRevoked(token("a@miage.fr", "ancien", now.minusSeconds(10))));
+    assertFalse(revocationList.isRevoked(token("a@miage.fr", "nouveau", now)));
+    assertFalse(revocationList.isRevoked(token("b@miage.fr", "autre", now.minusSeconds(10))));
+  }
+
+  /**
+   * La lecture des révocations des autres instances relit une marge avant la lecture précédente
+   */
+  @Test
+  void sync() {
+    Instant avant = Instant.now();
+    ParsedToken token = token("a@miage.fr", "jti-1", avant);
+    TokenRevocation autreInstance = TokenRevocation.builder()
+        .jti("jti-1").expiresAt(token.expiration()).createdAt(avant).build();
+    when(repository.findByCreatedAtGreaterThanEqual(any())).thenReturn(List.of(autreInstance));
+    revocationList.sync();
+    revocationList.sync();
+    ArgumentCaptor<Instant> since = ArgumentCaptor.forClass(Instant.class);
+    verify(repository, times(2)).findByCreatedAtGreaterThanEqual(since.capture());
+    // la deuxième lecture repart de la première, moins la marge
+    Instant apres = Instant.now();
+    for (Instant s : since.getAllValues()) {
+      assertFalse(s.isAfter(apres.minus(OVERLAP)));
+      assertFalse(s.isBefore(avant.minus(OVERLAP).minusSeconds(1)));
+    }
+    // appliquer deux fois la même révocation ne change rien
+    assertTrue(revocationList.isRevoked(token));
+  }
+
+  /**
+   * Les révocations dont tous les jetons ont expiré sont oubliées, en mémoire et en BD
+   */
+  @Test
+  void purge() {
+    Instant now = Instant.now();
+    ParsedToken expire = new ParsedToken("jti-1", "a@miage.fr", JwtService.ACCESS_TYPE, List.of(),
+        now.minusSeconds(7200), now.minusSeconds(1));
+    ParsedToken valide = token("a@miage.fr", "jti-2", now);
+    revocationList.revoke(expire);
+    revocationList.revoke(valide);
+    revocationList.purge();
+    verify(repository).deleteExpired(any());
+    assertFalse(revocationList.isRevoked(expire));
+    assertTrue(revocationList.isRevoked(valide));
+  }
+
+  /**
+   * Crée un jeton d'accès vérifié valide une heure
+   * @param email utilisateur
+   * @param id identifiant du jeton
+   * @param issuedAt date de création
+   * @return le jeton
+   */
+  static ParsedToken token(String email, String id, Instant issuedAt) {
+    return new ParsedToken(id, email, JwtService.ACCESS_TYPE, List.of("USER"), issuedAt,
+        issuedAt.plusMillis(EXPIRATION));
+  }
+}
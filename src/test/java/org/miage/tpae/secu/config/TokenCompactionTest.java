@@ -0,0 +1,94 @@
+package org.miage.tpae.secu.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.secu.token.TokenRepository;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Limit;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire de la suppression des jetons par lots
+ */
+class TokenCompactionTest {
+
+  // durée de conservation après expiration
+  private static final Duration RETENTION = Duration.ofDays(30);
+  // durée de validité des jetons d'accès
+  private static final long EXPIRATION = 3_600_000L;
+
+  // repo des jetons (mocké) : ids des jetons supprimables restants
+  TokenRepository tokenRepository;
+  List<Integer> purgeable;
+  // registre des métriques
+  SimpleMeterRegistry meterRegistry;
+  // suppression testée (lots de 2 jetons, sans pause)
+  TokenCompaction tokenCompaction;
+
+  /**
+   * Création de la suppression avec 5 jetons supprimables
+   */
+  @BeforeEach
+  void setUp() {
+    purgeable = new ArrayList<>(IntStream.rangeClosed(1, 5).boxed().toList());
+    tokenRepository = mock(TokenRepository.class);
+    when(tokenRepository.findIdsWithoutExpiration(any())).thenReturn(List.of());
+    when(tokenRepository.findPurgeableIds(any(), any())).thenAnswer(invocation ->
+        List.copyOf(purgeable.subList(0, Math.min(invocation.<Limit>getArgument(1).max(), purgeable.size()))));
+    doAnswer(invocation -> purgeable.removeAll(invocation.getArgument(0)))
+        .when(tokenRepository).deleteAllByIdInBatch(any());
+    JwtService jwtService = mock(JwtService.class);
+    when(jwtService.getJwtExpiration()).thenReturn(EXPIRATION);
+    meterRegistry = new SimpleMeterRegistry();
+    tokenCompaction = new TokenCompaction(tokenRepository, jwtService, meterRegistry, RETENTION, 2, Duration.ZERO);
+  }
+
+  /**
+   * Les jetons sont supprimés par lots jusqu'au dernier lot incomplet, et comptés
+   */
+  @Test
+  void purge() {
+    Instant avant = Instant.now();
+    assertEquals(5, tokenCompaction.purge());
+    assertTrue(purgeable.isEmpty());
+    // 3 lots : 2, 2 puis 1 jeton
+    verify(tokenRepository, times(3)).deleteAllByIdInBatch(any());
+    verify(tokenRepository).deleteAllByIdInBatch(List.of(5));
+    assertEquals(5, meterRegistry.counter("banque.jetons.supprimes").count());
+    // seuls les jetons expirés avant la période de conservation sont cherchés
+    ArgumentCaptor<Instant> expiredBefore = ArgumentCaptor.forClass(Instant.class);
+    verify(tokenRepository, times(3)).findPurgeableIds(expiredBefore.capture(), eq(Limit.of(2)));
+    Instant limite = expiredBefore.getValue();
+    assertFalse(limite.isBefore(avant.minus(RETENTION)));
+    assertFalse(limite.isAfter(Instant.now().minus(RETENTION)));
+    // rien de plus au passage suivant
+    assertEquals(0, tokenCompaction.purge());
+    assertEquals(5, meterRegistry.counter("banque.jetons.supprimes").count());
+  }
+
+  /**
+   * Les anciens jetons sans date d'expiration sont datés (au plus tard possible) avant la suppression
+   */
+  @Test
+  void anciensJetons() {
+    when(tokenRepository.findIdsWithoutExpiration(any())).thenReturn(List.of(10, 11), List.of(12), List.of());
+    Instant avant = Instant.now();
+    tokenCompaction.purge();
+    ArgumentCaptor<Instant> expiresAt = ArgumentCaptor.forClass(Instant.class);
+    verify(tokenRepository).setExpiresAt(eq(List.of(10, 11)), expiresAt.capture());
+    verify(tokenRepository).setExpiresAt(eq(List.of(12)), expiresAt.capture());
+    assertFalse(expiresAt.getValue().isBefore(avant.plusMillis(EXPIRATION)));
+    // un lot incomplet termine le datage
+    verify(tokenRepository, times(2)).findIdsWithoutExpiration(any());
+  }
+}
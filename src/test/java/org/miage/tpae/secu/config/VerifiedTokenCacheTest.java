@@ -0,0 +1,128 @@
+package org.miage.tpae.secu.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.miage.tpae.secu.token.Token;
+import org.miage.tpae.secu.token.TokenRepository;
+import org.miage.tpae.secu.user.Role;
+import org.miage.tpae.secu.user.User;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test unitaire du cache des jetons vérifiés (avec une horloge simulée pour l'expiration)
+ */
+class VerifiedTokenCacheTest {
+
+  // durée maximale de conservation d'un jeton
+  private static final Duration MAX_DURATION = Duration.ofMinutes(5);
+
+  // horloge simulée du cache (en ns)
+  AtomicLong now;
+  // registre des métriques
+  SimpleMeterRegistry meterRegistry;
+  // cache testé
+  VerifiedTokenCache cache;
+  // utilisateur des jetons
+  User user;
+
+  /**
+   * Création du cache
+   */
+  @BeforeEach
+  void setUp() {
+    now = new AtomicLong();
+    meterRegistry = new SimpleMeterRegistry();
+    cache = new VerifiedTokenCache(meterRegistry, 100, MAX_DURATION, now::get);
+    user = User.builder().email("cache@miage.fr").role(Role.USER).build();
+  }
+
+  /**
+   * Un jeton vérifié est retrouvé tant qu'il n'a pas expiré
+   */
+  @Test
+  void hit() {
+    assertNull(cache.get("jeton"));
+    cache.put("jeton", user, Instant.now().plus(Duration.ofHours(1)));
+    VerifiedTokenCache.VerifiedToken verified = cache.get("jeton");
+    assertNotNull(verified);
+    assertSame(user, verified.userDetails());
+    assertNull(cache.get("autre"));
+    assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "jwt").tag("result", "hit")
+        .functionCounter().count());
+  }
+
+  /**
+   * Un jeton valide une heure n'est pas gardé plus de la durée maximale
+   */
+  @Test
+  void expirationMaxDuration() {
+    cache.put("jeton", user, Instant.now().plus(Duration.ofHours(1)));
+    avancer(MAX_DURATION.minusSeconds(1));
+    assertNotNull(cache.get("jeton"));
+    avancer(Duration.ofSeconds(2));
+    assertNull(cache.get("jeton"));
+  }
+
+  /**
+   * Un jeton qui expire avant la durée maximale n'est gardé que jusqu'à son expiration
+   */
+  @Test
+  void expirationJeton() {
+    cache.put("jeton", user, Instant.now().plus(Duration.ofMinutes(1)));
+    avancer(Duration.ofMinutes(1).plusSeconds(1));
+    assertNull(cache.get("jeton"));
+    // un jeton déjà expiré n'est jamais servi
+    cache.put("expire", user, Instant.now().minusSeconds(1));
+    assertNull(cache.get("expire"));
+  }
+
+  /**
+   * La déconnexion retire le jeton du cache
+   */
+  @Test
+  void logout() {
+    TokenRepository tokenRepository = mock(TokenRepository.class);
+    when(tokenRepository.findByToken(any())).thenReturn(Optional.empty());
+    LogoutService logoutService = new LogoutService(tokenRepository, cache, mock(JwtService.class),
+        mock(RevocationList.class));
+    cache.put("jeton", user, Instant.now().plus(Duration.ofHours(1)));
+    cache.put("autre", user, Instant.now().plus(Duration.ofHours(1)));
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader("Authorization", "Bearer jeton");
+    logoutService.logout(request, new MockHttpServletResponse(), null);
+    assertNull(cache.get("jeton"));
+    assertNotNull(cache.get("autre"));
+  }
+
+  /**
+   * Un jeton révoqué dont on ne connaît que l'empreinte (nouvelle authentification) est retiré du cache
+   */
+  @Test
+  void invalidateHash() {
+    cache.put("jeton", user, Instant.now().plus(Duration.ofHours(1)));
+    cache.put("autre", user, Instant.now().plus(Duration.ofHours(1)));
+    cache.invalidateHash(Token.hash("jeton"));
+    assertNull(cache.get("jeton"));
+    assertNotNull(cache.get("autre"));
+  }
+
+  /**
+   * Fait avancer l'horloge du cache
+   * @param duree durée
+   */
+  void avancer(Duration duree) {
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(duree.toMillis()));
+  }
+}
@@ -0,0 +1,78 @@
+package org.miage.tpae.secu.token;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.data.domain.Limit;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe de test pour TokenRepository
+ *
+ * C'est un test d'intégration avec la BD H2 en mémoire
+ */
+@DataJpaTest
+class TokenRepositoryTest {
+
+  @Autowired
+  TokenRepository tokenRepository;
+
+  /**
+   * Seuls les jetons expirés avant la limite sont supprimables, par date d'expiration
+   */
+  @Test
+  void findPurgeableIds() {
+    Instant now = Instant.now();
+    Token recent = save("recent", now.minus(Duration.ofDays(1)));
+    Token ancien = save("ancien", now.minus(Duration.ofDays(40)));
+    Token tresAncien = save("tres-ancien", now.minus(Duration.ofDays(50)));
+    Token valide = save("valide", now.plus(Duration.ofHours(1)));
+    Token sansDate = save("sans-date", null);
+    List<Integer> ids = tokenRepository.findPurgeableIds(now.minus(Duration.ofDays(30)), Limit.of(10));
+    assertEquals(List.of(tresAncien.getId(), ancien.getId()), ids);
+    assertEquals(List.of(tresAncien.getId()),
+        tokenRepository.findPurgeableIds(now.minus(Duration.ofDays(30)), Limit.of(1)));
+    // les anciens jetons sans date d'expiration sont datés
+    assertEquals(List.of(sansDate.getId()), tokenRepository.findIdsWithoutExpiration(Limit.of(10)));
+    assertEquals(1, tokenRepository.setExpiresAt(List.of(sansDate.getId()), now.minus(Duration.ofDays(60))));
+    assertTrue(tokenRepository.findIdsWithoutExpiration(Limit.of(10)).isEmpty());
+    assertEquals(sansDate.getId(),
+        tokenRepository.findPurgeableIds(now.minus(Duration.ofDays(30)), Limit.of(10)).get(0));
+    assertFalse(tokenRepository.findPurgeableIds(now, Limit.of(10)).contains(valide.getId()));
+    assertTrue(tokenRepository.findPurgeableIds(now, Limit.of(10)).contains(recent.getId()));
+  }
+
+  /**
+   * Un jeton est retrouvé par son empreinte de 32 octets
+   */
+  @Test
+  void findByToken() {
+    Token token = save("eyJhbGciOiJIUzI1NiJ9.jeton.signature", Instant.now().plus(Duration.ofHours(1)));
+    assertEquals(32, token.getTokenHash().length);
+    assertEquals(token.getId(), tokenRepository.findByToken("eyJhbGciOiJIUzI1NiJ9.jeton.signature")
+        .orElseThrow().getId());
+    assertArrayEquals(Token.hash("eyJhbGciOiJIUzI1NiJ9.jeton.signature"),
+        tokenRepository.findByTokenHash(token.getTokenHash()).orElseThrow().getTokenHash());
+    assertTrue(tokenRepository.findByToken("eyJhbGciOiJIUzI1NiJ9.jeton.autre").isEmpty());
+  }
+
+  /**
+   * Sauve un jeton
+   * @param jwt le jeton
+   * @param expiresAt sa date d'expiration
+   * @return l'entité sauvée
+   */
+  Token save(String jwt, Instant expiresAt) {
+    return tokenRepository.save(Token.builder()
+        .tokenHash(Token.hash(jwt))
+        .tokenType(TokenType.BEARER)
+        .createdAt(Instant.now())
+        .expiresAt(expiresAt)
+        .build());
+  }
+}